@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2013-2017 Turo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.turo.pushy.apns;
+
+import com.turo.pushy.apns.auth.ApnsSigningKey;
+import com.turo.pushy.apns.util.ApnsPayloadBuilder;
+import com.turo.pushy.apns.util.SimpleApnsPushNotification;
+import io.netty.channel.nio.NioEventLoopGroup;
+import org.apache.commons.lang3.RandomStringUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.security.KeyPairGenerator;
+import java.security.SecureRandom;
+import java.security.interfaces.ECPrivateKey;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Measures how much memory the client allocates per notification once it has reached a steady state. These
+ * benchmarks are only meaningful when run with jmh's GC profiler:</p>
+ *
+ * <pre>java -jar target/benchmarks.jar ApnsClientAllocationBenchmark -prof gc</pre>
+ *
+ * <p>The {@code gc.alloc.rate.norm} result reports bytes allocated per notification. The pending notification
+ * lifecycle benchmark isolates the client's per-notification bookkeeping, and should allocate close to nothing; the
+ * send benchmark includes the HTTP/2 frames and buffers for each notification, as well as everything allocated by the
+ * in-process benchmark server, and so serves as an upper bound for the client's share.</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 10)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ApnsClientAllocationBenchmark {
+
+    private NioEventLoopGroup eventLoopGroup;
+
+    private ApnsClient client;
+    private ApnsClient unconnectedClient;
+    private BenchmarkApnsServer server;
+
+    private List<SimpleApnsPushNotification> pushNotifications;
+    private PushNotificationResponse<ApnsPushNotification> acceptedResponse;
+
+    private final NoopMetricsListener metricsListener = new NoopMetricsListener();
+
+    private final PushNotificationResponseListener<ApnsPushNotification> responseListener =
+            new PushNotificationResponseListener<ApnsPushNotification>() {
+
+                @Override
+                public void handleResponse(final PushNotificationResponse<ApnsPushNotification> response) {
+                }
+
+                @Override
+                public void handleFailure(final ApnsPushNotification pushNotification, final Throwable cause) {
+                }
+            };
+
+    private static final int NOTIFICATION_COUNT = 10000;
+
+    private static final String CA_CERTIFICATE_FILENAME = "/ca.pem";
+    private static final String SERVER_CERTIFICATES_FILENAME = "/server_certs.pem";
+    private static final String SERVER_KEY_FILENAME = "/server_key.pem";
+
+    private static final String TOPIC = "com.relayrides.pushy";
+    private static final String TEAM_ID = "benchmark.team";
+    private static final String KEY_ID = "benchmark.key";
+    private static final int TOKEN_LENGTH = 32;
+    private static final int MESSAGE_BODY_LENGTH = 256;
+
+    private static final String HOST = "localhost";
+    private static final int PORT = 8443;
+
+    @Setup
+    public void setUp() throws Exception {
+        this.eventLoopGroup = new NioEventLoopGroup(2);
+
+        final ApnsSigningKey signingKey;
+        {
+            final KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("EC");
+            final SecureRandom random = SecureRandom.getInstance("SHA1PRNG");
+
+            keyPairGenerator.initialize(256, random);
+
+            signingKey = new ApnsSigningKey(KEY_ID, TEAM_ID, (ECPrivateKey) keyPairGenerator.generateKeyPair().getPrivate());
+        }
+
+        this.client = new ApnsClientBuilder()
+                .setSigningKey(signingKey)
+                .setTrustedServerCertificateChain(ApnsClientAllocationBenchmark.class.getResourceAsStream(CA_CERTIFICATE_FILENAME))
+                .setEventLoopGroup(this.eventLoopGroup)
+                .build();
+
+        // The lifecycle benchmark resolves notifications the client never sent; it gets a client of its own so it
+        // doesn't disturb the pending notification count of the client that's actually sending notifications.
+        this.unconnectedClient = new ApnsClientBuilder()
+                .setSigningKey(signingKey)
+                .setTrustedServerCertificateChain(ApnsClientAllocationBenchmark.class.getResourceAsStream(CA_CERTIFICATE_FILENAME))
+                .setEventLoopGroup(this.eventLoopGroup)
+                .build();
+
+        this.server = new BenchmarkApnsServer(ApnsClientAllocationBenchmark.class.getResourceAsStream(SERVER_CERTIFICATES_FILENAME),
+                ApnsClientAllocationBenchmark.class.getResourceAsStream(SERVER_KEY_FILENAME),
+                this.eventLoopGroup);
+
+        final String token = generateRandomToken();
+
+        this.pushNotifications = new ArrayList<>(NOTIFICATION_COUNT);
+
+        final ApnsPayloadBuilder payloadBuilder = new ApnsPayloadBuilder();
+
+        for (int i = 0; i < NOTIFICATION_COUNT; i++) {
+            final String payload = payloadBuilder.setAlertBody(RandomStringUtils.randomAlphanumeric(MESSAGE_BODY_LENGTH))
+                    .buildWithDefaultMaximumLength();
+
+            this.pushNotifications.add(new SimpleApnsPushNotification(token, TOPIC, payload));
+        }
+
+        this.acceptedResponse = new SimplePushNotificationResponse<ApnsPushNotification>(this.pushNotifications.get(0), true, null, null);
+
+        this.server.start(PORT).await();
+        this.client.connect(HOST, PORT).await();
+    }
+
+    @Benchmark
+    public boolean testPendingPushNotificationLifecycle() {
+        final PendingPushNotification pendingPushNotification = PendingPushNotification.newInstance(this.unconnectedClient,
+                this.metricsListener, this.acceptedResponse.getPushNotification(), 0, this.responseListener, null);
+
+        return pendingPushNotification.trySuccess(this.acceptedResponse);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NOTIFICATION_COUNT)
+    public long testSendNotifications() throws InterruptedException {
+        for (final SimpleApnsPushNotification notification : this.pushNotifications) {
+            this.client.sendNotification(notification, this.responseListener);
+        }
+
+        this.client.drain().await();
+        return this.client.getPendingNotificationCount();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        this.client.disconnect().await();
+        this.server.shutdown().await();
+
+        this.eventLoopGroup.shutdownGracefully().await();
+    }
+
+    private static String generateRandomToken() {
+        final byte[] tokenBytes = new byte[TOKEN_LENGTH];
+        new Random().nextBytes(tokenBytes);
+
+        final StringBuilder builder = new StringBuilder(TOKEN_LENGTH * 2);
+
+        for (final byte b : tokenBytes) {
+            builder.append(String.format("%02x", b));
+        }
+
+        return builder.toString();
+    }
+}
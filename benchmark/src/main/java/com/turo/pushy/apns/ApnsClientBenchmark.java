@@ -38,6 +38,9 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 @State(Scope.Thread)
 public class ApnsClientBenchmark {
@@ -49,6 +52,8 @@ public class ApnsClientBenchmark {
 
     private List<SimpleApnsPushNotification> pushNotifications;
 
+    private ExecutorService blockingSenderExecutor;
+
     @Param({"10000"})
     public int notificationCount;
 
@@ -65,6 +70,8 @@ public class ApnsClientBenchmark {
     private static final String HOST = "localhost";
     private static final int PORT = 8443;
 
+    private static final int BLOCKING_SENDER_THREAD_COUNT = 1000;
+
     @Setup
     public void setUp() throws Exception {
         this.eventLoopGroup = new NioEventLoopGroup(2);
@@ -104,6 +111,8 @@ public class ApnsClientBenchmark {
 
         this.server.start(PORT).await();
         this.client.connect(HOST, PORT).await();
+
+        this.blockingSenderExecutor = Executors.newFixedThreadPool(BLOCKING_SENDER_THREAD_COUNT);
     }
 
     @Benchmark
@@ -130,8 +139,67 @@ public class ApnsClientBenchmark {
         return countDownLatch.getCount();
     }
 
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Threads(1)
+    @Measurement(iterations = 20, batchSize = 1)
+    @Warmup(iterations = 20, batchSize = 1)
+    public long testSendNotificationsAndDrain() throws InterruptedException {
+        final PushNotificationResponseListener<SimpleApnsPushNotification> responseListener =
+                new PushNotificationResponseListener<SimpleApnsPushNotification>() {
+
+                    @Override
+                    public void handleResponse(final PushNotificationResponse<SimpleApnsPushNotification> response) {
+                    }
+
+                    @Override
+                    public void handleFailure(final SimpleApnsPushNotification pushNotification, final Throwable cause) {
+                    }
+                };
+
+        for (final SimpleApnsPushNotification notification : this.pushNotifications) {
+            this.client.sendNotification(notification, responseListener);
+        }
+
+        this.client.drain().await();
+        return this.client.getPendingNotificationCount();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Threads(1)
+    @Measurement(iterations = 20, batchSize = 1)
+    @Warmup(iterations = 20, batchSize = 1)
+    public long testSendNotificationsAndWait() throws InterruptedException {
+        // Each notification gets its own blocked sender, as it would in a thread-per-request server. We're limited to
+        // platform threads here, so we use a large pool of them instead of a thread per notification.
+        final CountDownLatch countDownLatch = new CountDownLatch(this.pushNotifications.size());
+
+        for (final SimpleApnsPushNotification notification : this.pushNotifications) {
+            this.blockingSenderExecutor.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        ApnsClientBenchmark.this.client.sendNotificationAndWait(notification);
+                    } catch (final InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } catch (final ExecutionException e) {
+                        // A failed notification has still been resolved; the benchmark only needs to know it's done.
+                    } finally {
+                        countDownLatch.countDown();
+                    }
+                }
+            });
+        }
+
+        countDownLatch.await();
+        return countDownLatch.getCount();
+    }
+
     @TearDown
     public void tearDown() throws Exception {
+        this.blockingSenderExecutor.shutdown();
         this.client.disconnect().await();
         this.server.shutdown().await();
 
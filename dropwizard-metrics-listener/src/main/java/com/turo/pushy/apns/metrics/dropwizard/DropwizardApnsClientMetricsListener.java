@@ -24,7 +24,9 @@ package com.turo.pushy.apns.metrics.dropwizard;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
+import com.codahale.metrics.Counter;
 import com.codahale.metrics.Gauge;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.Metric;
@@ -33,6 +35,8 @@ import com.codahale.metrics.MetricSet;
 import com.codahale.metrics.Timer;
 import com.turo.pushy.apns.ApnsClient;
 import com.turo.pushy.apns.ApnsClientMetricsListener;
+import com.turo.pushy.apns.CircuitBreakerState;
+import com.turo.pushy.apns.DeliveryPriority;
 
 /**
  * <p>An {@link ApnsClientMetricsListener} implementation that gathers and reports metrics
@@ -66,6 +70,30 @@ import com.turo.pushy.apns.ApnsClientMetricsListener;
  *  <dd>A {@link com.codahale.metrics.Meter} that measures the number and rate of notifications rejected by the APNs
  *  server.</dd>
  *
+ *  <dt>{@value DropwizardApnsClientMetricsListener#EXPIRED_NOTIFICATIONS_METER_NAME}</dt>
+ *  <dd>A {@link com.codahale.metrics.Meter} that measures the number and rate of notifications dropped because they
+ *  expired before they could be sent.</dd>
+ *
+ *  <dt>{@value DropwizardApnsClientMetricsListener#COALESCED_NOTIFICATIONS_METER_NAME}</dt>
+ *  <dd>A {@link com.codahale.metrics.Meter} that measures the number and rate of notifications dropped because a newer
+ *  notification with the same collapse ID replaced them before they could be sent.</dd>
+ *
+ *  <dt>{@value DropwizardApnsClientMetricsListener#RETRIED_NOTIFICATIONS_METER_NAME}</dt>
+ *  <dd>A {@link com.codahale.metrics.Meter} that measures the number and rate of retries of notifications that failed
+ *  for transient reasons.</dd>
+ *
+ *  <dt>{@value DropwizardApnsClientMetricsListener#CIRCUIT_BREAKER_STATE_GAUGE_NAME}</dt>
+ *  <dd>A {@link com.codahale.metrics.Gauge} that indicates the current state of the monitored client's circuit
+ *  breaker.</dd>
+ *
+ *  <dt>{@value DropwizardApnsClientMetricsListener#REPLAYED_NOTIFICATIONS_METER_NAME}</dt>
+ *  <dd>A {@link com.codahale.metrics.Meter} that measures the number and rate of notifications sent again after their
+ *  connection closed before the server replied.</dd>
+ *
+ *  <dt>{@value DropwizardApnsClientMetricsListener#SHED_NOTIFICATIONS_METER_NAME}</dt>
+ *  <dd>A {@link com.codahale.metrics.Meter} that measures the number and rate of notifications shed because the
+ *  client was overloaded.</dd>
+ *
  *  <dt>{@value DropwizardApnsClientMetricsListener#CONNECTION_GAUGE_NAME}</dt>
  *  <dd>A {@link com.codahale.metrics.Gauge} that indicates whether the monitored client is currently connected to the
  *  APNs server.</dd>
@@ -77,6 +105,34 @@ import com.turo.pushy.apns.ApnsClientMetricsListener;
  *  <dt>{@value DropwizardApnsClientMetricsListener#CONNECTION_FAILURES_METER_NAME}</dt>
  *  <dd>A {@link com.codahale.metrics.Meter} that measures the number and rate of failed attempts to connect to the APNs
  *  server.</dd>
+ *
+ *  <dt>{@value DropwizardApnsClientMetricsListener#RECONNECTION_DELAY_TIMER_NAME}</dt>
+ *  <dd>A {@link com.codahale.metrics.Timer} that measures the number of automatic reconnection attempts the monitored
+ *  client has scheduled and how long it waited before each one.</dd>
+ *
+ *  <dt>{@value DropwizardApnsClientMetricsListener#WRITABILITY_GAUGE_NAME}</dt>
+ *  <dd>A {@link com.codahale.metrics.Gauge} that indicates whether the monitored client's connection is currently
+ *  writable (i.e. whether its outbound buffer is below its high water mark).</dd>
+ *
+ *  <dt>{@value DropwizardApnsClientMetricsListener#CALLBACK_QUEUE_LAG_TIMER_NAME}</dt>
+ *  <dd>A {@link com.codahale.metrics.Timer} that measures how long responses wait to be delivered to listeners by the
+ *  monitored client's callback executor, if it has one.</dd>
+ *
+ *  <dt>{@value DropwizardApnsClientMetricsListener#IMMEDIATE_QUEUE_DEPTH_COUNTER_NAME}</dt>
+ *  <dd>A {@link com.codahale.metrics.Counter} that indicates the number of immediate-priority notifications waiting
+ *  for a stream because the monitored client has opened as many concurrent streams as the APNs server allows.</dd>
+ *
+ *  <dt>{@value DropwizardApnsClientMetricsListener#IMMEDIATE_QUEUE_WAIT_TIMER_NAME}</dt>
+ *  <dd>A {@link com.codahale.metrics.Timer} that measures how long immediate-priority notifications wait for a
+ *  stream.</dd>
+ *
+ *  <dt>{@value DropwizardApnsClientMetricsListener#CONSERVE_POWER_QUEUE_DEPTH_COUNTER_NAME}</dt>
+ *  <dd>A {@link com.codahale.metrics.Counter} that indicates the number of conserve-power-priority notifications
+ *  waiting for a stream.</dd>
+ *
+ *  <dt>{@value DropwizardApnsClientMetricsListener#CONSERVE_POWER_QUEUE_WAIT_TIMER_NAME}</dt>
+ *  <dd>A {@link com.codahale.metrics.Timer} that measures how long conserve-power-priority notifications wait for a
+ *  stream.</dd>
  * </dl>
  *
  * @author <a href="https://github.com/jchambers">Jon Chambers</a>
@@ -92,12 +148,30 @@ public class DropwizardApnsClientMetricsListener implements ApnsClientMetricsLis
     private final Meter sentNotifications;
     private final Meter acceptedNotifications;
     private final Meter rejectedNotifications;
+    private final Meter expiredNotifications;
+    private final Meter coalescedNotifications;
+    private final Meter retriedNotifications;
+
+    private CircuitBreakerState circuitBreakerState = CircuitBreakerState.CLOSED;
+
+    private final Meter replayedNotifications;
+    private final Meter shedNotifications;
 
     private boolean connected;
     private final Timer connectionTimer;
     private Timer.Context connectionTimerContext;
 
     private final Meter connectionFailures;
+    private final Timer reconnectionDelayTimer;
+
+    private boolean writable = true;
+
+    private final Timer callbackQueueLagTimer;
+
+    private final Counter immediateQueueDepthCounter;
+    private final Timer immediateQueueWaitTimer;
+    private final Counter conservePowerQueueDepthCounter;
+    private final Timer conservePowerQueueWaitTimer;
 
     /**
      * The name of a {@link com.codahale.metrics.Timer} that measures round-trip time when sending notifications.
@@ -134,6 +208,51 @@ public class DropwizardApnsClientMetricsListener implements ApnsClientMetricsLis
      */
     public static final String REJECTED_NOTIFICATIONS_METER_NAME = "rejectedNotifications";
 
+    /**
+     * The name of a {@link com.codahale.metrics.Meter} that measures notifications dropped because they expired before
+     * they could be sent.
+     *
+     * @see DropwizardApnsClientMetricsListener#getMetrics()
+     */
+    public static final String EXPIRED_NOTIFICATIONS_METER_NAME = "expiredNotifications";
+
+    /**
+     * The name of a {@link com.codahale.metrics.Meter} that measures notifications replaced by newer notifications with
+     * the same collapse ID before they could be sent.
+     *
+     * @see DropwizardApnsClientMetricsListener#getMetrics()
+     */
+    public static final String COALESCED_NOTIFICATIONS_METER_NAME = "coalescedNotifications";
+
+    /**
+     * The name of a {@link com.codahale.metrics.Meter} that measures retries of notifications that failed for transient
+     * reasons.
+     *
+     * @see DropwizardApnsClientMetricsListener#getMetrics()
+     */
+    public static final String RETRIED_NOTIFICATIONS_METER_NAME = "retriedNotifications";
+
+    /**
+     * The name of a {@link com.codahale.metrics.Gauge} that indicates the state of a client's circuit breaker.
+     *
+     * @see DropwizardApnsClientMetricsListener#getMetrics()
+     */
+    public static final String CIRCUIT_BREAKER_STATE_GAUGE_NAME = "circuitBreakerState";
+
+    /**
+     * The name of a {@link com.codahale.metrics.Meter} that measures notifications replayed after connection closure.
+     *
+     * @see DropwizardApnsClientMetricsListener#getMetrics()
+     */
+    public static final String REPLAYED_NOTIFICATIONS_METER_NAME = "replayedNotifications";
+
+    /**
+     * The name of a {@link com.codahale.metrics.Meter} that measures notifications shed by an overloaded client.
+     *
+     * @see DropwizardApnsClientMetricsListener#getMetrics()
+     */
+    public static final String SHED_NOTIFICATIONS_METER_NAME = "shedNotifications";
+
     /**
      * The name of a {@link com.codahale.metrics.Gauge} that indicates whether a client is connected to the APNs server.
      *
@@ -155,6 +274,60 @@ public class DropwizardApnsClientMetricsListener implements ApnsClientMetricsLis
      */
     public static final String CONNECTION_FAILURES_METER_NAME = "connectionFailures";
 
+    /**
+     * The name of a {@link com.codahale.metrics.Timer} that measures delays before automatic reconnection attempts.
+     *
+     * @see DropwizardApnsClientMetricsListener#getMetrics()
+     */
+    public static final String RECONNECTION_DELAY_TIMER_NAME = "reconnectionDelay";
+
+    /**
+     * The name of a {@link com.codahale.metrics.Gauge} that indicates whether a client's connection is writable.
+     *
+     * @see DropwizardApnsClientMetricsListener#getMetrics()
+     */
+    public static final String WRITABILITY_GAUGE_NAME = "writable";
+
+    /**
+     * The name of a {@link com.codahale.metrics.Timer} that measures how long responses wait in a client's callback
+     * queue.
+     *
+     * @see DropwizardApnsClientMetricsListener#getMetrics()
+     */
+    public static final String CALLBACK_QUEUE_LAG_TIMER_NAME = "callbackQueueLag";
+
+    /**
+     * The name of a {@link com.codahale.metrics.Counter} that indicates how many immediate-priority notifications are
+     * waiting for a stream.
+     *
+     * @see DropwizardApnsClientMetricsListener#getMetrics()
+     */
+    public static final String IMMEDIATE_QUEUE_DEPTH_COUNTER_NAME = "immediateQueueDepth";
+
+    /**
+     * The name of a {@link com.codahale.metrics.Timer} that measures how long immediate-priority notifications wait
+     * for a stream.
+     *
+     * @see DropwizardApnsClientMetricsListener#getMetrics()
+     */
+    public static final String IMMEDIATE_QUEUE_WAIT_TIMER_NAME = "immediateQueueWait";
+
+    /**
+     * The name of a {@link com.codahale.metrics.Counter} that indicates how many conserve-power-priority notifications
+     * are waiting for a stream.
+     *
+     * @see DropwizardApnsClientMetricsListener#getMetrics()
+     */
+    public static final String CONSERVE_POWER_QUEUE_DEPTH_COUNTER_NAME = "conservePowerQueueDepth";
+
+    /**
+     * The name of a {@link com.codahale.metrics.Timer} that measures how long conserve-power-priority notifications
+     * wait for a stream.
+     *
+     * @see DropwizardApnsClientMetricsListener#getMetrics()
+     */
+    public static final String CONSERVE_POWER_QUEUE_WAIT_TIMER_NAME = "conservePowerQueueWait";
+
     /**
      * Constructs a new {@code ApnsClientMetricsListener} that gathers metrics with the Dropwizard Metrics library.
      */
@@ -168,6 +341,20 @@ public class DropwizardApnsClientMetricsListener implements ApnsClientMetricsLis
         this.sentNotifications = this.metrics.meter(SENT_NOTIFICATIONS_METER_NAME);
         this.acceptedNotifications = this.metrics.meter(ACCEPTED_NOTIFICATIONS_METER_NAME);
         this.rejectedNotifications = this.metrics.meter(REJECTED_NOTIFICATIONS_METER_NAME);
+        this.expiredNotifications = this.metrics.meter(EXPIRED_NOTIFICATIONS_METER_NAME);
+        this.coalescedNotifications = this.metrics.meter(COALESCED_NOTIFICATIONS_METER_NAME);
+        this.retriedNotifications = this.metrics.meter(RETRIED_NOTIFICATIONS_METER_NAME);
+
+        this.metrics.register(CIRCUIT_BREAKER_STATE_GAUGE_NAME, new Gauge<CircuitBreakerState>() {
+
+            @Override
+            public CircuitBreakerState getValue() {
+                return DropwizardApnsClientMetricsListener.this.circuitBreakerState;
+            }
+        });
+
+        this.replayedNotifications = this.metrics.meter(REPLAYED_NOTIFICATIONS_METER_NAME);
+        this.shedNotifications = this.metrics.meter(SHED_NOTIFICATIONS_METER_NAME);
 
         this.metrics.register(CONNECTION_GAUGE_NAME, new Gauge<Boolean>() {
 
@@ -179,6 +366,22 @@ public class DropwizardApnsClientMetricsListener implements ApnsClientMetricsLis
 
         this.connectionTimer = this.metrics.timer(CONNECTION_TIMER_NAME);
         this.connectionFailures = this.metrics.meter(CONNECTION_FAILURES_METER_NAME);
+        this.reconnectionDelayTimer = this.metrics.timer(RECONNECTION_DELAY_TIMER_NAME);
+
+        this.metrics.register(WRITABILITY_GAUGE_NAME, new Gauge<Boolean>() {
+
+            @Override
+            public Boolean getValue() {
+                return DropwizardApnsClientMetricsListener.this.writable;
+            }
+        });
+
+        this.callbackQueueLagTimer = this.metrics.timer(CALLBACK_QUEUE_LAG_TIMER_NAME);
+
+        this.immediateQueueDepthCounter = this.metrics.counter(IMMEDIATE_QUEUE_DEPTH_COUNTER_NAME);
+        this.immediateQueueWaitTimer = this.metrics.timer(IMMEDIATE_QUEUE_WAIT_TIMER_NAME);
+        this.conservePowerQueueDepthCounter = this.metrics.counter(CONSERVE_POWER_QUEUE_DEPTH_COUNTER_NAME);
+        this.conservePowerQueueWaitTimer = this.metrics.timer(CONSERVE_POWER_QUEUE_WAIT_TIMER_NAME);
     }
 
     /**
@@ -233,6 +436,81 @@ public class DropwizardApnsClientMetricsListener implements ApnsClientMetricsLis
         this.rejectedNotifications.mark();
     }
 
+    /**
+     * Records that a notification expired before it could be sent and updates metrics accordingly.
+     *
+     * @param apnsClient the client that dropped the expired notification; note that this is ignored by
+     * {@code DropwizardApnsClientMetricsListener} instances, which should always be used for exactly one client
+     * @param notificationId an opaque, unique identifier for the notification that expired
+     */
+    @Override
+    public void handleNotificationExpired(final ApnsClient apnsClient, final long notificationId) {
+        // Notifications may expire while waiting to be retried after having been sent once.
+        this.stopTimerForNotification(notificationId);
+        this.expiredNotifications.mark();
+    }
+
+    /**
+     * Records that a notification was replaced by a newer notification before it could be sent and updates metrics
+     * accordingly.
+     *
+     * @param apnsClient the client that dropped the replaced notification; note that this is ignored by
+     * {@code DropwizardApnsClientMetricsListener} instances, which should always be used for exactly one client
+     * @param notificationId an opaque, unique identifier for the notification that was replaced
+     */
+    @Override
+    public void handleNotificationCoalesced(final ApnsClient apnsClient, final long notificationId) {
+        this.coalescedNotifications.mark();
+    }
+
+    /**
+     * Records that a notification will be retried after a transient failure and updates metrics accordingly.
+     *
+     * @param apnsClient the client that will retry the notification; note that this is ignored by
+     * {@code DropwizardApnsClientMetricsListener} instances, which should always be used for exactly one client
+     * @param notificationId an opaque, unique identifier for the notification that will be retried
+     */
+    @Override
+    public void handleNotificationRetried(final ApnsClient apnsClient, final long notificationId) {
+        this.retriedNotifications.mark();
+    }
+
+    /**
+     * Records that a client's circuit breaker changed state and updates metrics accordingly.
+     *
+     * @param apnsClient the client whose circuit breaker changed state; note that this is ignored by
+     * {@code DropwizardApnsClientMetricsListener} instances, which should always be used for exactly one client
+     * @param state the new state of the client's circuit breaker
+     */
+    @Override
+    public void handleCircuitBreakerStateChanged(final ApnsClient apnsClient, final CircuitBreakerState state) {
+        this.circuitBreakerState = state;
+    }
+
+    /**
+     * Records that a notification lost to a closed connection was sent again and updates metrics accordingly.
+     *
+     * @param apnsClient the client that replayed the notification; note that this is ignored by
+     * {@code DropwizardApnsClientMetricsListener} instances, which should always be used for exactly one client
+     * @param notificationId an opaque, unique identifier for the notification that was replayed
+     */
+    @Override
+    public void handleNotificationReplayed(final ApnsClient apnsClient, final long notificationId) {
+        this.replayedNotifications.mark();
+    }
+
+    /**
+     * Records that a notification was shed because the client was overloaded and updates metrics accordingly.
+     *
+     * @param apnsClient the client that shed the notification; note that this is ignored by
+     * {@code DropwizardApnsClientMetricsListener} instances, which should always be used for exactly one client
+     * @param notificationId an opaque, unique identifier for the notification that was shed
+     */
+    @Override
+    public void handleNotificationShed(final ApnsClient apnsClient, final long notificationId) {
+        this.shedNotifications.mark();
+    }
+
     private void stopTimerForNotification(final long notificationId) {
         final Timer.Context timerContext = this.notificationTimerContexts.remove(notificationId);
 
@@ -279,6 +557,78 @@ public class DropwizardApnsClientMetricsListener implements ApnsClientMetricsLis
         this.connected = false;
     }
 
+    /**
+     * Records that the client scheduled an automatic reconnection attempt and updates metrics accordingly.
+     *
+     * @param apnsClient the client that scheduled the reconnection attempt; note that this is ignored by
+     * {@code DropwizardApnsClientMetricsListener} instances, which should always be used for exactly one client
+     * @param delayNanos the time, in nanoseconds, the client will wait before attempting to reconnect
+     */
+    @Override
+    public void handleReconnectionScheduled(final ApnsClient apnsClient, final long delayNanos) {
+        this.reconnectionDelayTimer.update(delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Records that the writability of a client's connection changed and updates metrics accordingly.
+     *
+     * @param apnsClient the client whose connection changed writability; note that this is ignored by
+     * {@code DropwizardApnsClientMetricsListener} instances, which should always be used for exactly one client
+     * @param writable {@code true} if the client's connection is now writable or {@code false} otherwise
+     */
+    @Override
+    public void handleWritabilityChanged(final ApnsClient apnsClient, final boolean writable) {
+        this.writable = writable;
+    }
+
+    /**
+     * Records the time a response waited to be delivered by a client's callback executor and updates metrics
+     * accordingly.
+     *
+     * @param apnsClient the client that delivered the response; note that this is ignored by
+     * {@code DropwizardApnsClientMetricsListener} instances, which should always be used for exactly one client
+     * @param lagNanos the time, in nanoseconds, the response waited to be delivered
+     */
+    @Override
+    public void handleCallbackQueueLag(final ApnsClient apnsClient, final long lagNanos) {
+        this.callbackQueueLagTimer.update(lagNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Records that a notification started waiting for a stream and updates metrics accordingly.
+     *
+     * @param apnsClient the client that queued the notification; note that this is ignored by
+     * {@code DropwizardApnsClientMetricsListener} instances, which should always be used for exactly one client
+     * @param lane the delivery priority lane in which the notification is waiting
+     */
+    @Override
+    public void handleNotificationQueued(final ApnsClient apnsClient, final DeliveryPriority lane) {
+        if (lane == DeliveryPriority.CONSERVE_POWER) {
+            this.conservePowerQueueDepthCounter.inc();
+        } else {
+            this.immediateQueueDepthCounter.inc();
+        }
+    }
+
+    /**
+     * Records that a notification stopped waiting for a stream and updates metrics accordingly.
+     *
+     * @param apnsClient the client that had queued the notification; note that this is ignored by
+     * {@code DropwizardApnsClientMetricsListener} instances, which should always be used for exactly one client
+     * @param lane the delivery priority lane in which the notification was waiting
+     * @param waitNanos the time, in nanoseconds, the notification spent waiting
+     */
+    @Override
+    public void handleNotificationDequeued(final ApnsClient apnsClient, final DeliveryPriority lane, final long waitNanos) {
+        if (lane == DeliveryPriority.CONSERVE_POWER) {
+            this.conservePowerQueueDepthCounter.dec();
+            this.conservePowerQueueWaitTimer.update(waitNanos, TimeUnit.NANOSECONDS);
+        } else {
+            this.immediateQueueDepthCounter.dec();
+            this.immediateQueueWaitTimer.update(waitNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
     private void stopConnectionTimer() {
         if (this.connectionTimerContext != null) {
             this.connectionTimerContext.stop();
@@ -295,9 +645,22 @@ public class DropwizardApnsClientMetricsListener implements ApnsClientMetricsLis
      * @see DropwizardApnsClientMetricsListener#SENT_NOTIFICATIONS_METER_NAME
      * @see DropwizardApnsClientMetricsListener#ACCEPTED_NOTIFICATIONS_METER_NAME
      * @see DropwizardApnsClientMetricsListener#REJECTED_NOTIFICATIONS_METER_NAME
+     * @see DropwizardApnsClientMetricsListener#EXPIRED_NOTIFICATIONS_METER_NAME
+     * @see DropwizardApnsClientMetricsListener#COALESCED_NOTIFICATIONS_METER_NAME
+     * @see DropwizardApnsClientMetricsListener#RETRIED_NOTIFICATIONS_METER_NAME
+     * @see DropwizardApnsClientMetricsListener#CIRCUIT_BREAKER_STATE_GAUGE_NAME
+     * @see DropwizardApnsClientMetricsListener#REPLAYED_NOTIFICATIONS_METER_NAME
+     * @see DropwizardApnsClientMetricsListener#SHED_NOTIFICATIONS_METER_NAME
      * @see DropwizardApnsClientMetricsListener#CONNECTION_GAUGE_NAME
      * @see DropwizardApnsClientMetricsListener#CONNECTION_TIMER_NAME
      * @see DropwizardApnsClientMetricsListener#CONNECTION_FAILURES_METER_NAME
+     * @see DropwizardApnsClientMetricsListener#RECONNECTION_DELAY_TIMER_NAME
+     * @see DropwizardApnsClientMetricsListener#WRITABILITY_GAUGE_NAME
+     * @see DropwizardApnsClientMetricsListener#CALLBACK_QUEUE_LAG_TIMER_NAME
+     * @see DropwizardApnsClientMetricsListener#IMMEDIATE_QUEUE_DEPTH_COUNTER_NAME
+     * @see DropwizardApnsClientMetricsListener#IMMEDIATE_QUEUE_WAIT_TIMER_NAME
+     * @see DropwizardApnsClientMetricsListener#CONSERVE_POWER_QUEUE_DEPTH_COUNTER_NAME
+     * @see DropwizardApnsClientMetricsListener#CONSERVE_POWER_QUEUE_WAIT_TIMER_NAME
      */
     @Override
     public Map<String, Metric> getMetrics() {
@@ -25,14 +25,18 @@ package com.turo.pushy.apns.metrics.dropwizard;
 import static org.junit.Assert.*;
 
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Before;
 import org.junit.Test;
 
+import com.codahale.metrics.Counter;
 import com.codahale.metrics.Gauge;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.Metric;
 import com.codahale.metrics.Timer;
+import com.turo.pushy.apns.CircuitBreakerState;
+import com.turo.pushy.apns.DeliveryPriority;
 
 public class DropwizardApnsClientMetricsListenerTest {
 
@@ -79,6 +83,64 @@ public class DropwizardApnsClientMetricsListenerTest {
         assertEquals(1, rejectedNotifications.getCount());
     }
 
+    @Test
+    public void testHandleNotificationExpired() {
+        final Meter expiredNotifications = (Meter) this.listener.getMetrics().get(DropwizardApnsClientMetricsListener.EXPIRED_NOTIFICATIONS_METER_NAME);
+        assertEquals(0, expiredNotifications.getCount());
+
+        this.listener.handleNotificationExpired(null, 1);
+        assertEquals(1, expiredNotifications.getCount());
+    }
+
+    @Test
+    public void testHandleNotificationCoalesced() {
+        final Meter coalescedNotifications = (Meter) this.listener.getMetrics().get(DropwizardApnsClientMetricsListener.COALESCED_NOTIFICATIONS_METER_NAME);
+        assertEquals(0, coalescedNotifications.getCount());
+
+        this.listener.handleNotificationCoalesced(null, 1);
+        assertEquals(1, coalescedNotifications.getCount());
+    }
+
+    @Test
+    public void testHandleNotificationRetried() {
+        final Meter retriedNotifications = (Meter) this.listener.getMetrics().get(DropwizardApnsClientMetricsListener.RETRIED_NOTIFICATIONS_METER_NAME);
+        assertEquals(0, retriedNotifications.getCount());
+
+        this.listener.handleNotificationRetried(null, 1);
+        assertEquals(1, retriedNotifications.getCount());
+    }
+
+    @Test
+    public void testHandleCircuitBreakerStateChanged() {
+        @SuppressWarnings("unchecked")
+        final Gauge<CircuitBreakerState> circuitBreakerStateGauge = (Gauge<CircuitBreakerState>) this.listener.getMetrics().get(DropwizardApnsClientMetricsListener.CIRCUIT_BREAKER_STATE_GAUGE_NAME);
+        assertEquals(CircuitBreakerState.CLOSED, circuitBreakerStateGauge.getValue());
+
+        this.listener.handleCircuitBreakerStateChanged(null, CircuitBreakerState.OPEN);
+        assertEquals(CircuitBreakerState.OPEN, circuitBreakerStateGauge.getValue());
+
+        this.listener.handleCircuitBreakerStateChanged(null, CircuitBreakerState.HALF_OPEN);
+        assertEquals(CircuitBreakerState.HALF_OPEN, circuitBreakerStateGauge.getValue());
+    }
+
+    @Test
+    public void testHandleNotificationReplayed() {
+        final Meter replayedNotifications = (Meter) this.listener.getMetrics().get(DropwizardApnsClientMetricsListener.REPLAYED_NOTIFICATIONS_METER_NAME);
+        assertEquals(0, replayedNotifications.getCount());
+
+        this.listener.handleNotificationReplayed(null, 1);
+        assertEquals(1, replayedNotifications.getCount());
+    }
+
+    @Test
+    public void testHandleNotificationShed() {
+        final Meter shedNotifications = (Meter) this.listener.getMetrics().get(DropwizardApnsClientMetricsListener.SHED_NOTIFICATIONS_METER_NAME);
+        assertEquals(0, shedNotifications.getCount());
+
+        this.listener.handleNotificationShed(null, 1);
+        assertEquals(1, shedNotifications.getCount());
+    }
+
     @Test
     public void testHandleConnectionAttemptStarted() {
         @SuppressWarnings("unchecked")
@@ -124,6 +186,59 @@ public class DropwizardApnsClientMetricsListenerTest {
         assertEquals(1, connectionTimer.getCount());
     }
 
+    @Test
+    public void testHandleReconnectionScheduled() {
+        final Timer reconnectionDelayTimer = (Timer) this.listener.getMetrics().get(DropwizardApnsClientMetricsListener.RECONNECTION_DELAY_TIMER_NAME);
+        assertEquals(0, reconnectionDelayTimer.getCount());
+
+        this.listener.handleReconnectionScheduled(null, TimeUnit.SECONDS.toNanos(1));
+        assertEquals(1, reconnectionDelayTimer.getCount());
+    }
+
+    @Test
+    public void testHandleWritabilityChanged() {
+        @SuppressWarnings("unchecked")
+        final Gauge<Boolean> writabilityGauge = (Gauge<Boolean>) this.listener.getMetrics().get(DropwizardApnsClientMetricsListener.WRITABILITY_GAUGE_NAME);
+        assertTrue(writabilityGauge.getValue());
+
+        this.listener.handleWritabilityChanged(null, false);
+        assertFalse(writabilityGauge.getValue());
+
+        this.listener.handleWritabilityChanged(null, true);
+        assertTrue(writabilityGauge.getValue());
+    }
+
+    @Test
+    public void testHandleCallbackQueueLag() {
+        final Timer callbackQueueLagTimer = (Timer) this.listener.getMetrics().get(DropwizardApnsClientMetricsListener.CALLBACK_QUEUE_LAG_TIMER_NAME);
+        assertEquals(0, callbackQueueLagTimer.getCount());
+
+        this.listener.handleCallbackQueueLag(null, 1000);
+        assertEquals(1, callbackQueueLagTimer.getCount());
+    }
+
+    @Test
+    public void testHandleNotificationQueuedAndDequeued() {
+        final Counter immediateQueueDepthCounter = (Counter) this.listener.getMetrics().get(DropwizardApnsClientMetricsListener.IMMEDIATE_QUEUE_DEPTH_COUNTER_NAME);
+        final Timer immediateQueueWaitTimer = (Timer) this.listener.getMetrics().get(DropwizardApnsClientMetricsListener.IMMEDIATE_QUEUE_WAIT_TIMER_NAME);
+        final Counter conservePowerQueueDepthCounter = (Counter) this.listener.getMetrics().get(DropwizardApnsClientMetricsListener.CONSERVE_POWER_QUEUE_DEPTH_COUNTER_NAME);
+        final Timer conservePowerQueueWaitTimer = (Timer) this.listener.getMetrics().get(DropwizardApnsClientMetricsListener.CONSERVE_POWER_QUEUE_WAIT_TIMER_NAME);
+
+        this.listener.handleNotificationQueued(null, DeliveryPriority.IMMEDIATE);
+        this.listener.handleNotificationQueued(null, DeliveryPriority.CONSERVE_POWER);
+        this.listener.handleNotificationQueued(null, DeliveryPriority.CONSERVE_POWER);
+
+        assertEquals(1, immediateQueueDepthCounter.getCount());
+        assertEquals(2, conservePowerQueueDepthCounter.getCount());
+
+        this.listener.handleNotificationDequeued(null, DeliveryPriority.CONSERVE_POWER, 1000);
+
+        assertEquals(1, immediateQueueDepthCounter.getCount());
+        assertEquals(0, immediateQueueWaitTimer.getCount());
+        assertEquals(1, conservePowerQueueDepthCounter.getCount());
+        assertEquals(1, conservePowerQueueWaitTimer.getCount());
+    }
+
     @Test
     public void testGetMetrics() {
         final Map<String, Metric> metrics = this.listener.getMetrics();
@@ -134,9 +249,23 @@ public class DropwizardApnsClientMetricsListenerTest {
         assertTrue(metrics.get(DropwizardApnsClientMetricsListener.SENT_NOTIFICATIONS_METER_NAME) instanceof Meter);
         assertTrue(metrics.get(DropwizardApnsClientMetricsListener.ACCEPTED_NOTIFICATIONS_METER_NAME) instanceof Meter);
         assertTrue(metrics.get(DropwizardApnsClientMetricsListener.REJECTED_NOTIFICATIONS_METER_NAME) instanceof Meter);
+        assertTrue(metrics.get(DropwizardApnsClientMetricsListener.EXPIRED_NOTIFICATIONS_METER_NAME) instanceof Meter);
+        assertTrue(metrics.get(DropwizardApnsClientMetricsListener.COALESCED_NOTIFICATIONS_METER_NAME) instanceof Meter);
+        assertTrue(metrics.get(DropwizardApnsClientMetricsListener.RETRIED_NOTIFICATIONS_METER_NAME) instanceof Meter);
+        assertTrue(metrics.get(DropwizardApnsClientMetricsListener.CIRCUIT_BREAKER_STATE_GAUGE_NAME) instanceof Gauge);
+        assertTrue(metrics.get(DropwizardApnsClientMetricsListener.REPLAYED_NOTIFICATIONS_METER_NAME) instanceof Meter);
+        assertTrue(metrics.get(DropwizardApnsClientMetricsListener.SHED_NOTIFICATIONS_METER_NAME) instanceof Meter);
 
         assertTrue(metrics.get(DropwizardApnsClientMetricsListener.CONNECTION_GAUGE_NAME) instanceof Gauge);
         assertTrue(metrics.get(DropwizardApnsClientMetricsListener.CONNECTION_TIMER_NAME) instanceof Timer);
         assertTrue(metrics.get(DropwizardApnsClientMetricsListener.CONNECTION_FAILURES_METER_NAME) instanceof Meter);
+        assertTrue(metrics.get(DropwizardApnsClientMetricsListener.RECONNECTION_DELAY_TIMER_NAME) instanceof Timer);
+
+        assertTrue(metrics.get(DropwizardApnsClientMetricsListener.WRITABILITY_GAUGE_NAME) instanceof Gauge);
+        assertTrue(metrics.get(DropwizardApnsClientMetricsListener.CALLBACK_QUEUE_LAG_TIMER_NAME) instanceof Timer);
+        assertTrue(metrics.get(DropwizardApnsClientMetricsListener.IMMEDIATE_QUEUE_DEPTH_COUNTER_NAME) instanceof Counter);
+        assertTrue(metrics.get(DropwizardApnsClientMetricsListener.IMMEDIATE_QUEUE_WAIT_TIMER_NAME) instanceof Timer);
+        assertTrue(metrics.get(DropwizardApnsClientMetricsListener.CONSERVE_POWER_QUEUE_DEPTH_COUNTER_NAME) instanceof Counter);
+        assertTrue(metrics.get(DropwizardApnsClientMetricsListener.CONSERVE_POWER_QUEUE_WAIT_TIMER_NAME) instanceof Timer);
     }
 }
@@ -24,22 +24,44 @@ package com.turo.pushy.apns;
 
 import com.turo.pushy.apns.auth.ApnsSigningKey;
 import com.turo.pushy.apns.proxy.ProxyHandlerFactory;
+import com.turo.pushy.apns.util.ApnsPayloadBuilder;
 import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
 import io.netty.channel.*;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
+import io.netty.handler.codec.http2.Http2ConnectionAdapter;
+import io.netty.handler.codec.http2.Http2Stream;
 import io.netty.handler.ssl.ApplicationProtocolNames;
 import io.netty.handler.ssl.ApplicationProtocolNegotiationHandler;
 import io.netty.handler.ssl.SslContext;
 import io.netty.handler.timeout.IdleStateHandler;
 import io.netty.resolver.DefaultAddressResolverGroup;
 import io.netty.resolver.NoopAddressResolverGroup;
+import io.netty.util.AttributeKey;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.TimerTask;
 import io.netty.util.concurrent.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.InetSocketAddress;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
@@ -70,9 +92,13 @@ import java.util.concurrent.atomic.AtomicLong;
  * with APNs</a> documentation for additional details.</p>
  *
  * <p>Once a connection has been established, an APNs client will attempt to restore that connection automatically if
- * the connection closes unexpectedly. APNs clients employ an exponential back-off strategy to manage the rate of
- * reconnection attempts. Clients will stop trying to reconnect automatically if disconnected via the
- * {@link ApnsClient#disconnect()} method.</p>
+ * the connection closes unexpectedly. APNs clients employ an exponential back-off strategy with random jitter to manage
+ * the rate of reconnection attempts (see {@link ReconnectBackoffPolicy}). Clients may also keep a standby connection
+ * that takes over immediately if the active connection closes (see
+ * {@link ApnsClientBuilder#setUseStandbyConnection(boolean)}), and replace healthy connections with new ones before
+ * they run out of stream IDs (see {@link ConnectionRecyclingPolicy}). Connections and reconnections are spread across
+ * every address to which the APNs hostname resolves, skipping addresses that recently refused connections. Clients
+ * will stop trying to reconnect automatically if disconnected via the {@link ApnsClient#disconnect()} method.</p>
  *
  * <p>Notifications sent by a client to an APNs server are sent asynchronously. A
  * {@link io.netty.util.concurrent.Future io.netty.util.concurrent.Future} is returned immediately when a notification
@@ -100,14 +126,50 @@ public class ApnsClient {
     private Long gracefulShutdownTimeoutMillis;
     long idlePingIntervalMillis = DEFAULT_PING_IDLE_TIME_MILLIS;
 
-    private volatile ChannelPromise connectionReadyPromise;
+    private volatile boolean validateNotifications = false;
+    private volatile int maximumPayloadSize = ApnsPayloadBuilder.DEFAULT_MAXIMUM_PAYLOAD_SIZE;
+    private volatile boolean coalesceNotifications = false;
+    private volatile OverloadPolicy overloadPolicy;
+
+    private volatile RetryPolicy retryPolicy;
+    private volatile RetryBudget retryBudget;
+
+    private volatile DeviceTokenRateLimiter deviceTokenRateLimiter;
+    private volatile TopicRateLimiter topicRateLimiter;
+
+    private volatile CircuitBreaker circuitBreaker;
+
+    private volatile BlockingQueue<PendingPushNotification.Reference> replayBuffer;
+    private final Queue<PendingPushNotification.Reference> migratingNotifications = new ArrayDeque<>();
+
+    private volatile CallbackEventExecutor callbackExecutor;
+
+    private final ConnectionManager connectionManager = new ConnectionManager();
     private volatile ChannelPromise reconnectionPromise;
+    private ChannelPromise writabilityPromise;
     private ScheduledFuture scheduledReconnectFuture;
-    private long reconnectDelaySeconds = INITIAL_RECONNECT_DELAY_SECONDS;
+
+    private volatile boolean useStandbyConnection = false;
+    private ScheduledFuture scheduledStandbyConnectionFuture;
+    private long standbyConnectionDelayNanos = 0;
+    private volatile ReconnectBackoffPolicy reconnectBackoffPolicy = DEFAULT_RECONNECT_BACKOFF_POLICY;
+    private long reconnectDelayNanos = 0;
+    private volatile ConnectionRecyclingPolicy connectionRecyclingPolicy = DEFAULT_CONNECTION_RECYCLING_POLICY;
+    private boolean connectionEstablished = false;
+    private long connectionEstablishedNanos;
 
     private ApnsClientMetricsListener metricsListener = new NoopMetricsListener();
     private final AtomicLong nextNotificationId = new AtomicLong(0);
 
+    private final ServerAddressSelector serverAddressSelector =
+            new ServerAddressSelector(SERVER_ADDRESS_CACHE_TTL_NANOS, FAILED_SERVER_ADDRESS_BLACKLIST_NANOS);
+
+    private final AtomicLong pendingNotificationCount = new AtomicLong(0);
+
+    private volatile long maxPendingNotificationBytes = 0;
+    private final AtomicLong pendingNotificationBytes = new AtomicLong(0);
+    private final List<Promise<Void>> drainPromises = new ArrayList<>();
+
     /**
      * The hostname for the production APNs gateway.
      *
@@ -151,8 +213,47 @@ public class ApnsClient {
 
     private static final ClientNotConnectedException NOT_CONNECTED_EXCEPTION = new ClientNotConnectedException();
 
-    private static final long INITIAL_RECONNECT_DELAY_SECONDS = 1; // second
-    private static final long MAX_RECONNECT_DELAY_SECONDS = 60; // seconds
+    private static final String TOO_MANY_REQUESTS_REASON = "TooManyRequests";
+
+    private static final CircuitBreakerOpenException CIRCUIT_BREAKER_OPEN_EXCEPTION = new CircuitBreakerOpenException();
+
+    private static final NotificationBudgetExceededException NOTIFICATION_BUDGET_EXCEEDED_EXCEPTION =
+            new NotificationBudgetExceededException();
+
+    // A rough allowance for everything a pending notification holds beyond its strings: the pending notification
+    // itself, its HTTP/2 stream and headers, and the response and listeners that eventually come back.
+    private static final int NOTIFICATION_OVERHEAD_BYTES = 512;
+
+    private static final AttributeKey<ApnsClientHandler> CLIENT_HANDLER_KEY =
+            AttributeKey.valueOf(ApnsClient.class, "apnsClientHandler");
+
+    private static final AttributeKey<ChannelPromise> CONNECTION_READY_PROMISE_KEY =
+            AttributeKey.valueOf(ApnsClient.class, "connectionReadyPromise");
+
+    private static final int MAX_BULK_NOTIFICATIONS_IN_FLIGHT = 1000;
+
+    // Retries are rare and don't need precise timing, so all clients share a single coarse-grained timer thread; the
+    // holder class defers creating the thread until some client actually retries a notification.
+    private static class RetryTimerHolder {
+        private static final HashedWheelTimer RETRY_TIMER =
+                new HashedWheelTimer(new DefaultThreadFactory("pushy-retry-timer", true), 10, TimeUnit.MILLISECONDS);
+    }
+
+    // Resolving server addresses may block for a while, and must never happen on an event loop (or while holding the
+    // bootstrap lock); resolution is rare, though, so all clients share a single thread, created when first needed.
+    private static class AddressResolverHolder {
+        private static final EventExecutor ADDRESS_RESOLVER =
+                new DefaultEventExecutor(new DefaultThreadFactory("pushy-address-resolver", true));
+    }
+
+    private static final ReconnectBackoffPolicy DEFAULT_RECONNECT_BACKOFF_POLICY =
+            new ReconnectBackoffPolicy(1, 60, 60, TimeUnit.SECONDS);
+
+    private static final long SERVER_ADDRESS_CACHE_TTL_NANOS = TimeUnit.MINUTES.toNanos(1);
+    private static final long FAILED_SERVER_ADDRESS_BLACKLIST_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    private static final ConnectionRecyclingPolicy DEFAULT_CONNECTION_RECYCLING_POLICY =
+            new ConnectionRecyclingPolicy(1 << 29, 0, TimeUnit.SECONDS);
 
     private static final Logger log = LoggerFactory.getLogger(ApnsClient.class);
 
@@ -183,6 +284,15 @@ public class ApnsClient {
                     pipeline.addFirst(proxyHandlerFactory.createProxyHandler());
                 }
 
+                pipeline.addLast(new ChannelInboundHandlerAdapter() {
+
+                    @Override
+                    public void channelWritabilityChanged(final ChannelHandlerContext context) throws Exception {
+                        ApnsClient.this.handleWritabilityChanged(context.channel());
+                        super.channelWritabilityChanged(context);
+                    }
+                });
+
                 pipeline.addLast(sslContext.newHandler(channel.alloc()));
                 pipeline.addLast(new ApplicationProtocolNegotiationHandler("") {
                     @Override
@@ -197,11 +307,15 @@ public class ApnsClient {
                                         .signingKey(ApnsClient.this.signingKey)
                                         .authority(authority)
                                         .idlePingIntervalMillis(ApnsClient.this.idlePingIntervalMillis)
+                                        .coalesceNotifications(ApnsClient.this.coalesceNotifications)
+                                        .overloadPolicy(ApnsClient.this.overloadPolicy)
                                         .build();
                             } else {
                                 apnsClientHandler = new ApnsClientHandler.ApnsClientHandlerBuilder()
                                         .authority(authority)
                                         .idlePingIntervalMillis(ApnsClient.this.idlePingIntervalMillis)
+                                        .coalesceNotifications(ApnsClient.this.coalesceNotifications)
+                                        .overloadPolicy(ApnsClient.this.overloadPolicy)
                                         .build();
                             }
 
@@ -213,8 +327,11 @@ public class ApnsClient {
 
                             context.pipeline().addLast(new IdleStateHandler(0, 0, ApnsClient.this.idlePingIntervalMillis, TimeUnit.MILLISECONDS));
                             context.pipeline().addLast(apnsClientHandler);
+                            context.channel().attr(CLIENT_HANDLER_KEY).set(apnsClientHandler);
 
-                            final ChannelPromise connectionReadyPromise = ApnsClient.this.connectionReadyPromise;
+                            // Standby connections are set up just like active connections, so we can't assume the
+                            // channel being configured here is the active connection.
+                            final ChannelPromise connectionReadyPromise = context.channel().attr(CONNECTION_READY_PROMISE_KEY).get();
 
                             if (connectionReadyPromise != null) {
                                 connectionReadyPromise.trySuccess();
@@ -242,6 +359,23 @@ public class ApnsClient {
         }
     }
 
+    /**
+     * Sets the low and high water marks for the outbound buffers of this client's connections. When the amount of data
+     * waiting to be written to a connection passes the high water mark, the client will report that it is not writable
+     * until the amount of waiting data drops below the low water mark.
+     *
+     * @param writeBufferWaterMark the write buffer water marks for this client's connections
+     *
+     * @see ApnsClient#isWritable()
+     *
+     * @since 0.11
+     */
+    protected void setWriteBufferWaterMark(final WriteBufferWaterMark writeBufferWaterMark) {
+        synchronized (this.bootstrap) {
+            this.bootstrap.option(ChannelOption.WRITE_BUFFER_WATER_MARK, writeBufferWaterMark);
+        }
+    }
+
     /**
      * Sets the metrics listener for this client. Metrics listeners gather information that describes the performance
      * and behavior of a client, and are completely optional.
@@ -282,6 +416,200 @@ public class ApnsClient {
         this.idlePingIntervalMillis = pingIntervalMillis;
     }
 
+    /**
+     * Sets whether this client should check notifications for problems that would certainly cause the APNs server to
+     * reject them (a missing or malformed device token, a missing topic, or an empty or oversized payload) before
+     * sending them. Notifications that fail validation are rejected locally and never consume an HTTP/2 stream.
+     *
+     * @param validateNotifications {@code true} if notifications should be validated before sending or {@code false}
+     * otherwise
+     *
+     * @since 0.11
+     */
+    protected void setValidateNotifications(final boolean validateNotifications) {
+        this.validateNotifications = validateNotifications;
+    }
+
+    /**
+     * Sets the maximum size, in bytes, of notification payloads. Payload size is only checked if notification
+     * validation is enabled.
+     *
+     * @param maximumPayloadSize the maximum size, in bytes, of the UTF-8 representation of notification payloads
+     *
+     * @see ApnsClient#setValidateNotifications(boolean)
+     *
+     * @since 0.11
+     */
+    protected void setMaximumPayloadSize(final int maximumPayloadSize) {
+        this.maximumPayloadSize = maximumPayloadSize;
+    }
+
+    /**
+     * Sets whether this client should coalesce notifications that are waiting for a free stream. When coalescing is
+     * enabled, a notification with a collapse ID replaces any notification with the same device token, topic, and
+     * collapse ID that is still waiting to be sent; the replaced notification fails with a
+     * {@link NotificationCoalescedException}. Takes effect the next time the client connects.
+     *
+     * @param coalesceNotifications {@code true} if waiting notifications should be coalesced or {@code false}
+     * otherwise
+     *
+     * @since 0.11
+     */
+    protected void setCoalesceNotifications(final boolean coalesceNotifications) {
+        this.coalesceNotifications = coalesceNotifications;
+    }
+
+    /**
+     * Sets the policy this client uses to choose delays between automatic reconnection attempts.
+     *
+     * @param reconnectBackoffPolicy the policy this client should use to choose delays between reconnection attempts
+     *
+     * @since 0.11
+     */
+    protected void setReconnectBackoffPolicy(final ReconnectBackoffPolicy reconnectBackoffPolicy) {
+        Objects.requireNonNull(reconnectBackoffPolicy, "Reconnect backoff policy must not be null.");
+        this.reconnectBackoffPolicy = reconnectBackoffPolicy;
+    }
+
+    /**
+     * Sets the policy this client uses to decide when to replace a healthy connection with a new one. Takes effect the
+     * next time the client opens a connection.
+     *
+     * @param connectionRecyclingPolicy the policy this client should use to decide when to replace connections
+     *
+     * @since 0.11
+     */
+    protected void setConnectionRecyclingPolicy(final ConnectionRecyclingPolicy connectionRecyclingPolicy) {
+        Objects.requireNonNull(connectionRecyclingPolicy, "Connection recycling policy must not be null.");
+        this.connectionRecyclingPolicy = connectionRecyclingPolicy;
+    }
+
+    /**
+     * Sets whether this client should keep a second, standby connection open and ready to take over the instant its
+     * active connection closes. Takes effect the next time the client connects.
+     *
+     * @param useStandbyConnection {@code true} if this client should keep a standby connection or {@code false}
+     * otherwise
+     *
+     * @since 0.11
+     */
+    protected void setUseStandbyConnection(final boolean useStandbyConnection) {
+        this.useStandbyConnection = useStandbyConnection;
+    }
+
+    /**
+     * Sets the policy this client uses to shed notifications waiting for a free stream when it is overloaded. If
+     * {@code null}, this client never sheds notifications. Takes effect the next time the client connects.
+     *
+     * @param overloadPolicy the policy this client should use to shed notifications; may be {@code null}
+     *
+     * @since 0.11
+     */
+    protected void setOverloadPolicy(final OverloadPolicy overloadPolicy) {
+        this.overloadPolicy = overloadPolicy;
+    }
+
+    /**
+     * Sets the policy this client uses to retry notifications that fail for transient reasons. If {@code null}, this
+     * client will not retry notifications.
+     *
+     * @param retryPolicy the policy this client should use to retry notifications; may be {@code null}
+     *
+     * @since 0.11
+     */
+    protected void setRetryPolicy(final RetryPolicy retryPolicy) {
+        this.retryBudget = retryPolicy != null ? new RetryBudget(retryPolicy) : null;
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * Sets the maximum number of notifications this client will send to any single device token over a sliding window
+     * of time. Notifications beyond the limit are rejected locally with the same "TooManyRequests" reason the APNs
+     * server would report, and never consume an HTTP/2 stream. To keep memory use constant regardless of the number of
+     * distinct device tokens, counts are tracked approximately, and a notification may occasionally be rejected even
+     * though its device token is within the limit.
+     *
+     * @param maxNotifications the maximum number of notifications to send to a single device token within the window;
+     * must be between 1 and 65,535
+     * @param window the length of the sliding window
+     * @param timeUnit the time unit for the given window
+     *
+     * @since 0.11
+     */
+    protected void setDeviceTokenRateLimit(final int maxNotifications, final long window, final TimeUnit timeUnit) {
+        this.deviceTokenRateLimiter = new DeviceTokenRateLimiter(maxNotifications, window, timeUnit);
+    }
+
+    /**
+     * Sets the maximum steady rate at which this client will send notifications to any single topic. Notifications
+     * beyond the limit are rejected locally with the same "TooManyRequests" reason the APNs server would report, and
+     * never consume an HTTP/2 stream.
+     *
+     * @param notificationsPerSecond the maximum steady rate, in notifications per second, for each topic
+     * @param maxBurst the maximum number of notifications that may be sent to a topic in a burst after a period of
+     * inactivity
+     *
+     * @since 0.11
+     */
+    protected void setTopicRateLimit(final double notificationsPerSecond, final int maxBurst) {
+        this.topicRateLimiter = new TopicRateLimiter(notificationsPerSecond, maxBurst);
+    }
+
+    /**
+     * Sets the policy this client uses to stop sending notifications while the APNs server is failing. If
+     * {@code null}, this client will always attempt to send notifications.
+     *
+     * @param circuitBreakerPolicy the policy for this client's circuit breaker; may be {@code null}
+     *
+     * @since 0.11
+     */
+    protected void setCircuitBreakerPolicy(final CircuitBreakerPolicy circuitBreakerPolicy) {
+        this.circuitBreaker = circuitBreakerPolicy != null ? new CircuitBreaker(this, circuitBreakerPolicy) : null;
+    }
+
+    /**
+     * Sets the maximum number of notifications this client will hold for replay after losing its connection. If zero,
+     * this client will not replay notifications. Takes effect for notifications sent after this method is called.
+     *
+     * @param replayBufferSize the maximum number of notifications to hold for replay
+     *
+     * @since 0.11
+     */
+    protected void setReplayBufferSize(final int replayBufferSize) {
+        this.replayBuffer = replayBufferSize > 0 ?
+                new ArrayBlockingQueue<PendingPushNotification.Reference>(replayBufferSize) : null;
+    }
+
+    /**
+     * Sets the maximum number of bytes of memory this client may hold for notifications that have been sent but not
+     * yet resolved. If zero, this client's memory use is not limited. Takes effect for notifications sent after this
+     * method is called.
+     *
+     * @param maxPendingNotificationBytes the maximum number of bytes to hold for pending notifications
+     *
+     * @see ApnsClient#getPendingNotificationBytes()
+     *
+     * @since 0.11
+     */
+    protected void setMaxPendingNotificationBytes(final long maxPendingNotificationBytes) {
+        this.maxPendingNotificationBytes = maxPendingNotificationBytes;
+    }
+
+    /**
+     * Sets the executor with which this client notifies response listeners and listeners attached to the futures
+     * returned by {@link ApnsClient#sendNotification(ApnsPushNotification)}. If {@code null}, listeners are notified
+     * on the client's I/O threads. Listeners are handed to the executor in batches rather than one task per
+     * notification.
+     *
+     * @param executor the executor with which to notify listeners, or {@code null} to notify listeners on the client's
+     * I/O threads
+     *
+     * @since 0.11
+     */
+    protected void setCallbackExecutor(final Executor executor) {
+        this.callbackExecutor = executor != null ? new CallbackEventExecutor(executor) : null;
+    }
+
     /**
      * Sets the amount of time (in milliseconds) clients should wait for in-progress requests to complete before closing
      * a connection during a graceful shutdown.
@@ -297,11 +625,13 @@ public class ApnsClient {
         synchronized (this.bootstrap) {
             this.gracefulShutdownTimeoutMillis = timeoutMillis;
 
-            if (this.connectionReadyPromise != null) {
-                final ApnsClientHandler handler = this.connectionReadyPromise.channel().pipeline().get(ApnsClientHandler.class);
+            for (final ChannelPromise connectionPromise : new ChannelPromise[] { this.connectionManager.getActiveConnection(), this.connectionManager.getStandbyConnection() }) {
+                if (connectionPromise != null) {
+                    final ApnsClientHandler handler = connectionPromise.channel().pipeline().get(ApnsClientHandler.class);
 
-                if (handler != null) {
-                    handler.gracefulShutdownTimeoutMillis(timeoutMillis);
+                    if (handler != null) {
+                        handler.gracefulShutdownTimeoutMillis(timeoutMillis);
+                    }
                 }
             }
         }
@@ -361,62 +691,21 @@ public class ApnsClient {
             synchronized (this.bootstrap) {
                 // We only want to begin a connection attempt if one is not already in progress or complete; if we already
                 // have a connection future, just return the existing promise.
-                if (this.connectionReadyPromise == null) {
+                if (this.connectionManager.getActiveConnection() == null) {
                     this.metricsListener.handleConnectionAttemptStarted(this);
 
-                    final ChannelFuture connectFuture = this.bootstrap.connect(host, port);
-                    this.connectionReadyPromise = connectFuture.channel().newPromise();
-
-                    connectFuture.addListener(new GenericFutureListener<ChannelFuture> () {
-
-                        @Override
-                        public void operationComplete(final ChannelFuture future) throws Exception {
-                            if (!future.isSuccess()) {
-                                final ChannelPromise connectionReadyPromise = ApnsClient.this.connectionReadyPromise;
-
-                                if (connectionReadyPromise != null) {
-                                    // This may seem spurious, but our goal here is to accurately report the cause of
-                                    // connection failure; if we just wait for connection closure, we won't be able to
-                                    // tell callers anything more specific about what went wrong.
-                                    connectionReadyPromise.tryFailure(future.cause());
-                                }
-                            }
-                        }
-                    });
+                    final ChannelPromise connectionReadyPromise = this.openConnection(host, port);
+                    this.connectionManager.setActiveConnection(connectionReadyPromise);
 
-                    connectFuture.channel().closeFuture().addListener(new GenericFutureListener<ChannelFuture> () {
+                    connectionReadyPromise.channel().closeFuture().addListener(new GenericFutureListener<ChannelFuture> () {
 
                         @Override
                         public void operationComplete(final ChannelFuture future) throws Exception {
-                            synchronized (ApnsClient.this.bootstrap) {
-                                if (ApnsClient.this.connectionReadyPromise != null) {
-                                    // We always want to try to fail the "connection ready" promise if the connection
-                                    // closes; if it has already succeeded, this will have no effect.
-                                    ApnsClient.this.connectionReadyPromise.tryFailure(
-                                            new IllegalStateException("Channel closed before HTTP/2 preface completed."));
-
-                                    ApnsClient.this.connectionReadyPromise = null;
-                                }
-
-                                if (ApnsClient.this.reconnectionPromise != null) {
-                                    log.debug("Disconnected. Next automatic reconnection attempt in {} seconds.", ApnsClient.this.reconnectDelaySeconds);
-
-                                    ApnsClient.this.scheduledReconnectFuture = future.channel().eventLoop().schedule(new Runnable() {
-
-                                        @Override
-                                        public void run() {
-                                            log.debug("Attempting to reconnect.");
-                                            ApnsClient.this.connect(host, port);
-                                        }
-                                    }, ApnsClient.this.reconnectDelaySeconds, TimeUnit.SECONDS);
-
-                                    ApnsClient.this.reconnectDelaySeconds = Math.min(ApnsClient.this.reconnectDelaySeconds, MAX_RECONNECT_DELAY_SECONDS);
-                                }
-                            }
+                            ApnsClient.this.handleConnectionClosed(connectionReadyPromise, host, port);
                         }
                     });
 
-                    this.connectionReadyPromise.addListener(new GenericFutureListener<ChannelFuture>() {
+                    connectionReadyPromise.addListener(new GenericFutureListener<ChannelFuture>() {
 
                         @Override
                         public void operationComplete(final ChannelFuture future) throws Exception {
@@ -429,21 +718,30 @@ public class ApnsClient {
                                         log.info("Connected to {}.", future.channel().remoteAddress());
                                     }
 
-                                    ApnsClient.this.reconnectDelaySeconds = INITIAL_RECONNECT_DELAY_SECONDS;
+                                    // We don't reset the reconnection delay until we know whether this connection
+                                    // will stay open for long enough.
+                                    ApnsClient.this.connectionEstablished = true;
+                                    ApnsClient.this.connectionEstablishedNanos = System.nanoTime();
                                     ApnsClient.this.reconnectionPromise = future.channel().newPromise();
+
+                                    ApnsClient.this.scheduleConnectionRecycling(connectionReadyPromise, host, port);
+                                    ApnsClient.this.connectStandby(host, port);
                                 }
 
                                 ApnsClient.this.metricsListener.handleConnectionAttemptSucceeded(ApnsClient.this);
+                                ApnsClient.this.replayBufferedNotifications((ChannelPromise) future);
+                                ApnsClient.this.sendMigratingNotifications((ChannelPromise) future);
                             } else {
                                 log.info("Failed to connect.", future.cause());
 
                                 ApnsClient.this.metricsListener.handleConnectionAttemptFailed(ApnsClient.this);
+                                ApnsClient.this.failMigratingNotifications();
                             }
                         }
                     });
                 }
 
-                connectionReadyFuture = this.connectionReadyPromise;
+                connectionReadyFuture = this.connectionManager.getActiveConnection();
             }
         }
 
@@ -451,144 +749,1357 @@ public class ApnsClient {
     }
 
     /**
-     * Indicates whether this client is connected to the APNs gateway and ready to send push notifications.
-     *
-     * @return {@code true} if this client is connected and ready to send notifications or {@code false} otherwise
-     *
-     * @since 0.5
+     * Connects a newly-registered channel to the given server address once its registration is complete. If the
+     * connection attempt fails, the given "connection ready" promise fails with the cause of the failure, and resolved
+     * server addresses are skipped for a while by later connection attempts.
      */
-    public boolean isConnected() {
-        final ChannelPromise connectionReadyPromise = this.connectionReadyPromise;
-        return (connectionReadyPromise != null && connectionReadyPromise.isSuccess());
-    }
+    private void connectChannel(final ChannelFuture registrationFuture, final InetSocketAddress serverAddress,
+                                final ChannelPromise connectionReadyPromise) {
 
-    /**
-     * <p>Returns a {@code Future} that will succeed when the client has re-established a connection to the APNs gateway.
-     * Callers may use this method to determine when it is safe to resume sending notifications after a send attempt
-     * fails with a {@link ClientNotConnectedException}.</p>
-     *
-     * <p>If the client is already connected, the {@code Future} returned by this method will succeed immediately. If
-     * the client was not previously connected (either because it has never been connected or because it was explicitly
-     * disconnected via the {@link ApnsClient#disconnect()} method), the {@code Future} returned by this method will
-     * fail immediately with an {@link IllegalStateException}.</p>
-     *
-     * @return a {@code Future} that will succeed when the client has established a connection to the APNs gateway
-     *
-     * @since 0.5
-     */
-    public Future<Void> getReconnectionFuture() {
-        final Future<Void> reconnectionFuture;
+        if (connectionReadyPromise.isDone()) {
+            // The client gave up on this connection (by disconnecting, for example) while we were resolving the host.
+            return;
+        }
 
-        synchronized (this.bootstrap) {
-            if (this.isConnected()) {
-                reconnectionFuture = this.connectionReadyPromise.channel().newSucceededFuture();
-            } else if (this.reconnectionPromise != null) {
-                // If we're not connected, but have a reconnection promise, we're in the middle of a reconnection
-                // attempt.
-                reconnectionFuture = this.reconnectionPromise;
-            } else {
-                // We're not connected and have no reconnection future, which means we've either never connected or have
-                // explicitly disconnected.
-                reconnectionFuture = new FailedFuture<>(GlobalEventExecutor.INSTANCE,
-                        new IllegalStateException("Client was not previously connected."));
-            }
+        if (!serverAddress.isUnresolved()) {
+            connectionReadyPromise.addListener(new GenericFutureListener<ChannelFuture>() {
+
+                @Override
+                public void operationComplete(final ChannelFuture future) {
+                    if (!future.isSuccess()) {
+                        ApnsClient.this.serverAddressSelector.handleConnectionFailure(serverAddress.getAddress(), System.nanoTime());
+                    }
+                }
+            });
         }
 
-        return reconnectionFuture;
+        registrationFuture.addListener(new GenericFutureListener<ChannelFuture>() {
+
+            @Override
+            public void operationComplete(final ChannelFuture registrationFuture) {
+                if (!registrationFuture.isSuccess()) {
+                    connectionReadyPromise.tryFailure(registrationFuture.cause());
+                    return;
+                }
+
+                registrationFuture.channel().connect(serverAddress).addListener(new GenericFutureListener<ChannelFuture>() {
+
+                    @Override
+                    public void operationComplete(final ChannelFuture future) {
+                        if (!future.isSuccess()) {
+                            // This may seem spurious, but our goal here is to accurately report the cause of connection
+                            // failure; if we just wait for connection closure, we won't be able to tell callers anything
+                            // more specific about what went wrong.
+                            connectionReadyPromise.tryFailure(future.cause());
+                        }
+                    }
+                });
+            }
+        });
     }
 
-    /**
-     * <p>Sends a push notification to the APNs gateway.</p>
-     *
-     * <p>This method returns a {@code Future} that indicates whether the notification was accepted or rejected by the
-     * gateway. If the notification was accepted, it may be delivered to its destination device at some time in the
-     * future, but final delivery is not guaranteed. Rejections should be considered permanent failures, and callers
-     * should <em>not</em> attempt to re-send the notification.</p>
-     *
-     * <p>The returned {@code Future} may fail with an exception if the notification could not be sent. Failures to
-     * <em>send</em> a notification to the gateway—i.e. those that fail with exceptions—should generally be considered
-     * non-permanent, and callers should attempt to re-send the notification when the underlying problem has been
-     * resolved.</p>
-     *
-     * <p>In particular, attempts to send a notification when the client is not connected will fail with a
-     * {@link ClientNotConnectedException}. If the client was previously connected and has not been explicitly
-     * disconnected (via the {@link ApnsClient#disconnect()} method), the client will attempt to reconnect
-     * automatically. Callers may wait for a reconnection attempt to complete by waiting for the {@code Future} returned
-     * by the {@link ApnsClient#getReconnectionFuture()} method.</p>
-     *
-     * @param notification the notification to send to the APNs gateway
-     *
-     * @param <T> the type of notification to be sent
-     *
-     * @return a {@code Future} that will complete when the notification has been either accepted or rejected by the
-     * APNs gateway
-     *
-     * @since 0.8
-     */
-    @SuppressWarnings({ "rawtypes", "unchecked" })
-    public <T extends ApnsPushNotification> Future<PushNotificationResponse<T>> sendNotification(final T notification) {
-        final Future<PushNotificationResponse<T>> responseFuture;
-        final long notificationId = this.nextNotificationId.getAndIncrement();
+    private ChannelPromise openConnection(final String host, final int port) {
+        final ChannelFuture registrationFuture = this.bootstrap.register();
+        final Channel channel = registrationFuture.channel();
 
-        // Instead of synchronizing here, we keep a final reference to the connection ready promise. We can get away
-        // with this because we're not changing the state of the connection or its promises. Keeping a reference ensures
-        // we won't suddenly "lose" the channel and get a NullPointerException, but risks sending a notification after
-        // things have shut down. In that case, though, the returned futures should fail quickly, and the benefit of
-        // not synchronizing for every write seems worth it.
-        final ChannelPromise connectionReadyPromise = this.connectionReadyPromise;
+        final ChannelPromise connectionReadyPromise = channel.newPromise();
 
-        if (connectionReadyPromise != null && connectionReadyPromise.isSuccess() && connectionReadyPromise.channel().isActive()) {
-            final Channel channel = connectionReadyPromise.channel();
-            final Promise<PushNotificationResponse<ApnsPushNotification>> responsePromise =
-                    new DefaultPromise(channel.eventLoop());
+        channel.attr(CONNECTION_READY_PROMISE_KEY).set(connectionReadyPromise);
+
+        if (this.proxyHandlerFactory != null) {
+            // Proxies resolve hostnames themselves.
+            this.connectChannel(registrationFuture, InetSocketAddress.createUnresolved(host, port), connectionReadyPromise);
+        } else if (!this.serverAddressSelector.needsResolution(host, System.nanoTime())) {
+            this.connectChannel(registrationFuture,
+                    this.serverAddressSelector.nextAddress(host, port, System.nanoTime()), connectionReadyPromise);
+        } else {
+            // We're likely holding the bootstrap lock and may well be on an event loop, neither of which is a good
+            // place to wait for DNS; we resolve the host elsewhere and only pick an address once that's done.
+            AddressResolverHolder.ADDRESS_RESOLVER.submit(new Callable<InetSocketAddress>() {
 
-            channel.writeAndFlush(new PushNotificationAndResponsePromise(notification, responsePromise)).addListener(new GenericFutureListener<ChannelFuture>() {
+                @Override
+                public InetSocketAddress call() throws Exception {
+                    ApnsClient.this.serverAddressSelector.resolve(host, System.nanoTime());
+                    return ApnsClient.this.serverAddressSelector.nextAddress(host, port, System.nanoTime());
+                }
+            }).addListener(new GenericFutureListener<Future<InetSocketAddress>>() {
 
                 @Override
-                public void operationComplete(final ChannelFuture future) throws Exception {
+                public void operationComplete(final Future<InetSocketAddress> future) {
                     if (future.isSuccess()) {
-                        ApnsClient.this.metricsListener.handleNotificationSent(ApnsClient.this, notificationId);
+                        ApnsClient.this.connectChannel(registrationFuture, future.getNow(), connectionReadyPromise);
                     } else {
-                        responsePromise.tryFailure(future.cause());
+                        connectionReadyPromise.tryFailure(future.cause());
+                        channel.close();
                     }
                 }
             });
-
-            responseFuture = (Future) responsePromise;
-        } else {
-            log.debug("Failed to send push notification because client is not connected: {}", notification);
-            responseFuture = new FailedFuture<>(GlobalEventExecutor.INSTANCE, NOT_CONNECTED_EXCEPTION);
         }
 
-        responseFuture.addListener(new GenericFutureListener<Future<PushNotificationResponse<T>>>() {
+        connectionReadyPromise.addListener(new GenericFutureListener<ChannelFuture>() {
 
             @Override
-            public void operationComplete(final Future<PushNotificationResponse<T>> future) throws Exception {
+            public void operationComplete(final ChannelFuture future) throws Exception {
                 if (future.isSuccess()) {
-                    final PushNotificationResponse<T> response = future.getNow();
+                    // The handler's own listener was registered first, and so will have moved notifications the
+                    // server won't process out of the way by the time we hear about the GOAWAY frame.
+                    future.channel().attr(CLIENT_HANDLER_KEY).get().connection().addListener(new Http2ConnectionAdapter() {
 
-                    if (response.isAccepted()) {
-                        ApnsClient.this.metricsListener.handleNotificationAccepted(ApnsClient.this, notificationId);
-                    } else {
-                        ApnsClient.this.metricsListener.handleNotificationRejected(ApnsClient.this, notificationId);
-                    }
-                } else {
-                    ApnsClient.this.metricsListener.handleWriteFailure(ApnsClient.this, notificationId);
+                        private final ConnectionRecyclingPolicy connectionRecyclingPolicy = ApnsClient.this.connectionRecyclingPolicy;
+                        private boolean recyclingRequested = false;
+
+                        @Override
+                        public void onStreamAdded(final Http2Stream stream) {
+                            if (!this.recyclingRequested && this.connectionRecyclingPolicy.shouldRecycle(stream.id())) {
+                                this.recyclingRequested = true;
+
+                                log.info("Connection to {} has opened {} streams; replacing it with a new connection.",
+                                        future.channel().remoteAddress(), this.connectionRecyclingPolicy.getMaxStreamsPerConnection());
+
+                                ApnsClient.this.recycleConnection(connectionReadyPromise, host, port);
+                            }
+                        }
+
+                        @Override
+                        public void onGoAwayReceived(final int lastStreamId, final long errorCode, final ByteBuf debugData) {
+                            ApnsClient.this.handleGoAwayReceived(connectionReadyPromise, host, port);
+                        }
+                    });
                 }
             }
         });
 
-        return responseFuture;
+        return connectionReadyPromise;
     }
 
     /**
-     * <p>Gracefully disconnects from the APNs gateway. The disconnection process will wait until notifications that
-     * have been sent to the APNs server have been either accepted or rejected. Note that some notifications passed to
-     * {@link ApnsClient#sendNotification(ApnsPushNotification)} may still be enqueued and
-     * not yet sent by the time the shutdown process begins; the {@code Futures} associated with those notifications
-     * will fail.</p>
-     *
-     * <p>The returned {@code Future} will be marked as complete when the connection has closed completely. If the
+     * Replaces the given connection with a new one if it's still this client's active connection. The active connection
+     * keeps sending notifications until its replacement is ready, so there's no gap between the two.
+     */
+    private void recycleConnection(final ChannelPromise recycledConnectionPromise, final String host, final int port) {
+        final ChannelPromise promotedConnectionPromise;
+
+        synchronized (this.bootstrap) {
+            if (this.reconnectionPromise == null || !this.connectionManager.startRecycling(recycledConnectionPromise)) {
+                return;
+            }
+
+            promotedConnectionPromise = this.promoteStandbyConnection(host, port);
+
+            if (promotedConnectionPromise == null) {
+                // The replacement is set up just like a standby connection, and will take over as soon as it's ready.
+                this.connectStandby(host, port);
+            }
+        }
+
+        if (promotedConnectionPromise != null) {
+            this.replayBufferedNotifications(promotedConnectionPromise);
+            this.sendMigratingNotifications(promotedConnectionPromise);
+        }
+    }
+
+    /**
+     * Schedules the given connection to be replaced once it reaches this client's maximum connection age, if any.
+     * Callers must hold the bootstrap lock.
+     */
+    private void scheduleConnectionRecycling(final ChannelPromise connectionReadyPromise, final String host, final int port) {
+        final long maxConnectionAgeNanos = this.connectionRecyclingPolicy.getMaxConnectionAge(TimeUnit.NANOSECONDS);
+
+        if (maxConnectionAgeNanos <= 0) {
+            return;
+        }
+
+        // Clients that connected at the same moment shouldn't all replace their connections at the same moment, too.
+        final long delayNanos = maxConnectionAgeNanos - ThreadLocalRandom.current().nextLong(maxConnectionAgeNanos / 10 + 1);
+
+        final ScheduledFuture<?> recyclingFuture = connectionReadyPromise.channel().eventLoop().schedule(new Runnable() {
+
+            @Override
+            public void run() {
+                log.info("Connection to {} has reached its maximum age; replacing it with a new connection.",
+                        connectionReadyPromise.channel().remoteAddress());
+
+                ApnsClient.this.recycleConnection(connectionReadyPromise, host, port);
+            }
+        }, delayNanos, TimeUnit.NANOSECONDS);
+
+        connectionReadyPromise.channel().closeFuture().addListener(new GenericFutureListener<ChannelFuture>() {
+
+            @Override
+            public void operationComplete(final ChannelFuture future) {
+                recyclingFuture.cancel(false);
+            }
+        });
+    }
+
+    /**
+     * Fails the pending writability promise, if any; it belongs to a connection that is no longer this client's active
+     * connection. Callers must hold the bootstrap lock.
+     */
+    private void failWritabilityPromise() {
+        if (this.writabilityPromise != null) {
+            this.writabilityPromise.tryFailure(NOT_CONNECTED_EXCEPTION);
+            this.writabilityPromise = null;
+        }
+    }
+
+    /**
+     * Retires a connection that received a GOAWAY frame from the server. Streams the server has already accepted
+     * finish normally before the retired connection closes, but no new notifications will be sent on it; instead,
+     * this client switches to its standby connection if it has one ready, or starts opening a replacement connection
+     * immediately.
+     */
+    private void handleGoAwayReceived(final ChannelPromise goAwayConnectionPromise, final String host, final int port) {
+        final ChannelPromise promotedConnectionPromise;
+
+        synchronized (this.bootstrap) {
+            final ConnectionManager.ConnectionState state = this.connectionManager.getState(goAwayConnectionPromise);
+
+            if (state == ConnectionManager.ConnectionState.STANDBY) {
+                // Closing the standby connection will get a replacement standby connection scheduled.
+                log.debug("Standby connection received GOAWAY from APNs server.");
+                goAwayConnectionPromise.channel().close();
+
+                return;
+            } else if (state != ConnectionManager.ConnectionState.ACTIVE || this.reconnectionPromise == null) {
+                return;
+            }
+
+            log.info("Received GOAWAY from {}; moving to a new connection.", goAwayConnectionPromise.channel().remoteAddress());
+
+            // Promoting the standby connection retires the connection that received the GOAWAY frame.
+            promotedConnectionPromise = this.promoteStandbyConnection(host, port);
+
+            if (promotedConnectionPromise == null) {
+                this.connectionManager.retireActiveConnection();
+                this.failWritabilityPromise();
+
+                // We're in the middle of handling the GOAWAY frame on the retired connection's event loop; rather than
+                // opening a new connection from here (and while holding the lock), we schedule the attempt just like
+                // any other reconnection, which also means disconnecting in the meantime will cancel it.
+                this.scheduledReconnectFuture = goAwayConnectionPromise.channel().eventLoop().schedule(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        ApnsClient.this.connect(host, port);
+                    }
+                }, 0, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        if (promotedConnectionPromise != null) {
+            this.replayBufferedNotifications(promotedConnectionPromise);
+            this.sendMigratingNotifications(promotedConnectionPromise);
+        }
+    }
+
+    private void handleConnectionClosed(final ChannelPromise closedConnectionPromise, final String host, final int port) {
+        final ChannelPromise promotedConnectionPromise;
+
+        synchronized (this.bootstrap) {
+            // We always want to try to fail the "connection ready" promise if the connection closes; if it has already
+            // succeeded, this will have no effect.
+            closedConnectionPromise.tryFailure(new IllegalStateException("Channel closed before HTTP/2 preface completed."));
+
+            final ConnectionManager.ConnectionState state = this.connectionManager.handleConnectionClosed(closedConnectionPromise);
+
+            if (state == ConnectionManager.ConnectionState.STANDBY) {
+                log.debug("Standby connection closed before it was needed.");
+                this.scheduleStandbyConnection(host, port);
+
+                return;
+            } else if (state != ConnectionManager.ConnectionState.ACTIVE) {
+                // This was either a standby connection we closed ourselves while disconnecting or a connection we
+                // retired after replacing it.
+                return;
+            }
+
+            this.failWritabilityPromise();
+
+            if (this.reconnectionPromise == null) {
+                return;
+            }
+
+            promotedConnectionPromise = this.promoteStandbyConnection(host, port);
+
+            if (promotedConnectionPromise == null) {
+                final ReconnectBackoffPolicy backoffPolicy = this.reconnectBackoffPolicy;
+
+                if (this.connectionEstablished && backoffPolicy.shouldReset(System.nanoTime() - this.connectionEstablishedNanos)) {
+                    this.reconnectDelayNanos = 0;
+                }
+
+                this.connectionEstablished = false;
+                this.reconnectDelayNanos = backoffPolicy.getNextDelayNanos(this.reconnectDelayNanos);
+
+                log.debug("Disconnected. Next automatic reconnection attempt in {} milliseconds.",
+                        TimeUnit.NANOSECONDS.toMillis(this.reconnectDelayNanos));
+
+                this.scheduledReconnectFuture = closedConnectionPromise.channel().eventLoop().schedule(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        log.debug("Attempting to reconnect.");
+                        ApnsClient.this.connect(host, port);
+                    }
+                }, this.reconnectDelayNanos, TimeUnit.NANOSECONDS);
+
+                this.metricsListener.handleReconnectionScheduled(this, this.reconnectDelayNanos);
+            }
+        }
+
+        if (promotedConnectionPromise != null) {
+            this.replayBufferedNotifications(promotedConnectionPromise);
+            this.sendMigratingNotifications(promotedConnectionPromise);
+        }
+    }
+
+    /**
+     * Opens a standby connection if this client should have one (either because it keeps a standby connection or
+     * because it's replacing its active connection) and doesn't already. Callers must hold the bootstrap lock.
+     */
+    private void connectStandby(final String host, final int port) {
+        if ((!this.useStandbyConnection && !this.connectionManager.isRecyclingActiveConnection()) ||
+                this.connectionManager.getStandbyConnection() != null || this.reconnectionPromise == null) {
+
+            return;
+        }
+
+        final ChannelPromise standbyConnectionReadyPromise = this.openConnection(host, port);
+        this.connectionManager.setStandbyConnection(standbyConnectionReadyPromise);
+
+        standbyConnectionReadyPromise.channel().closeFuture().addListener(new GenericFutureListener<ChannelFuture>() {
+
+            @Override
+            public void operationComplete(final ChannelFuture future) throws Exception {
+                ApnsClient.this.handleConnectionClosed(standbyConnectionReadyPromise, host, port);
+            }
+        });
+
+        standbyConnectionReadyPromise.addListener(new GenericFutureListener<ChannelFuture>() {
+
+            @Override
+            public void operationComplete(final ChannelFuture future) throws Exception {
+                if (!future.isSuccess()) {
+                    log.debug("Failed to open standby connection.", future.cause());
+                    return;
+                }
+
+                log.debug("Standby connection to {} ready.", future.channel().remoteAddress());
+
+                final ChannelPromise promotedConnectionPromise;
+
+                synchronized (ApnsClient.this.bootstrap) {
+                    ApnsClient.this.standbyConnectionDelayNanos = 0;
+
+                    // If the active connection closed while the standby connection was still getting ready, there's no
+                    // reason to wait for the scheduled reconnection attempt.
+                    final ConnectionManager connectionManager = ApnsClient.this.connectionManager;
+
+                    if (connectionManager.getActiveConnection() == null && ApnsClient.this.reconnectionPromise != null) {
+                        if (ApnsClient.this.scheduledReconnectFuture != null) {
+                            ApnsClient.this.scheduledReconnectFuture.cancel(false);
+                        }
+
+                        promotedConnectionPromise = ApnsClient.this.promoteStandbyConnection(host, port);
+                    } else if (connectionManager.isRecyclingActiveConnection()) {
+                        // This is the replacement for a connection we're recycling; promoting it retires the old one.
+                        promotedConnectionPromise = ApnsClient.this.promoteStandbyConnection(host, port);
+                    } else {
+                        if (!ApnsClient.this.useStandbyConnection &&
+                                connectionManager.getState(standbyConnectionReadyPromise) == ConnectionManager.ConnectionState.STANDBY) {
+
+                            // We were replacing a connection that has since been replaced some other way.
+                            future.channel().close();
+                        }
+
+                        promotedConnectionPromise = null;
+                    }
+                }
+
+                if (promotedConnectionPromise != null) {
+                    ApnsClient.this.replayBufferedNotifications(promotedConnectionPromise);
+                    ApnsClient.this.sendMigratingNotifications(promotedConnectionPromise);
+                }
+            }
+        });
+    }
+
+    /**
+     * Schedules a new standby connection after the last one closed before it was needed, backing off just like
+     * reconnection attempts so a server that keeps rejecting standby connections isn't flooded with them. Callers must
+     * hold the bootstrap lock.
+     */
+    private void scheduleStandbyConnection(final String host, final int port) {
+        final ChannelPromise connectionReadyPromise = this.connectionManager.getActiveConnection();
+
+        // If there's no active connection, we'll open a new standby connection once we've reconnected.
+        if ((!this.useStandbyConnection && !this.connectionManager.isRecyclingActiveConnection()) || this.reconnectionPromise == null ||
+                connectionReadyPromise == null || !connectionReadyPromise.isSuccess()) {
+            return;
+        }
+
+        this.standbyConnectionDelayNanos = this.reconnectBackoffPolicy.getNextDelayNanos(this.standbyConnectionDelayNanos);
+
+        this.scheduledStandbyConnectionFuture = connectionReadyPromise.channel().eventLoop().schedule(new Runnable() {
+
+            @Override
+            public void run() {
+                synchronized (ApnsClient.this.bootstrap) {
+                    ApnsClient.this.connectStandby(host, port);
+                }
+            }
+        }, this.standbyConnectionDelayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Makes this client's standby connection its active connection if the standby connection is ready, then starts
+     * opening a new standby connection. The former active connection, if any, retires once the standby connection has
+     * taken its place. Callers must hold the bootstrap lock.
+     *
+     * @return the promoted connection's "connection ready" promise, or {@code null} if no standby connection was ready
+     */
+    private ChannelPromise promoteStandbyConnection(final String host, final int port) {
+        final ChannelPromise standbyConnectionReadyPromise = this.connectionManager.promoteStandbyConnection();
+
+        if (standbyConnectionReadyPromise == null) {
+            return null;
+        }
+
+        log.info("Switched to standby connection to {}.", standbyConnectionReadyPromise.channel().remoteAddress());
+
+        this.failWritabilityPromise();
+
+        this.reconnectionPromise.trySuccess();
+        this.reconnectionPromise = standbyConnectionReadyPromise.channel().newPromise();
+
+        this.connectionEstablished = true;
+        this.connectionEstablishedNanos = System.nanoTime();
+
+        this.scheduleConnectionRecycling(standbyConnectionReadyPromise, host, port);
+        this.connectStandby(host, port);
+
+        return standbyConnectionReadyPromise;
+    }
+
+    /**
+     * Indicates whether this client has a standby connection ready to take over immediately if its active connection
+     * closes.
+     *
+     * @return {@code true} if this client has a standby connection ready or {@code false} otherwise
+     *
+     * @see ApnsClientBuilder#setUseStandbyConnection(boolean)
+     *
+     * @since 0.11
+     */
+    public boolean isStandbyConnectionReady() {
+        return this.connectionManager.isStandbyConnectionReady();
+    }
+
+    /**
+     * Returns the channel for this client's active connection.
+     *
+     * @return the channel for this client's active connection, or {@code null} if this client is not connecting or
+     * connected
+     */
+    Channel getActiveChannel() {
+        final ChannelPromise connectionReadyPromise = this.connectionManager.getActiveConnection();
+        return connectionReadyPromise != null ? connectionReadyPromise.channel() : null;
+    }
+
+    /**
+     * Indicates whether this client is connected to the APNs gateway and ready to send push notifications.
+     *
+     * @return {@code true} if this client is connected and ready to send notifications or {@code false} otherwise
+     *
+     * @since 0.5
+     */
+    public boolean isConnected() {
+        final ChannelPromise connectionReadyPromise = this.connectionManager.getActiveConnection();
+        return (connectionReadyPromise != null && connectionReadyPromise.isSuccess());
+    }
+
+    /**
+     * <p>Indicates whether this client is connected to the APNs gateway and its connection can accept more data without
+     * buffering past its high write buffer water mark. Producers that send notifications faster than the connection can
+     * write them may wish to pause while the client is not writable rather than queueing more notifications in the
+     * client's outbound buffer.</p>
+     *
+     * <p>Notifications sent while the client is not writable will still be sent, but will wait in the outbound buffer
+     * (and consume memory) until earlier notifications have been written.</p>
+     *
+     * @return {@code true} if this client is connected and writable or {@code false} otherwise
+     *
+     * @see ApnsClientBuilder#setWriteBufferWaterMark(int, int)
+     * @see ApnsClient#getWritabilityFuture()
+     *
+     * @since 0.11
+     */
+    public boolean isWritable() {
+        final ChannelPromise connectionReadyPromise = this.connectionManager.getActiveConnection();
+        return connectionReadyPromise != null && connectionReadyPromise.isSuccess() && connectionReadyPromise.channel().isWritable();
+    }
+
+    /**
+     * Returns the number of concurrent streams the APNs server allows on this client's active connection, or zero if
+     * this client is not connected. Producers that regulate how many notifications they keep in flight may use this as
+     * an upper bound; notifications sent beyond this limit wait in the client until earlier notifications have been
+     * resolved.
+     *
+     * @return the number of concurrent streams allowed on the active connection, or zero if this client is not
+     * connected
+     *
+     * @since 0.11
+     */
+    public int getMaxConcurrentStreams() {
+        final ChannelPromise connectionReadyPromise = this.connectionManager.getActiveConnection();
+
+        if (connectionReadyPromise == null || !connectionReadyPromise.isSuccess()) {
+            return 0;
+        }
+
+        final ApnsClientHandler handler = connectionReadyPromise.channel().attr(CLIENT_HANDLER_KEY).get();
+        return handler != null ? handler.connection().local().maxActiveStreams() : 0;
+    }
+
+    /**
+     * Returns a {@code Future} that will succeed when this client is writable. If the client is already writable, the
+     * returned {@code Future} will succeed immediately. If the client is not connected or is disconnected before it
+     * becomes writable again, the returned {@code Future} will fail with a {@link ClientNotConnectedException}.
+     *
+     * @return a {@code Future} that will succeed when this client is writable
+     *
+     * @see ApnsClient#isWritable()
+     *
+     * @since 0.11
+     */
+    public Future<Void> getWritabilityFuture() {
+        final Future<Void> writabilityFuture;
+
+        synchronized (this.bootstrap) {
+            if (!this.isConnected()) {
+                writabilityFuture = new FailedFuture<>(GlobalEventExecutor.INSTANCE, NOT_CONNECTED_EXCEPTION);
+            } else {
+                final Channel channel = this.connectionManager.getActiveConnection().channel();
+
+                if (channel.isWritable()) {
+                    writabilityFuture = channel.newSucceededFuture();
+                } else {
+                    if (this.writabilityPromise == null) {
+                        this.writabilityPromise = channel.newPromise();
+                    }
+
+                    writabilityFuture = this.writabilityPromise;
+                }
+            }
+        }
+
+        return writabilityFuture;
+    }
+
+    private void handleWritabilityChanged(final Channel channel) {
+        final ChannelPromise connectionReadyPromise = this.connectionManager.getActiveConnection();
+
+        if (connectionReadyPromise == null || connectionReadyPromise.channel() != channel) {
+            // We don't care about the writability of standby connections.
+            return;
+        }
+
+        final boolean writable = channel.isWritable();
+
+        log.trace("Writability of {} changed to {}.", channel, writable);
+        this.metricsListener.handleWritabilityChanged(this, writable);
+
+        if (writable) {
+            final ChannelPromise writabilityPromise;
+
+            synchronized (this.bootstrap) {
+                writabilityPromise = this.writabilityPromise;
+                this.writabilityPromise = null;
+            }
+
+            if (writabilityPromise != null) {
+                writabilityPromise.trySuccess();
+            }
+        }
+    }
+
+    /**
+     * <p>Returns a {@code Future} that will succeed when the client has re-established a connection to the APNs gateway.
+     * Callers may use this method to determine when it is safe to resume sending notifications after a send attempt
+     * fails with a {@link ClientNotConnectedException}.</p>
+     *
+     * <p>If the client is already connected, the {@code Future} returned by this method will succeed immediately. If
+     * the client was not previously connected (either because it has never been connected or because it was explicitly
+     * disconnected via the {@link ApnsClient#disconnect()} method), the {@code Future} returned by this method will
+     * fail immediately with an {@link IllegalStateException}.</p>
+     *
+     * @return a {@code Future} that will succeed when the client has established a connection to the APNs gateway
+     *
+     * @since 0.5
+     */
+    public Future<Void> getReconnectionFuture() {
+        final Future<Void> reconnectionFuture;
+
+        synchronized (this.bootstrap) {
+            if (this.isConnected()) {
+                reconnectionFuture = this.connectionManager.getActiveConnection().channel().newSucceededFuture();
+            } else if (this.reconnectionPromise != null) {
+                // If we're not connected, but have a reconnection promise, we're in the middle of a reconnection
+                // attempt.
+                reconnectionFuture = this.reconnectionPromise;
+            } else {
+                // We're not connected and have no reconnection future, which means we've either never connected or have
+                // explicitly disconnected.
+                reconnectionFuture = new FailedFuture<>(GlobalEventExecutor.INSTANCE,
+                        new IllegalStateException("Client was not previously connected."));
+            }
+        }
+
+        return reconnectionFuture;
+    }
+
+    /**
+     * <p>Sends a push notification to the APNs gateway.</p>
+     *
+     * <p>This method returns a {@code Future} that indicates whether the notification was accepted or rejected by the
+     * gateway. If the notification was accepted, it may be delivered to its destination device at some time in the
+     * future, but final delivery is not guaranteed. Rejections should be considered permanent failures, and callers
+     * should <em>not</em> attempt to re-send the notification.</p>
+     *
+     * <p>The returned {@code Future} may fail with an exception if the notification could not be sent. Failures to
+     * <em>send</em> a notification to the gateway—i.e. those that fail with exceptions—should generally be considered
+     * non-permanent, and callers should attempt to re-send the notification when the underlying problem has been
+     * resolved.</p>
+     *
+     * <p>In particular, attempts to send a notification when the client is not connected will fail with a
+     * {@link ClientNotConnectedException}. If the client was previously connected and has not been explicitly
+     * disconnected (via the {@link ApnsClient#disconnect()} method), the client will attempt to reconnect
+     * automatically. Callers may wait for a reconnection attempt to complete by waiting for the {@code Future} returned
+     * by the {@link ApnsClient#getReconnectionFuture()} method.</p>
+     *
+     * <p>If the client was built with notification validation enabled, notifications that would certainly be rejected
+     * by the APNs gateway (for example, because their payload is too large) are rejected immediately without being
+     * sent. The returned {@code Future} will succeed with a rejected response carrying the same rejection reason the
+     * gateway would have reported.</p>
+     *
+     * @param notification the notification to send to the APNs gateway
+     *
+     * @param <T> the type of notification to be sent
+     *
+     * @return a {@code Future} that will complete when the notification has been either accepted or rejected by the
+     * APNs gateway
+     *
+     * @see ApnsClient#sendNotification(ApnsPushNotification, PushNotificationResponseListener)
+     *
+     * @since 0.8
+     */
+    public <T extends ApnsPushNotification> Future<PushNotificationResponse<T>> sendNotification(final T notification) {
+        // As in the private sendNotification method, we hold a reference to the connection ready promise rather than
+        // synchronizing.
+        final ChannelPromise connectionReadyPromise = this.connectionManager.getActiveConnection();
+
+        final EventExecutor executor;
+
+        if (this.callbackExecutor != null) {
+            executor = this.callbackExecutor;
+        } else if (connectionReadyPromise != null && connectionReadyPromise.isSuccess()) {
+            executor = connectionReadyPromise.channel().eventLoop();
+        } else {
+            executor = GlobalEventExecutor.INSTANCE;
+        }
+
+        final PushNotificationResponsePromise<T> responsePromise = new PushNotificationResponsePromise<>(executor);
+        this.sendNotification(notification, responsePromise, connectionReadyPromise);
+
+        return responsePromise;
+    }
+
+    /**
+     * <p>Sends a push notification to the APNs gateway and notifies the given listener when the notification has been
+     * either accepted or rejected by the gateway, or when the attempt to send the notification has failed. Outcomes
+     * have the same meaning as those reported by the {@code Future} returned by
+     * {@link ApnsClient#sendNotification(ApnsPushNotification)}.</p>
+     *
+     * <p>Unlike {@link ApnsClient#sendNotification(ApnsPushNotification)}, this method does not create a new
+     * {@code Future} for each notification, and callers may use a single listener for any number of notifications.
+     * Callers sending notifications at high rates may prefer this method to reduce the number of short-lived objects
+     * created per notification.</p>
+     *
+     * <p>If this client was built with a callback executor (see
+     * {@link ApnsClientBuilder#setCallbackExecutor(Executor)}), listeners are called from that executor (or, if the
+     * executor rejects them, from the thread that resolved the notification). Otherwise, listeners are called from the client's I/O threads when the gateway responds or the
+     * write fails, and may be called from the calling thread before this method returns if the notification is
+     * rejected or fails before it is written (for example, because it fails validation or the client isn't connected).
+     * Listeners called from I/O threads must not block.</p>
+     *
+     * @param notification the notification to send to the APNs gateway
+     * @param responseListener the listener to notify when the attempt to send the notification has finished
+     *
+     * @param <T> the type of notification to be sent
+     *
+     * @since 0.11
+     */
+    public <T extends ApnsPushNotification> void sendNotification(final T notification, final PushNotificationResponseListener<T> responseListener) {
+        this.sendNotification(notification, responseListener, this.connectionManager.getActiveConnection());
+    }
+
+    /**
+     * <p>Sends a push notification to the APNs gateway and blocks until the notification has been either accepted or
+     * rejected by the gateway, or until the attempt to send the notification has failed. Outcomes have the same meaning
+     * as those reported by the {@code Future} returned by {@link ApnsClient#sendNotification(ApnsPushNotification)}.</p>
+     *
+     * <p>This method is intended for callers that dedicate a thread to each request. Waiting threads are parked with
+     * {@link java.util.concurrent.locks.LockSupport} rather than waiting on a monitor, so many threads may wait for
+     * replies at the same time cheaply. This method must not be called from the client's I/O threads or from its
+     * callback executor, since the thread would then be waiting on itself.</p>
+     *
+     * @param notification the notification to send to the APNs gateway
+     *
+     * @param <T> the type of notification to be sent
+     *
+     * @return the response from the APNs gateway
+     *
+     * @throws InterruptedException if the calling thread was interrupted while waiting for a reply
+     * @throws ExecutionException if the attempt to send the notification failed; the cause of the failure is available
+     * via {@link ExecutionException#getCause()}
+     * @throws BlockingOperationException if called from a thread that would need to deliver the reply
+     *
+     * @since 0.11
+     */
+    public <T extends ApnsPushNotification> PushNotificationResponse<T> sendNotificationAndWait(final T notification) throws InterruptedException, ExecutionException {
+        final BlockingPushNotificationResponseListener<T> responseListener = this.sendNotificationForBlockingResponse(notification);
+        responseListener.await();
+
+        return responseListener.getResponse();
+    }
+
+    /**
+     * Sends a push notification to the APNs gateway and blocks until the notification has been either accepted or
+     * rejected by the gateway, until the attempt to send the notification has failed, or until the given timeout has
+     * elapsed. If the timeout elapses, the notification may still be delivered.
+     *
+     * @param notification the notification to send to the APNs gateway
+     * @param timeout the maximum time to wait for a reply
+     * @param timeoutUnit the time unit of the given timeout
+     *
+     * @param <T> the type of notification to be sent
+     *
+     * @return the response from the APNs gateway
+     *
+     * @throws InterruptedException if the calling thread was interrupted while waiting for a reply
+     * @throws ExecutionException if the attempt to send the notification failed; the cause of the failure is available
+     * via {@link ExecutionException#getCause()}
+     * @throws TimeoutException if no reply arrived before the timeout elapsed
+     * @throws BlockingOperationException if called from a thread that would need to deliver the reply
+     *
+     * @see ApnsClient#sendNotificationAndWait(ApnsPushNotification)
+     *
+     * @since 0.11
+     */
+    public <T extends ApnsPushNotification> PushNotificationResponse<T> sendNotificationAndWait(final T notification, final long timeout, final TimeUnit timeoutUnit) throws InterruptedException, ExecutionException, TimeoutException {
+        final BlockingPushNotificationResponseListener<T> responseListener = this.sendNotificationForBlockingResponse(notification);
+
+        if (!responseListener.await(timeout, timeoutUnit)) {
+            throw new TimeoutException("Timed out while waiting for a reply from the APNs gateway.");
+        }
+
+        return responseListener.getResponse();
+    }
+
+    private <T extends ApnsPushNotification> BlockingPushNotificationResponseListener<T> sendNotificationForBlockingResponse(final T notification) {
+        final ChannelPromise connectionReadyPromise = this.connectionManager.getActiveConnection();
+        final CallbackEventExecutor callbackExecutor = this.callbackExecutor;
+
+        // Replies are delivered either by the callback executor or, if there isn't one, by the channel's event loop;
+        // blocking either of those while waiting for a reply would wait forever.
+        final boolean callerDeliversReplies = callbackExecutor != null ? callbackExecutor.inEventLoop() :
+                connectionReadyPromise != null && connectionReadyPromise.channel().eventLoop().inEventLoop();
+
+        if (callerDeliversReplies) {
+            throw new BlockingOperationException("Cannot wait for a reply from the thread that delivers replies.");
+        }
+
+        final BlockingPushNotificationResponseListener<T> responseListener = new BlockingPushNotificationResponseListener<>();
+        this.sendNotification(notification, responseListener, connectionReadyPromise);
+
+        return responseListener;
+    }
+
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private <T extends ApnsPushNotification> void sendNotification(final T notification, final PushNotificationResponseListener<T> responseListener, final ChannelPromise connectionReadyPromise) {
+        Objects.requireNonNull(responseListener, "Response listener must not be null.");
+
+        this.pendingNotificationCount.incrementAndGet();
+
+        final RetryBudget retryBudget = this.retryBudget;
+
+        if (retryBudget != null) {
+            retryBudget.handleNotificationSent();
+        }
+
+        final PendingPushNotification pendingPushNotification = PendingPushNotification.newInstance(this, this.metricsListener,
+                notification, this.nextNotificationId.getAndIncrement(), (PushNotificationResponseListener) responseListener,
+                this.callbackExecutor);
+
+        if (this.replayBuffer != null) {
+            pendingPushNotification.assignApnsId();
+        }
+
+        // Instead of synchronizing here, we keep a final reference to the connection ready promise. We can get away
+        // with this because we're not changing the state of the connection or its promises. Keeping a reference ensures
+        // we won't suddenly "lose" the channel and get a NullPointerException, but risks sending a notification after
+        // things have shut down. In that case, though, the listener should be notified of the failure quickly, and the
+        // benefit of not synchronizing for every write seems worth it.
+        final String preflightRejectionReason = this.validateNotifications ?
+                PushNotificationValidator.getRejectionReason(notification, this.maximumPayloadSize, this.signingKey != null) : null;
+
+        if (preflightRejectionReason != null) {
+            log.debug("Rejected push notification before sending: {} ({})", notification, preflightRejectionReason);
+            pendingPushNotification.trySuccess(new SimplePushNotificationResponse<ApnsPushNotification>(notification, false, preflightRejectionReason, null));
+        } else if (!this.tryAcquireMemoryBudget(pendingPushNotification)) {
+            log.debug("Failed to send push notification because pending notifications exceed memory budget: {}", notification);
+            pendingPushNotification.tryFailure(NOTIFICATION_BUDGET_EXCEEDED_EXCEPTION);
+        } else if (this.isCircuitOpen()) {
+            log.debug("Failed to send push notification because circuit breaker is open: {}", notification);
+            pendingPushNotification.tryFailure(CIRCUIT_BREAKER_OPEN_EXCEPTION);
+        } else if (this.isRateLimited(notification)) {
+            log.debug("Rejected push notification because it exceeds a local rate limit: {}", notification);
+
+            // The circuit breaker may have counted this notification as a probe, but it will never reach the server.
+            final CircuitBreaker circuitBreaker = this.circuitBreaker;
+
+            if (circuitBreaker != null) {
+                circuitBreaker.releaseProbe();
+            }
+
+            pendingPushNotification.trySuccess(new SimplePushNotificationResponse<ApnsPushNotification>(notification, false, TOO_MANY_REQUESTS_REASON, null));
+        } else {
+            this.writePushNotification(pendingPushNotification, connectionReadyPromise);
+        }
+    }
+
+    private boolean isRateLimited(final ApnsPushNotification notification) {
+        final DeviceTokenRateLimiter deviceTokenRateLimiter = this.deviceTokenRateLimiter;
+
+        if (deviceTokenRateLimiter != null && notification.getToken() != null && !deviceTokenRateLimiter.tryAcquire(notification.getToken())) {
+            return true;
+        }
+
+        final TopicRateLimiter topicRateLimiter = this.topicRateLimiter;
+
+        return topicRateLimiter != null && notification.getTopic() != null && !topicRateLimiter.tryAcquire(notification.getTopic());
+    }
+
+    private boolean tryAcquireMemoryBudget(final PendingPushNotification pendingPushNotification) {
+        final long maxPendingNotificationBytes = this.maxPendingNotificationBytes;
+
+        if (maxPendingNotificationBytes <= 0) {
+            return true;
+        }
+
+        final long footprintBytes = estimateFootprintBytes(pendingPushNotification.getPushNotification());
+        long current;
+
+        do {
+            current = this.pendingNotificationBytes.get();
+
+            if (current + footprintBytes > maxPendingNotificationBytes) {
+                return false;
+            }
+        } while (!this.pendingNotificationBytes.compareAndSet(current, current + footprintBytes));
+
+        pendingPushNotification.setFootprintBytes(footprintBytes);
+
+        return true;
+    }
+
+    /**
+     * Estimates the number of bytes of memory a notification holds until it has been resolved. Strings are counted
+     * at two bytes per character; the payload is counted again for its encoded copy in the outbound buffer, and the
+     * token again for its copy in the request path.
+     *
+     * @param pushNotification the notification for which to estimate a footprint
+     *
+     * @return the estimated number of bytes of memory held by the given notification
+     */
+    static long estimateFootprintBytes(final ApnsPushNotification pushNotification) {
+        long footprintBytes = NOTIFICATION_OVERHEAD_BYTES;
+
+        if (pushNotification.getPayload() != null) {
+            footprintBytes += 3L * pushNotification.getPayload().length();
+        }
+
+        if (pushNotification.getToken() != null) {
+            footprintBytes += 4L * pushNotification.getToken().length();
+        }
+
+        if (pushNotification.getTopic() != null) {
+            footprintBytes += 2L * pushNotification.getTopic().length();
+        }
+
+        if (pushNotification.getCollapseId() != null) {
+            footprintBytes += 2L * pushNotification.getCollapseId().length();
+        }
+
+        return footprintBytes;
+    }
+
+    private boolean isCircuitOpen() {
+        final CircuitBreaker circuitBreaker = this.circuitBreaker;
+        return circuitBreaker != null && !circuitBreaker.allowRequest();
+    }
+
+    private void writePushNotification(final PendingPushNotification pendingPushNotification, final ChannelPromise connectionReadyPromise) {
+        if (connectionReadyPromise != null && connectionReadyPromise.isSuccess() && connectionReadyPromise.channel().isActive()) {
+            connectionReadyPromise.channel().attr(CLIENT_HANDLER_KEY).get().writePushNotification(pendingPushNotification);
+        } else {
+            log.debug("Failed to send push notification because client is not connected: {}", pendingPushNotification.getPushNotification());
+            pendingPushNotification.tryFailure(NOT_CONNECTED_EXCEPTION);
+        }
+    }
+
+    /**
+     * Holds a notification that was lost to a closed connection so it can be sent again when this client reconnects.
+     * Notifications are only held if this client replays notifications, has room in its replay buffer, and expects to
+     * reconnect (i.e. hasn't been disconnected deliberately).
+     *
+     * @param pendingPushNotification the notification to replay
+     *
+     * @return {@code true} if the notification will be replayed or {@code false} otherwise
+     */
+    boolean tryBufferForReplay(final PendingPushNotification pendingPushNotification) {
+        final BlockingQueue<PendingPushNotification.Reference> replayBuffer = this.replayBuffer;
+
+        if (replayBuffer == null || this.reconnectionPromise == null || !replayBuffer.offer(pendingPushNotification.newReference())) {
+            return false;
+        }
+
+        log.debug("Holding push notification for replay after connection closure: {}", pendingPushNotification.getPushNotification());
+
+        // We normally replay notifications when we reconnect, but if we already have a new connection by the time we
+        // hear that a notification's old connection closed, there's no need to wait.
+        final ChannelPromise connectionReadyPromise = this.connectionManager.getActiveConnection();
+
+        if (connectionReadyPromise != null && connectionReadyPromise.isSuccess() && connectionReadyPromise.channel().isActive() &&
+                connectionReadyPromise.channel().attr(CLIENT_HANDLER_KEY).get() != pendingPushNotification.getClientHandler()) {
+
+            this.replayBufferedNotifications(connectionReadyPromise);
+        }
+
+        return true;
+    }
+
+    private void replayBufferedNotifications(final ChannelPromise connectionReadyPromise) {
+        final BlockingQueue<PendingPushNotification.Reference> replayBuffer = this.replayBuffer;
+
+        if (replayBuffer != null) {
+            for (PendingPushNotification.Reference reference = replayBuffer.poll(); reference != null; reference = replayBuffer.poll()) {
+                final PendingPushNotification pendingPushNotification = reference.get();
+
+                if (pendingPushNotification != null) {
+                    this.metricsListener.handleNotificationReplayed(this, pendingPushNotification.getNotificationId());
+                    this.writePushNotification(pendingPushNotification, connectionReadyPromise);
+                }
+            }
+        }
+    }
+
+    private void failBufferedNotifications() {
+        final BlockingQueue<PendingPushNotification.Reference> replayBuffer = this.replayBuffer;
+
+        if (replayBuffer != null) {
+            for (PendingPushNotification.Reference reference = replayBuffer.poll(); reference != null; reference = replayBuffer.poll()) {
+                final PendingPushNotification pendingPushNotification = reference.get();
+
+                if (pendingPushNotification != null) {
+                    pendingPushNotification.tryFailure(NOT_CONNECTED_EXCEPTION);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sends a notification on a new connection because the server announced (with a GOAWAY frame) that it would not
+     * process the notification on the connection to which it was originally sent. Unlike notifications lost to closed
+     * connections, these notifications are known not to have reached the server, and so are always sent again. If this
+     * client doesn't have a new connection ready yet, the notification waits until it does.
+     *
+     * @param pendingPushNotification the notification to send on a new connection
+     */
+    void migratePushNotification(final PendingPushNotification pendingPushNotification) {
+        final ChannelPromise connectionReadyPromise;
+
+        synchronized (this.bootstrap) {
+            final ChannelPromise activeConnectionPromise = this.connectionManager.getActiveConnection();
+
+            if (canAcceptNotifications(activeConnectionPromise)) {
+                connectionReadyPromise = activeConnectionPromise;
+            } else if (this.reconnectionPromise != null) {
+                log.debug("Holding push notification until a new connection is ready: {}", pendingPushNotification.getPushNotification());
+                this.migratingNotifications.add(pendingPushNotification.newReference());
+
+                return;
+            } else {
+                // We've been disconnected deliberately, and won't have a new connection.
+                connectionReadyPromise = null;
+            }
+        }
+
+        this.writePushNotification(pendingPushNotification, connectionReadyPromise);
+    }
+
+    private static boolean canAcceptNotifications(final ChannelPromise connectionReadyPromise) {
+        return connectionReadyPromise != null && connectionReadyPromise.isSuccess() && connectionReadyPromise.channel().isActive() &&
+                !connectionReadyPromise.channel().attr(CLIENT_HANDLER_KEY).get().isGoingAway();
+    }
+
+    private void sendMigratingNotifications(final ChannelPromise connectionReadyPromise) {
+        for (final PendingPushNotification pendingPushNotification : this.pollMigratingNotifications()) {
+            this.writePushNotification(pendingPushNotification, connectionReadyPromise);
+        }
+    }
+
+    private void failMigratingNotifications() {
+        for (final PendingPushNotification pendingPushNotification : this.pollMigratingNotifications()) {
+            if (!pendingPushNotification.tryReplay()) {
+                pendingPushNotification.tryFailure(NOT_CONNECTED_EXCEPTION);
+            }
+        }
+    }
+
+    private List<PendingPushNotification> pollMigratingNotifications() {
+        final List<PendingPushNotification> migratingNotifications = new ArrayList<>();
+
+        synchronized (this.bootstrap) {
+            for (final PendingPushNotification.Reference reference : this.migratingNotifications) {
+                final PendingPushNotification pendingPushNotification = reference.get();
+
+                if (pendingPushNotification != null) {
+                    migratingNotifications.add(pendingPushNotification);
+                }
+            }
+
+            this.migratingNotifications.clear();
+        }
+
+        return migratingNotifications;
+    }
+
+    /**
+     * Records a response from the APNs server for the benefit of this client's circuit breaker, if any.
+     *
+     * @param serverError {@code true} if the server reported an internal error or that it was unavailable or
+     * {@code false} otherwise
+     */
+    void handleResponseReceived(final boolean serverError) {
+        final CircuitBreaker circuitBreaker = this.circuitBreaker;
+
+        if (circuitBreaker != null) {
+            circuitBreaker.handleResponse(serverError);
+        }
+    }
+
+    void handleCircuitBreakerStateChanged(final CircuitBreakerState state) {
+        log.info("Circuit breaker is now {}.", state);
+        this.metricsListener.handleCircuitBreakerStateChanged(this, state);
+    }
+
+    /**
+     * Decides whether a notification that failed for a transient reason should be retried and, if so, how long to
+     * wait before retrying it. Retrying spends one retry from this client's retry budget.
+     *
+     * @param retriesAttempted the number of times the notification has already been retried
+     *
+     * @return the delay, in nanoseconds, before retrying the notification, or -1 if the notification should not be
+     * retried
+     */
+    long getRetryDelayNanos(final int retriesAttempted) {
+        final RetryPolicy retryPolicy = this.retryPolicy;
+        final RetryBudget retryBudget = this.retryBudget;
+
+        if (retryPolicy == null || retriesAttempted >= retryPolicy.getMaxRetries() || !retryBudget.tryAcquireRetry()) {
+            return -1;
+        }
+
+        return retryPolicy.getRetryDelayNanos(retriesAttempted);
+    }
+
+    /**
+     * Re-sends a notification on this client's current connection after the given delay.
+     *
+     * @param pendingPushNotification the notification to re-send
+     * @param delayNanos the time, in nanoseconds, to wait before re-sending the notification
+     */
+    void scheduleRetry(final PendingPushNotification pendingPushNotification, final long delayNanos) {
+        final PendingPushNotification.Reference reference = pendingPushNotification.newReference();
+
+        RetryTimerHolder.RETRY_TIMER.newTimeout(new TimerTask() {
+
+            @Override
+            public void run(final Timeout timeout) {
+                final PendingPushNotification pendingPushNotification = reference.get();
+
+                if (pendingPushNotification != null) {
+                    // Retries are usually caused by the same server errors that trip the circuit breaker, and shouldn't
+                    // sneak past it once it's open.
+                    if (ApnsClient.this.isCircuitOpen()) {
+                        log.debug("Failed to retry push notification because circuit breaker is open: {}", pendingPushNotification.getPushNotification());
+                        pendingPushNotification.tryFailure(CIRCUIT_BREAKER_OPEN_EXCEPTION);
+                    } else {
+                        // The connection may well have changed since the notification was first sent.
+                        ApnsClient.this.writePushNotification(pendingPushNotification, ApnsClient.this.connectionManager.getActiveConnection());
+                    }
+                }
+            }
+        }, delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns the number of notifications sent by this client whose outcomes have not yet been reported. This includes
+     * notifications that are waiting to be written, notifications that have been written but not yet answered by the
+     * APNs gateway, and notifications whose listeners have not yet been notified.
+     *
+     * @return the number of unresolved notifications sent by this client
+     *
+     * @since 0.11
+     */
+    public long getPendingNotificationCount() {
+        return this.pendingNotificationCount.get();
+    }
+
+    /**
+     * Returns the estimated number of bytes of memory held by this client's unresolved notifications. Notifications
+     * are only counted if this client has a memory budget; otherwise, this method always returns zero. This value is
+     * suitable for reporting as a gauge.
+     *
+     * @return the estimated number of bytes of memory held by unresolved notifications sent by this client
+     *
+     * @see ApnsClientBuilder#setMaxPendingNotificationBytes(long)
+     *
+     * @since 0.11
+     */
+    public long getPendingNotificationBytes() {
+        return this.pendingNotificationBytes.get();
+    }
+
+    /**
+     * <p>Returns a {@code Future} that will succeed when every notification sent by this client has been resolved
+     * (i.e. accepted, rejected, or failed) and the associated listeners have been notified. If no notifications are
+     * pending, the returned {@code Future} succeeds immediately.</p>
+     *
+     * <p>Draining a client does not prevent callers from sending more notifications; notifications sent before the
+     * returned {@code Future} completes will delay its completion until they, too, have been resolved. Callers that
+     * need a stable barrier (for example, batch jobs that checkpoint after sending a batch of notifications) should
+     * stop sending notifications until the returned {@code Future} has completed. Because this method relies on a
+     * simple counter, callers do not need to retain the futures for individual notifications to wait for them.</p>
+     *
+     * @return a {@code Future} that will succeed when this client has no unresolved notifications
+     *
+     * @see ApnsClient#getPendingNotificationCount()
+     *
+     * @since 0.11
+     */
+    public Future<Void> drain() {
+        final Promise<Void> drainPromise = new DefaultPromise<>(GlobalEventExecutor.INSTANCE);
+
+        synchronized (this.drainPromises) {
+            if (this.pendingNotificationCount.get() == 0) {
+                drainPromise.trySuccess(null);
+            } else {
+                this.drainPromises.add(drainPromise);
+            }
+        }
+
+        return drainPromise;
+    }
+
+    /**
+     * Records that a previously-sent notification has been resolved and its listener has been notified.
+     *
+     * @param footprintBytes the number of bytes the notification counted against this client's memory budget
+     */
+    void handleNotificationResolved(final long footprintBytes) {
+        if (footprintBytes > 0) {
+            this.pendingNotificationBytes.addAndGet(-footprintBytes);
+        }
+
+        if (this.pendingNotificationCount.decrementAndGet() == 0) {
+            final List<Promise<Void>> promisesToComplete;
+
+            synchronized (this.drainPromises) {
+                if (this.drainPromises.isEmpty()) {
+                    return;
+                }
+
+                promisesToComplete = new ArrayList<>(this.drainPromises);
+                this.drainPromises.clear();
+            }
+
+            for (final Promise<Void> drainPromise : promisesToComplete) {
+                drainPromise.trySuccess(null);
+            }
+        }
+    }
+
+    /**
+     * A {@code Promise} that can serve as the response listener for a single push notification.
+     */
+    private static class PushNotificationResponsePromise<T extends ApnsPushNotification> extends DefaultPromise<PushNotificationResponse<T>> implements PushNotificationResponseListener<T> {
+
+        private PushNotificationResponsePromise(final EventExecutor executor) {
+            super(executor);
+        }
+
+        @Override
+        public void handleResponse(final PushNotificationResponse<T> response) {
+            this.trySuccess(response);
+        }
+
+        @Override
+        public void handleFailure(final T pushNotification, final Throwable cause) {
+            this.tryFailure(cause);
+        }
+    }
+
+    /**
+     * A response listener that allows a single thread to wait for the outcome of an attempt to send a single push
+     * notification. Waiting relies on a {@code CountDownLatch} (and ultimately {@code LockSupport}) rather than
+     * {@code Object#wait}, so waiting threads never hold a monitor.
+     */
+    private static class BlockingPushNotificationResponseListener<T extends ApnsPushNotification> extends CountDownLatch implements PushNotificationResponseListener<T> {
+
+        private PushNotificationResponse<T> response;
+        private Throwable cause;
+
+        private BlockingPushNotificationResponseListener() {
+            super(1);
+        }
+
+        @Override
+        public void handleResponse(final PushNotificationResponse<T> response) {
+            this.response = response;
+            this.countDown();
+        }
+
+        @Override
+        public void handleFailure(final T pushNotification, final Throwable cause) {
+            this.cause = cause;
+            this.countDown();
+        }
+
+        // Only called after the latch has been released, which guarantees visibility of the fields written before the
+        // count went down.
+        private PushNotificationResponse<T> getResponse() throws ExecutionException {
+            if (this.cause != null) {
+                throw new ExecutionException(this.cause);
+            }
+
+            return this.response;
+        }
+    }
+
+    /**
+     * Sends all of the push notifications provided by the given {@code Iterable} to the APNs gateway.
+     *
+     * @param notifications the notifications to send to the APNs gateway
+     *
+     * @param <T> the type of notification to be sent
+     *
+     * @return a {@code Future} that will succeed with a summary of the outcome of all send attempts once all
+     * notifications have been either accepted, rejected, or failed
+     *
+     * @see ApnsClient#sendNotifications(Iterator, PushNotificationRejectionListener)
+     *
+     * @since 0.11
+     */
+    public <T extends ApnsPushNotification> Future<BulkSendResult> sendNotifications(final Iterable<T> notifications) {
+        return this.sendNotifications(notifications.iterator(), null);
+    }
+
+    /**
+     * Sends all of the push notifications provided by the given {@code Iterable} to the APNs gateway, notifying the
+     * given listener of any rejected notifications.
+     *
+     * @param notifications the notifications to send to the APNs gateway
+     * @param rejectionListener a listener to be notified of each rejected notification; may be {@code null}
+     *
+     * @param <T> the type of notification to be sent
+     *
+     * @return a {@code Future} that will succeed with a summary of the outcome of all send attempts once all
+     * notifications have been either accepted, rejected, or failed
+     *
+     * @see ApnsClient#sendNotifications(Iterator, PushNotificationRejectionListener)
+     *
+     * @since 0.11
+     */
+    public <T extends ApnsPushNotification> Future<BulkSendResult> sendNotifications(final Iterable<T> notifications, final PushNotificationRejectionListener<T> rejectionListener) {
+        return this.sendNotifications(notifications.iterator(), rejectionListener);
+    }
+
+    /**
+     * Sends all of the push notifications provided by the given {@code Iterator} to the APNs gateway.
+     *
+     * @param notifications the notifications to send to the APNs gateway
+     *
+     * @param <T> the type of notification to be sent
+     *
+     * @return a {@code Future} that will succeed with a summary of the outcome of all send attempts once all
+     * notifications have been either accepted, rejected, or failed
+     *
+     * @see ApnsClient#sendNotifications(Iterator, PushNotificationRejectionListener)
+     *
+     * @since 0.11
+     */
+    public <T extends ApnsPushNotification> Future<BulkSendResult> sendNotifications(final Iterator<T> notifications) {
+        return this.sendNotifications(notifications, null);
+    }
+
+    /**
+     * <p>Sends all of the push notifications provided by the given {@code Iterator} to the APNs gateway, notifying the
+     * given listener of any rejected notifications.</p>
+     *
+     * <p>Notifications are pulled from the iterator only as earlier notifications are resolved; a bulk send operation
+     * keeps no more notifications in flight than the APNs server allows concurrent streams on the client's connection
+     * (and never more than one thousand), and stops pulling notifications while the client is not writable (see
+     * {@link ApnsClient#isWritable()}). Bulk send operations keep only running totals of outcomes rather than
+     * per-notification {@code Futures}, and so the memory required for a bulk send operation does not depend on the
+     * number of notifications sent. The iterator may be consumed from an I/O thread, and callers should not assume it
+     * will be consumed by the calling thread.</p>
+     *
+     * <p>The returned {@code Future} will succeed with a {@link BulkSendResult} once every notification has been
+     * accepted, rejected, or has failed to send. Individual notifications that fail to send (for example, because the
+     * client is not connected) are counted as failures, and do not cause the returned {@code Future} to fail. The
+     * returned {@code Future} will only fail if the given iterator itself throws an exception, in which case no further
+     * notifications will be sent.</p>
+     *
+     * @param notifications the notifications to send to the APNs gateway
+     * @param rejectionListener a listener to be notified of each rejected notification; may be {@code null}
+     *
+     * @param <T> the type of notification to be sent
+     *
+     * @return a {@code Future} that will succeed with a summary of the outcome of all send attempts once all
+     * notifications have been either accepted, rejected, or failed
+     *
+     * @since 0.11
+     */
+    public <T extends ApnsPushNotification> Future<BulkSendResult> sendNotifications(final Iterator<T> notifications, final PushNotificationRejectionListener<T> rejectionListener) {
+        final Promise<BulkSendResult> resultPromise = new DefaultPromise<>(GlobalEventExecutor.INSTANCE);
+
+        new BulkSendOperation<>(this, notifications, rejectionListener, MAX_BULK_NOTIFICATIONS_IN_FLIGHT, resultPromise)
+                .sendMoreNotifications();
+
+        return resultPromise;
+    }
+
+    /**
+     * <p>Gracefully disconnects from the APNs gateway. The disconnection process will wait until notifications that
+     * have been sent to the APNs server have been either accepted or rejected. Note that some notifications passed to
+     * {@link ApnsClient#sendNotification(ApnsPushNotification)} may still be enqueued and
+     * not yet sent by the time the shutdown process begins; the {@code Futures} associated with those notifications
+     * will fail.</p>
+     *
+     * <p>The returned {@code Future} will be marked as complete when the connection has closed completely. If the
      * connection is already closed when this method is called, the returned {@code Future} will be marked as complete
      * immediately.</p>
      *
@@ -607,19 +2118,23 @@ public class ApnsClient {
 
         synchronized (this.bootstrap) {
             this.reconnectionPromise = null;
+            this.reconnectDelayNanos = 0;
 
             if (this.scheduledReconnectFuture != null) {
                 this.scheduledReconnectFuture.cancel(true);
             }
 
-            final Future<Void> channelCloseFuture;
-
-            if (this.connectionReadyPromise != null) {
-                channelCloseFuture = this.connectionReadyPromise.channel().close();
-            } else {
-                channelCloseFuture = new SucceededFuture<>(GlobalEventExecutor.INSTANCE, null);
+            if (this.scheduledStandbyConnectionFuture != null) {
+                this.scheduledStandbyConnectionFuture.cancel(true);
             }
 
+            this.standbyConnectionDelayNanos = 0;
+
+            final ChannelFuture activeChannelCloseFuture = this.connectionManager.closeAll();
+
+            final Future<Void> channelCloseFuture = activeChannelCloseFuture != null ?
+                    activeChannelCloseFuture : new SucceededFuture<Void>(GlobalEventExecutor.INSTANCE, null);
+
             if (this.shouldShutDownEventLoopGroup) {
                 // Wait for the channel to close before we try to shut down the event loop group
                 channelCloseFuture.addListener(new GenericFutureListener<Future<Void>>() {
@@ -648,6 +2163,10 @@ public class ApnsClient {
             }
         }
 
+        // We won't be reconnecting, so notifications waiting to be replayed or migrated never will be.
+        this.failBufferedNotifications();
+        this.failMigratingNotifications();
+
         return disconnectFuture;
     }
 }
@@ -25,6 +25,7 @@ package com.turo.pushy.apns;
 import com.turo.pushy.apns.auth.ApnsSigningKey;
 import com.turo.pushy.apns.proxy.ProxyHandlerFactory;
 import io.netty.channel.EventLoopGroup;
+import io.netty.channel.WriteBufferWaterMark;
 import io.netty.handler.codec.http2.Http2SecurityUtil;
 import io.netty.handler.ssl.*;
 import io.netty.handler.ssl.ApplicationProtocolConfig.Protocol;
@@ -43,6 +44,7 @@ import java.security.KeyStoreException;
 import java.security.PrivateKey;
 import java.security.cert.Certificate;
 import java.security.cert.X509Certificate;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -77,6 +79,29 @@ public class ApnsClientBuilder {
     private Long gracefulShutdownTimeout;
     private TimeUnit gracefulShutdownTimeoutUnit;
 
+    private boolean validateNotifications = false;
+    private Integer maximumPayloadSize;
+    private boolean coalesceNotifications = false;
+    private RetryPolicy retryPolicy;
+    private CircuitBreakerPolicy circuitBreakerPolicy;
+    private OverloadPolicy overloadPolicy;
+    private ReconnectBackoffPolicy reconnectBackoffPolicy;
+    private boolean useStandbyConnection = false;
+    private ConnectionRecyclingPolicy connectionRecyclingPolicy;
+    private int replayBufferSize = 0;
+    private long maxPendingNotificationBytes = 0;
+
+    private int deviceTokenRateLimit;
+    private long deviceTokenRateLimitWindow;
+    private TimeUnit deviceTokenRateLimitWindowUnit;
+
+    private double topicRateLimit;
+    private int topicRateLimitBurst;
+
+    private WriteBufferWaterMark writeBufferWaterMark;
+
+    private Executor callbackExecutor;
+
     private static final Logger log = LoggerFactory.getLogger(ApnsClientBuilder.class);
 
     /**
@@ -372,6 +397,353 @@ public class ApnsClientBuilder {
         return this;
     }
 
+    /**
+     * Sets whether the client under construction should check notifications for problems that would certainly cause
+     * the APNs server to reject them before sending them. Validated clients reject notifications with a missing or
+     * malformed device token, a missing topic (for clients that use token-based authentication), an empty or oversized
+     * payload, or an oversized collapse ID immediately, and without consuming an HTTP/2 stream or a round trip to the
+     * server. By default, clients do not validate notifications.
+     *
+     * @param validateNotifications {@code true} if the client should validate notifications before sending them or
+     * {@code false} otherwise
+     *
+     * @return a reference to this builder
+     *
+     * @see ApnsClientBuilder#setMaximumPayloadSize(int)
+     *
+     * @since 0.11
+     */
+    public ApnsClientBuilder setValidateNotifications(final boolean validateNotifications) {
+        this.validateNotifications = validateNotifications;
+        return this;
+    }
+
+    /**
+     * Sets the maximum size, in bytes, of notification payloads accepted by the client under construction when
+     * notification validation is enabled. By default, payloads may be no larger than
+     * {@value com.turo.pushy.apns.util.ApnsPayloadBuilder#DEFAULT_MAXIMUM_PAYLOAD_SIZE} bytes; callers sending VoIP
+     * notifications may wish to raise the limit.
+     *
+     * @param maximumPayloadSize the maximum size, in bytes, of notification payloads
+     *
+     * @return a reference to this builder
+     *
+     * @see ApnsClientBuilder#setValidateNotifications(boolean)
+     *
+     * @since 0.11
+     */
+    public ApnsClientBuilder setMaximumPayloadSize(final int maximumPayloadSize) {
+        if (maximumPayloadSize <= 0) {
+            throw new IllegalArgumentException("Maximum payload size must be positive.");
+        }
+
+        this.maximumPayloadSize = maximumPayloadSize;
+        return this;
+    }
+
+    /**
+     * Sets whether the client under construction should coalesce notifications that are waiting to be sent. When the
+     * client has opened as many concurrent streams as the APNs server allows, new notifications wait in line for a free
+     * stream. If coalescing is enabled, a new notification with a collapse ID takes the place in line of any waiting
+     * notification with the same device token, topic, and collapse ID, and the notification it replaces fails with a
+     * {@link NotificationCoalescedException}. Devices only show the most recent notification with a given collapse ID,
+     * so coalescing can greatly reduce traffic for rapidly-updating notifications without changing what users see. By
+     * default, clients do not coalesce notifications.
+     *
+     * @param coalesceNotifications {@code true} if the client should coalesce waiting notifications or {@code false}
+     * otherwise
+     *
+     * @return a reference to this builder
+     *
+     * @since 0.11
+     */
+    public ApnsClientBuilder setCoalesceNotifications(final boolean coalesceNotifications) {
+        this.coalesceNotifications = coalesceNotifications;
+        return this;
+    }
+
+    /**
+     * Sets the policy the client under construction will use to automatically retry notifications that fail for
+     * transient reasons (an internal server error, an unavailable or shutting-down server, or too many requests for
+     * the same device token). Retried notifications are only reported to callers once they have finally succeeded or
+     * failed. By default, clients do not retry notifications.
+     *
+     * @param retryPolicy the retry policy for the client under construction; may be {@code null}, in which case the
+     * client will not retry notifications
+     *
+     * @return a reference to this builder
+     *
+     * @since 0.11
+     */
+    public ApnsClientBuilder setRetryPolicy(final RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+        return this;
+    }
+
+    /**
+     * Sets the policy the client under construction will use to choose delays between automatic reconnection attempts.
+     * By default, clients wait between one second and one minute between attempts, and start over from one second once
+     * a connection has stayed open for a minute.
+     *
+     * @param reconnectBackoffPolicy the reconnect backoff policy for the client under construction; must not be
+     * {@code null}
+     *
+     * @return a reference to this builder
+     *
+     * @since 0.11
+     */
+    public ApnsClientBuilder setReconnectBackoffPolicy(final ReconnectBackoffPolicy reconnectBackoffPolicy) {
+        if (reconnectBackoffPolicy == null) {
+            throw new IllegalArgumentException("Reconnect backoff policy must not be null.");
+        }
+
+        this.reconnectBackoffPolicy = reconnectBackoffPolicy;
+        return this;
+    }
+
+    /**
+     * Sets whether the client under construction should keep a second, standby connection to the APNs server. Clients
+     * with a standby connection switch to it the instant their active connection closes instead of waiting to open a
+     * new connection, then open a new standby connection in the background. Standby connections are kept alive with
+     * the same idle pings as active connections. By default, clients do not keep a standby connection.
+     *
+     * @param useStandbyConnection {@code true} if the client under construction should keep a standby connection or
+     * {@code false} otherwise
+     *
+     * @return a reference to this builder
+     *
+     * @see ApnsClient#isStandbyConnectionReady()
+     *
+     * @since 0.11
+     */
+    public ApnsClientBuilder setUseStandbyConnection(final boolean useStandbyConnection) {
+        this.useStandbyConnection = useStandbyConnection;
+        return this;
+    }
+
+    /**
+     * Sets the policy the client under construction will use to decide when to replace a healthy connection with a new
+     * one. The client opens the new connection before switching to it, and closes the old connection gracefully, so
+     * notifications aren't interrupted. By default, clients replace connections after 2<sup>29</sup> streams, well
+     * before the connection runs out of stream IDs, and never replace connections because of their age.
+     *
+     * @param connectionRecyclingPolicy the connection recycling policy for the client under construction; must not be
+     * {@code null}
+     *
+     * @return a reference to this builder
+     *
+     * @since 0.11
+     */
+    public ApnsClientBuilder setConnectionRecyclingPolicy(final ConnectionRecyclingPolicy connectionRecyclingPolicy) {
+        if (connectionRecyclingPolicy == null) {
+            throw new IllegalArgumentException("Connection recycling policy must not be null.");
+        }
+
+        this.connectionRecyclingPolicy = connectionRecyclingPolicy;
+        return this;
+    }
+
+    /**
+     * Sets the overload policy for the client under construction. When callers send notifications faster than the
+     * APNs server accepts them, clients with an overload policy shed the least valuable waiting notifications
+     * (conserve-power notifications first, then immediate notifications closest to expiring) so that the rest aren't
+     * all delayed equally. Shed notifications fail with a {@link NotificationShedException}. By default, clients never
+     * shed notifications.
+     *
+     * @param overloadPolicy the overload policy for the client under construction; may be {@code null}, in which case
+     * the client will never shed notifications
+     *
+     * @return a reference to this builder
+     *
+     * @since 0.11
+     */
+    public ApnsClientBuilder setOverloadPolicy(final OverloadPolicy overloadPolicy) {
+        this.overloadPolicy = overloadPolicy;
+        return this;
+    }
+
+    /**
+     * Sets the circuit breaker policy for the client under construction. Clients with a circuit breaker stop sending
+     * notifications when too many recent responses from the APNs server report internal errors or that the server is
+     * unavailable; while the circuit is open, new notifications fail immediately with a
+     * {@link CircuitBreakerOpenException}. By default, clients do not have a circuit breaker.
+     *
+     * @param circuitBreakerPolicy the circuit breaker policy for the client under construction; may be {@code null},
+     * in which case the client will always attempt to send notifications
+     *
+     * @return a reference to this builder
+     *
+     * @since 0.11
+     */
+    public ApnsClientBuilder setCircuitBreakerPolicy(final CircuitBreakerPolicy circuitBreakerPolicy) {
+        this.circuitBreakerPolicy = circuitBreakerPolicy;
+        return this;
+    }
+
+    /**
+     * <p>Sets the maximum number of notifications the client under construction will hold for replay after losing its
+     * connection. By default, notifications that were in flight when a connection closed fail with a
+     * {@link ClientNotConnectedException}, and callers must send them again themselves. Clients with a replay buffer
+     * instead hold such notifications and send them again as soon as they reconnect, failing them only if the buffer
+     * is full or the client is disconnected deliberately.</p>
+     *
+     * <p>Clients with a replay buffer send a client-generated {@code apns-id} with every notification, and use the same
+     * ID each time a notification is replayed. Because a connection may close after the server has received a
+     * notification but before the client has received a reply, replayed notifications may be delivered more than
+     * once.</p>
+     *
+     * @param replayBufferSize the maximum number of notifications to hold for replay; if zero, the client will not
+     * replay notifications
+     *
+     * @return a reference to this builder
+     *
+     * @since 0.11
+     */
+    public ApnsClientBuilder setReplayBufferSize(final int replayBufferSize) {
+        if (replayBufferSize < 0) {
+            throw new IllegalArgumentException("Replay buffer size must not be negative.");
+        }
+
+        this.replayBufferSize = replayBufferSize;
+        return this;
+    }
+
+    /**
+     * <p>Sets the maximum amount of memory, in bytes, the client under construction may hold for notifications that
+     * have been sent but not yet resolved (i.e. accepted, rejected, or failed). Clients estimate each notification's
+     * footprint from the sizes of its payload, token, topic, and collapse ID plus a fixed allowance for headers and
+     * bookkeeping. Once the estimated total would exceed the budget, new notifications fail immediately with a
+     * {@link NotificationBudgetExceededException} until enough pending notifications have been resolved. By default,
+     * clients do not limit the memory held by pending notifications.</p>
+     *
+     * <p>Budgets should be comfortably larger than the largest single notification; a notification whose estimated
+     * footprint is larger than the whole budget can never be sent.</p>
+     *
+     * @param maxPendingNotificationBytes the maximum number of bytes to hold for pending notifications; if zero, the
+     * client will not limit the memory held by pending notifications
+     *
+     * @return a reference to this builder
+     *
+     * @see ApnsClient#getPendingNotificationBytes()
+     *
+     * @since 0.11
+     */
+    public ApnsClientBuilder setMaxPendingNotificationBytes(final long maxPendingNotificationBytes) {
+        if (maxPendingNotificationBytes < 0) {
+            throw new IllegalArgumentException("Maximum pending notification bytes must not be negative.");
+        }
+
+        this.maxPendingNotificationBytes = maxPendingNotificationBytes;
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of notifications the client under construction will send to any single device token over
+     * a sliding window of time. Notifications beyond the limit are rejected locally with the same "TooManyRequests"
+     * reason the APNs server would report, and never consume an HTTP/2 stream. Counts are tracked approximately in a
+     * fixed amount of memory, so a notification may occasionally be rejected even though its device token is within
+     * the limit. By default, clients do not limit the rate of notifications to each device token.
+     *
+     * @param maxNotifications the maximum number of notifications to send to a single device token within the window;
+     * must be between 1 and 65,535
+     * @param window the length of the sliding window; must be positive
+     * @param timeUnit the time unit for the given window
+     *
+     * @return a reference to this builder
+     *
+     * @since 0.11
+     */
+    public ApnsClientBuilder setDeviceTokenRateLimit(final int maxNotifications, final long window, final TimeUnit timeUnit) {
+        if (maxNotifications < 1 || maxNotifications > DeviceTokenRateLimiter.MAX_NOTIFICATIONS_PER_WINDOW) {
+            throw new IllegalArgumentException("Maximum notifications per window must be between 1 and " +
+                    DeviceTokenRateLimiter.MAX_NOTIFICATIONS_PER_WINDOW + ".");
+        }
+
+        if (window <= 0) {
+            throw new IllegalArgumentException("Window must be positive.");
+        }
+
+        this.deviceTokenRateLimit = maxNotifications;
+        this.deviceTokenRateLimitWindow = window;
+        this.deviceTokenRateLimitWindowUnit = timeUnit;
+
+        return this;
+    }
+
+    /**
+     * Sets the maximum steady rate at which the client under construction will send notifications to any single topic.
+     * Notifications beyond the limit are rejected locally with the same "TooManyRequests" reason the APNs server would
+     * report, and never consume an HTTP/2 stream. By default, clients do not limit the rate of notifications to each
+     * topic.
+     *
+     * @param notificationsPerSecond the maximum steady rate, in notifications per second, for each topic; must be
+     * positive
+     * @param maxBurst the maximum number of notifications that may be sent to a topic in a burst after a period of
+     * inactivity; must be at least 1
+     *
+     * @return a reference to this builder
+     *
+     * @since 0.11
+     */
+    public ApnsClientBuilder setTopicRateLimit(final double notificationsPerSecond, final int maxBurst) {
+        if (notificationsPerSecond <= 0) {
+            throw new IllegalArgumentException("Notifications per second must be positive.");
+        }
+
+        if (maxBurst < 1) {
+            throw new IllegalArgumentException("Maximum burst must be at least 1.");
+        }
+
+        this.topicRateLimit = notificationsPerSecond;
+        this.topicRateLimitBurst = maxBurst;
+
+        return this;
+    }
+
+    /**
+     * Sets the low and high water marks, in bytes, for the outbound buffer of the client under construction. When the
+     * amount of data waiting to be written passes the high water mark, the client will report that it is no longer
+     * writable until the amount of waiting data drops below the low water mark. By default, clients use Netty's default
+     * water marks (32 and 64 kilobytes).
+     *
+     * @param low the low water mark, in bytes
+     * @param high the high water mark, in bytes; must be greater than or equal to the low water mark
+     *
+     * @return a reference to this builder
+     *
+     * @see ApnsClient#isWritable()
+     * @see ApnsClient#getWritabilityFuture()
+     *
+     * @since 0.11
+     */
+    public ApnsClientBuilder setWriteBufferWaterMark(final int low, final int high) {
+        this.writeBufferWaterMark = new WriteBufferWaterMark(low, high);
+        return this;
+    }
+
+    /**
+     * <p>Sets the executor with which the client under construction will notify response listeners and listeners
+     * attached to the futures returned by {@link ApnsClient#sendNotification(ApnsPushNotification)}. By default,
+     * listeners are notified on the client's I/O threads, and a slow listener will delay all other traffic on the same
+     * connection; callers with listeners that block or perform long-running work should provide a callback executor.</p>
+     *
+     * <p>Clients hand listeners to the callback executor in batches, and so will generally submit far fewer tasks to
+     * the executor than they send notifications. Listeners are notified in the order in which notifications were
+     * resolved. If the callback executor rejects a batch, the client notifies that batch's listeners on the I/O thread
+     * instead. The callback executor is not shut down when the client disconnects.</p>
+     *
+     * @param callbackExecutor the executor with which to notify listeners, or {@code null} to notify listeners on the
+     * client's I/O threads
+     *
+     * @return a reference to this builder
+     *
+     * @since 0.11
+     */
+    public ApnsClientBuilder setCallbackExecutor(final Executor callbackExecutor) {
+        this.callbackExecutor = callbackExecutor;
+        return this;
+    }
+
     /**
      * Constructs a new {@link ApnsClient} with the previously-set configuration.
      *
@@ -434,6 +806,43 @@ public class ApnsClientBuilder {
             apnsClient.setGracefulShutdownTimeout(this.gracefulShutdownTimeoutUnit.toMillis(this.gracefulShutdownTimeout));
         }
 
+        apnsClient.setValidateNotifications(this.validateNotifications);
+
+        if (this.maximumPayloadSize != null) {
+            apnsClient.setMaximumPayloadSize(this.maximumPayloadSize);
+        }
+
+        apnsClient.setCoalesceNotifications(this.coalesceNotifications);
+        if (this.reconnectBackoffPolicy != null) {
+            apnsClient.setReconnectBackoffPolicy(this.reconnectBackoffPolicy);
+        }
+
+        apnsClient.setUseStandbyConnection(this.useStandbyConnection);
+
+        if (this.connectionRecyclingPolicy != null) {
+            apnsClient.setConnectionRecyclingPolicy(this.connectionRecyclingPolicy);
+        }
+
+        apnsClient.setOverloadPolicy(this.overloadPolicy);
+        apnsClient.setRetryPolicy(this.retryPolicy);
+        apnsClient.setCircuitBreakerPolicy(this.circuitBreakerPolicy);
+        apnsClient.setReplayBufferSize(this.replayBufferSize);
+        apnsClient.setMaxPendingNotificationBytes(this.maxPendingNotificationBytes);
+
+        if (this.deviceTokenRateLimit > 0) {
+            apnsClient.setDeviceTokenRateLimit(this.deviceTokenRateLimit, this.deviceTokenRateLimitWindow, this.deviceTokenRateLimitWindowUnit);
+        }
+
+        if (this.topicRateLimit > 0) {
+            apnsClient.setTopicRateLimit(this.topicRateLimit, this.topicRateLimitBurst);
+        }
+
+        if (this.writeBufferWaterMark != null) {
+            apnsClient.setWriteBufferWaterMark(this.writeBufferWaterMark);
+        }
+
+        apnsClient.setCallbackExecutor(this.callbackExecutor);
+
         return apnsClient;
     }
 }
@@ -25,6 +25,7 @@ package com.turo.pushy.apns;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelPromise;
@@ -34,6 +35,7 @@ import io.netty.handler.codec.http2.*;
 import io.netty.handler.timeout.IdleStateEvent;
 import io.netty.util.AsciiString;
 import io.netty.util.concurrent.*;
+import io.netty.util.internal.PlatformDependent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -41,16 +43,32 @@ import java.nio.charset.StandardCharsets;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 class ApnsClientHandler extends Http2ConnectionHandler implements Http2FrameListener, Http2Connection.Listener {
 
-    private final Http2Connection.PropertyKey pushNotificationPropertyKey;
+    private final Http2Connection.PropertyKey pendingPushNotificationPropertyKey;
     private final Http2Connection.PropertyKey responseHeadersPropertyKey;
-    private final Http2Connection.PropertyKey responsePromisePropertyKey;
 
     private final String authority;
 
+    private ChannelHandlerContext context;
+
+    private final Queue<PendingPushNotification> pendingWriteQueue = PlatformDependent.newMpscQueue();
+    private final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+    private boolean flushScheduled = false;
+
+    private final Deque<PendingPushNotification> immediateLane = new ArrayDeque<>();
+    private final Deque<PendingPushNotification> conservePowerLane = new ArrayDeque<>();
+    private int immediateWritesSinceConservePowerWrite = 0;
+    private boolean drainingPriorityLanes = false;
+
+    private final boolean coalesceNotifications;
+    private final OverloadPolicy overloadPolicy;
+    private final Map<CoalescingKey, PendingPushNotification> coalescableNotifications = new HashMap<>();
+
     private final long pingTimeoutMillis;
     private ScheduledFuture<?> pingTimeoutFuture;
 
@@ -59,8 +77,7 @@ class ApnsClientHandler extends Http2ConnectionHandler implements Http2FrameList
     private static final AsciiString APNS_TOPIC_HEADER = new AsciiString("apns-topic");
     private static final AsciiString APNS_PRIORITY_HEADER = new AsciiString("apns-priority");
     private static final AsciiString APNS_COLLAPSE_ID_HEADER = new AsciiString("apns-collapse-id");
-
-    private static final int INITIAL_PAYLOAD_BUFFER_CAPACITY = 4096;
+    private static final AsciiString APNS_ID_HEADER = new AsciiString("apns-id");
 
     private static final ClientNotConnectedException STREAMS_EXHAUSTED_EXCEPTION =
             new ClientNotConnectedException("HTTP/2 streams exhausted; closing connection.");
@@ -68,6 +85,20 @@ class ApnsClientHandler extends Http2ConnectionHandler implements Http2FrameList
     private static final ClientNotConnectedException STREAM_CLOSED_BEFORE_REPLY_EXCEPTION =
             new ClientNotConnectedException("Stream closed before a reply was received");
 
+    private static final ClientNotConnectedException CHANNEL_CLOSED_BEFORE_WRITE_EXCEPTION =
+            new ClientNotConnectedException("Channel closed before notification could be written");
+
+    private static final NotificationShedException NOTIFICATION_SHED_EXCEPTION =
+            new NotificationShedException("Notification was shed because the client was overloaded");
+
+    private static final NotificationCoalescedException NOTIFICATION_COALESCED_EXCEPTION =
+            new NotificationCoalescedException("Notification was replaced by a newer notification with the same collapse ID");
+
+    private static final int MAX_WRITES_PER_DRAIN = 1024;
+
+    private static final int IMMEDIATE_LANE_WEIGHT = 16;
+    private static final int SHED_SCAN_LIMIT = 16;
+
     private static final Gson GSON = new GsonBuilder()
             .registerTypeAdapter(Date.class, new DateAsTimeSinceEpochTypeAdapter(TimeUnit.MILLISECONDS))
             .create();
@@ -78,6 +109,8 @@ class ApnsClientHandler extends Http2ConnectionHandler implements Http2FrameList
 
         private String authority;
         private long idlePingIntervalMillis;
+        private boolean coalesceNotifications;
+        private OverloadPolicy overloadPolicy;
 
         public ApnsClientHandlerBuilder authority(final String authority) {
             this.authority = authority;
@@ -97,6 +130,24 @@ class ApnsClientHandler extends Http2ConnectionHandler implements Http2FrameList
             return this;
         }
 
+        public boolean coalesceNotifications() {
+            return this.coalesceNotifications;
+        }
+
+        public ApnsClientHandlerBuilder coalesceNotifications(final boolean coalesceNotifications) {
+            this.coalesceNotifications = coalesceNotifications;
+            return this;
+        }
+
+        public OverloadPolicy overloadPolicy() {
+            return this.overloadPolicy;
+        }
+
+        public ApnsClientHandlerBuilder overloadPolicy(final OverloadPolicy overloadPolicy) {
+            this.overloadPolicy = overloadPolicy;
+            return this;
+        }
+
         @Override
         protected final boolean isServer() {
             return false;
@@ -111,36 +162,452 @@ class ApnsClientHandler extends Http2ConnectionHandler implements Http2FrameList
         public ApnsClientHandler build(final Http2ConnectionDecoder decoder, final Http2ConnectionEncoder encoder, final Http2Settings initialSettings) {
             Objects.requireNonNull(this.authority(), "Authority must be set before building an ApnsClientHandler.");
 
-            final ApnsClientHandler handler = new ApnsClientHandler(decoder, encoder, initialSettings, this.authority(), this.idlePingIntervalMillis());
+            final ApnsClientHandler handler = new ApnsClientHandler(decoder, encoder, initialSettings, this.authority(), this.idlePingIntervalMillis(), this.coalesceNotifications(), this.overloadPolicy());
             this.frameListener(handler);
             return handler;
         }
 
         @Override
         public ApnsClientHandler build() {
+            // Netty's default flow controller hands out the connection window by weight, and may finish writing
+            // notifications in a different order than they were written; we write the streams whose data is waiting in
+            // the order they started waiting instead, so notifications reach the server in the order they were sent.
+            final Http2Connection connection = new DefaultHttp2Connection(this.isServer());
+            connection.remote().flowController(new DefaultHttp2RemoteFlowController(connection, new UniformStreamByteDistributor(connection)));
+
+            this.connection(connection);
+
             return super.build();
         }
     }
 
-    protected ApnsClientHandler(final Http2ConnectionDecoder decoder, final Http2ConnectionEncoder encoder, final Http2Settings initialSettings, final String authority, final long idlePingIntervalMillis) {
+    protected ApnsClientHandler(final Http2ConnectionDecoder decoder, final Http2ConnectionEncoder encoder, final Http2Settings initialSettings, final String authority, final long idlePingIntervalMillis, final boolean coalesceNotifications, final OverloadPolicy overloadPolicy) {
         super(decoder, encoder, initialSettings);
 
         this.authority = authority;
+        this.coalesceNotifications = coalesceNotifications;
+        this.overloadPolicy = overloadPolicy;
 
-        this.pushNotificationPropertyKey = this.connection().newKey();
+        this.pendingPushNotificationPropertyKey = this.connection().newKey();
         this.responseHeadersPropertyKey = this.connection().newKey();
-        this.responsePromisePropertyKey = this.connection().newKey();
+
+        // We need to hear about streams closing both to clean up after notifications that will never get a reply and
+        // to write notifications that were waiting for a free stream.
+        this.connection().addListener(this);
 
         this.pingTimeoutMillis = idlePingIntervalMillis / 2;
     }
 
+    private final Runnable drainTask = new Runnable() {
+
+        @Override
+        public void run() {
+            ApnsClientHandler.this.drainPendingWriteQueue();
+        }
+    };
+
+    private final Runnable flushTask = new Runnable() {
+
+        @Override
+        public void run() {
+            ApnsClientHandler.this.flushScheduled = false;
+            ApnsClientHandler.this.context.channel().flush();
+        }
+    };
+
     @Override
-    public void write(final ChannelHandlerContext context, final Object message, final ChannelPromise writePromise) throws Http2Exception, InvalidKeyException, NoSuchAlgorithmException {
-        if (message instanceof PushNotificationAndResponsePromise) {
-            final PushNotificationAndResponsePromise pushNotificationAndResponsePromise =
-                    (PushNotificationAndResponsePromise) message;
+    public void handlerAdded(final ChannelHandlerContext context) throws Exception {
+        this.context = context;
+        super.handlerAdded(context);
+    }
+
+    /**
+     * Writes a push notification to the channel to which this handler belongs. Notifications sent from the channel's
+     * event loop are written immediately, and the channel is flushed once the current event loop task has finished.
+     * Notifications sent from other threads are added to a queue that the event loop drains in batches, flushing the
+     * channel once per batch; this saves both the cost of a pipeline traversal and of a new event loop task per
+     * notification.
+     *
+     * @param pendingPushNotification the notification to write
+     */
+    void writePushNotification(final PendingPushNotification pendingPushNotification) {
+        if (this.context.executor().inEventLoop()) {
+            this.writePushNotificationFromEventLoop(pendingPushNotification);
+            this.scheduleFlush();
+        } else {
+            this.pendingWriteQueue.offer(pendingPushNotification);
+
+            if (this.drainScheduled.compareAndSet(false, true)) {
+                try {
+                    this.context.executor().execute(this.drainTask);
+                } catch (final RejectedExecutionException e) {
+                    // The event loop has shut down, so there's nobody left to drain the queue.
+                    this.drainScheduled.set(false);
+                    this.failPendingWrites();
+                }
+            }
+        }
+    }
+
+    private void drainPendingWriteQueue() {
+        for (int i = 0; i < MAX_WRITES_PER_DRAIN; i++) {
+            final PendingPushNotification pendingPushNotification = this.pendingWriteQueue.poll();
 
-            this.writePushNotification(context, pushNotificationAndResponsePromise.getPushNotification(), pushNotificationAndResponsePromise.getResponsePromise(), writePromise);
+            if (pendingPushNotification == null) {
+                break;
+            }
+
+            this.writePushNotificationFromEventLoop(pendingPushNotification);
+        }
+
+        this.context.channel().flush();
+        this.drainScheduled.set(false);
+
+        // Notifications may have arrived after we stopped polling but before we cleared the "scheduled" flag; we may
+        // also have stopped early to give other channels on this event loop a turn.
+        if (!this.pendingWriteQueue.isEmpty() && this.drainScheduled.compareAndSet(false, true)) {
+            this.context.executor().execute(this.drainTask);
+        }
+    }
+
+    private void writePushNotificationFromEventLoop(final PendingPushNotification pendingPushNotification) {
+        if (!this.context.channel().isActive()) {
+            failOrReplay(pendingPushNotification, CHANNEL_CLOSED_BEFORE_WRITE_EXCEPTION);
+        } else if (this.isGoingAway()) {
+            // Either the server won't accept new streams on this connection or we're closing it.
+            pendingPushNotification.migrate();
+        } else if (this.immediateLane.isEmpty() && this.conservePowerLane.isEmpty() && this.connection().local().canOpenStream()) {
+            this.writePushNotification(this.context, pendingPushNotification, this.context.newPromise());
+        } else {
+            // All of the streams the server allows us are in use; wait in line for the next one to free up.
+            if (this.coalesceNotifications && pendingPushNotification.getPushNotification().getCollapseId() != null) {
+                final CoalescingKey coalescingKey = new CoalescingKey(pendingPushNotification.getPushNotification());
+                final PendingPushNotification waitingPushNotification = this.coalescableNotifications.get(coalescingKey);
+
+                if (waitingPushNotification != null) {
+                    // The new notification takes the waiting notification's place in line, and the notification it
+                    // replaced is resolved right away.
+                    waitingPushNotification.swapPushNotification(pendingPushNotification);
+                    pendingPushNotification.tryCoalesce(NOTIFICATION_COALESCED_EXCEPTION);
+
+                    return;
+                }
+
+                this.coalescableNotifications.put(coalescingKey, pendingPushNotification);
+            }
+
+            final DeliveryPriority lane = getLane(pendingPushNotification);
+
+            pendingPushNotification.handleEnqueued(lane);
+            (lane == DeliveryPriority.CONSERVE_POWER ? this.conservePowerLane : this.immediateLane).add(pendingPushNotification);
+
+            if (this.overloadPolicy != null &&
+                    this.immediateLane.size() + this.conservePowerLane.size() > this.overloadPolicy.getMaxQueueDepth()) {
+
+                this.shedLowestValueNotification();
+            }
+        }
+    }
+
+    /**
+     * Sheds the least valuable notification waiting in this handler's priority lanes. We shed from the least urgent lane
+     * that has any notifications waiting. We shed conserve-power notifications from the front of the line (the oldest
+     * are the most likely to be stale), but immediate notifications from the back (so urgent notifications keep their
+     * place in line); within that end of the lane, we shed the notification that will expire soonest, and notifications
+     * that never expire go last. This runs on the event loop for every notification past the maximum queue depth, so
+     * rather than searching the whole lane, we only consider the {@value SHED_SCAN_LIMIT} notifications closest to the
+     * end from which we're shedding, which keeps the cost of shedding constant no matter how deep the lanes are.
+     */
+    private void shedLowestValueNotification() {
+        final DeliveryPriority lane;
+        final PendingPushNotification pendingPushNotification;
+
+        if (!this.conservePowerLane.isEmpty()) {
+            lane = DeliveryPriority.CONSERVE_POWER;
+            pendingPushNotification = pollSoonestExpiring(this.conservePowerLane, false);
+        } else {
+            lane = DeliveryPriority.IMMEDIATE;
+            pendingPushNotification = pollSoonestExpiring(this.immediateLane, true);
+        }
+
+        pendingPushNotification.handleDequeued(lane);
+        this.shed(pendingPushNotification);
+    }
+
+    /**
+     * Removes and returns the soonest-expiring of the first {@value SHED_SCAN_LIMIT} notifications at the front (or,
+     * if {@code fromBack} is {@code true}, the back) of the given non-empty lane. Ties go to the notification closest
+     * to that end of the lane.
+     */
+    private static PendingPushNotification pollSoonestExpiring(final Deque<PendingPushNotification> lane, final boolean fromBack) {
+        final Iterator<PendingPushNotification> iterator = fromBack ? lane.descendingIterator() : lane.iterator();
+        PendingPushNotification soonestExpiring = iterator.next();
+
+        for (int i = 1; i < SHED_SCAN_LIMIT && iterator.hasNext(); i++) {
+            final PendingPushNotification pendingPushNotification = iterator.next();
+
+            if (expiresSooner(pendingPushNotification, soonestExpiring)) {
+                soonestExpiring = pendingPushNotification;
+            }
+        }
+
+        // The notification we want is within the first few from this end of the lane, so this is cheap, too.
+        if (fromBack) {
+            lane.removeLastOccurrence(soonestExpiring);
+        } else {
+            lane.removeFirstOccurrence(soonestExpiring);
+        }
+
+        return soonestExpiring;
+    }
+
+    private void shedConservePowerLane() {
+        for (PendingPushNotification pendingPushNotification = this.conservePowerLane.poll();
+             pendingPushNotification != null;
+             pendingPushNotification = this.conservePowerLane.poll()) {
+
+            pendingPushNotification.handleDequeued(DeliveryPriority.CONSERVE_POWER);
+            this.shed(pendingPushNotification);
+        }
+    }
+
+    private void shed(final PendingPushNotification pendingPushNotification) {
+        log.debug("Shedding notification to relieve overload: {}", pendingPushNotification.getPushNotification());
+
+        this.removeCoalescableNotification(pendingPushNotification);
+        pendingPushNotification.tryShed(NOTIFICATION_SHED_EXCEPTION);
+    }
+
+    private static boolean expiresSooner(final PendingPushNotification pendingPushNotification, final PendingPushNotification other) {
+        final Date expiration = pendingPushNotification.getPushNotification().getExpiration();
+        final Date otherExpiration = other.getPushNotification().getExpiration();
+
+        return expiration != null && (otherExpiration == null || expiration.before(otherExpiration));
+    }
+
+    private static DeliveryPriority getLane(final PendingPushNotification pendingPushNotification) {
+        // The APNs gateway treats notifications without an explicit priority as immediate.
+        return pendingPushNotification.getPushNotification().getPriority() == DeliveryPriority.CONSERVE_POWER ?
+                DeliveryPriority.CONSERVE_POWER : DeliveryPriority.IMMEDIATE;
+    }
+
+    /**
+     * Writes notifications waiting in this handler's priority lanes for as long as the server will let us open new
+     * streams. Immediate notifications generally go first, but a conserve-power notification is let through after
+     * every {@value IMMEDIATE_LANE_WEIGHT} immediate notifications so a steady stream of urgent notifications can't
+     * starve bulk traffic entirely.
+     */
+    private void drainPriorityLanes() {
+        if (this.drainingPriorityLanes) {
+            // Writes (or failures) can lead to more notifications being sent or streams being closed; the drain
+            // already in progress will pick those up.
+            return;
+        }
+
+        this.drainingPriorityLanes = true;
+
+        try {
+            boolean wroteNotifications = false;
+
+            while (this.context.channel().isActive() && !this.isGoingAway() &&
+                    this.connection().local().canOpenStream()) {
+
+                final DeliveryPriority lane;
+
+                if (!this.conservePowerLane.isEmpty() &&
+                        (this.immediateLane.isEmpty() || this.immediateWritesSinceConservePowerWrite >= IMMEDIATE_LANE_WEIGHT)) {
+
+                    lane = DeliveryPriority.CONSERVE_POWER;
+                    this.immediateWritesSinceConservePowerWrite = 0;
+                } else if (!this.immediateLane.isEmpty()) {
+                    lane = DeliveryPriority.IMMEDIATE;
+                    this.immediateWritesSinceConservePowerWrite++;
+                } else {
+                    break;
+                }
+
+                final PendingPushNotification pendingPushNotification =
+                        (lane == DeliveryPriority.CONSERVE_POWER ? this.conservePowerLane : this.immediateLane).poll();
+
+                final long waitNanos = pendingPushNotification.handleDequeued(lane);
+
+                if (this.overloadPolicy != null && waitNanos > this.overloadPolicy.getMaxQueueWait(TimeUnit.NANOSECONDS)) {
+                    if (lane == DeliveryPriority.CONSERVE_POWER) {
+                        this.shed(pendingPushNotification);
+                        continue;
+                    }
+
+                    // Urgent notifications are waiting too long; anything less urgent would wait even longer.
+                    this.shedConservePowerLane();
+                }
+
+                this.removeCoalescableNotification(pendingPushNotification);
+
+                this.writePushNotification(this.context, pendingPushNotification, this.context.newPromise());
+
+                wroteNotifications = true;
+            }
+
+            if (!this.context.channel().isActive()) {
+                this.failPriorityLanes();
+            }
+
+            if (wroteNotifications) {
+                this.scheduleFlush();
+            }
+        } finally {
+            this.drainingPriorityLanes = false;
+        }
+    }
+
+    private void scheduleFlush() {
+        if (!this.flushScheduled) {
+            this.flushScheduled = true;
+            this.context.executor().execute(this.flushTask);
+        }
+    }
+
+    private void failPendingWrites() {
+        for (PendingPushNotification pendingPushNotification = this.pendingWriteQueue.poll();
+             pendingPushNotification != null;
+             pendingPushNotification = this.pendingWriteQueue.poll()) {
+
+            failOrReplay(pendingPushNotification, CHANNEL_CLOSED_BEFORE_WRITE_EXCEPTION);
+        }
+    }
+
+    private void failPriorityLanes() {
+        for (final DeliveryPriority lane : DeliveryPriority.values()) {
+            final Queue<PendingPushNotification> queue =
+                    lane == DeliveryPriority.CONSERVE_POWER ? this.conservePowerLane : this.immediateLane;
+
+            for (PendingPushNotification pendingPushNotification = queue.poll();
+                 pendingPushNotification != null;
+                 pendingPushNotification = queue.poll()) {
+
+                pendingPushNotification.handleDequeued(lane);
+                this.removeCoalescableNotification(pendingPushNotification);
+
+                failOrReplay(pendingPushNotification, CHANNEL_CLOSED_BEFORE_WRITE_EXCEPTION);
+            }
+        }
+    }
+
+    private void migratePriorityLanes() {
+        for (final DeliveryPriority lane : DeliveryPriority.values()) {
+            final Queue<PendingPushNotification> queue =
+                    lane == DeliveryPriority.CONSERVE_POWER ? this.conservePowerLane : this.immediateLane;
+
+            for (PendingPushNotification pendingPushNotification = queue.poll();
+                 pendingPushNotification != null;
+                 pendingPushNotification = queue.poll()) {
+
+                pendingPushNotification.handleDequeued(lane);
+                this.removeCoalescableNotification(pendingPushNotification);
+
+                pendingPushNotification.migrate();
+            }
+        }
+    }
+
+    /**
+     * Indicates whether either this handler's connection or the server has announced that the connection is closing.
+     * Notifications sent to a handler whose connection is going away are sent on another connection instead.
+     *
+     * @return {@code true} if this handler's connection is going away or {@code false} otherwise
+     */
+    boolean isGoingAway() {
+        return this.connection().goAwayReceived() || this.connection().goAwaySent();
+    }
+
+    /**
+     * Indicates whether the server has announced that it won't process the given stream because it sent a GOAWAY frame
+     * with a lower last stream ID.
+     *
+     * @param streamId the ID of the stream to check
+     *
+     * @return {@code true} if the server will not process the given stream or {@code false} otherwise
+     */
+    boolean isStreamRefusedByGoAway(final int streamId) {
+        return this.connection().goAwayReceived() && streamId > this.connection().local().lastStreamKnownByPeer();
+    }
+
+    /**
+     * Fails the given notification because its connection closed, unless the client can replay it on its next
+     * connection instead.
+     */
+    private static void failOrReplay(final PendingPushNotification pendingPushNotification, final Throwable cause) {
+        if (!pendingPushNotification.tryReplay()) {
+            pendingPushNotification.tryFailure(cause);
+        }
+    }
+
+    private void removeCoalescableNotification(final PendingPushNotification pendingPushNotification) {
+        if (this.coalesceNotifications && pendingPushNotification.getPushNotification().getCollapseId() != null) {
+            this.coalescableNotifications.remove(new CoalescingKey(pendingPushNotification.getPushNotification()));
+        }
+    }
+
+    /**
+     * Identifies notifications that devices would collapse into a single notification.
+     */
+    private static class CoalescingKey {
+        private final String token;
+        private final String topic;
+        private final String collapseId;
+
+        private CoalescingKey(final ApnsPushNotification pushNotification) {
+            this.token = pushNotification.getToken();
+            this.topic = pushNotification.getTopic();
+            this.collapseId = pushNotification.getCollapseId();
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof CoalescingKey)) {
+                return false;
+            }
+            final CoalescingKey other = (CoalescingKey) obj;
+
+            return Objects.equals(this.token, other.token) &&
+                    Objects.equals(this.topic, other.topic) &&
+                    Objects.equals(this.collapseId, other.collapseId);
+        }
+
+        @Override
+        public int hashCode() {
+            final int prime = 31;
+            int result = 1;
+            result = prime * result + ((this.token == null) ? 0 : this.token.hashCode());
+            result = prime * result + ((this.topic == null) ? 0 : this.topic.hashCode());
+            result = prime * result + ((this.collapseId == null) ? 0 : this.collapseId.hashCode());
+            return result;
+        }
+    }
+
+    @Override
+    public void close(final ChannelHandlerContext context, final ChannelPromise promise) throws Exception {
+        super.close(context, promise);
+
+        // Notifications still waiting for a stream would have to wait for a connection that's closing. We've already
+        // announced that the connection is going away, so the client won't send them right back here.
+        this.migratePriorityLanes();
+    }
+
+    @Override
+    public void channelInactive(final ChannelHandlerContext context) throws Exception {
+        this.failPendingWrites();
+        this.failPriorityLanes();
+        super.channelInactive(context);
+    }
+
+    @Override
+    public void write(final ChannelHandlerContext context, final Object message, final ChannelPromise writePromise) throws Http2Exception, InvalidKeyException, NoSuchAlgorithmException {
+        if (message instanceof PendingPushNotification) {
+            this.writePushNotification(context, (PendingPushNotification) message, writePromise);
         } else {
             // This should never happen, but in case some foreign debris winds up in the pipeline, just pass it through.
             log.error("Unexpected object in pipeline: {}", message);
@@ -151,58 +618,51 @@ class ApnsClientHandler extends Http2ConnectionHandler implements Http2FrameList
     protected void retryPushNotificationFromStream(final ChannelHandlerContext context, final int streamId) {
         final Http2Stream stream = this.connection().stream(streamId);
 
-        final ApnsPushNotification pushNotification = stream.getProperty(this.pushNotificationPropertyKey);
-        final Promise<PushNotificationResponse<ApnsPushNotification>> responsePromise = stream.getProperty(this.responsePromisePropertyKey);
+        // The notification is moving to a new stream; detach it from the old one so closing the old stream doesn't
+        // fail the new attempt.
+        final PendingPushNotification pendingPushNotification = stream.removeProperty(this.pendingPushNotificationPropertyKey);
 
-        final ChannelPromise writePromise = context.channel().newPromise();
-        this.writePushNotification(context, pushNotification, responsePromise, writePromise);
-
-        writePromise.addListener(new GenericFutureListener<Future<Void>>() {
-            @Override
-            public void operationComplete(final Future<Void> writeFuture) throws Exception {
-                if (!writeFuture.isSuccess()) {
-                    responsePromise.tryFailure(writeFuture.cause());
-                }
-            }
-        });
+        if (pendingPushNotification != null) {
+            this.writePushNotification(context, pendingPushNotification, context.newPromise());
+        }
     }
 
-    private void writePushNotification(final ChannelHandlerContext context, final ApnsPushNotification pushNotification, final Promise<PushNotificationResponse<ApnsPushNotification>> responsePromise, final ChannelPromise writePromise) {
+    private void writePushNotification(final ChannelHandlerContext context, final PendingPushNotification pendingPushNotification, final ChannelPromise writePromise) {
+        final ApnsPushNotification pushNotification = pendingPushNotification.getPushNotification();
+
+        if (isExpired(pushNotification)) {
+            // The gateway would discard this notification anyway; don't waste a stream on it.
+            final NotificationExpiredException expiredException = new NotificationExpiredException(pushNotification.getExpiration());
+
+            pendingPushNotification.tryExpire(expiredException);
+            writePromise.tryFailure(expiredException);
+
+            return;
+        }
+
         final int streamId = this.connection().local().incrementAndGetNextStreamId();
 
+        // The pending notification is the only listener for the write; it reports the outcome of the write and, on
+        // success, calls back to handlePushNotificationWritten to attach itself to its stream.
+        pendingPushNotification.setStream(this, streamId, writePromise);
+
         if (streamId > 0) {
             final Http2Headers headers = getHeadersForPushNotification(pushNotification, streamId);
 
-            final ChannelPromise headersPromise = context.newPromise();
-            this.encoder().writeHeaders(context, streamId, headers, 0, false, headersPromise);
+            if (pendingPushNotification.getApnsId() != null) {
+                // Replayed notifications keep the same ID on every connection so they can be matched up later.
+                headers.add(APNS_ID_HEADER, pendingPushNotification.getApnsId().toString());
+            }
+
+            // Frames on a stream are written in order and a failure to write the headers will also fail the data, so
+            // the outcome of the write as a whole is the outcome of writing the data frame.
+            this.encoder().writeHeaders(context, streamId, headers, 0, false, context.newPromise());
             log.trace("Wrote headers on stream {}: {}", streamId, headers);
 
-            final ByteBuf payloadBuffer = context.alloc().ioBuffer(INITIAL_PAYLOAD_BUFFER_CAPACITY);
-            payloadBuffer.writeBytes(pushNotification.getPayload().getBytes(StandardCharsets.UTF_8));
+            final ByteBuf payloadBuffer = ByteBufUtil.writeUtf8(context.alloc(), pushNotification.getPayload());
 
-            final ChannelPromise dataPromise = context.newPromise();
-            this.encoder().writeData(context, streamId, payloadBuffer, 0, true, dataPromise);
+            this.encoder().writeData(context, streamId, payloadBuffer, 0, true, writePromise);
             log.trace("Wrote payload on stream {}: {}", streamId, pushNotification.getPayload());
-
-            final PromiseCombiner promiseCombiner = new PromiseCombiner();
-            promiseCombiner.addAll((ChannelFuture) headersPromise, dataPromise);
-            promiseCombiner.finish(writePromise);
-
-            writePromise.addListener(new GenericFutureListener<ChannelPromise>() {
-
-                @Override
-                public void operationComplete(final ChannelPromise future) throws Exception {
-                    if (future.isSuccess()) {
-                        final Http2Stream stream = ApnsClientHandler.this.connection().stream(streamId);
-
-                        stream.setProperty(ApnsClientHandler.this.pushNotificationPropertyKey, pushNotification);
-                        stream.setProperty(ApnsClientHandler.this.responsePromisePropertyKey, responsePromise);
-                    } else {
-                        log.trace("Failed to write push notification on stream {}.", streamId, future.cause());
-                        responsePromise.tryFailure(future.cause());
-                    }
-                }
-            });
         } else {
             // This is very unlikely, but in the event that we run out of stream IDs, we need to open a new
             // connection. Just closing the context should be enough; automatic reconnection should take things
@@ -212,6 +672,36 @@ class ApnsClientHandler extends Http2ConnectionHandler implements Http2FrameList
         }
     }
 
+    private static boolean isExpired(final ApnsPushNotification pushNotification) {
+        final Date expiration = pushNotification.getExpiration();
+
+        // An expiration time of zero tells the gateway to try to deliver a notification once and not to store it, and
+        // does not mean the notification has expired.
+        return expiration != null && expiration.getTime() != 0 && expiration.getTime() <= System.currentTimeMillis();
+    }
+
+    /**
+     * Attaches a pending push notification to the stream on which it was just written so the eventual reply from the
+     * server can be matched to it.
+     *
+     * @param streamId the ID of the stream on which the notification was written
+     * @param pendingPushNotification the pending notification written on the given stream
+     */
+    void handlePushNotificationWritten(final int streamId, final PendingPushNotification pendingPushNotification) {
+        final Http2Stream stream = this.connection().stream(streamId);
+
+        if (stream != null) {
+            stream.setProperty(this.pendingPushNotificationPropertyKey, pendingPushNotification);
+        } else if (this.isStreamRefusedByGoAway(streamId)) {
+            // The stream was closed because the server won't process it, and so the notification can safely be sent
+            // on another connection.
+            pendingPushNotification.migrate();
+        } else {
+            // The stream was closed before we heard that the write had finished, and so there's no way we'll get a reply.
+            failOrReplay(pendingPushNotification, STREAM_CLOSED_BEFORE_REPLY_EXCEPTION);
+        }
+    }
+
     protected Http2Headers getHeadersForPushNotification(final ApnsPushNotification pushNotification, final int streamId) {
         final Http2Headers headers = new DefaultHttp2Headers()
                 .method(HttpMethod.POST.asciiName())
@@ -278,11 +768,11 @@ class ApnsClientHandler extends Http2ConnectionHandler implements Http2FrameList
             final Http2Stream stream = this.connection().stream(streamId);
 
             final Http2Headers headers = stream.getProperty(this.responseHeadersPropertyKey);
-            final ApnsPushNotification pushNotification = stream.getProperty(this.pushNotificationPropertyKey);
+            final PendingPushNotification pendingPushNotification = stream.getProperty(this.pendingPushNotificationPropertyKey);
 
             final ErrorResponse errorResponse = GSON.fromJson(data.toString(StandardCharsets.UTF_8), ErrorResponse.class);
 
-            this.handleErrorResponse(context, streamId, headers, pushNotification, errorResponse);
+            this.handleErrorResponse(context, streamId, headers, pendingPushNotification, errorResponse);
         } else {
             log.error("Gateway sent a DATA frame that was not the end of a stream.");
         }
@@ -290,21 +780,36 @@ class ApnsClientHandler extends Http2ConnectionHandler implements Http2FrameList
         return bytesProcessed;
     }
 
-    protected void handleErrorResponse(final ChannelHandlerContext context, final int streamId, final Http2Headers headers, final ApnsPushNotification pushNotification, final ErrorResponse errorResponse) {
-        final Promise<PushNotificationResponse<ApnsPushNotification>> responsePromise =
-                this.connection().stream(streamId).getProperty(this.responsePromisePropertyKey);
+    protected void handleErrorResponse(final ChannelHandlerContext context, final int streamId, final Http2Headers headers, final PendingPushNotification pendingPushNotification, final ErrorResponse errorResponse) {
+        // Pending notifications are recycled once they're complete; make sure nothing else can find this one by way of
+        // its stream.
+        this.connection().stream(streamId).removeProperty(this.pendingPushNotificationPropertyKey);
 
+        final ApnsPushNotification pushNotification = pendingPushNotification.getPushNotification();
         final HttpResponseStatus status = HttpResponseStatus.parseLine(headers.status());
 
-        if (HttpResponseStatus.INTERNAL_SERVER_ERROR.equals(status)) {
+        pendingPushNotification.handleResponseReceived(isServerError(status));
+
+        if (isTransientFailure(status) && pendingPushNotification.tryRetry()) {
+            log.debug("Retrying {} after transient failure: {}", pushNotification, errorResponse.getReason());
+        } else if (HttpResponseStatus.INTERNAL_SERVER_ERROR.equals(status)) {
             log.warn("APNs server reported an internal error when sending {}.", pushNotification);
-            responsePromise.tryFailure(new ApnsServerException(GSON.toJson(errorResponse)));
+            pendingPushNotification.tryFailure(new ApnsServerException(GSON.toJson(errorResponse)));
         } else {
-            responsePromise.trySuccess(new SimplePushNotificationResponse<>(pushNotification,
+            pendingPushNotification.trySuccess(new SimplePushNotificationResponse<>(pushNotification,
                     HttpResponseStatus.OK.equals(status), errorResponse.getReason(), errorResponse.getTimestamp()));
         }
     }
 
+    private static boolean isTransientFailure(final HttpResponseStatus status) {
+        return isServerError(status) || HttpResponseStatus.TOO_MANY_REQUESTS.equals(status);
+    }
+
+    private static boolean isServerError(final HttpResponseStatus status) {
+        return HttpResponseStatus.INTERNAL_SERVER_ERROR.equals(status) ||
+                HttpResponseStatus.SERVICE_UNAVAILABLE.equals(status);
+    }
+
     @Override
     public void onHeadersRead(final ChannelHandlerContext context, final int streamId, final Http2Headers headers, final int streamDependency, final short weight, final boolean exclusive, final int padding, final boolean endOfStream) throws Http2Exception {
         this.onHeadersRead(context, streamId, headers, padding, endOfStream);
@@ -323,14 +828,18 @@ class ApnsClientHandler extends Http2ConnectionHandler implements Http2FrameList
                 log.warn("Gateway sent an end-of-stream HEADERS frame for an unsuccessful notification.");
             }
 
-            final ApnsPushNotification pushNotification = stream.getProperty(this.pushNotificationPropertyKey);
-            final Promise<PushNotificationResponse<ApnsPushNotification>> responsePromise = stream.getProperty(this.responsePromisePropertyKey);
+            final PendingPushNotification pendingPushNotification = stream.removeProperty(this.pendingPushNotificationPropertyKey);
+            final ApnsPushNotification pushNotification = pendingPushNotification.getPushNotification();
+
+            pendingPushNotification.handleResponseReceived(isServerError(status));
 
-            if (HttpResponseStatus.INTERNAL_SERVER_ERROR.equals(status)) {
+            if (isTransientFailure(status) && pendingPushNotification.tryRetry()) {
+                log.debug("Retrying {} after transient failure: {}", pushNotification, status);
+            } else if (HttpResponseStatus.INTERNAL_SERVER_ERROR.equals(status)) {
                 log.warn("APNs server reported an internal error when sending {}.", pushNotification);
-                responsePromise.tryFailure(new ApnsServerException());
+                pendingPushNotification.tryFailure(new ApnsServerException());
             } else {
-                responsePromise.trySuccess(
+                pendingPushNotification.trySuccess(
                         new SimplePushNotificationResponse<>(pushNotification, success, null, null));
             }
         } else {
@@ -360,6 +869,9 @@ class ApnsClientHandler extends Http2ConnectionHandler implements Http2FrameList
     @Override
     public void onSettingsRead(final ChannelHandlerContext context, final Http2Settings settings) {
         log.trace("Received settings from APNs gateway: {}", settings);
+
+        // The server may have raised its limit on concurrent streams.
+        this.drainPriorityLanes();
     }
 
     @Override
@@ -407,21 +919,24 @@ class ApnsClientHandler extends Http2ConnectionHandler implements Http2FrameList
 
     @Override
     public void onStreamClosed(final Http2Stream stream) {
-        // Always try to fail promises associated with closed streams; most of the time, this should fail silently, but
-        // in cases of unexpected closure, it will make sure that nothing gets left hanging.
-        final Promise<PushNotificationResponse<ApnsPushNotification>> responsePromise =
-                stream.getProperty(this.responsePromisePropertyKey);
+        // Always try to fail notifications associated with closed streams; most of the time, this should fail
+        // silently, but in cases of unexpected closure, it will make sure that nothing gets left hanging.
+        final PendingPushNotification pendingPushNotification = stream.removeProperty(this.pendingPushNotificationPropertyKey);
 
-        if (responsePromise != null) {
-            responsePromise.tryFailure(STREAM_CLOSED_BEFORE_REPLY_EXCEPTION);
+        if (pendingPushNotification != null) {
+            failOrReplay(pendingPushNotification, STREAM_CLOSED_BEFORE_REPLY_EXCEPTION);
+        }
+
+        // A closed stream frees up room for a new one.
+        if (this.context != null) {
+            this.drainPriorityLanes();
         }
     }
 
     @Override
     public void onStreamRemoved(final Http2Stream stream) {
-        stream.removeProperty(this.pushNotificationPropertyKey);
+        stream.removeProperty(this.pendingPushNotificationPropertyKey);
         stream.removeProperty(this.responseHeadersPropertyKey);
-        stream.removeProperty(this.responsePromisePropertyKey);
     }
 
     @Override
@@ -430,5 +945,31 @@ class ApnsClientHandler extends Http2ConnectionHandler implements Http2FrameList
 
     @Override
     public void onGoAwayReceived(final int lastStreamId, final long errorCode, final ByteBuf debugData) {
+        // This happens before streams above the last stream ID get closed, so we can move their notifications to
+        // another connection instead of failing them. Streams at or below the last stream ID will finish normally.
+        try {
+            this.connection().forEachActiveStream(new Http2StreamVisitor() {
+
+                @Override
+                public boolean visit(final Http2Stream stream) {
+                    if (stream.id() > lastStreamId) {
+                        final PendingPushNotification pendingPushNotification =
+                                stream.removeProperty(ApnsClientHandler.this.pendingPushNotificationPropertyKey);
+
+                        if (pendingPushNotification != null) {
+                            pendingPushNotification.migrate();
+                        }
+                    }
+
+                    return true;
+                }
+            });
+        } catch (final Http2Exception e) {
+            // Our visitor never throws exceptions.
+            throw new RuntimeException(e);
+        }
+
+        // Notifications still waiting for a stream would never get one here.
+        this.migratePriorityLanes();
     }
 }
@@ -30,7 +30,12 @@ package com.turo.pushy.apns;
  * <p>The information provided to metrics listeners is intended only to measure the performance and behavior of an
  * {@code ApnsClient}; metrics listeners should never be used to drive business logic.</p>
  *
+ * <p>Events may be added to this interface in future versions of Pushy. Listeners that only care about some events, or
+ * that would like to keep compiling as new events are added, should extend {@link ApnsClientMetricsListenerAdapter}
+ * instead of implementing this interface directly.</p>
+ *
  * @see ApnsClient#setMetricsListener(ApnsClientMetricsListener)
+ * @see ApnsClientMetricsListenerAdapter
  *
  * @author <a href="https://github.com/jchambers">Jon Chambers</a>
  *
@@ -115,4 +120,152 @@ public interface ApnsClientMetricsListener {
      * @since 0.6
      */
     void handleConnectionAttemptFailed(ApnsClient apnsClient);
+
+    /**
+     * Indicates that the client lost its connection and has scheduled an attempt to reconnect after the given delay.
+     *
+     * @param apnsClient the client that scheduled the reconnection attempt
+     * @param delayNanos the time, in nanoseconds, the client will wait before attempting to reconnect
+     *
+     * @see ApnsClientBuilder#setReconnectBackoffPolicy(ReconnectBackoffPolicy)
+     *
+     * @since 0.11
+     */
+    void handleReconnectionScheduled(ApnsClient apnsClient, long delayNanos);
+
+    /**
+     * Indicates that the writability of the client's connection has changed. A connection becomes unwritable when the
+     * amount of data waiting to be written passes the client's high write buffer water mark, and becomes writable again
+     * when the amount of waiting data drops below the low water mark.
+     *
+     * @param apnsClient the client whose connection changed writability
+     * @param writable {@code true} if the connection is now writable or {@code false} otherwise
+     *
+     * @see ApnsClient#isWritable()
+     *
+     * @since 0.11
+     */
+    void handleWritabilityChanged(ApnsClient apnsClient, boolean writable);
+
+    /**
+     * Indicates that a response listener was notified by the client's callback executor, and reports how long the
+     * notification waited in the callback executor's queue. This event is only reported by clients that have a
+     * callback executor.
+     *
+     * @param apnsClient the client that notified the response listener
+     * @param lagNanos the time, in nanoseconds, between the completion of the attempt to send a notification and the
+     * notification of its response listener
+     *
+     * @see ApnsClientBuilder#setCallbackExecutor(java.util.concurrent.Executor)
+     *
+     * @since 0.11
+     */
+    void handleCallbackQueueLag(ApnsClient apnsClient, long lagNanos);
+
+    /**
+     * Indicates that a notification could not be written immediately because the client had already opened as many
+     * concurrent streams as the APNs server allows, and that the notification has started waiting in line for a stream.
+     * Notifications wait in separate lanes by {@link DeliveryPriority}, and immediate notifications are generally
+     * written ahead of conserve-power notifications. Every "queued" event is eventually followed by a "dequeued" event
+     * for the same lane.
+     *
+     * @param apnsClient the client that queued the notification
+     * @param lane the delivery priority lane in which the notification is waiting
+     *
+     * @since 0.11
+     */
+    void handleNotificationQueued(ApnsClient apnsClient, DeliveryPriority lane);
+
+    /**
+     * Indicates that a notification has left the lane in which it was waiting for a stream, either because it's about
+     * to be written or because the connection closed, and reports how long the notification waited.
+     *
+     * @param apnsClient the client that had queued the notification
+     * @param lane the delivery priority lane in which the notification was waiting
+     * @param waitNanos the time, in nanoseconds, the notification spent waiting in its lane
+     *
+     * @since 0.11
+     */
+    void handleNotificationDequeued(ApnsClient apnsClient, DeliveryPriority lane, long waitNanos);
+
+    /**
+     * Indicates that a notification was dropped without being sent because its expiration time passed before it could
+     * be written to the APNs gateway. Expired notifications are not also reported as write failures.
+     *
+     * @param apnsClient the client that dropped the notification
+     * @param notificationId an opaque, unique identifier for the notification that expired
+     *
+     * @see NotificationExpiredException
+     *
+     * @since 0.11
+     */
+    void handleNotificationExpired(ApnsClient apnsClient, long notificationId);
+
+    /**
+     * Indicates that a notification was dropped without being sent because a newer notification with the same device
+     * token, topic, and collapse ID took its place while it was waiting to be sent. This event is only reported by
+     * clients that coalesce notifications.
+     *
+     * @param apnsClient the client that dropped the notification
+     * @param notificationId an opaque, unique identifier for the notification that was replaced
+     *
+     * @see ApnsClientBuilder#setCoalesceNotifications(boolean)
+     *
+     * @since 0.11
+     */
+    void handleNotificationCoalesced(ApnsClient apnsClient, long notificationId);
+
+    /**
+     * Indicates that a notification failed for a transient reason and that the client will send it again after a
+     * delay. Retried notifications are not reported as accepted, rejected, or failed until their final attempt
+     * resolves. This event is only reported by clients that have a retry policy.
+     *
+     * @param apnsClient the client that will retry the notification
+     * @param notificationId an opaque, unique identifier for the notification that will be retried
+     *
+     * @see ApnsClientBuilder#setRetryPolicy(RetryPolicy)
+     *
+     * @since 0.11
+     */
+    void handleNotificationRetried(ApnsClient apnsClient, long notificationId);
+
+    /**
+     * Indicates that a client's circuit breaker changed state. Notifications that fail because the circuit is open are
+     * reported as write failures. This event is only reported by clients that have a circuit breaker policy.
+     *
+     * @param apnsClient the client whose circuit breaker changed state
+     * @param state the new state of the client's circuit breaker
+     *
+     * @see ApnsClientBuilder#setCircuitBreakerPolicy(CircuitBreakerPolicy)
+     *
+     * @since 0.11
+     */
+    void handleCircuitBreakerStateChanged(ApnsClient apnsClient, CircuitBreakerState state);
+
+    /**
+     * Indicates that a notification lost to a closed connection is being sent again on a new connection. A notification
+     * may be replayed more than once if connections keep closing before the server replies. This event is only reported
+     * by clients that have a replay buffer.
+     *
+     * @param apnsClient the client that replayed the notification
+     * @param notificationId an opaque, unique identifier for the notification that was replayed
+     *
+     * @see ApnsClientBuilder#setReplayBufferSize(int)
+     *
+     * @since 0.11
+     */
+    void handleNotificationReplayed(ApnsClient apnsClient, long notificationId);
+
+    /**
+     * Indicates that a notification waiting for a free stream was shed because the client was overloaded. Shed
+     * notifications are never sent, and this event is only reported by clients that have an overload policy.
+     *
+     * @param apnsClient the client that shed the notification
+     * @param notificationId an opaque, unique identifier for the notification that was shed
+     *
+     * @see ApnsClientBuilder#setOverloadPolicy(OverloadPolicy)
+     *
+     * @since 0.11
+     */
+    void handleNotificationShed(ApnsClient apnsClient, long notificationId);
 }
@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2013-2017 Turo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.turo.pushy.apns;
+
+/**
+ * <p>An abstract metrics listener that ignores every event. Subclasses need only override the methods for the events
+ * they care about.</p>
+ *
+ * <p>New events may be added to {@link ApnsClientMetricsListener} in future versions of Pushy. Listeners that extend
+ * this class will ignore those events until they choose to handle them, while listeners that implement the interface
+ * directly will need to be updated to compile against newer versions.</p>
+ *
+ * @author <a href="https://github.com/jchambers">Jon Chambers</a>
+ *
+ * @since 0.11
+ */
+public abstract class ApnsClientMetricsListenerAdapter implements ApnsClientMetricsListener {
+
+    @Override
+    public void handleWriteFailure(final ApnsClient apnsClient, final long notificationId) {
+    }
+
+    @Override
+    public void handleNotificationSent(final ApnsClient apnsClient, final long notificationId) {
+    }
+
+    @Override
+    public void handleNotificationAccepted(final ApnsClient apnsClient, final long notificationId) {
+    }
+
+    @Override
+    public void handleNotificationRejected(final ApnsClient apnsClient, final long notificationId) {
+    }
+
+    @Override
+    public void handleConnectionAttemptStarted(final ApnsClient apnsClient) {
+    }
+
+    @Override
+    public void handleConnectionAttemptSucceeded(final ApnsClient apnsClient) {
+    }
+
+    @Override
+    public void handleConnectionAttemptFailed(final ApnsClient apnsClient) {
+    }
+
+    @Override
+    public void handleReconnectionScheduled(final ApnsClient apnsClient, final long delayNanos) {
+    }
+
+    @Override
+    public void handleWritabilityChanged(final ApnsClient apnsClient, final boolean writable) {
+    }
+
+    @Override
+    public void handleCallbackQueueLag(final ApnsClient apnsClient, final long lagNanos) {
+    }
+
+    @Override
+    public void handleNotificationQueued(final ApnsClient apnsClient, final DeliveryPriority lane) {
+    }
+
+    @Override
+    public void handleNotificationDequeued(final ApnsClient apnsClient, final DeliveryPriority lane, final long waitNanos) {
+    }
+
+    @Override
+    public void handleNotificationExpired(final ApnsClient apnsClient, final long notificationId) {
+    }
+
+    @Override
+    public void handleNotificationCoalesced(final ApnsClient apnsClient, final long notificationId) {
+    }
+
+    @Override
+    public void handleNotificationRetried(final ApnsClient apnsClient, final long notificationId) {
+    }
+
+    @Override
+    public void handleCircuitBreakerStateChanged(final ApnsClient apnsClient, final CircuitBreakerState state) {
+    }
+
+    @Override
+    public void handleNotificationReplayed(final ApnsClient apnsClient, final long notificationId) {
+    }
+
+    @Override
+    public void handleNotificationShed(final ApnsClient apnsClient, final long notificationId) {
+    }
+}
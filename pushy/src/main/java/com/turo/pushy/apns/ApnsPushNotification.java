@@ -64,7 +64,9 @@ public interface ApnsPushNotification {
     /**
      * Returns the time at which Apple's push notification service should stop trying to deliver this push notification.
      * If {@code null}, the push notification service will not attempt to store the notification at all. Note that APNs
-     * will only store one notification per device token for re-delivery at a time.
+     * will only store one notification per device token for re-delivery at a time. If the expiration time passes while
+     * the notification is still waiting to be written to the gateway, the client will not send it at all and will
+     * report a {@link NotificationExpiredException} instead.
      *
      * @return the time at which this notification can be discarded
      *
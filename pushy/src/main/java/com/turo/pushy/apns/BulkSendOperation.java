@@ -0,0 +1,208 @@
+/*
+ * Copyright (c) 2013-2017 Turo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.turo.pushy.apns;
+
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.GenericFutureListener;
+import io.netty.util.concurrent.Promise;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * A bulk send operation pulls notifications from an iterator and sends them with an {@link ApnsClient}, keeping no
+ * more notifications in flight than the client's connection has streams for, and pausing while the connection isn't
+ * writable. A single bulk send operation acts as the response listener for every notification it sends (so sending a
+ * notification doesn't create a new promise), and keeps only running totals of outcomes, so its memory footprint does
+ * not depend on the number of notifications sent.
+ *
+ * @author <a href="https://github.com/jchambers">Jon Chambers</a>
+ *
+ * @since 0.11
+ */
+class BulkSendOperation<T extends ApnsPushNotification> implements PushNotificationResponseListener<T> {
+
+    private final ApnsClient apnsClient;
+    private final Iterator<T> notificationIterator;
+    private final PushNotificationRejectionListener<T> rejectionListener;
+    private final int maxNotificationsInFlight;
+
+    private final GenericFutureListener<Future<Void>> writabilityListener = new GenericFutureListener<Future<Void>>() {
+
+        @Override
+        public void operationComplete(final Future<Void> future) {
+            synchronized (BulkSendOperation.this) {
+                BulkSendOperation.this.waitingForWritability = false;
+            }
+
+            // If the client disconnected instead, sending more notifications will just count them as failures.
+            BulkSendOperation.this.sendMoreNotifications();
+        }
+    };
+
+    private final Promise<BulkSendResult> resultPromise;
+
+    private int notificationsInFlight = 0;
+    private boolean sending = false;
+    private boolean iteratorExhausted = false;
+    private boolean waitingForWritability = false;
+
+    private long acceptedCount = 0;
+    private final Map<String, Long> rejectionCountsByReason = new HashMap<>();
+    private long failedCount = 0;
+
+    private static final Logger log = LoggerFactory.getLogger(BulkSendOperation.class);
+
+    BulkSendOperation(final ApnsClient apnsClient, final Iterator<T> notificationIterator, final PushNotificationRejectionListener<T> rejectionListener, final int maxNotificationsInFlight, final Promise<BulkSendResult> resultPromise) {
+        this.apnsClient = apnsClient;
+        this.notificationIterator = notificationIterator;
+        this.rejectionListener = rejectionListener;
+        this.maxNotificationsInFlight = maxNotificationsInFlight;
+        this.resultPromise = resultPromise;
+    }
+
+    /**
+     * Sends as many notifications as the client's connection has room for, and completes the result promise if the
+     * iterator has been exhausted and all notifications have been resolved. Only one thread sends notifications at a
+     * time; if another thread (or a listener called from within this method) gets here while notifications are being
+     * sent, it leaves the rest to the thread that's already sending, which checks for room again before every
+     * notification. That also keeps notifications that fail immediately from recursing through this method.
+     */
+    void sendMoreNotifications() {
+        synchronized (this) {
+            if (this.sending) {
+                return;
+            }
+
+            this.sending = true;
+        }
+
+        while (true) {
+            final T notification;
+            final boolean waitForWritability;
+
+            synchronized (this) {
+                if (this.waitingForWritability) {
+                    // We'll pick up where we left off once the client is writable again.
+                    this.sending = false;
+                    return;
+                }
+
+                waitForWritability = !this.iteratorExhausted && this.apnsClient.isConnected() && !this.apnsClient.isWritable();
+
+                if (waitForWritability) {
+                    this.waitingForWritability = true;
+                    this.sending = false;
+                    notification = null;
+                } else if (!this.iteratorExhausted && this.notificationsInFlight < this.getMaxNotificationsInFlight()) {
+                    try {
+                        if (this.notificationIterator.hasNext()) {
+                            notification = this.notificationIterator.next();
+                            this.notificationsInFlight++;
+                        } else {
+                            this.iteratorExhausted = true;
+                            notification = null;
+                        }
+                    } catch (final RuntimeException e) {
+                        log.warn("Notification source failed during bulk send.", e);
+
+                        this.iteratorExhausted = true;
+                        this.sending = false;
+                        this.resultPromise.tryFailure(e);
+
+                        return;
+                    }
+                } else {
+                    notification = null;
+                }
+
+                if (notification == null && !waitForWritability) {
+                    this.sending = false;
+
+                    if (this.iteratorExhausted && this.notificationsInFlight == 0) {
+                        this.resultPromise.trySuccess(new BulkSendResult(this.acceptedCount,
+                                new HashMap<>(this.rejectionCountsByReason), this.failedCount));
+                    }
+
+                    return;
+                }
+            }
+
+            if (waitForWritability) {
+                this.apnsClient.getWritabilityFuture().addListener(this.writabilityListener);
+                return;
+            }
+
+            this.apnsClient.sendNotification(notification, this);
+        }
+    }
+
+    /**
+     * Returns the number of notifications this operation may have in flight right now: one per stream the server lets
+     * the client's connection open at once, but never more than this operation's overall limit (servers need not limit
+     * concurrent streams at all). If the client isn't connected, notifications will fail right away, and so there's no
+     * reason to pull them from the iterator any faster than one at a time.
+     */
+    private int getMaxNotificationsInFlight() {
+        final int maxConcurrentStreams = this.apnsClient.getMaxConcurrentStreams();
+        return maxConcurrentStreams > 0 ? Math.min(maxConcurrentStreams, this.maxNotificationsInFlight) : 1;
+    }
+
+    @Override
+    public void handleResponse(final PushNotificationResponse<T> response) {
+        this.handleNotificationResolved(response);
+    }
+
+    @Override
+    public void handleFailure(final T pushNotification, final Throwable cause) {
+        this.handleNotificationResolved(null);
+    }
+
+    private void handleNotificationResolved(final PushNotificationResponse<T> response) {
+        synchronized (this) {
+            this.notificationsInFlight--;
+
+            if (response == null) {
+                this.failedCount++;
+            } else if (response.isAccepted()) {
+                this.acceptedCount++;
+            } else {
+                final Long previousCount = this.rejectionCountsByReason.get(response.getRejectionReason());
+                this.rejectionCountsByReason.put(response.getRejectionReason(), previousCount == null ? 1 : previousCount + 1);
+            }
+        }
+
+        if (response != null && !response.isAccepted() && this.rejectionListener != null) {
+            try {
+                this.rejectionListener.handleRejectedNotification(response);
+            } catch (final Exception e) {
+                log.warn("Rejection listener threw an exception.", e);
+            }
+        }
+
+        this.sendMoreNotifications();
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2013-2017 Turo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.turo.pushy.apns;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * A summary of the outcome of a bulk send operation. Bulk send results include the number of notifications accepted by
+ * the APNs gateway, the number of notifications rejected by the gateway (grouped by rejection reason), and the number
+ * of notifications that could not be sent at all.
+ *
+ * @see ApnsClient#sendNotifications(java.util.Iterator)
+ *
+ * @author <a href="https://github.com/jchambers">Jon Chambers</a>
+ *
+ * @since 0.11
+ */
+public class BulkSendResult {
+    private final long acceptedCount;
+    private final long rejectedCount;
+    private final Map<String, Long> rejectionCountsByReason;
+    private final long failedCount;
+
+    BulkSendResult(final long acceptedCount, final Map<String, Long> rejectionCountsByReason, final long failedCount) {
+        long rejectedCount = 0;
+
+        for (final long count : rejectionCountsByReason.values()) {
+            rejectedCount += count;
+        }
+
+        this.acceptedCount = acceptedCount;
+        this.rejectedCount = rejectedCount;
+        this.rejectionCountsByReason = Collections.unmodifiableMap(rejectionCountsByReason);
+        this.failedCount = failedCount;
+    }
+
+    /**
+     * Returns the number of notifications accepted by the APNs gateway.
+     *
+     * @return the number of notifications accepted by the APNs gateway
+     *
+     * @since 0.11
+     */
+    public long getAcceptedCount() {
+        return this.acceptedCount;
+    }
+
+    /**
+     * Returns the total number of notifications rejected by the APNs gateway for any reason.
+     *
+     * @return the total number of notifications rejected by the APNs gateway
+     *
+     * @since 0.11
+     */
+    public long getRejectedCount() {
+        return this.rejectedCount;
+    }
+
+    /**
+     * Returns the number of notifications rejected by the APNs gateway, grouped by rejection reason.
+     *
+     * @return an unmodifiable map of rejection reasons to the number of notifications rejected for that reason
+     *
+     * @see PushNotificationResponse#getRejectionReason()
+     *
+     * @since 0.11
+     */
+    public Map<String, Long> getRejectionCountsByReason() {
+        return this.rejectionCountsByReason;
+    }
+
+    /**
+     * Returns the number of notifications that could not be sent to the APNs gateway (i.e. those for which the
+     * {@code Future} returned by {@link ApnsClient#sendNotification(ApnsPushNotification)} would have failed with an
+     * exception). Failed notifications were never processed by the gateway, and callers may wish to send them again.
+     *
+     * @return the number of notifications that could not be sent
+     *
+     * @since 0.11
+     */
+    public long getFailedCount() {
+        return this.failedCount;
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder();
+        builder.append("BulkSendResult [acceptedCount=");
+        builder.append(this.acceptedCount);
+        builder.append(", rejectedCount=");
+        builder.append(this.rejectedCount);
+        builder.append(", rejectionCountsByReason=");
+        builder.append(this.rejectionCountsByReason);
+        builder.append(", failedCount=");
+        builder.append(this.failedCount);
+        builder.append("]");
+        return builder.toString();
+    }
+}
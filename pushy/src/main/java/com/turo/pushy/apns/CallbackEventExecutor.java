@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2013-2017 Turo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.turo.pushy.apns;
+
+import io.netty.util.concurrent.AbstractEventExecutor;
+import io.netty.util.concurrent.FailedFuture;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.GlobalEventExecutor;
+import io.netty.util.internal.PlatformDependent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * <p>An event executor that runs tasks in batches on a caller-provided {@link Executor}. Tasks submitted to a callback
+ * event executor are added to a lock-free queue, and the queue is drained by a single task submitted to the underlying
+ * executor; no matter how many tasks are submitted in quick succession, the underlying executor sees at most one task
+ * at a time from a given callback event executor. Tasks run in the order in which they were submitted.</p>
+ *
+ * <p>Callback event executors let clients notify response listeners (and listeners attached to response futures)
+ * somewhere other than the I/O thread without paying for an executor hand-off per notification. While a batch is
+ * running, {@link #inEventLoop()} returns {@code true} for the thread running the batch, which means promises bound
+ * to this executor notify their listeners immediately when completed from within a batch.</p>
+ *
+ * <p>If the underlying executor rejects a batch (because it has been shut down or its queue is full, for example),
+ * the batch runs on the thread that submitted the task instead. Tasks submitted to a callback event executor are
+ * usually responsible for releasing resources held by a notification, and so must run somewhere even if the caller's
+ * executor can't take them.</p>
+ *
+ * <p>Callback event executors don't own their underlying executors, and can't be shut down.</p>
+ *
+ * @author <a href="https://github.com/jchambers">Jon Chambers</a>
+ *
+ * @since 0.11
+ */
+class CallbackEventExecutor extends AbstractEventExecutor {
+
+    private final Executor executor;
+
+    private final Queue<Runnable> taskQueue = PlatformDependent.newMpscQueue();
+    private final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+
+    private volatile Thread drainingThread;
+
+    private final Future<?> terminationFuture = new FailedFuture<>(GlobalEventExecutor.INSTANCE, new UnsupportedOperationException());
+
+    private static final int MAX_TASKS_PER_BATCH = 1024;
+
+    private static final Logger log = LoggerFactory.getLogger(CallbackEventExecutor.class);
+
+    private final Runnable drainTask = new Runnable() {
+
+        @Override
+        public void run() {
+            CallbackEventExecutor.this.drainingThread = Thread.currentThread();
+
+            try {
+                for (int i = 0; i < MAX_TASKS_PER_BATCH; i++) {
+                    final Runnable task = CallbackEventExecutor.this.taskQueue.poll();
+
+                    if (task == null) {
+                        break;
+                    }
+
+                    try {
+                        task.run();
+                    } catch (final Throwable t) {
+                        log.warn("Callback task threw an exception.", t);
+                    }
+                }
+            } finally {
+                CallbackEventExecutor.this.drainingThread = null;
+                CallbackEventExecutor.this.drainScheduled.set(false);
+            }
+
+            // Tasks may have arrived after we stopped polling, but before we cleared the "scheduled" flag; also, we may
+            // have stopped early to give other users of the underlying executor a turn.
+            if (!CallbackEventExecutor.this.taskQueue.isEmpty()) {
+                CallbackEventExecutor.this.scheduleDrain();
+            }
+        }
+    };
+
+    CallbackEventExecutor(final Executor executor) {
+        this.executor = Objects.requireNonNull(executor, "Executor must not be null.");
+    }
+
+    @Override
+    public void execute(final Runnable task) {
+        this.taskQueue.offer(Objects.requireNonNull(task, "Task must not be null."));
+        this.scheduleDrain();
+    }
+
+    private void scheduleDrain() {
+        if (this.drainScheduled.compareAndSet(false, true)) {
+            try {
+                this.executor.execute(this.drainTask);
+            } catch (final RuntimeException e) {
+                log.warn("Underlying executor rejected a batch of callbacks; running callbacks on the calling thread instead.", e);
+                this.drainTask.run();
+            }
+        }
+    }
+
+    @Override
+    public boolean inEventLoop(final Thread thread) {
+        return thread == this.drainingThread;
+    }
+
+    @Override
+    public boolean isShuttingDown() {
+        return false;
+    }
+
+    @Override
+    public Future<?> shutdownGracefully(final long quietPeriod, final long timeout, final TimeUnit unit) {
+        return this.terminationFuture();
+    }
+
+    @Override
+    public Future<?> terminationFuture() {
+        return this.terminationFuture;
+    }
+
+    @Override
+    @Deprecated
+    public void shutdown() {
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return false;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return false;
+    }
+
+    @Override
+    public boolean awaitTermination(final long timeout, final TimeUnit unit) {
+        return false;
+    }
+}
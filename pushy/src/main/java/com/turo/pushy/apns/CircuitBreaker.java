@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) 2013-2017 Turo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.turo.pushy.apns;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks the rate of server errors reported to a client and decides whether the client should send new notifications.
+ * Responses are counted in a ring of buckets that together span the policy's rolling window.
+ *
+ * @author <a href="https://github.com/jchambers">Jon Chambers</a>
+ *
+ * @see CircuitBreakerPolicy
+ *
+ * @since 0.11
+ */
+class CircuitBreaker {
+
+    private final ApnsClient apnsClient;
+
+    private final double errorRatioThreshold;
+    private final int minimumResponses;
+    private final long bucketNanos;
+    private final long openDurationNanos;
+    private final int probeCount;
+
+    private final long[] bucketIndices = new long[BUCKET_COUNT];
+    private final int[] bucketResponses = new int[BUCKET_COUNT];
+    private final int[] bucketErrors = new int[BUCKET_COUNT];
+
+    private volatile CircuitBreakerState state = CircuitBreakerState.CLOSED;
+
+    private long stateChangedTimeNanos;
+    private int probesSent;
+    private int probesSucceeded;
+
+    private static final int BUCKET_COUNT = 10;
+
+    CircuitBreaker(final ApnsClient apnsClient, final CircuitBreakerPolicy policy) {
+        this.apnsClient = apnsClient;
+
+        this.errorRatioThreshold = policy.getErrorRatioThreshold();
+        this.minimumResponses = policy.getMinimumResponses();
+        this.bucketNanos = Math.max(1, policy.getWindow(TimeUnit.NANOSECONDS) / BUCKET_COUNT);
+        this.openDurationNanos = policy.getOpenDuration(TimeUnit.NANOSECONDS);
+        this.probeCount = policy.getProbeCount();
+    }
+
+    CircuitBreakerState getState() {
+        return this.state;
+    }
+
+    /**
+     * Decides whether a new notification may be sent. While the circuit is half-open, every notification that's
+     * allowed is a probe, so callers must actually send notifications for which this method returns {@code true}.
+     *
+     * @return {@code true} if the notification may be sent or {@code false} if it should fail immediately
+     */
+    boolean allowRequest() {
+        // Most of the time, the circuit will be closed, and we don't want to take a lock for every notification.
+        return this.state == CircuitBreakerState.CLOSED || this.allowRequest(System.nanoTime());
+    }
+
+    synchronized boolean allowRequest(final long nanoTime) {
+        // If the circuit has been open long enough, start probing. If we've been probing for just as long without
+        // hearing back (because the probes were lost to a closed connection, for example), start a new round of probes.
+        if (this.state != CircuitBreakerState.CLOSED && nanoTime - this.stateChangedTimeNanos >= this.openDurationNanos) {
+            this.probesSent = 0;
+            this.probesSucceeded = 0;
+
+            this.setState(CircuitBreakerState.HALF_OPEN, nanoTime);
+        }
+
+        switch (this.state) {
+            case CLOSED: {
+                return true;
+            }
+
+            case HALF_OPEN: {
+                if (this.probesSent < this.probeCount) {
+                    this.probesSent += 1;
+                    return true;
+                }
+
+                return false;
+            }
+
+            default: {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Returns a probe granted by {@link #allowRequest()} for a notification that was rejected locally after all, and so
+     * will never produce a response.
+     */
+    synchronized void releaseProbe() {
+        if (this.state == CircuitBreakerState.HALF_OPEN && this.probesSent > 0) {
+            this.probesSent -= 1;
+        }
+    }
+
+    /**
+     * Records a response from the APNs server.
+     *
+     * @param serverError {@code true} if the server reported an internal error or that it was unavailable or
+     * {@code false} otherwise
+     */
+    void handleResponse(final boolean serverError) {
+        this.handleResponse(serverError, System.nanoTime());
+    }
+
+    synchronized void handleResponse(final boolean serverError, final long nanoTime) {
+        switch (this.state) {
+            case CLOSED: {
+                // System.nanoTime() may be negative, so make sure we always round down.
+                final long bucketIndex = (nanoTime / this.bucketNanos) - (nanoTime % this.bucketNanos < 0 ? 1 : 0);
+                final int bucket = (int) (((bucketIndex % BUCKET_COUNT) + BUCKET_COUNT) % BUCKET_COUNT);
+
+                if (this.bucketIndices[bucket] != bucketIndex) {
+                    this.bucketIndices[bucket] = bucketIndex;
+                    this.bucketResponses[bucket] = 0;
+                    this.bucketErrors[bucket] = 0;
+                }
+
+                this.bucketResponses[bucket] += 1;
+
+                if (serverError) {
+                    this.bucketErrors[bucket] += 1;
+
+                    int responses = 0;
+                    int errors = 0;
+
+                    for (int i = 0; i < BUCKET_COUNT; i++) {
+                        if (bucketIndex - this.bucketIndices[i] < BUCKET_COUNT) {
+                            responses += this.bucketResponses[i];
+                            errors += this.bucketErrors[i];
+                        }
+                    }
+
+                    if (responses >= this.minimumResponses && errors >= responses * this.errorRatioThreshold) {
+                        this.setState(CircuitBreakerState.OPEN, nanoTime);
+                    }
+                }
+
+                break;
+            }
+
+            case HALF_OPEN: {
+                if (serverError) {
+                    this.setState(CircuitBreakerState.OPEN, nanoTime);
+                } else {
+                    this.probesSucceeded += 1;
+
+                    if (this.probesSucceeded >= this.probeCount) {
+                        // Start over with a clean slate so old errors don't immediately trip the circuit again.
+                        Arrays.fill(this.bucketResponses, 0);
+                        Arrays.fill(this.bucketErrors, 0);
+
+                        this.setState(CircuitBreakerState.CLOSED, nanoTime);
+                    }
+                }
+
+                break;
+            }
+
+            default: {
+                // Responses to notifications sent before the circuit opened don't tell us anything new.
+                break;
+            }
+        }
+    }
+
+    private void setState(final CircuitBreakerState state, final long nanoTime) {
+        this.stateChangedTimeNanos = nanoTime;
+
+        if (this.state != state) {
+            this.state = state;
+            this.apnsClient.handleCircuitBreakerStateChanged(state);
+        }
+    }
+}
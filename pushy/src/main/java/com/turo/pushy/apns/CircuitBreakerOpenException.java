@@ -22,30 +22,33 @@
 
 package com.turo.pushy.apns;
 
-import io.netty.util.concurrent.Promise;
-
 /**
- * A for-internal-use-only ttuple of a push notification and a {@link Promise} to be notified with the outcome of the
- * attempt to send the notification.
+ * An exception thrown to indicate that a notification was not sent because the client's circuit breaker was open.
+ * Notifications that fail with this exception never reached the APNs server and may be sent again once the server
+ * recovers.
  *
  * @author <a href="https://github.com/jchambers">Jon Chambers</a>
  *
- * @since 0.10
+ * @see CircuitBreakerPolicy
+ *
+ * @since 0.11
  */
-class PushNotificationAndResponsePromise {
-    private final ApnsPushNotification pushNotification;
-    private final Promise<PushNotificationResponse<ApnsPushNotification>> responsePromise;
-
-    public PushNotificationAndResponsePromise(final ApnsPushNotification pushNotification, final Promise<PushNotificationResponse<ApnsPushNotification>> responsePromise) {
-        this.pushNotification = pushNotification;
-        this.responsePromise = responsePromise;
-    }
+public class CircuitBreakerOpenException extends Exception {
+    private static final long serialVersionUID = 1L;
 
-    public ApnsPushNotification getPushNotification() {
-        return this.pushNotification;
+    /**
+     * Constructs a new exception with no message.
+     */
+    public CircuitBreakerOpenException() {
+        super();
     }
 
-    public Promise<PushNotificationResponse<ApnsPushNotification>> getResponsePromise() {
-        return this.responsePromise;
+    /**
+     * Constructs a new exception with the given message.
+     *
+     * @param message a short, human-readable explanation of the cause of this exception
+     */
+    public CircuitBreakerOpenException(final String message) {
+        super(message);
     }
 }
@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2013-2017 Turo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.turo.pushy.apns;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>A circuit breaker policy controls when a client stops sending notifications to an APNs server that is failing.
+ * Clients with a circuit breaker keep track of the fraction of responses over a rolling window that report an internal
+ * error (HTTP status 500) or that the server is unavailable (HTTP status 503). When that fraction reaches a threshold,
+ * the circuit "opens," and new notifications fail immediately with a {@link CircuitBreakerOpenException} instead of
+ * adding to the server's load.</p>
+ *
+ * <p>After the circuit has been open for a while, it becomes "half-open," and the client sends a small number of probe
+ * notifications. If all of the probes succeed (or are rejected for reasons other than server errors), the circuit
+ * closes and notifications are sent normally again; if any probe reports a server error, the circuit opens again.</p>
+ *
+ * <p>Circuit breaker policies are immutable and may be shared between clients; each client keeps its own circuit
+ * breaker.</p>
+ *
+ * @author <a href="https://github.com/jchambers">Jon Chambers</a>
+ *
+ * @see ApnsClientBuilder#setCircuitBreakerPolicy(CircuitBreakerPolicy)
+ *
+ * @since 0.11
+ */
+public class CircuitBreakerPolicy {
+
+    private final double errorRatioThreshold;
+    private final int minimumResponses;
+    private final long windowNanos;
+    private final long openDurationNanos;
+    private final int probeCount;
+
+    /**
+     * The default number of probe notifications a half-open circuit breaker sends.
+     */
+    public static final int DEFAULT_PROBE_COUNT = 3;
+
+    /**
+     * Constructs a new circuit breaker policy with the default number of probe notifications.
+     *
+     * @param errorRatioThreshold the fraction of responses within the rolling window that must report server errors
+     * to open the circuit; must be greater than zero and no more than one
+     * @param minimumResponses the minimum number of responses within the rolling window before the circuit may open
+     * @param window the length of the rolling window
+     * @param openDuration the time the circuit stays open before sending probe notifications
+     * @param timeUnit the time unit for the given window and open duration
+     *
+     * @see CircuitBreakerPolicy#DEFAULT_PROBE_COUNT
+     */
+    public CircuitBreakerPolicy(final double errorRatioThreshold, final int minimumResponses, final long window, final long openDuration, final TimeUnit timeUnit) {
+        this(errorRatioThreshold, minimumResponses, window, openDuration, timeUnit, DEFAULT_PROBE_COUNT);
+    }
+
+    /**
+     * Constructs a new circuit breaker policy.
+     *
+     * @param errorRatioThreshold the fraction of responses within the rolling window that must report server errors
+     * to open the circuit; must be greater than zero and no more than one
+     * @param minimumResponses the minimum number of responses within the rolling window before the circuit may open
+     * @param window the length of the rolling window
+     * @param openDuration the time the circuit stays open before sending probe notifications
+     * @param timeUnit the time unit for the given window and open duration
+     * @param probeCount the number of probe notifications a half-open circuit sends; all of them must succeed for the
+     * circuit to close
+     */
+    public CircuitBreakerPolicy(final double errorRatioThreshold, final int minimumResponses, final long window, final long openDuration, final TimeUnit timeUnit, final int probeCount) {
+        if (errorRatioThreshold <= 0 || errorRatioThreshold > 1) {
+            throw new IllegalArgumentException("Error ratio threshold must be greater than zero and no more than one.");
+        }
+
+        if (minimumResponses < 1) {
+            throw new IllegalArgumentException("Minimum responses must be at least 1.");
+        }
+
+        if (window <= 0 || openDuration <= 0) {
+            throw new IllegalArgumentException("Window and open duration must be positive.");
+        }
+
+        if (probeCount < 1) {
+            throw new IllegalArgumentException("Probe count must be at least 1.");
+        }
+
+        this.errorRatioThreshold = errorRatioThreshold;
+        this.minimumResponses = minimumResponses;
+        this.windowNanos = timeUnit.toNanos(window);
+        this.openDurationNanos = timeUnit.toNanos(openDuration);
+        this.probeCount = probeCount;
+    }
+
+    /**
+     * Returns the fraction of responses that must report server errors to open the circuit.
+     *
+     * @return the fraction of responses that must report server errors to open the circuit
+     */
+    public double getErrorRatioThreshold() {
+        return this.errorRatioThreshold;
+    }
+
+    /**
+     * Returns the minimum number of responses within the rolling window before the circuit may open.
+     *
+     * @return the minimum number of responses within the rolling window before the circuit may open
+     */
+    public int getMinimumResponses() {
+        return this.minimumResponses;
+    }
+
+    /**
+     * Returns the length of the rolling window in the given time unit.
+     *
+     * @param timeUnit the time unit in which to express the window
+     *
+     * @return the length of the rolling window in the given time unit
+     */
+    public long getWindow(final TimeUnit timeUnit) {
+        return timeUnit.convert(this.windowNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns the time the circuit stays open before sending probe notifications in the given time unit.
+     *
+     * @param timeUnit the time unit in which to express the open duration
+     *
+     * @return the time the circuit stays open before sending probe notifications in the given time unit
+     */
+    public long getOpenDuration(final TimeUnit timeUnit) {
+        return timeUnit.convert(this.openDurationNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns the number of probe notifications a half-open circuit sends.
+     *
+     * @return the number of probe notifications a half-open circuit sends
+     */
+    public int getProbeCount() {
+        return this.probeCount;
+    }
+}
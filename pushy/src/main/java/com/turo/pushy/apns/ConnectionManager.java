@@ -0,0 +1,329 @@
+/*
+ * Copyright (c) 2013-2017 Turo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.turo.pushy.apns;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelPromise;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * <p>Keeps track of an APNs client's connections and of the part each connection plays. At any moment, a client has at
+ * most one active connection (the connection on which it sends new notifications), at most one standby connection (a
+ * connection getting ready to take over from the active connection), and any number of retiring connections (former
+ * active connections that are finishing the streams already in progress before they close).</p>
+ *
+ * <p>Connection managers only track connections and move them between states; opening connections, scheduling
+ * reconnection attempts, and sending notifications are all up to the client. Connection managers never call back into
+ * their clients, and so clients may call them while holding their own locks. Connections are identified by their
+ * "connection ready" promises.</p>
+ *
+ * @author <a href="https://github.com/jchambers">Jon Chambers</a>
+ *
+ * @since 0.11
+ */
+class ConnectionManager {
+
+    private volatile ChannelPromise activeConnectionPromise;
+    private ChannelPromise standbyConnectionPromise;
+    private ChannelPromise recyclingConnectionPromise;
+    private final Set<ChannelPromise> retiringConnectionPromises = new HashSet<>();
+
+    /**
+     * An enumeration of the states of a client's connections.
+     */
+    enum ConnectionState {
+
+        /**
+         * Indicates that a connection is the connection on which the client sends new notifications.
+         */
+        ACTIVE,
+
+        /**
+         * Indicates that a connection is ready (or getting ready) to take over from the active connection.
+         */
+        STANDBY,
+
+        /**
+         * Indicates that a connection used to be the active connection and will close once the streams already in
+         * progress have finished.
+         */
+        RETIRING,
+
+        /**
+         * Indicates that a connection isn't (or is no longer) tracked by the connection manager.
+         */
+        NONE
+    }
+
+    /**
+     * Returns the active connection. Callers may call this method without any locks held, and will always see either
+     * the previous or the new active connection while the active connection is being replaced.
+     *
+     * @return the active connection's "connection ready" promise, or {@code null} if there is no active connection
+     */
+    ChannelPromise getActiveConnection() {
+        return this.activeConnectionPromise;
+    }
+
+    /**
+     * Returns the standby connection, whether or not it's ready to take over from the active connection.
+     *
+     * @return the standby connection's "connection ready" promise, or {@code null} if there is no standby connection
+     */
+    synchronized ChannelPromise getStandbyConnection() {
+        return this.standbyConnectionPromise;
+    }
+
+    /**
+     * Returns the state of the given connection.
+     *
+     * @param connectionPromise the "connection ready" promise for the connection in question
+     *
+     * @return the state of the given connection
+     */
+    synchronized ConnectionState getState(final ChannelPromise connectionPromise) {
+        if (connectionPromise == null) {
+            return ConnectionState.NONE;
+        } else if (connectionPromise == this.activeConnectionPromise) {
+            return ConnectionState.ACTIVE;
+        } else if (connectionPromise == this.standbyConnectionPromise) {
+            return ConnectionState.STANDBY;
+        } else if (this.retiringConnectionPromises.contains(connectionPromise)) {
+            return ConnectionState.RETIRING;
+        }
+
+        return ConnectionState.NONE;
+    }
+
+    /**
+     * Makes the given connection the active connection.
+     *
+     * @param connectionPromise the "connection ready" promise for the new active connection
+     *
+     * @throws IllegalStateException if there is already an active connection
+     */
+    synchronized void setActiveConnection(final ChannelPromise connectionPromise) {
+        if (this.activeConnectionPromise != null) {
+            throw new IllegalStateException("Already have an active connection.");
+        }
+
+        this.activeConnectionPromise = connectionPromise;
+    }
+
+    /**
+     * Makes the given connection the standby connection.
+     *
+     * @param connectionPromise the "connection ready" promise for the new standby connection
+     *
+     * @throws IllegalStateException if there is already a standby connection
+     */
+    synchronized void setStandbyConnection(final ChannelPromise connectionPromise) {
+        if (this.standbyConnectionPromise != null) {
+            throw new IllegalStateException("Already have a standby connection.");
+        }
+
+        this.standbyConnectionPromise = connectionPromise;
+    }
+
+    /**
+     * Indicates whether the standby connection is ready to take over from the active connection immediately.
+     *
+     * @return {@code true} if there is a standby connection and it's ready, or {@code false} otherwise
+     */
+    synchronized boolean isStandbyConnectionReady() {
+        final ChannelPromise standbyConnectionPromise = this.standbyConnectionPromise;
+
+        return standbyConnectionPromise != null && standbyConnectionPromise.isSuccess() &&
+                standbyConnectionPromise.channel().isActive();
+    }
+
+    /**
+     * Marks the given connection as one that should be replaced as soon as a standby connection is ready, as long as
+     * the given connection is still the active connection and isn't already being replaced.
+     *
+     * @param connectionPromise the "connection ready" promise for the connection to replace
+     *
+     * @return {@code true} if the given connection is now being replaced, or {@code false} otherwise
+     */
+    synchronized boolean startRecycling(final ChannelPromise connectionPromise) {
+        if (connectionPromise == null || connectionPromise != this.activeConnectionPromise ||
+                this.recyclingConnectionPromise != null) {
+
+            return false;
+        }
+
+        this.recyclingConnectionPromise = connectionPromise;
+        return true;
+    }
+
+    /**
+     * Indicates whether the active connection should be replaced as soon as a standby connection is ready.
+     *
+     * @return {@code true} if the active connection is being replaced, or {@code false} otherwise
+     *
+     * @see #startRecycling(ChannelPromise)
+     */
+    synchronized boolean isRecyclingActiveConnection() {
+        return this.recyclingConnectionPromise != null;
+    }
+
+    /**
+     * Makes the standby connection the active connection if the standby connection is ready. The former active
+     * connection, if any, starts retiring only after the standby connection has taken its place, so callers never see
+     * the former active connection close without a replacement already in place.
+     *
+     * @return the "connection ready" promise for the new active connection, or {@code null} if the standby connection
+     * wasn't ready
+     */
+    synchronized ChannelPromise promoteStandbyConnection() {
+        if (!this.isStandbyConnectionReady()) {
+            return null;
+        }
+
+        final ChannelPromise formerActiveConnectionPromise = this.activeConnectionPromise;
+
+        this.activeConnectionPromise = this.standbyConnectionPromise;
+        this.standbyConnectionPromise = null;
+        this.recyclingConnectionPromise = null;
+
+        if (formerActiveConnectionPromise != null) {
+            this.retire(formerActiveConnectionPromise);
+        }
+
+        return this.activeConnectionPromise;
+    }
+
+    /**
+     * Retires the active connection without a replacement, leaving no active connection until the caller sets a new
+     * one. This is appropriate when the server asks the client to stop using the active connection (by sending a
+     * GOAWAY frame, for example) and no standby connection is ready to take over.
+     *
+     * @return the "connection ready" promise for the retired connection, or {@code null} if there was no active
+     * connection
+     */
+    synchronized ChannelPromise retireActiveConnection() {
+        final ChannelPromise retiredConnectionPromise = this.activeConnectionPromise;
+
+        if (retiredConnectionPromise != null) {
+            this.activeConnectionPromise = null;
+            this.recyclingConnectionPromise = null;
+
+            this.retire(retiredConnectionPromise);
+        }
+
+        return retiredConnectionPromise;
+    }
+
+    private void retire(final ChannelPromise connectionPromise) {
+        this.retiringConnectionPromises.add(connectionPromise);
+
+        final Channel retiredChannel = connectionPromise.channel();
+
+        // Closing the channel closes it gracefully, letting streams already in progress finish first. If the connection
+        // is retiring because it received a GOAWAY frame, we wait until Netty is done handling the frame so we don't
+        // start shutting the connection down in the middle of that.
+        retiredChannel.eventLoop().execute(new Runnable() {
+
+            @Override
+            public void run() {
+                retiredChannel.close();
+            }
+        });
+    }
+
+    /**
+     * Stops tracking a connection that has closed.
+     *
+     * @param connectionPromise the "connection ready" promise for the closed connection
+     *
+     * @return the state the connection was in when it closed
+     */
+    synchronized ConnectionState handleConnectionClosed(final ChannelPromise connectionPromise) {
+        final ConnectionState state = this.getState(connectionPromise);
+
+        switch (state) {
+            case ACTIVE: {
+                this.activeConnectionPromise = null;
+                this.recyclingConnectionPromise = null;
+                break;
+            }
+
+            case STANDBY: {
+                this.standbyConnectionPromise = null;
+                break;
+            }
+
+            case RETIRING: {
+                this.retiringConnectionPromises.remove(connectionPromise);
+                break;
+            }
+
+            case NONE: {
+                break;
+            }
+        }
+
+        return state;
+    }
+
+    /**
+     * Closes every connection. The standby connection stops being tracked immediately so its closure won't be mistaken
+     * for an unexpected one; the active connection remains active until its closure is reported via
+     * {@link #handleConnectionClosed(ChannelPromise)}.
+     *
+     * @return a future that completes when the active connection has closed, or {@code null} if there was no active
+     * connection
+     */
+    ChannelFuture closeAll() {
+        final ChannelPromise activeConnectionPromise;
+        final List<Channel> channelsToClose = new ArrayList<>();
+
+        synchronized (this) {
+            activeConnectionPromise = this.activeConnectionPromise;
+
+            if (this.standbyConnectionPromise != null) {
+                channelsToClose.add(this.standbyConnectionPromise.channel());
+                this.standbyConnectionPromise = null;
+            }
+
+            for (final ChannelPromise retiringConnectionPromise : this.retiringConnectionPromises) {
+                channelsToClose.add(retiringConnectionPromise.channel());
+            }
+
+            this.recyclingConnectionPromise = null;
+        }
+
+        // Closing a channel may notify listeners right away, and those listeners may well take their own locks; we
+        // close channels outside of our own lock so we never hold it while waiting for somebody else's.
+        for (final Channel channel : channelsToClose) {
+            channel.close();
+        }
+
+        return activeConnectionPromise != null ? activeConnectionPromise.channel().close() : null;
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2013-2017 Turo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.turo.pushy.apns;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>A connection recycling policy controls when a client replaces a healthy connection with a new one. Every
+ * notification uses up one of a connection's HTTP/2 stream IDs, and a connection that runs out of stream IDs can't
+ * send any more notifications; long-lived connections also keep sending all of a client's traffic to the same APNs
+ * server. Clients replace their connection after it has opened the policy's maximum number of streams or, optionally,
+ * once it reaches the policy's maximum age.</p>
+ *
+ * <p>Connections are replaced "make-before-break:" the client opens the new connection first, switches to it once it's
+ * ready, and closes the old connection gracefully once notifications already sent on it have been answered. If the
+ * client keeps a standby connection, it switches to the standby connection right away instead.</p>
+ *
+ * <p>Connection recycling policies are immutable and may be shared between clients.</p>
+ *
+ * @author <a href="https://github.com/jchambers">Jon Chambers</a>
+ *
+ * @see ApnsClientBuilder#setConnectionRecyclingPolicy(ConnectionRecyclingPolicy)
+ *
+ * @since 0.11
+ */
+public class ConnectionRecyclingPolicy {
+
+    private final int maxStreamsPerConnection;
+    private final long maxConnectionAgeNanos;
+
+    /**
+     * The largest number of streams a client can open on a single connection. Client-initiated HTTP/2 streams have odd
+     * IDs no greater than 2<sup>31</sup> - 1.
+     */
+    public static final int MAX_STREAMS_PER_CONNECTION = 1 << 30;
+
+    /**
+     * Constructs a new connection recycling policy.
+     *
+     * @param maxStreamsPerConnection the number of streams after which a connection should be replaced; must be
+     * positive and no greater than {@value MAX_STREAMS_PER_CONNECTION}, though leaving some room for streams opened
+     * while the new connection is getting ready is wise
+     * @param maxConnectionAge the time after which a connection should be replaced, or zero if connections should not
+     * be replaced because of their age; must not be negative
+     * @param timeUnit the time unit for the given maximum connection age
+     */
+    public ConnectionRecyclingPolicy(final int maxStreamsPerConnection, final long maxConnectionAge, final TimeUnit timeUnit) {
+        if (maxStreamsPerConnection < 1 || maxStreamsPerConnection > MAX_STREAMS_PER_CONNECTION) {
+            throw new IllegalArgumentException("Maximum streams per connection must be positive and no greater than " +
+                    MAX_STREAMS_PER_CONNECTION + ".");
+        }
+
+        if (maxConnectionAge < 0) {
+            throw new IllegalArgumentException("Maximum connection age must not be negative.");
+        }
+
+        this.maxStreamsPerConnection = maxStreamsPerConnection;
+        this.maxConnectionAgeNanos = timeUnit.toNanos(maxConnectionAge);
+    }
+
+    /**
+     * Returns the number of streams after which a connection should be replaced.
+     *
+     * @return the number of streams after which a connection should be replaced
+     */
+    public int getMaxStreamsPerConnection() {
+        return this.maxStreamsPerConnection;
+    }
+
+    /**
+     * Returns the time after which a connection should be replaced in the given time unit.
+     *
+     * @param timeUnit the time unit in which to express the maximum connection age
+     *
+     * @return the time after which a connection should be replaced in the given time unit, or zero if connections
+     * should not be replaced because of their age
+     */
+    public long getMaxConnectionAge(final TimeUnit timeUnit) {
+        return timeUnit.convert(this.maxConnectionAgeNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Indicates whether a connection should be replaced once it has opened the stream with the given ID.
+     *
+     * @param streamId the ID of a stream opened by the client
+     *
+     * @return {@code true} if the connection that opened the given stream should be replaced or {@code false}
+     * otherwise
+     */
+    boolean shouldRecycle(final int streamId) {
+        // Client streams have odd IDs starting from 1, so stream n has ID 2n - 1 (and adding one to the very last
+        // stream ID would overflow).
+        return (streamId >>> 1) + 1 >= this.maxStreamsPerConnection;
+    }
+}
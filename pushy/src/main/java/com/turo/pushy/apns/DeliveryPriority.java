@@ -23,9 +23,11 @@
 package com.turo.pushy.apns;
 
 /**
- * An enumeration of delivery priorities for APNs push notifications. Note that this priority affects when the
- * notification may be delivered to the receiving device by the APNs gateway and does <em>not</em> affect when the
- * notification will be sent to the gateway itself.
+ * An enumeration of delivery priorities for APNs push notifications. This priority primarily affects when the
+ * notification may be delivered to the receiving device by the APNs gateway. When a client has used all of the
+ * concurrent streams the gateway allows, though, notifications with {@link DeliveryPriority#IMMEDIATE} priority (or no
+ * explicit priority) will generally be sent to the gateway ahead of notifications with
+ * {@link DeliveryPriority#CONSERVE_POWER} priority that are waiting for a stream.
  *
  * @see <a href=
  *      "https://developer.apple.com/library/content/documentation/NetworkingInternet/Conceptual/RemoteNotificationsPG/CommunicatingwithAPNs.html">
@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) 2013-2017 Turo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.turo.pushy.apns;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>Limits the number of notifications sent to any single device token over a sliding window of time. Rather than
+ * tracking every device token individually, the limiter hashes tokens into a fixed number of slots in each of two
+ * tables and counts notifications per slot, so its memory footprint doesn't grow with the number of distinct device
+ * tokens. Tokens that differ only in case share a count. A token's count is estimated as the smaller of its two slot
+ * counts; hash collisions can only make the estimate too high, so the limiter may occasionally reject a notification
+ * that's within its limit, but will never allow a notification that exceeds it.</p>
+ *
+ * <p>To keep that promise when several threads send to the same token at once, the limiter counts each notification
+ * first and checks the limit afterward, taking the notification back out of the count if it went over. Concurrent
+ * notifications that together exceed the limit may all be rejected, even if some of them would have fit on their
+ * own.</p>
+ *
+ * <p>Each slot counts notifications in the current and previous fixed windows, and the count for the sliding window
+ * is estimated by weighting the previous window's count by the fraction of it that still overlaps the sliding
+ * window.</p>
+ *
+ * @author <a href="https://github.com/jchambers">Jon Chambers</a>
+ *
+ * @since 0.11
+ */
+class DeviceTokenRateLimiter {
+
+    private final int maxNotifications;
+    private final long windowNanos;
+
+    // Each slot packs the index of its current window (high 32 bits) and the counts for its current (middle 16 bits)
+    // and previous (low 16 bits) windows into a single long so slots can be updated atomically without locks.
+    private final AtomicLongArray[] tables;
+    private static final int SLOTS_PER_TABLE = 1 << 14;
+
+    private static final long COUNT_MASK = 0xffff;
+
+    static final int MAX_NOTIFICATIONS_PER_WINDOW = (int) COUNT_MASK;
+
+    DeviceTokenRateLimiter(final int maxNotifications, final long window, final TimeUnit timeUnit) {
+        if (maxNotifications < 1 || maxNotifications > MAX_NOTIFICATIONS_PER_WINDOW) {
+            throw new IllegalArgumentException("Maximum notifications per window must be between 1 and " +
+                    MAX_NOTIFICATIONS_PER_WINDOW + ".");
+        }
+
+        if (window <= 0) {
+            throw new IllegalArgumentException("Window must be positive.");
+        }
+
+        this.maxNotifications = maxNotifications;
+        this.windowNanos = timeUnit.toNanos(window);
+
+        this.tables = new AtomicLongArray[] {
+                new AtomicLongArray(SLOTS_PER_TABLE),
+                new AtomicLongArray(SLOTS_PER_TABLE)
+        };
+    }
+
+    /**
+     * Attempts to record a notification sent to the given device token.
+     *
+     * @param token the device token to which a notification will be sent
+     *
+     * @return {@code true} if the notification is within this limiter's limit and has been counted or {@code false}
+     * if the notification should not be sent
+     */
+    boolean tryAcquire(final String token) {
+        return this.tryAcquire(token, System.nanoTime());
+    }
+
+    boolean tryAcquire(final String token, final long nanoTime) {
+        // System.nanoTime() may be negative, so make sure we round down to the start of the window either way.
+        final long nanosIntoWindow = ((nanoTime % this.windowNanos) + this.windowNanos) % this.windowNanos;
+
+        final int window = (int) ((nanoTime - nanosIntoWindow) / this.windowNanos);
+        final double previousWindowWeight = 1.0 - ((double) nanosIntoWindow / this.windowNanos);
+
+        final int hash = getTokenHash(token);
+        final int firstSlot = getSlot(hash, 0);
+        final int secondSlot = getSlot(hash, 1);
+
+        // Count first and check afterward so no two threads can both squeeze into the last spot in the window.
+        final long firstPacked = increment(this.tables[0], firstSlot, window);
+        final long secondPacked = increment(this.tables[1], secondSlot, window);
+
+        final double estimate = Math.min(
+                getEstimate(firstPacked, previousWindowWeight),
+                getEstimate(secondPacked, previousWindowWeight));
+
+        if (estimate > this.maxNotifications) {
+            decrement(this.tables[0], firstSlot, window, firstPacked);
+            decrement(this.tables[1], secondSlot, window, secondPacked);
+
+            return false;
+        }
+
+        return true;
+    }
+
+    private static int getTokenHash(final String token) {
+        // Tokens are hexadecimal, and clients may send the same token in upper and lower case.
+        int hash = 0;
+
+        for (int i = 0; i < token.length(); i++) {
+            hash = (31 * hash) + Character.toLowerCase(token.charAt(i));
+        }
+
+        return hash;
+    }
+
+    private static double getEstimate(final long packed, final double previousWindowWeight) {
+        return getCurrentCount(packed) + (getPreviousCount(packed) * previousWindowWeight);
+    }
+
+    /**
+     * Counts a notification in the given slot.
+     *
+     * @return the slot's packed value after counting the notification
+     */
+    private static long increment(final AtomicLongArray table, final int slot, final int window) {
+        long packed;
+        long rolled;
+
+        do {
+            packed = table.get(slot);
+            rolled = roll(packed, window);
+
+            if (getCurrentCount(rolled) == COUNT_MASK) {
+                // Colliding tokens have saturated this slot; it can't count any higher, and doesn't need to.
+                return rolled;
+            }
+        } while (!table.compareAndSet(slot, packed, rolled + (1L << 16)));
+
+        return rolled + (1L << 16);
+    }
+
+    /**
+     * Takes back a notification counted by {@link #increment(AtomicLongArray, int, int)}.
+     */
+    private static void decrement(final AtomicLongArray table, final int slot, final int window, final long incremented) {
+        if (getCurrentCount(incremented) == COUNT_MASK) {
+            // Either the slot was already saturated and never counted the notification, or counting it saturated the
+            // slot; a saturated slot stays saturated for the rest of its window either way.
+            return;
+        }
+
+        long packed;
+        long updated;
+
+        do {
+            packed = table.get(slot);
+
+            final int slotWindow = (int) (packed >>> 32);
+
+            if (slotWindow == window && getCurrentCount(packed) > 0) {
+                updated = packed - (1L << 16);
+            } else if (slotWindow == window + 1 && getPreviousCount(packed) > 0) {
+                // The slot has moved on to the next window since we counted the notification.
+                updated = packed - 1;
+            } else {
+                // The notification no longer counts toward anything.
+                return;
+            }
+        } while (!table.compareAndSet(slot, packed, updated));
+    }
+
+    private static int getSlot(final int hash, final int table) {
+        // Derive a second, mostly-independent hash for the second table by scrambling the first with a Fibonacci
+        // hashing multiplier.
+        final int scrambled = table == 0 ? hash : (hash * 0x9e3779b9);
+        return (scrambled ^ (scrambled >>> 16)) & (SLOTS_PER_TABLE - 1);
+    }
+
+    private static long roll(final long packed, final int window) {
+        final int slotWindow = (int) (packed >>> 32);
+
+        if (slotWindow == window) {
+            return packed;
+        } else if (slotWindow + 1 == window) {
+            return ((long) window << 32) | getCurrentCount(packed);
+        } else {
+            return (long) window << 32;
+        }
+    }
+
+    private static long getCurrentCount(final long packed) {
+        return (packed >>> 16) & COUNT_MASK;
+    }
+
+    private static long getPreviousCount(final long packed) {
+        return packed & COUNT_MASK;
+    }
+}
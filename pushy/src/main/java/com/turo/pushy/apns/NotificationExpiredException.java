@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2013-2017 Turo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.turo.pushy.apns;
+
+import java.util.Date;
+
+/**
+ * An exception that indicates that a push notification was not sent because its expiration time passed while it was
+ * waiting to be written to the APNs gateway. The gateway would have discarded the notification anyway, so the client
+ * drops it rather than spending a stream on it.
+ *
+ * @author <a href="https://github.com/jchambers">Jon Chambers</a>
+ *
+ * @see ApnsPushNotification#getExpiration()
+ *
+ * @since 0.11
+ */
+public class NotificationExpiredException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    private final Date expiration;
+
+    /**
+     * Constructs a new exception for a notification with the given expiration time.
+     *
+     * @param expiration the time at which the notification expired
+     */
+    public NotificationExpiredException(final Date expiration) {
+        super("Notification expired at " + expiration + " before it could be sent.");
+
+        this.expiration = expiration;
+    }
+
+    /**
+     * Returns the time at which the notification expired.
+     *
+     * @return the time at which the notification expired
+     */
+    public Date getExpiration() {
+        return this.expiration;
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2013-2017 Turo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.turo.pushy.apns;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>An overload policy controls when a client gives up on some of the notifications waiting for a free stream so the
+ * rest can be sent promptly. Without an overload policy, notifications wait in line for as long as it takes, and when
+ * callers send notifications faster than the APNs server accepts them, every notification waits longer and longer.</p>
+ *
+ * <p>Clients with an overload policy "shed" the least valuable waiting notifications, which fail with a
+ * {@link NotificationShedException}:</p>
+ *
+ * <ul>
+ *  <li>If more notifications are waiting on a connection than the policy's maximum queue depth, the client sheds a
+ *  waiting {@link DeliveryPriority#CONSERVE_POWER} notification: of the sixteen that have waited longest, the one that
+ *  will expire soonest (or the oldest, if none expire sooner than the others). If there are none, it sheds a waiting
+ *  {@link DeliveryPriority#IMMEDIATE} notification: of the sixteen that have waited the shortest time, the one that
+ *  will expire soonest (or the newest, if none expire sooner than the others). Notifications that never expire are
+ *  considered to expire after all others. Considering only a few notifications keeps shedding cheap no matter how
+ *  many notifications are waiting.</li>
+ *  <li>If a conserve-power notification has waited longer than the policy's maximum queue wait time by the time a
+ *  stream is available, the client sheds it instead of sending it. If an immediate notification has waited that long,
+ *  the client still sends it, but sheds every waiting conserve-power notification.</li>
+ * </ul>
+ *
+ * <p>Overload policies are immutable and may be shared between clients.</p>
+ *
+ * @author <a href="https://github.com/jchambers">Jon Chambers</a>
+ *
+ * @see ApnsClientBuilder#setOverloadPolicy(OverloadPolicy)
+ *
+ * @since 0.11
+ */
+public class OverloadPolicy {
+
+    private final int maxQueueDepth;
+    private final long maxQueueWaitNanos;
+
+    /**
+     * Constructs a new overload policy.
+     *
+     * @param maxQueueDepth the maximum number of notifications that may wait for a free stream on a single connection;
+     * must be positive
+     * @param maxQueueWait the longest time a notification should wait for a free stream; must be positive
+     * @param timeUnit the time unit for the given maximum queue wait time
+     */
+    public OverloadPolicy(final int maxQueueDepth, final long maxQueueWait, final TimeUnit timeUnit) {
+        if (maxQueueDepth < 1) {
+            throw new IllegalArgumentException("Maximum queue depth must be positive.");
+        }
+
+        if (maxQueueWait <= 0) {
+            throw new IllegalArgumentException("Maximum queue wait time must be positive.");
+        }
+
+        this.maxQueueDepth = maxQueueDepth;
+        this.maxQueueWaitNanos = timeUnit.toNanos(maxQueueWait);
+    }
+
+    /**
+     * Returns the maximum number of notifications that may wait for a free stream on a single connection.
+     *
+     * @return the maximum number of notifications that may wait for a free stream on a single connection
+     */
+    public int getMaxQueueDepth() {
+        return this.maxQueueDepth;
+    }
+
+    /**
+     * Returns the longest time a notification should wait for a free stream in the given time unit.
+     *
+     * @param timeUnit the time unit in which to express the maximum queue wait time
+     *
+     * @return the longest time a notification should wait for a free stream in the given time unit
+     */
+    public long getMaxQueueWait(final TimeUnit timeUnit) {
+        return timeUnit.convert(this.maxQueueWaitNanos, TimeUnit.NANOSECONDS);
+    }
+}
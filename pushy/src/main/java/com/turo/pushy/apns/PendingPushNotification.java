@@ -0,0 +1,517 @@
+/*
+ * Copyright (c) 2013-2017 Turo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.turo.pushy.apns;
+
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelPromise;
+import io.netty.util.Recycler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * <p>A for-internal-use-only record of a push notification that has been sent (or is about to be sent) and the listener
+ * to be notified with the outcome of the attempt to send it. A pending push notification reports the outcome of each
+ * send attempt to the client's metrics listener and its response listener exactly once, no matter how many times it is
+ * completed; it also acts as a listener for the write of its notification to the channel. If the client has a
+ * callback executor, the response listener is notified from that executor instead of the thread that completed the
+ * pending notification.</p>
+ *
+ * <p>Pending push notifications are pooled, and are returned to the pool as soon as their response listener has been
+ * notified. Once a pending push notification has been completed, callers must not retain any references to it; in
+ * particular, the client handler removes pending push notifications from their streams before completing them.
+ * Anything that holds a pending push notification across an asynchronous boundary it doesn't control (a timer, a
+ * queue, or a write promise) must instead hold a {@link Reference}, which notices if the pending push notification has
+ * since been recycled and reused for another notification.</p>
+ *
+ * @author <a href="https://github.com/jchambers">Jon Chambers</a>
+ *
+ * @since 0.11
+ */
+class PendingPushNotification implements ChannelFutureListener, Runnable {
+
+    private final Recycler.Handle<PendingPushNotification> recyclerHandle;
+
+    private ApnsClient apnsClient;
+    private ApnsClientMetricsListener metricsListener;
+
+    private ApnsPushNotification pushNotification;
+    private long notificationId;
+    private PushNotificationResponseListener<ApnsPushNotification> responseListener;
+    private CallbackEventExecutor callbackExecutor;
+
+    private ApnsClientHandler clientHandler;
+    private int streamId;
+    private ChannelPromise writePromise;
+    private boolean sent;
+    private int retriesAttempted;
+    private UUID apnsId;
+    private long footprintBytes;
+
+    private PushNotificationResponse<ApnsPushNotification> response;
+    private Throwable cause;
+    private long completionTimeNanos;
+    private long enqueueTimeNanos;
+
+    private volatile int done = 0;
+
+    // Incremented every time this pending notification is returned to the pool so stale references can tell that it
+    // has since been reused.
+    private volatile int generation = 0;
+
+    private static final AtomicIntegerFieldUpdater<PendingPushNotification> DONE_UPDATER =
+            AtomicIntegerFieldUpdater.newUpdater(PendingPushNotification.class, "done");
+
+    private static final Recycler<PendingPushNotification> RECYCLER = new Recycler<PendingPushNotification>() {
+
+        @Override
+        protected PendingPushNotification newObject(final Handle<PendingPushNotification> handle) {
+            return new PendingPushNotification(handle);
+        }
+    };
+
+    private static final Logger log = LoggerFactory.getLogger(PendingPushNotification.class);
+
+    private PendingPushNotification(final Recycler.Handle<PendingPushNotification> recyclerHandle) {
+        this.recyclerHandle = recyclerHandle;
+    }
+
+    static PendingPushNotification newInstance(final ApnsClient apnsClient, final ApnsClientMetricsListener metricsListener, final ApnsPushNotification pushNotification, final long notificationId, final PushNotificationResponseListener<ApnsPushNotification> responseListener, final CallbackEventExecutor callbackExecutor) {
+        final PendingPushNotification pendingPushNotification = RECYCLER.get();
+
+        pendingPushNotification.apnsClient = apnsClient;
+        pendingPushNotification.metricsListener = metricsListener;
+        pendingPushNotification.pushNotification = pushNotification;
+        pendingPushNotification.notificationId = notificationId;
+        pendingPushNotification.responseListener = responseListener;
+        pendingPushNotification.callbackExecutor = callbackExecutor;
+        pendingPushNotification.done = 0;
+
+        return pendingPushNotification;
+    }
+
+    /**
+     * Returns a reference to this pending notification that can be safely held across asynchronous boundaries.
+     *
+     * @return a reference to this pending notification as it is now
+     */
+    Reference newReference() {
+        return new Reference(this, this.generation);
+    }
+
+    ApnsPushNotification getPushNotification() {
+        return this.pushNotification;
+    }
+
+    long getNotificationId() {
+        return this.notificationId;
+    }
+
+    ApnsClientHandler getClientHandler() {
+        return this.clientHandler;
+    }
+
+    UUID getApnsId() {
+        return this.apnsId;
+    }
+
+    /**
+     * Records the number of bytes this notification counts against its client's memory budget; the bytes are returned
+     * to the budget once the notification has been resolved.
+     *
+     * @param footprintBytes the number of bytes this notification counts against its client's memory budget
+     */
+    void setFootprintBytes(final long footprintBytes) {
+        this.footprintBytes = footprintBytes;
+    }
+
+    /**
+     * Assigns a random, client-generated APNs ID to this notification. The ID is sent with every attempt to send this
+     * notification, so attempts replayed on later connections can be identified as the same notification.
+     */
+    void assignApnsId() {
+        // UUID.randomUUID() draws from a shared SecureRandom, which we don't need and which would make every sending
+        // thread contend for the same lock; this produces a version 4 (random) UUID with the same layout.
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        this.apnsId = new UUID((random.nextLong() & ~0xf000L) | 0x4000L,
+                (random.nextLong() & ~(0xc0L << 56)) | (0x80L << 56));
+    }
+
+    /**
+     * Associates this pending notification with the stream on which it is about to be written and listens for the
+     * outcome of the write. When the write completes successfully, the given handler will be told which stream holds
+     * this notification. Only the outcome of the most recent write is reported; outcomes of writes from earlier
+     * attempts (or for earlier notifications that used this pooled instance) are ignored.
+     *
+     * @param clientHandler the handler writing this notification
+     * @param streamId the ID of the stream on which this notification will be written
+     * @param writePromise the promise for the write of this notification
+     */
+    void setStream(final ApnsClientHandler clientHandler, final int streamId, final ChannelPromise writePromise) {
+        this.clientHandler = clientHandler;
+        this.streamId = streamId;
+        this.writePromise = writePromise;
+
+        writePromise.addListener(this);
+    }
+
+    /**
+     * Indicates that this notification has started waiting in one of the client handler's priority lanes for an
+     * available stream.
+     *
+     * @param lane the lane in which this notification is waiting
+     */
+    void handleEnqueued(final DeliveryPriority lane) {
+        this.enqueueTimeNanos = System.nanoTime();
+        this.metricsListener.handleNotificationQueued(this.apnsClient, lane);
+    }
+
+    /**
+     * Indicates that this notification has left the priority lane in which it was waiting, either because it's about to
+     * be written or because the connection closed.
+     *
+     * @param lane the lane in which this notification was waiting
+     *
+     * @return the time, in nanoseconds, this notification spent waiting in the lane
+     */
+    long handleDequeued(final DeliveryPriority lane) {
+        final long waitNanos = System.nanoTime() - this.enqueueTimeNanos;
+        this.metricsListener.handleNotificationDequeued(this.apnsClient, lane, waitNanos);
+
+        return waitNanos;
+    }
+
+    @Override
+    public void operationComplete(final ChannelFuture writeFuture) {
+        if (writeFuture != this.writePromise) {
+            // This is the outcome of a write for an earlier attempt or an earlier notification, and is of no interest.
+            return;
+        }
+
+        if (writeFuture.isSuccess()) {
+            // Notifications may be written more than once if the server asks us to retry, but should only count as
+            // "sent" once.
+            if (!this.sent) {
+                this.sent = true;
+                this.metricsListener.handleNotificationSent(this.apnsClient, this.notificationId);
+            }
+
+            this.clientHandler.handlePushNotificationWritten(this.streamId, this);
+        } else if (this.clientHandler.isStreamRefusedByGoAway(this.streamId)) {
+            // The server has announced that it won't process this notification's stream, and so the notification can
+            // safely be sent on another connection.
+            this.migrate();
+        } else if (!writeFuture.channel().isActive() || writeFuture.cause() instanceof ClientNotConnectedException ||
+                this.clientHandler.connection().goAwayReceived()) {
+
+            // The write failed because the connection is going away, and the notification may yet be replayed on the
+            // next connection.
+            if (!this.tryReplay()) {
+                this.tryFailure(writeFuture.cause());
+            }
+        } else {
+            this.tryFailure(writeFuture.cause());
+        }
+    }
+
+    /**
+     * Reports a response from the APNs gateway if no outcome has been reported for this notification yet.
+     *
+     * @param response the response from the APNs gateway
+     *
+     * @return {@code true} if the response was reported or {@code false} if an outcome had already been reported
+     */
+    boolean trySuccess(final PushNotificationResponse<ApnsPushNotification> response) {
+        if (!DONE_UPDATER.compareAndSet(this, 0, 1)) {
+            return false;
+        }
+
+        if (response.isAccepted()) {
+            this.metricsListener.handleNotificationAccepted(this.apnsClient, this.notificationId);
+        } else {
+            this.metricsListener.handleNotificationRejected(this.apnsClient, this.notificationId);
+        }
+
+        this.response = response;
+        this.notifyResponseListener();
+
+        return true;
+    }
+
+    /**
+     * Reports that the APNs server responded to this notification.
+     *
+     * @param serverError {@code true} if the server reported an internal error or that it was unavailable or
+     * {@code false} otherwise
+     */
+    void handleResponseReceived(final boolean serverError) {
+        this.apnsClient.handleResponseReceived(serverError);
+    }
+
+    /**
+     * Schedules this notification to be sent again if the client's retry policy allows it. Callers must only attempt
+     * to retry notifications that failed for transient reasons and must not hold on to this pending notification after
+     * a retry has been scheduled.
+     *
+     * @return {@code true} if a retry was scheduled or {@code false} if the notification should fail instead
+     */
+    boolean tryRetry() {
+        if (this.done != 0) {
+            return false;
+        }
+
+        final long delayNanos = this.apnsClient.getRetryDelayNanos(this.retriesAttempted);
+
+        if (delayNanos < 0) {
+            return false;
+        }
+
+        this.retriesAttempted++;
+        this.metricsListener.handleNotificationRetried(this.apnsClient, this.notificationId);
+
+        this.apnsClient.scheduleRetry(this, delayNanos);
+
+        return true;
+    }
+
+    /**
+     * Holds this notification for replay on the client's next connection if the client replays notifications and has
+     * room to hold it. Callers must only attempt to replay notifications that failed because their connection closed,
+     * and must not hold on to this pending notification after it has been accepted for replay.
+     *
+     * @return {@code true} if the notification will be replayed or {@code false} if it should fail instead
+     */
+    boolean tryReplay() {
+        return this.done == 0 && this.apnsId != null && this.apnsClient.tryBufferForReplay(this);
+    }
+
+    /**
+     * Sends this notification on another connection because the server announced (with a GOAWAY frame) that it won't
+     * process the notification on the connection to which it was sent. Callers must not hold on to this pending
+     * notification after migrating it.
+     */
+    void migrate() {
+        if (this.done == 0) {
+            this.apnsClient.migratePushNotification(this);
+        }
+    }
+
+    /**
+     * Reports a failure to send this notification if no outcome has been reported for this notification yet.
+     *
+     * @param cause the cause of the failure
+     *
+     * @return {@code true} if the failure was reported or {@code false} if an outcome had already been reported
+     */
+    boolean tryFailure(final Throwable cause) {
+        if (!DONE_UPDATER.compareAndSet(this, 0, 1)) {
+            return false;
+        }
+
+        this.metricsListener.handleWriteFailure(this.apnsClient, this.notificationId);
+
+        this.cause = cause;
+        this.notifyResponseListener();
+
+        return true;
+    }
+
+    /**
+     * Reports that this notification expired before it could be sent if no outcome has been reported for this
+     * notification yet.
+     *
+     * @param cause an exception describing the expiration
+     *
+     * @return {@code true} if the expiration was reported or {@code false} if an outcome had already been reported
+     */
+    boolean tryExpire(final NotificationExpiredException cause) {
+        if (!DONE_UPDATER.compareAndSet(this, 0, 1)) {
+            return false;
+        }
+
+        this.metricsListener.handleNotificationExpired(this.apnsClient, this.notificationId);
+
+        this.cause = cause;
+        this.notifyResponseListener();
+
+        return true;
+    }
+
+    /**
+     * Reports that this notification was replaced by a newer notification with the same collapse ID if no outcome has
+     * been reported for this notification yet.
+     *
+     * @param cause an exception describing the replacement
+     *
+     * @return {@code true} if the replacement was reported or {@code false} if an outcome had already been reported
+     */
+    boolean tryCoalesce(final NotificationCoalescedException cause) {
+        if (!DONE_UPDATER.compareAndSet(this, 0, 1)) {
+            return false;
+        }
+
+        this.metricsListener.handleNotificationCoalesced(this.apnsClient, this.notificationId);
+
+        this.cause = cause;
+        this.notifyResponseListener();
+
+        return true;
+    }
+
+    /**
+     * Reports that this notification was shed to relieve an overloaded client if no outcome has been reported for this
+     * notification yet.
+     *
+     * @param cause an exception describing the reason the notification was shed
+     *
+     * @return {@code true} if the shedding was reported or {@code false} if an outcome had already been reported
+     */
+    boolean tryShed(final NotificationShedException cause) {
+        if (!DONE_UPDATER.compareAndSet(this, 0, 1)) {
+            return false;
+        }
+
+        this.metricsListener.handleNotificationShed(this.apnsClient, this.notificationId);
+
+        this.cause = cause;
+        this.notifyResponseListener();
+
+        return true;
+    }
+
+    /**
+     * Exchanges the notification, notification ID, response listener, APNs ID, and memory footprint of this pending
+     * notification with those of the given pending notification. Used to let a newer notification take an older
+     * notification's place in line without searching the line for it; neither pending notification may have been
+     * written yet.
+     *
+     * @param other the pending notification with which to exchange notifications
+     */
+    void swapPushNotification(final PendingPushNotification other) {
+        final ApnsPushNotification pushNotification = this.pushNotification;
+        final long notificationId = this.notificationId;
+        final PushNotificationResponseListener<ApnsPushNotification> responseListener = this.responseListener;
+        final UUID apnsId = this.apnsId;
+        final long footprintBytes = this.footprintBytes;
+
+        this.pushNotification = other.pushNotification;
+        this.notificationId = other.notificationId;
+        this.responseListener = other.responseListener;
+        this.apnsId = other.apnsId;
+        this.footprintBytes = other.footprintBytes;
+
+        other.pushNotification = pushNotification;
+        other.notificationId = notificationId;
+        other.responseListener = responseListener;
+        other.apnsId = apnsId;
+        other.footprintBytes = footprintBytes;
+    }
+
+    private void notifyResponseListener() {
+        if (this.callbackExecutor != null) {
+            this.completionTimeNanos = System.nanoTime();
+            this.callbackExecutor.execute(this);
+        } else {
+            this.run();
+        }
+    }
+
+    /**
+     * Notifies this notification's response listener of the outcome of the attempt to send the notification, then
+     * returns this pending notification to the pool. Called either directly upon completion or, if the client has a
+     * callback executor, from that executor.
+     */
+    @Override
+    public void run() {
+        final ApnsClient apnsClient = this.apnsClient;
+        final long footprintBytes = this.footprintBytes;
+
+        if (this.callbackExecutor != null) {
+            this.metricsListener.handleCallbackQueueLag(apnsClient, System.nanoTime() - this.completionTimeNanos);
+        }
+
+        try {
+            if (this.cause != null) {
+                this.responseListener.handleFailure(this.pushNotification, this.cause);
+            } else {
+                this.responseListener.handleResponse(this.response);
+            }
+        } catch (final Throwable t) {
+            log.warn("Push notification response listener threw an exception.", t);
+        }
+
+        this.recycle();
+
+        apnsClient.handleNotificationResolved(footprintBytes);
+    }
+
+    private void recycle() {
+        this.apnsClient = null;
+        this.metricsListener = null;
+        this.pushNotification = null;
+        this.responseListener = null;
+        this.callbackExecutor = null;
+        this.clientHandler = null;
+        this.streamId = 0;
+        this.writePromise = null;
+        this.sent = false;
+        this.retriesAttempted = 0;
+        this.apnsId = null;
+        this.footprintBytes = 0;
+        this.response = null;
+        this.cause = null;
+
+        this.generation++;
+
+        this.recyclerHandle.recycle(this);
+    }
+
+    /**
+     * A reference to a pending push notification that notices if the pending push notification has been recycled
+     * (and possibly reused for another notification) since the reference was created.
+     */
+    static class Reference {
+        private final PendingPushNotification pendingPushNotification;
+        private final int generation;
+
+        private Reference(final PendingPushNotification pendingPushNotification, final int generation) {
+            this.pendingPushNotification = pendingPushNotification;
+            this.generation = generation;
+        }
+
+        /**
+         * Returns the referenced pending notification if it is still the same notification it was when this reference
+         * was created.
+         *
+         * @return the referenced pending notification, or {@code null} if it has since been recycled
+         */
+        PendingPushNotification get() {
+            return this.pendingPushNotification.generation == this.generation ? this.pendingPushNotification : null;
+        }
+    }
+}
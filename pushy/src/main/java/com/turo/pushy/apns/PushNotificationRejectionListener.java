@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2013-2017 Turo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.turo.pushy.apns;
+
+/**
+ * A listener that is notified when a push notification sent as part of a bulk send operation is rejected by the APNs
+ * gateway.
+ *
+ * @param <T> the type of push notification
+ *
+ * @see ApnsClient#sendNotifications(java.util.Iterator, PushNotificationRejectionListener)
+ *
+ * @author <a href="https://github.com/jchambers">Jon Chambers</a>
+ *
+ * @since 0.11
+ */
+public interface PushNotificationRejectionListener<T extends ApnsPushNotification> {
+
+    /**
+     * Handles the rejection of a push notification. Rejection listeners may be called from an I/O thread, and should
+     * not block or perform long-running work.
+     *
+     * @param response the response from the APNs gateway describing the rejected notification and the reason for its
+     * rejection
+     *
+     * @since 0.11
+     */
+    void handleRejectedNotification(PushNotificationResponse<T> response);
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2013-2017 Turo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.turo.pushy.apns;
+
+/**
+ * <p>A listener that is notified when an attempt to send a push notification has finished. Response listeners are an
+ * alternative to the {@code Future} returned by {@link ApnsClient#sendNotification(ApnsPushNotification)}; a single
+ * listener may be shared by any number of notifications, and sending a notification with a listener does not create a
+ * new promise for every notification.</p>
+ *
+ * <p>Exactly one of a listener's methods will be called exactly once for each notification sent with that listener.
+ * Listeners will generally be called from an I/O thread (though they may also be called from the thread that sent the
+ * notification if it could not be sent at all), and must not block or perform long-running work.</p>
+ *
+ * @param <T> the type of push notification
+ *
+ * @see ApnsClient#sendNotification(ApnsPushNotification, PushNotificationResponseListener)
+ *
+ * @author <a href="https://github.com/jchambers">Jon Chambers</a>
+ *
+ * @since 0.11
+ */
+public interface PushNotificationResponseListener<T extends ApnsPushNotification> {
+
+    /**
+     * Handles a response from the APNs gateway indicating that a push notification was either accepted or rejected.
+     *
+     * @param response the response from the APNs gateway
+     *
+     * @since 0.11
+     */
+    void handleResponse(PushNotificationResponse<T> response);
+
+    /**
+     * Handles a failure to send a push notification. As with the failure of a {@code Future} returned by
+     * {@link ApnsClient#sendNotification(ApnsPushNotification)}, failures should generally be considered non-permanent,
+     * and callers may wish to re-send the notification when the underlying problem has been resolved.
+     *
+     * @param pushNotification the push notification that could not be sent
+     * @param cause the cause of the failure
+     *
+     * @since 0.11
+     */
+    void handleFailure(T pushNotification, Throwable cause);
+}
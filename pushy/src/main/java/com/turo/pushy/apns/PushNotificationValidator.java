@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2013-2017 Turo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.turo.pushy.apns;
+
+/**
+ * Utility class for checking push notifications for problems that would cause the APNs server to reject them before
+ * they're written to the wire. Checks are intended to be cheap enough to run on every notification, and do not
+ * allocate any objects.
+ *
+ * @author <a href="https://github.com/jchambers">Jon Chambers</a>
+ *
+ * @since 0.11
+ */
+class PushNotificationValidator {
+
+    static final String MISSING_DEVICE_TOKEN_REASON = "MissingDeviceToken";
+    static final String BAD_DEVICE_TOKEN_REASON = "BadDeviceToken";
+    static final String MISSING_TOPIC_REASON = "MissingTopic";
+    static final String PAYLOAD_EMPTY_REASON = "PayloadEmpty";
+    static final String PAYLOAD_TOO_LARGE_REASON = "PayloadTooLarge";
+    static final String BAD_COLLAPSE_ID_REASON = "BadCollapseId";
+
+    private static final int MAX_COLLAPSE_ID_LENGTH = 64; // bytes
+
+    /**
+     * Checks the given push notification for problems that would certainly cause the APNs server to reject it.
+     *
+     * @param pushNotification the push notification to check
+     * @param maximumPayloadSize the maximum size, in bytes, of the notification's UTF-8-encoded payload
+     * @param requireTopic {@code true} if the notification must name a topic or {@code false} otherwise; the APNs
+     * server accepts notifications without a topic from clients whose TLS certificate covers a single topic, and so
+     * only token-authenticated clients must always name one
+     *
+     * @return the rejection reason the APNs server would report for the given notification, or {@code null} if no
+     * problems were found
+     */
+    static String getRejectionReason(final ApnsPushNotification pushNotification, final int maximumPayloadSize, final boolean requireTopic) {
+        final String token = pushNotification.getToken();
+
+        if (token == null || token.isEmpty()) {
+            return MISSING_DEVICE_TOKEN_REASON;
+        }
+
+        if (!isHexadecimal(token)) {
+            return BAD_DEVICE_TOKEN_REASON;
+        }
+
+        if (requireTopic && pushNotification.getTopic() == null) {
+            return MISSING_TOPIC_REASON;
+        }
+
+        final String payload = pushNotification.getPayload();
+
+        if (payload == null || payload.isEmpty()) {
+            return PAYLOAD_EMPTY_REASON;
+        }
+
+        if (getUtf8Length(payload, maximumPayloadSize) > maximumPayloadSize) {
+            return PAYLOAD_TOO_LARGE_REASON;
+        }
+
+        final String collapseId = pushNotification.getCollapseId();
+
+        if (collapseId != null && getUtf8Length(collapseId, MAX_COLLAPSE_ID_LENGTH) > MAX_COLLAPSE_ID_LENGTH) {
+            return BAD_COLLAPSE_ID_REASON;
+        }
+
+        return null;
+    }
+
+    private static boolean isHexadecimal(final String string) {
+        for (int i = 0; i < string.length(); i++) {
+            final char c = string.charAt(i);
+
+            if (!((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F'))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Calculates the length, in bytes, of the UTF-8 representation of the given string without actually encoding the
+     * string. Unpaired surrogates are counted as a single replacement byte, which matches the behavior of
+     * {@link String#getBytes(java.nio.charset.Charset)}.
+     *
+     * @param string the string for which to calculate a UTF-8 length
+     * @param limit a length beyond which callers are not interested in the precise length of the string; once the
+     * calculated length passes the limit, this method may return early
+     *
+     * @return the length of the given string in bytes when encoded as UTF-8, or some number greater than {@code limit}
+     */
+    static int getUtf8Length(final String string, final int limit) {
+        // Every character needs at least one byte, so there's no need to look any further if the string is already
+        // too long.
+        if (string.length() > limit) {
+            return string.length();
+        }
+
+        int length = 0;
+
+        for (int i = 0; i < string.length() && length <= limit; i++) {
+            final char c = string.charAt(i);
+
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < string.length() && Character.isLowSurrogate(string.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                length += 1;
+            } else {
+                length += 3;
+            }
+        }
+
+        return length;
+    }
+}
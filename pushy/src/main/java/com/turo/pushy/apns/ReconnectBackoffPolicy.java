@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2013-2017 Turo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.turo.pushy.apns;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>A reconnect backoff policy controls how long a client waits before trying to reconnect after losing its
+ * connection to the APNs server. Delays grow exponentially with "decorrelated jitter;" each delay is chosen at random
+ * between the initial delay and three times the previous delay, and never exceeds the maximum delay. Randomizing delays
+ * keeps clients that lost their connections at the same moment (when the server restarts, for example) from all
+ * reconnecting at the same moment, too.</p>
+ *
+ * <p>Once a connection has stayed open for at least the policy's reset interval, the next delay starts over from the
+ * initial delay. Connections that close sooner than that keep backing off, so clients don't hammer a server that
+ * accepts connections but closes them right away.</p>
+ *
+ * <p>Reconnect backoff policies are immutable and may be shared between clients.</p>
+ *
+ * @author <a href="https://github.com/jchambers">Jon Chambers</a>
+ *
+ * @see ApnsClientBuilder#setReconnectBackoffPolicy(ReconnectBackoffPolicy)
+ *
+ * @since 0.11
+ */
+public class ReconnectBackoffPolicy {
+
+    private final long initialDelayNanos;
+    private final long maxDelayNanos;
+    private final long resetIntervalNanos;
+
+    /**
+     * Constructs a new reconnect backoff policy.
+     *
+     * @param initialDelay the shortest delay before any reconnection attempt; must be positive
+     * @param maxDelay the longest delay before any reconnection attempt; must not be less than the initial delay
+     * @param resetInterval the time a connection must stay open before the delay starts over from the initial delay;
+     * must not be negative
+     * @param timeUnit the time unit for the given delays and reset interval
+     */
+    public ReconnectBackoffPolicy(final long initialDelay, final long maxDelay, final long resetInterval, final TimeUnit timeUnit) {
+        if (initialDelay <= 0 || maxDelay < initialDelay) {
+            throw new IllegalArgumentException("Initial delay must be positive, and the maximum delay must not be less than the initial delay.");
+        }
+
+        if (resetInterval < 0) {
+            throw new IllegalArgumentException("Reset interval must not be negative.");
+        }
+
+        this.initialDelayNanos = timeUnit.toNanos(initialDelay);
+        this.maxDelayNanos = timeUnit.toNanos(maxDelay);
+        this.resetIntervalNanos = timeUnit.toNanos(resetInterval);
+    }
+
+    /**
+     * Returns the shortest delay before any reconnection attempt in the given time unit.
+     *
+     * @param timeUnit the time unit in which to express the initial delay
+     *
+     * @return the shortest delay before any reconnection attempt in the given time unit
+     */
+    public long getInitialDelay(final TimeUnit timeUnit) {
+        return timeUnit.convert(this.initialDelayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns the longest delay before any reconnection attempt in the given time unit.
+     *
+     * @param timeUnit the time unit in which to express the maximum delay
+     *
+     * @return the longest delay before any reconnection attempt in the given time unit
+     */
+    public long getMaxDelay(final TimeUnit timeUnit) {
+        return timeUnit.convert(this.maxDelayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns the time a connection must stay open before the delay starts over in the given time unit.
+     *
+     * @param timeUnit the time unit in which to express the reset interval
+     *
+     * @return the time a connection must stay open before the delay starts over in the given time unit
+     */
+    public long getResetInterval(final TimeUnit timeUnit) {
+        return timeUnit.convert(this.resetIntervalNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Indicates whether a connection that stayed open for the given time should reset the delay.
+     *
+     * @param connectionLifetimeNanos the time, in nanoseconds, for which the connection stayed open
+     *
+     * @return {@code true} if the next delay should start over from the initial delay or {@code false} otherwise
+     */
+    boolean shouldReset(final long connectionLifetimeNanos) {
+        return connectionLifetimeNanos >= this.resetIntervalNanos;
+    }
+
+    /**
+     * Chooses a delay before the next reconnection attempt.
+     *
+     * @param previousDelayNanos the delay, in nanoseconds, before the previous reconnection attempt, or zero if there
+     * was no previous attempt or the delay was reset
+     *
+     * @return a delay, in nanoseconds, before the next reconnection attempt
+     */
+    long getNextDelayNanos(final long previousDelayNanos) {
+        // Tripling anything larger than a third of the maximum delay would exceed the maximum delay anyhow, and this way
+        // we can't overflow.
+        final long upperBoundNanos = Math.max(previousDelayNanos, this.initialDelayNanos) <= this.maxDelayNanos / 3 ?
+                Math.max(previousDelayNanos, this.initialDelayNanos) * 3 : this.maxDelayNanos;
+
+        return upperBoundNanos > this.initialDelayNanos ?
+                ThreadLocalRandom.current().nextLong(this.initialDelayNanos, upperBoundNanos + 1) : this.initialDelayNanos;
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2013-2017 Turo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.turo.pushy.apns;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks the number of retries a client may attempt. New notifications add a fraction of a retry to the budget, and
+ * retries spend whole retries from it.
+ *
+ * @author <a href="https://github.com/jchambers">Jon Chambers</a>
+ *
+ * @see RetryPolicy
+ *
+ * @since 0.11
+ */
+class RetryBudget {
+
+    private final long depositPerNotification;
+    private final long maxBalance;
+
+    private final AtomicLong balance;
+
+    // The budget is kept in thousandths of a retry so fractional deposits can be tracked with a plain atomic long.
+    private static final long UNITS_PER_RETRY = 1000;
+
+    RetryBudget(final RetryPolicy retryPolicy) {
+        this.depositPerNotification = Math.round(retryPolicy.getRetryBudgetRatio() * UNITS_PER_RETRY);
+        this.maxBalance = retryPolicy.getMaxRetryBurst() * UNITS_PER_RETRY;
+
+        this.balance = new AtomicLong(this.maxBalance);
+    }
+
+    void handleNotificationSent() {
+        long current;
+
+        do {
+            current = this.balance.get();
+
+            if (current >= this.maxBalance) {
+                return;
+            }
+        } while (!this.balance.compareAndSet(current, Math.min(current + this.depositPerNotification, this.maxBalance)));
+    }
+
+    boolean tryAcquireRetry() {
+        long current;
+
+        do {
+            current = this.balance.get();
+
+            if (current < UNITS_PER_RETRY) {
+                return false;
+            }
+        } while (!this.balance.compareAndSet(current, current - UNITS_PER_RETRY));
+
+        return true;
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2013-2017 Turo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.turo.pushy.apns;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>A retry policy controls whether and when a client automatically re-sends notifications that failed for transient
+ * reasons. A notification is eligible to be retried if the APNs server reports an internal error (HTTP status 500),
+ * that it is unavailable or shutting down (HTTP status 503), or that too many notifications have been sent to the same
+ * device (HTTP status 429). Notifications rejected for any other reason are never retried.</p>
+ *
+ * <p>Retries are delayed with exponential backoff and "full jitter;" each retry waits a random amount of time between
+ * zero and an upper bound that doubles with every attempt (up to a maximum). Randomizing delays keeps clients that
+ * failed at the same moment from retrying at the same moment, too.</p>
+ *
+ * <p>To keep retries from multiplying load on a server that's already struggling, each client also keeps a retry
+ * budget. Every new notification adds a fraction of a retry to the budget, and every retry spends one whole retry; when
+ * the budget is exhausted, notifications fail as they would without a retry policy. The budget never holds more than a
+ * fixed number of retries, which limits the size of bursts of retries.</p>
+ *
+ * <p>Retry policies are immutable and may be shared between clients; each client keeps its own budget.</p>
+ *
+ * @author <a href="https://github.com/jchambers">Jon Chambers</a>
+ *
+ * @see ApnsClientBuilder#setRetryPolicy(RetryPolicy)
+ *
+ * @since 0.11
+ */
+public class RetryPolicy {
+
+    private final int maxRetries;
+    private final long initialDelayNanos;
+    private final long maxDelayNanos;
+    private final double retryBudgetRatio;
+    private final int maxRetryBurst;
+
+    /**
+     * The default fraction of new notifications that may be retried.
+     */
+    public static final double DEFAULT_RETRY_BUDGET_RATIO = 0.1;
+
+    /**
+     * The default maximum number of retries a client's retry budget may hold.
+     */
+    public static final int DEFAULT_MAX_RETRY_BURST = 100;
+
+    /**
+     * Constructs a new retry policy with the default retry budget.
+     *
+     * @param maxRetries the maximum number of times to retry a single notification
+     * @param initialDelay the upper bound of the delay before the first retry of a notification
+     * @param maxDelay the largest upper bound for the delay before any retry of a notification
+     * @param timeUnit the time unit for the given delays
+     *
+     * @see RetryPolicy#DEFAULT_RETRY_BUDGET_RATIO
+     * @see RetryPolicy#DEFAULT_MAX_RETRY_BURST
+     */
+    public RetryPolicy(final int maxRetries, final long initialDelay, final long maxDelay, final TimeUnit timeUnit) {
+        this(maxRetries, initialDelay, maxDelay, timeUnit, DEFAULT_RETRY_BUDGET_RATIO, DEFAULT_MAX_RETRY_BURST);
+    }
+
+    /**
+     * Constructs a new retry policy.
+     *
+     * @param maxRetries the maximum number of times to retry a single notification
+     * @param initialDelay the upper bound of the delay before the first retry of a notification
+     * @param maxDelay the largest upper bound for the delay before any retry of a notification
+     * @param timeUnit the time unit for the given delays
+     * @param retryBudgetRatio the fraction of a retry each new notification adds to a client's retry budget; must be
+     * between zero and one
+     * @param maxRetryBurst the maximum number of retries a client's retry budget may hold; clients start with a full
+     * budget
+     */
+    public RetryPolicy(final int maxRetries, final long initialDelay, final long maxDelay, final TimeUnit timeUnit, final double retryBudgetRatio, final int maxRetryBurst) {
+        if (maxRetries < 0) {
+            throw new IllegalArgumentException("Maximum retries must not be negative.");
+        }
+
+        if (initialDelay < 0 || maxDelay < initialDelay) {
+            throw new IllegalArgumentException("Delays must not be negative, and the maximum delay must not be less than the initial delay.");
+        }
+
+        if (retryBudgetRatio < 0 || retryBudgetRatio > 1) {
+            throw new IllegalArgumentException("Retry budget ratio must be between zero and one.");
+        }
+
+        if (maxRetryBurst < 0) {
+            throw new IllegalArgumentException("Maximum retry burst must not be negative.");
+        }
+
+        this.maxRetries = maxRetries;
+        this.initialDelayNanos = timeUnit.toNanos(initialDelay);
+        this.maxDelayNanos = timeUnit.toNanos(maxDelay);
+        this.retryBudgetRatio = retryBudgetRatio;
+        this.maxRetryBurst = maxRetryBurst;
+    }
+
+    /**
+     * Returns the maximum number of times this policy will retry a single notification.
+     *
+     * @return the maximum number of times this policy will retry a single notification
+     */
+    public int getMaxRetries() {
+        return this.maxRetries;
+    }
+
+    /**
+     * Returns the fraction of a retry each new notification adds to a client's retry budget.
+     *
+     * @return the fraction of a retry each new notification adds to a client's retry budget
+     */
+    public double getRetryBudgetRatio() {
+        return this.retryBudgetRatio;
+    }
+
+    /**
+     * Returns the maximum number of retries a client's retry budget may hold.
+     *
+     * @return the maximum number of retries a client's retry budget may hold
+     */
+    public int getMaxRetryBurst() {
+        return this.maxRetryBurst;
+    }
+
+    /**
+     * Chooses a delay before the given retry of a notification.
+     *
+     * @param retryNumber the number of retries that have already been attempted for the notification
+     *
+     * @return a delay, in nanoseconds, before retrying the notification
+     */
+    long getRetryDelayNanos(final int retryNumber) {
+        // Doubling the initial delay more than 62 times would overflow, and any reasonable maximum delay is reached
+        // long before then anyhow.
+        final long upperBoundNanos = retryNumber < 62 && this.initialDelayNanos <= (this.maxDelayNanos >> retryNumber) ?
+                this.initialDelayNanos << retryNumber : this.maxDelayNanos;
+
+        return upperBoundNanos > 0 ? ThreadLocalRandom.current().nextLong(upperBoundNanos) : 0;
+    }
+}
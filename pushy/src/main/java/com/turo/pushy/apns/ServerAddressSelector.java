@@ -0,0 +1,226 @@
+/*
+ * Copyright (c) 2013-2017 Turo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.turo.pushy.apns;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Chooses the server addresses to which a client connects. APNs hostnames resolve to many addresses, but the
+ * resolver generally returns them in the same order to everybody, so connecting to whichever address comes first would
+ * send every connection (and every reconnection) to the same few servers. Instead, server address selectors resolve
+ * every address for a host, cache them for a while, and hand them out round-robin starting from a random address.</p>
+ *
+ * <p>Addresses to which a connection attempt failed recently are skipped for a while, unless every address for a host
+ * has failed recently, in which case trying one of them anyway is better than not trying at all.</p>
+ *
+ * @author <a href="https://github.com/jchambers">Jon Chambers</a>
+ *
+ * @since 0.11
+ */
+class ServerAddressSelector {
+
+    private final long cacheTtlNanos;
+    private final long blacklistNanos;
+
+    private final Map<String, ResolvedHost> resolvedHosts = new HashMap<>();
+    private final Map<InetAddress, Long> blacklistExpirationNanos = new HashMap<>();
+
+    private static final Logger log = LoggerFactory.getLogger(ServerAddressSelector.class);
+
+    private static class ResolvedHost {
+        private InetAddress[] addresses;
+        private long expirationNanos;
+        private int nextIndex;
+
+        private ResolvedHost(final InetAddress[] addresses, final long expirationNanos) {
+            this.addresses = addresses;
+            this.expirationNanos = expirationNanos;
+            this.nextIndex = ThreadLocalRandom.current().nextInt(addresses.length);
+        }
+    }
+
+    ServerAddressSelector(final long cacheTtlNanos, final long blacklistNanos) {
+        if (cacheTtlNanos < 0) {
+            throw new IllegalArgumentException("Cache TTL must not be negative.");
+        }
+
+        if (blacklistNanos < 0) {
+            throw new IllegalArgumentException("Blacklist time must not be negative.");
+        }
+
+        this.cacheTtlNanos = cacheTtlNanos;
+        this.blacklistNanos = blacklistNanos;
+    }
+
+    /**
+     * Indicates whether the addresses for the given host need to be resolved (or resolved again) before choosing the
+     * next address for a connection to that host.
+     *
+     * @param host the hostname of the server to which to connect
+     * @param nanoTime the current value of {@link System#nanoTime()}
+     *
+     * @return {@code true} if the given host has never been resolved or if its addresses have expired, or {@code false}
+     * otherwise
+     */
+    synchronized boolean needsResolution(final String host, final long nanoTime) {
+        final ResolvedHost resolvedHost = this.resolvedHosts.get(host);
+        return resolvedHost == null || nanoTime - resolvedHost.expirationNanos >= 0;
+    }
+
+    /**
+     * Resolves every address for the given host and caches the results. Resolution may block for a while, and so
+     * happens outside of this selector's lock; callers should also take care to resolve hosts outside of any event
+     * loop. If the host can't be resolved, but was resolved successfully before, the previously-resolved addresses
+     * remain in use.
+     *
+     * @param host the host to resolve
+     * @param nanoTime the current value of {@link System#nanoTime()}
+     *
+     * @throws UnknownHostException if the host could not be resolved and has never been resolved before
+     */
+    void resolve(final String host, final long nanoTime) throws UnknownHostException {
+        final InetAddress[] addresses;
+
+        try {
+            addresses = this.resolveAll(host);
+        } catch (final UnknownHostException e) {
+            synchronized (this) {
+                final ResolvedHost resolvedHost = this.resolvedHosts.get(host);
+
+                if (resolvedHost == null) {
+                    throw e;
+                }
+
+                // Addresses that worked a little while ago are a better bet than no addresses at all.
+                log.warn("Failed to resolve {}; using previously-resolved addresses.", host, e);
+                resolvedHost.expirationNanos = nanoTime + this.cacheTtlNanos;
+            }
+
+            return;
+        }
+
+        synchronized (this) {
+            final ResolvedHost resolvedHost = this.resolvedHosts.get(host);
+
+            if (resolvedHost == null) {
+                this.resolvedHosts.put(host, new ResolvedHost(addresses, nanoTime + this.cacheTtlNanos));
+            } else {
+                resolvedHost.addresses = addresses;
+                resolvedHost.expirationNanos = nanoTime + this.cacheTtlNanos;
+                resolvedHost.nextIndex = resolvedHost.nextIndex % addresses.length;
+            }
+        }
+    }
+
+    /**
+     * Chooses the address for the next connection to the given host from the addresses most recently resolved for that
+     * host; this method never resolves the host itself. The returned address keeps the given hostname, so connections
+     * to it identify the server by name just as if they had resolved the hostname themselves.
+     *
+     * @param host the hostname of the server to which to connect
+     * @param port the port on which to connect
+     * @param nanoTime the current value of {@link System#nanoTime()}
+     *
+     * @return the address for the next connection, or {@code null} if the host has never been resolved
+     *
+     * @see #resolve(String, long)
+     */
+    synchronized InetSocketAddress nextAddress(final String host, final int port, final long nanoTime) {
+        final ResolvedHost resolvedHost = this.resolvedHosts.get(host);
+
+        if (resolvedHost == null) {
+            return null;
+        }
+
+        final InetAddress[] addresses = resolvedHost.addresses;
+        InetAddress selectedAddress = addresses[resolvedHost.nextIndex];
+
+        for (int i = 0; i < addresses.length; i++) {
+            final int index = (resolvedHost.nextIndex + i) % addresses.length;
+
+            if (!this.isBlacklisted(addresses[index], nanoTime)) {
+                selectedAddress = addresses[index];
+                resolvedHost.nextIndex = index;
+                break;
+            }
+        }
+
+        resolvedHost.nextIndex = (resolvedHost.nextIndex + 1) % addresses.length;
+
+        try {
+            return new InetSocketAddress(InetAddress.getByAddress(host, selectedAddress.getAddress()), port);
+        } catch (final UnknownHostException e) {
+            // This only happens if the address has an illegal length, which resolved addresses never do.
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Skips the given address for a while because a connection attempt to it failed.
+     *
+     * @param address the address to which a connection attempt failed
+     * @param nanoTime the current value of {@link System#nanoTime()}
+     */
+    synchronized void handleConnectionFailure(final InetAddress address, final long nanoTime) {
+        log.debug("Skipping {} for {} milliseconds after a failed connection attempt.",
+                address, TimeUnit.NANOSECONDS.toMillis(this.blacklistNanos));
+        this.blacklistExpirationNanos.put(address, nanoTime + this.blacklistNanos);
+    }
+
+    private boolean isBlacklisted(final InetAddress address, final long nanoTime) {
+        final Long expirationNanos = this.blacklistExpirationNanos.get(address);
+
+        if (expirationNanos == null) {
+            return false;
+        }
+
+        if (nanoTime - expirationNanos >= 0) {
+            this.blacklistExpirationNanos.remove(address);
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Resolves every address for the given host.
+     *
+     * @param host the host to resolve
+     *
+     * @return every address for the given host
+     *
+     * @throws UnknownHostException if the host could not be resolved
+     */
+    InetAddress[] resolveAll(final String host) throws UnknownHostException {
+        return InetAddress.getAllByName(host);
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2013-2017 Turo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.turo.pushy.apns;
+
+import io.netty.util.concurrent.Future;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * <p>Spreads notifications across several APNs clients while keeping notifications to the same device on the same
+ * client. Each device token is assigned to exactly one client (or "lane") by hashing the token, so all notifications
+ * for a device sent from a single thread are written by the same client in the order in which they were sent, except
+ * as described below. Notifications for different devices are spread across all lanes, which may send in parallel; to
+ * make the most of that parallelism, lanes should generally be connected via an event loop group with at least as
+ * many threads as there are lanes.</p>
+ *
+ * <p>Within a lane, notifications are ordered only as well as they are by any single client, and a client may reorder
+ * notifications for the same device in several ways:</p>
+ *
+ * <ul>
+ *  <li>notifications with {@link DeliveryPriority#IMMEDIATE} priority may be sent ahead of waiting notifications with
+ *  {@link DeliveryPriority#CONSERVE_POWER} priority;</li>
+ *  <li>notifications that are retried after a server error are sent again after a delay, and so after notifications
+ *  that were sent later but succeeded the first time;</li>
+ *  <li>notifications that are replayed after a lost connection are sent on the next connection, possibly after
+ *  notifications that were sent later and went straight to the new connection;</li>
+ *  <li>notifications that the server declined to process when it closed a connection with a {@code GOAWAY} frame are
+ *  migrated to another connection, and may arrive there after notifications sent later;</li>
+ *  <li>while a client recycles its connection or promotes a standby connection, notifications sent just before the
+ *  switch may still be in flight on the old connection when notifications sent just after it reach the server on the
+ *  new one, and the server may process them in either order.</li>
+ * </ul>
+ *
+ * <p>Callers that need strict ordering for a device should use a single priority, should not enable retries or
+ * replays, and should not enable connection recycling or standby connections. Even then, a notification may overtake
+ * an earlier one when a connection closes; callers that can't tolerate that should wait for each notification to
+ * the device to be resolved before sending the next.</p>
+ *
+ * <p>Dispatchers do not manage the connections of their clients; callers must connect and disconnect each client
+ * individually.</p>
+ *
+ * @author <a href="https://github.com/jchambers">Jon Chambers</a>
+ *
+ * @since 0.11
+ */
+public class ShardedApnsDispatcher {
+
+    private final ApnsClient[] clients;
+
+    /**
+     * Constructs a new dispatcher that spreads notifications across the given clients. The order of the given clients
+     * determines which device tokens are assigned to which client, so dispatchers constructed with the same clients in
+     * the same order will always assign device tokens in the same way.
+     *
+     * @param clients the clients across which to spread notifications; must not be empty
+     */
+    public ShardedApnsDispatcher(final List<ApnsClient> clients) {
+        Objects.requireNonNull(clients, "Clients must not be null.");
+
+        if (clients.isEmpty()) {
+            throw new IllegalArgumentException("Dispatchers must have at least one client.");
+        }
+
+        this.clients = clients.toArray(new ApnsClient[clients.size()]);
+
+        for (final ApnsClient client : this.clients) {
+            Objects.requireNonNull(client, "Clients must not be null.");
+        }
+    }
+
+    /**
+     * Returns the clients across which this dispatcher spreads notifications in lane order.
+     *
+     * @return an unmodifiable list of this dispatcher's clients
+     */
+    public List<ApnsClient> getClients() {
+        final List<ApnsClient> clients = new ArrayList<>(this.clients.length);
+        Collections.addAll(clients, this.clients);
+
+        return Collections.unmodifiableList(clients);
+    }
+
+    /**
+     * Returns the client to which this dispatcher sends all notifications for the given device token.
+     *
+     * @param token the device token for which to find a client
+     *
+     * @return the client for the given device token
+     */
+    public ApnsClient getClient(final String token) {
+        return this.clients[getLane(token, this.clients.length)];
+    }
+
+    /**
+     * Sends a push notification via the client assigned to the notification's device token.
+     *
+     * @param notification the notification to send
+     * @param <T> the type of notification to be sent
+     *
+     * @return a {@code Future} that will complete when the notification has been either accepted or rejected by the
+     * APNs gateway
+     *
+     * @see ApnsClient#sendNotification(ApnsPushNotification)
+     */
+    public <T extends ApnsPushNotification> Future<PushNotificationResponse<T>> sendNotification(final T notification) {
+        return this.getClient(notification.getToken()).sendNotification(notification);
+    }
+
+    /**
+     * Sends a push notification via the client assigned to the notification's device token and notifies the given
+     * listener when the notification has been accepted or rejected, or has failed.
+     *
+     * @param notification the notification to send
+     * @param responseListener the listener to notify of the outcome of the attempt to send the notification
+     * @param <T> the type of notification to be sent
+     *
+     * @see ApnsClient#sendNotification(ApnsPushNotification, PushNotificationResponseListener)
+     */
+    public <T extends ApnsPushNotification> void sendNotification(final T notification, final PushNotificationResponseListener<T> responseListener) {
+        this.getClient(notification.getToken()).sendNotification(notification, responseListener);
+    }
+
+    static int getLane(final String token, final int laneCount) {
+        if (token == null) {
+            return 0;
+        }
+
+        // Tokens are hexadecimal, and clients may send the same token in upper and lower case; lanes must not depend on
+        // case. Spread the bits the same way HashMap does so lanes stay balanced even when the lane count is a power
+        // of two.
+        int hash = 0;
+
+        for (int i = 0; i < token.length(); i++) {
+            hash = (31 * hash) + Character.toLowerCase(token.charAt(i));
+        }
+
+        hash ^= (hash >>> 16);
+
+        return (hash & Integer.MAX_VALUE) % laneCount;
+    }
+}
@@ -68,14 +68,14 @@ class TokenAuthenticationApnsClientHandler extends ApnsClientHandler {
             Objects.requireNonNull(this.authority(), "Authority must be set before building a TokenAuthenticationApnsClientHandler.");
             Objects.requireNonNull(this.signingKey(), "Signing key must be set before building a TokenAuthenticationApnsClientHandler.");
 
-            final ApnsClientHandler handler = new TokenAuthenticationApnsClientHandler(decoder, encoder, initialSettings, this.authority(), this.signingKey(), this.idlePingIntervalMillis());
+            final ApnsClientHandler handler = new TokenAuthenticationApnsClientHandler(decoder, encoder, initialSettings, this.authority(), this.signingKey(), this.idlePingIntervalMillis(), this.coalesceNotifications(), this.overloadPolicy());
             this.frameListener(handler);
             return handler;
         }
     }
 
-    protected TokenAuthenticationApnsClientHandler(final Http2ConnectionDecoder decoder, final Http2ConnectionEncoder encoder, final Http2Settings initialSettings, final String authority, final ApnsSigningKey signingKey, final long idlePingIntervalMillis) {
-        super(decoder, encoder, initialSettings, authority, idlePingIntervalMillis);
+    protected TokenAuthenticationApnsClientHandler(final Http2ConnectionDecoder decoder, final Http2ConnectionEncoder encoder, final Http2Settings initialSettings, final String authority, final ApnsSigningKey signingKey, final long idlePingIntervalMillis, final boolean coalesceNotifications, final OverloadPolicy overloadPolicy) {
+        super(decoder, encoder, initialSettings, authority, idlePingIntervalMillis, coalesceNotifications, overloadPolicy);
 
         Objects.requireNonNull(signingKey, "Signing key must not be null for token-based client handlers.");
         this.signingKey = signingKey;
@@ -102,7 +102,7 @@ class TokenAuthenticationApnsClientHandler extends ApnsClientHandler {
     }
 
     @Override
-    protected void handleErrorResponse(final ChannelHandlerContext context, final int streamId, final Http2Headers headers, final ApnsPushNotification pushNotification, final ErrorResponse errorResponse) {
+    protected void handleErrorResponse(final ChannelHandlerContext context, final int streamId, final Http2Headers headers, final PendingPushNotification pendingPushNotification, final ErrorResponse errorResponse) {
         if (TokenAuthenticationApnsClientHandler.EXPIRED_AUTH_TOKEN_REASON.equals(errorResponse.getReason())) {
             if (streamId >= this.mostRecentStreamWithNewToken) {
                 this.authenticationToken = null;
@@ -112,7 +112,7 @@ class TokenAuthenticationApnsClientHandler extends ApnsClientHandler {
             // succeed.
             this.retryPushNotificationFromStream(context, streamId);
         } else {
-            super.handleErrorResponse(context, streamId, headers, pushNotification, errorResponse);
+            super.handleErrorResponse(context, streamId, headers, pendingPushNotification, errorResponse);
         }
     }
 }
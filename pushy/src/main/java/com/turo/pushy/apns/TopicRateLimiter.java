@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2013-2017 Turo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.turo.pushy.apns;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the rate at which notifications are sent to each topic with a token bucket per topic. Each bucket refills at
+ * a steady rate up to a maximum, and every notification takes one token from the bucket for its topic. Clients
+ * generally send to a small, fixed set of topics, so buckets are created on demand and never discarded.
+ *
+ * @author <a href="https://github.com/jchambers">Jon Chambers</a>
+ *
+ * @since 0.11
+ */
+class TopicRateLimiter {
+
+    private final double tokensPerNano;
+    private final double maxTokens;
+
+    private final ConcurrentMap<String, TokenBucket> bucketsByTopic = new ConcurrentHashMap<>();
+
+    private class TokenBucket {
+        private double tokens;
+        private long lastRefillNanos;
+
+        private TokenBucket(final long nanoTime) {
+            this.tokens = TopicRateLimiter.this.maxTokens;
+            this.lastRefillNanos = nanoTime;
+        }
+
+        private synchronized boolean tryAcquire(final long nanoTime) {
+            if (nanoTime - this.lastRefillNanos > 0) {
+                this.tokens = Math.min(TopicRateLimiter.this.maxTokens,
+                        this.tokens + ((nanoTime - this.lastRefillNanos) * TopicRateLimiter.this.tokensPerNano));
+
+                this.lastRefillNanos = nanoTime;
+            }
+
+            if (this.tokens < 1) {
+                return false;
+            }
+
+            this.tokens -= 1;
+            return true;
+        }
+    }
+
+    TopicRateLimiter(final double notificationsPerSecond, final int maxBurst) {
+        if (notificationsPerSecond <= 0) {
+            throw new IllegalArgumentException("Notifications per second must be positive.");
+        }
+
+        if (maxBurst < 1) {
+            throw new IllegalArgumentException("Maximum burst must be at least 1.");
+        }
+
+        this.tokensPerNano = notificationsPerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.maxTokens = maxBurst;
+    }
+
+    /**
+     * Attempts to take a token from the bucket for the given topic.
+     *
+     * @param topic the topic to which a notification will be sent
+     *
+     * @return {@code true} if a token was available and has been taken or {@code false} if the notification should
+     * not be sent
+     */
+    boolean tryAcquire(final String topic) {
+        return this.tryAcquire(topic, System.nanoTime());
+    }
+
+    boolean tryAcquire(final String topic, final long nanoTime) {
+        TokenBucket bucket = this.bucketsByTopic.get(topic);
+
+        if (bucket == null) {
+            final TokenBucket newBucket = new TokenBucket(nanoTime);
+            bucket = this.bucketsByTopic.putIfAbsent(topic, newBucket);
+
+            if (bucket == null) {
+                bucket = newBucket;
+            }
+        }
+
+        return bucket.tryAcquire(nanoTime);
+    }
+}
@@ -32,6 +32,7 @@ import java.io.File;
 import java.io.InputStream;
 import java.security.KeyStore.PrivateKeyEntry;
 import java.security.cert.X509Certificate;
+import java.util.concurrent.TimeUnit;
 
 public class ApnsClientBuilderTest {
 
@@ -150,4 +151,29 @@ public class ApnsClientBuilderTest {
             }
         }
     }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSetWriteBufferWaterMarkWithLowMarkAboveHighMark() {
+        new ApnsClientBuilder().setWriteBufferWaterMark(64 * 1024, 32 * 1024);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSetDeviceTokenRateLimitWithZeroNotifications() {
+        new ApnsClientBuilder().setDeviceTokenRateLimit(0, 1, TimeUnit.MINUTES);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSetTopicRateLimitWithZeroRate() {
+        new ApnsClientBuilder().setTopicRateLimit(0, 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSetReconnectBackoffPolicyNull() {
+        new ApnsClientBuilder().setReconnectBackoffPolicy(null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSetConnectionRecyclingPolicyNull() {
+        new ApnsClientBuilder().setConnectionRecyclingPolicy(null);
+    }
 }
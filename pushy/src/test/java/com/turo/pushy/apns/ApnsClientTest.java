@@ -26,6 +26,8 @@ import com.turo.pushy.apns.auth.ApnsSigningKey;
 import com.turo.pushy.apns.auth.ApnsVerificationKey;
 import com.turo.pushy.apns.util.ApnsPayloadBuilder;
 import com.turo.pushy.apns.util.SimpleApnsPushNotification;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.util.concurrent.Future;
 import io.netty.util.concurrent.GenericFutureListener;
@@ -40,8 +42,15 @@ import java.security.KeyPair;
 import java.security.interfaces.ECPrivateKey;
 import java.security.interfaces.ECPublicKey;
 import java.util.*;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static org.junit.Assert.*;
 
@@ -82,6 +91,9 @@ public class ApnsClientTest {
         private final List<Long> sentNotifications = new ArrayList<>();
         private final List<Long> acceptedNotifications = new ArrayList<>();
         private final List<Long> rejectedNotifications = new ArrayList<>();
+        private final List<Long> retriedNotifications = Collections.synchronizedList(new ArrayList<Long>());
+        private final List<CircuitBreakerState> circuitBreakerStates = Collections.synchronizedList(new ArrayList<CircuitBreakerState>());
+        private final List<Long> reconnectionDelays = new ArrayList<>();
 
         private final AtomicInteger connectionAttemptsStarted = new AtomicInteger(0);
         private final AtomicInteger successfulConnectionAttempts = new AtomicInteger(0);
@@ -137,6 +149,66 @@ public class ApnsClientTest {
             }
         }
 
+        @Override
+        public void handleWritabilityChanged(final ApnsClient apnsClient, final boolean writable) {
+        }
+
+        @Override
+        public void handleCallbackQueueLag(final ApnsClient apnsClient, final long lagNanos) {
+        }
+
+        @Override
+        public void handleNotificationQueued(final ApnsClient apnsClient, final DeliveryPriority lane) {
+        }
+
+        @Override
+        public void handleNotificationDequeued(final ApnsClient apnsClient, final DeliveryPriority lane, final long waitNanos) {
+        }
+
+        @Override
+        public void handleNotificationExpired(final ApnsClient apnsClient, final long notificationId) {
+        }
+
+        @Override
+        public void handleNotificationCoalesced(final ApnsClient apnsClient, final long notificationId) {
+        }
+
+        @Override
+        public void handleNotificationRetried(final ApnsClient apnsClient, final long notificationId) {
+            this.retriedNotifications.add(notificationId);
+        }
+
+        @Override
+        public void handleCircuitBreakerStateChanged(final ApnsClient apnsClient, final CircuitBreakerState state) {
+            this.circuitBreakerStates.add(state);
+        }
+
+        @Override
+        public void handleNotificationReplayed(final ApnsClient apnsClient, final long notificationId) {
+        }
+
+        @Override
+        public void handleNotificationShed(final ApnsClient apnsClient, final long notificationId) {
+        }
+
+        @Override
+        public void handleReconnectionScheduled(final ApnsClient apnsClient, final long delayNanos) {
+            synchronized (this.reconnectionDelays) {
+                this.reconnectionDelays.add(delayNanos);
+                this.reconnectionDelays.notifyAll();
+            }
+        }
+
+        public List<Long> waitForReconnectionDelays(final int count) throws InterruptedException {
+            synchronized (this.reconnectionDelays) {
+                while (this.reconnectionDelays.size() < count) {
+                    this.reconnectionDelays.wait();
+                }
+
+                return new ArrayList<>(this.reconnectionDelays);
+            }
+        }
+
         public void waitForNonZeroWriteFailures() throws InterruptedException {
             synchronized (this.writeFailures) {
                 while (this.writeFailures.isEmpty()) {
@@ -193,6 +265,14 @@ public class ApnsClientTest {
             return this.rejectedNotifications;
         }
 
+        public List<Long> getRetriedNotifications() {
+            return this.retriedNotifications;
+        }
+
+        public List<CircuitBreakerState> getCircuitBreakerStates() {
+            return this.circuitBreakerStates;
+        }
+
         public AtomicInteger getConnectionAttemptsStarted() {
             return this.connectionAttemptsStarted;
         }
@@ -206,6 +286,34 @@ public class ApnsClientTest {
         }
     }
 
+    private static class TestResponseListener<T extends ApnsPushNotification> implements PushNotificationResponseListener<T> {
+
+        private final List<PushNotificationResponse<T>> responses = Collections.synchronizedList(new ArrayList<PushNotificationResponse<T>>());
+        private final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+
+        private final CountDownLatch countDownLatch;
+
+        private TestResponseListener(final int expectedOutcomes) {
+            this.countDownLatch = new CountDownLatch(expectedOutcomes);
+        }
+
+        @Override
+        public void handleResponse(final PushNotificationResponse<T> response) {
+            this.responses.add(response);
+            this.countDownLatch.countDown();
+        }
+
+        @Override
+        public void handleFailure(final T pushNotification, final Throwable cause) {
+            this.failures.add(cause);
+            this.countDownLatch.countDown();
+        }
+
+        public void await() throws InterruptedException {
+            this.countDownLatch.await();
+        }
+    }
+
     @BeforeClass
     public static void setUpBeforeClass() throws Exception {
         // We want enough threads so we can be confident that the client and server are running on different threads and
@@ -348,6 +456,190 @@ public class ApnsClientTest {
         assertTrue(this.tokenAuthenticationClient.isConnected());
     }
 
+    @Test
+    public void testReconnectionBackoff() throws Exception {
+        final TestMetricsListener metricsListener = new TestMetricsListener();
+
+        final ApnsClient client = new ApnsClientBuilder()
+                .setTrustedServerCertificateChain(CA_CERTIFICATE)
+                .setSigningKey(this.signingKey)
+                .setEventLoopGroup(EVENT_LOOP_GROUP)
+                .setMetricsListener(metricsListener)
+                .setReconnectBackoffPolicy(new ReconnectBackoffPolicy(10, 200, 60_000, TimeUnit.MILLISECONDS))
+                .build();
+
+        try {
+            client.connect(HOST, PORT).await();
+            assertTrue(client.isConnected());
+
+            // With the server gone, every reconnection attempt will fail and the client should keep backing off.
+            this.server.shutdown().await();
+
+            final int attempts = 20;
+            final List<Long> delays = metricsListener.waitForReconnectionDelays(attempts);
+
+            final long initialDelayNanos = TimeUnit.MILLISECONDS.toNanos(10);
+            final long maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(200);
+
+            boolean delaysGrew = false;
+            boolean delaysVaried = false;
+
+            for (int i = 0; i < attempts; i++) {
+                final long delayNanos = delays.get(i);
+
+                assertTrue(delayNanos >= initialDelayNanos);
+                assertTrue(delayNanos <= maxDelayNanos);
+
+                if (i > 0) {
+                    // Each delay may be at most three times the previous delay
+                    assertTrue(delayNanos <= Math.max(delays.get(i - 1) * 3, initialDelayNanos));
+                    delaysVaried |= delayNanos != delays.get(i - 1);
+                }
+
+                delaysGrew |= delayNanos > initialDelayNanos * 2;
+            }
+
+            assertTrue(delaysGrew);
+            assertTrue(delaysVaried);
+        } finally {
+            client.disconnect().await();
+        }
+    }
+
+    @Test
+    public void testStandbyConnectionPromotion() throws Exception {
+        final ApnsClient client = new ApnsClientBuilder()
+                .setTrustedServerCertificateChain(CA_CERTIFICATE)
+                .setSigningKey(this.signingKey)
+                .setEventLoopGroup(EVENT_LOOP_GROUP)
+                .setUseStandbyConnection(true)
+                .build();
+
+        try {
+            client.connect(HOST, PORT).await();
+
+            // Wait for the standby connection to open; if it doesn't, the test will time out and fail
+            while (!client.isStandbyConnectionReady()) {
+                Thread.sleep(10);
+            }
+
+            final Channel originalChannel = client.getActiveChannel();
+            originalChannel.close().await();
+
+            // The standby connection should take over as soon as the original connection closes.
+            assertTrue(client.isConnected());
+            assertNotSame(originalChannel, client.getActiveChannel());
+
+            final PushNotificationResponse<SimpleApnsPushNotification> response = client.sendNotification(
+                    new SimpleApnsPushNotification(DEFAULT_DEVICE_TOKEN, DEFAULT_TOPIC, "test-payload")).get();
+
+            assertTrue(response.isAccepted());
+
+            // The client should open a new standby connection to replace the one it promoted.
+            while (!client.isStandbyConnectionReady()) {
+                Thread.sleep(10);
+            }
+        } finally {
+            client.disconnect().await();
+        }
+
+        assertFalse(client.isStandbyConnectionReady());
+    }
+
+    @Test
+    public void testMigrateNotificationsAfterGoAway() throws Exception {
+        final Channel originalChannel = this.tokenAuthenticationClient.getActiveChannel();
+        final ApnsClientHandler originalHandler = originalChannel.pipeline().get(ApnsClientHandler.class);
+
+        // Send a notification and have the "server" refuse its stream in the same event loop task, so the server can't
+        // possibly answer the notification on the original connection first.
+        final Future<PushNotificationResponse<SimpleApnsPushNotification>> responseFuture =
+                originalChannel.eventLoop().submit(new Callable<Future<PushNotificationResponse<SimpleApnsPushNotification>>>() {
+
+                    @Override
+                    public Future<PushNotificationResponse<SimpleApnsPushNotification>> call() {
+                        final int lastStreamId = originalHandler.connection().local().lastStreamCreated();
+
+                        final Future<PushNotificationResponse<SimpleApnsPushNotification>> responseFuture =
+                                ApnsClientTest.this.tokenAuthenticationClient.sendNotification(
+                                        new SimpleApnsPushNotification(DEFAULT_DEVICE_TOKEN, DEFAULT_TOPIC, "test-payload"));
+
+                        originalHandler.connection().goAwayReceived(lastStreamId, 0, Unpooled.EMPTY_BUFFER);
+
+                        return responseFuture;
+                    }
+                }).get();
+
+        assertTrue(responseFuture.get().isAccepted());
+        assertNotSame(originalChannel, this.tokenAuthenticationClient.getActiveChannel());
+
+        // The original connection should close once it has nothing left to do.
+        originalChannel.closeFuture().await();
+    }
+
+    @Test
+    public void testRecycleConnectionAfterMaxStreams() throws Exception {
+        final ApnsClient client = new ApnsClientBuilder()
+                .setTrustedServerCertificateChain(CA_CERTIFICATE)
+                .setSigningKey(this.signingKey)
+                .setEventLoopGroup(EVENT_LOOP_GROUP)
+                .setConnectionRecyclingPolicy(new ConnectionRecyclingPolicy(3, 0, TimeUnit.SECONDS))
+                .build();
+
+        try {
+            client.connect(HOST, PORT).await();
+
+            final Channel originalChannel = client.getActiveChannel();
+
+            // The client should switch to a new connection without any notification noticing.
+            for (int i = 0; i < 10; i++) {
+                final PushNotificationResponse<SimpleApnsPushNotification> response = client.sendNotification(
+                        new SimpleApnsPushNotification(DEFAULT_DEVICE_TOKEN, DEFAULT_TOPIC, "test-payload")).get();
+
+                assertTrue(response.isAccepted());
+            }
+
+            assertNotSame(originalChannel, client.getActiveChannel());
+
+            // The original connection should close once it has nothing left to do; if it doesn't, the test will time
+            // out and fail.
+            originalChannel.closeFuture().await();
+        } finally {
+            client.disconnect().await();
+        }
+    }
+
+    @Test
+    public void testRecycleConnectionAfterMaxAge() throws Exception {
+        final ApnsClient client = new ApnsClientBuilder()
+                .setTrustedServerCertificateChain(CA_CERTIFICATE)
+                .setSigningKey(this.signingKey)
+                .setEventLoopGroup(EVENT_LOOP_GROUP)
+                .setConnectionRecyclingPolicy(new ConnectionRecyclingPolicy(ConnectionRecyclingPolicy.MAX_STREAMS_PER_CONNECTION, 200, TimeUnit.MILLISECONDS))
+                .build();
+
+        try {
+            client.connect(HOST, PORT).await();
+
+            final Channel originalChannel = client.getActiveChannel();
+
+            // The client only closes a recycled connection after it has published the replacement (and while holding
+            // the same lock), so once the original channel has closed, the replacement must already be active. If the
+            // connection is never replaced, the test will time out and fail.
+            originalChannel.closeFuture().await();
+
+            assertTrue(client.isConnected());
+            assertNotSame(originalChannel, client.getActiveChannel());
+
+            final PushNotificationResponse<SimpleApnsPushNotification> response = client.sendNotification(
+                    new SimpleApnsPushNotification(DEFAULT_DEVICE_TOKEN, DEFAULT_TOPIC, "test-payload")).get();
+
+            assertTrue(response.isAccepted());
+        } finally {
+            client.disconnect().await();
+        }
+    }
+
     @Test
     public void testGetReconnectionFutureWhenConnected() throws Exception {
         final Future<Void> reconnectionFuture = this.tokenAuthenticationClient.getReconnectionFuture();
@@ -411,119 +703,756 @@ public class ApnsClientTest {
     }
 
     @Test
-    public void testSendNotificationWithExpiredAuthenticationToken() throws Exception {
-        this.tokenAuthenticationClient.disconnect().await();
-        this.tlsAuthenticationClient.disconnect().await();
-
-        this.server.shutdown().await();
-
-        final MockApnsServer expiredTokenServer = new MockApnsServerBuilder()
-                .setServerCredentials(ApnsClientTest.class.getResourceAsStream(SERVER_CERTIFICATES_FILENAME), ApnsClientTest.class.getResourceAsStream(SERVER_KEY_FILENAME), null)
-                .setEventLoopGroup(EVENT_LOOP_GROUP)
-                .setEmulateExpiredFirstToken(true)
-                .build();
-
-        final TestMetricsListener metricsListener = new TestMetricsListener();
-        this.tokenAuthenticationClient.setMetricsListener(metricsListener);
+    @Parameters({"true", "false"})
+    public void testSendNotificationWithResponseListener(final boolean useTokenAuthentication) throws Exception {
+        final String testToken = ApnsClientTest.generateRandomDeviceToken();
 
-        try {
-            expiredTokenServer.registerVerificationKey(this.verificationKey, DEFAULT_TOPIC);
+        this.server.registerDeviceTokenForTopic(DEFAULT_TOPIC, testToken, null);
 
-            assertTrue(expiredTokenServer.start(PORT).await().isSuccess());
-            assertTrue(this.tokenAuthenticationClient.connect(HOST, PORT).await().isSuccess());
+        final ApnsClient client = useTokenAuthentication ? this.tokenAuthenticationClient : this.tlsAuthenticationClient;
+        final TestResponseListener<SimpleApnsPushNotification> listener = new TestResponseListener<>(2);
 
-            final String testToken = ApnsClientTest.generateRandomDeviceToken();
-            expiredTokenServer.registerDeviceTokenForTopic(DEFAULT_TOPIC, testToken, null);
+        client.sendNotification(new SimpleApnsPushNotification(testToken, DEFAULT_TOPIC, "test-payload"), listener);
+        client.sendNotification(new SimpleApnsPushNotification(ApnsClientTest.generateRandomDeviceToken(), DEFAULT_TOPIC, "test-payload"), listener);
 
-            final SimpleApnsPushNotification pushNotification = new SimpleApnsPushNotification(testToken, DEFAULT_TOPIC, "test-payload");
-            final PushNotificationResponse<SimpleApnsPushNotification> response =
-                    this.tokenAuthenticationClient.sendNotification(pushNotification).get();
+        listener.await();
 
-            assertTrue(response.isAccepted());
+        assertEquals(2, listener.responses.size());
+        assertTrue(listener.failures.isEmpty());
 
-            // Hack: stall until we're confident everything (including listener updates) has made it through the event
-            // loop.
-            this.tokenAuthenticationClient.disconnect().await();
+        int acceptedCount = 0;
 
-            // See https://github.com/relayrides/pushy/issues/448
-            assertEquals(1, metricsListener.getSentNotifications().size());
-            assertEquals(1, metricsListener.getAcceptedNotifications().size());
-            assertTrue(metricsListener.getRejectedNotifications().isEmpty());
-        } finally {
-            expiredTokenServer.shutdown().await();
+        for (final PushNotificationResponse<SimpleApnsPushNotification> response : listener.responses) {
+            if (response.isAccepted()) {
+                acceptedCount++;
+            } else {
+                assertEquals("DeviceTokenNotForTopic", response.getRejectionReason());
+            }
         }
+
+        assertEquals(1, acceptedCount);
     }
 
     @Test
-    @Parameters({"true", "false"})
-    public void testSendManyNotifications(final boolean useTokenAuthentication) throws Exception {
-        final int notificationCount = 1000;
+    public void testSendNotificationWithResponseListenerBeforeConnected() throws Exception {
+        final ApnsClient unconnectedClient = new ApnsClientBuilder()
+                .setSigningKey(this.signingKey)
+                .setTrustedServerCertificateChain(CA_CERTIFICATE)
+                .setEventLoopGroup(EVENT_LOOP_GROUP)
+                .build();
 
-        final List<SimpleApnsPushNotification> pushNotifications = new ArrayList<>();
+        final SimpleApnsPushNotification pushNotification =
+                new SimpleApnsPushNotification(DEFAULT_DEVICE_TOKEN, DEFAULT_TOPIC, "test-payload");
 
-        for (int i = 0; i < notificationCount; i++) {
-            final String token = ApnsClientTest.generateRandomDeviceToken();
-            final String payload = ApnsClientTest.generateRandomPayload();
+        final TestResponseListener<SimpleApnsPushNotification> listener = new TestResponseListener<>(1);
+        unconnectedClient.sendNotification(pushNotification, listener);
 
-            this.server.registerDeviceTokenForTopic(DEFAULT_TOPIC, token, null);
-            pushNotifications.add(new SimpleApnsPushNotification(token, DEFAULT_TOPIC, payload));
-        }
+        listener.await();
 
-        final List<Future<PushNotificationResponse<SimpleApnsPushNotification>>> futures = new ArrayList<>();
+        assertTrue(listener.responses.isEmpty());
+        assertEquals(1, listener.failures.size());
+        assertTrue(listener.failures.get(0) instanceof ClientNotConnectedException);
+    }
 
-        final ApnsClient client = useTokenAuthentication ? this.tokenAuthenticationClient : this.tlsAuthenticationClient;
+    @Test
+    public void testIsWritable() throws Exception {
+        assertTrue(this.tokenAuthenticationClient.isWritable());
+        assertTrue(this.tokenAuthenticationClient.getWritabilityFuture().await().isSuccess());
 
-        for (final SimpleApnsPushNotification pushNotification : pushNotifications) {
-            futures.add(client.sendNotification(pushNotification));
-        }
+        final ApnsClient unconnectedClient = new ApnsClientBuilder()
+                .setSigningKey(this.signingKey)
+                .setTrustedServerCertificateChain(CA_CERTIFICATE)
+                .setEventLoopGroup(EVENT_LOOP_GROUP)
+                .build();
 
-        for (final Future<PushNotificationResponse<SimpleApnsPushNotification>> future : futures) {
-            future.await();
+        assertFalse(unconnectedClient.isWritable());
 
-            assertTrue(future.isSuccess());
-            assertTrue(future.get().isAccepted());
-        }
+        final Future<Void> writabilityFuture = unconnectedClient.getWritabilityFuture().await();
+
+        assertFalse(writabilityFuture.isSuccess());
+        assertTrue(writabilityFuture.cause() instanceof ClientNotConnectedException);
     }
 
     @Test
-    @Parameters({"true", "false"})
-    public void testSendManyNotificationsWithListeners(final boolean useTokenAuthentication) throws Exception {
-        final int notificationCount = 1000;
+    public void testSendNotificationWithCallbackExecutor() throws Exception {
+        final String callbackThreadName = "callback-thread";
 
-        final List<SimpleApnsPushNotification> pushNotifications = new ArrayList<>();
+        final ExecutorService callbackExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                return new Thread(runnable, callbackThreadName);
+            }
+        });
 
-        for (int i = 0; i < notificationCount; i++) {
-            final String token = ApnsClientTest.generateRandomDeviceToken();
-            final String payload = ApnsClientTest.generateRandomPayload();
+        final ApnsClient client = new ApnsClientBuilder()
+                .setTrustedServerCertificateChain(CA_CERTIFICATE)
+                .setSigningKey(this.signingKey)
+                .setEventLoopGroup(EVENT_LOOP_GROUP)
+                .setCallbackExecutor(callbackExecutor)
+                .build();
 
-            this.server.registerDeviceTokenForTopic(DEFAULT_TOPIC, token, null);
-            pushNotifications.add(new SimpleApnsPushNotification(token, DEFAULT_TOPIC, payload));
-        }
+        try {
+            client.connect(HOST, PORT).await();
 
-        final ApnsClient client = useTokenAuthentication ? this.tokenAuthenticationClient : this.tlsAuthenticationClient;
-        final CountDownLatch countDownLatch = new CountDownLatch(notificationCount);
+            final SimpleApnsPushNotification pushNotification =
+                    new SimpleApnsPushNotification(DEFAULT_DEVICE_TOKEN, DEFAULT_TOPIC, "test-payload");
 
-        for (final SimpleApnsPushNotification pushNotification : pushNotifications) {
-            final Future<PushNotificationResponse<SimpleApnsPushNotification>> future =
-                    client.sendNotification(pushNotification);
+            final List<String> listenerThreadNames = Collections.synchronizedList(new ArrayList<String>());
+            final CountDownLatch countDownLatch = new CountDownLatch(2);
 
-            future.addListener(new GenericFutureListener<Future<PushNotificationResponse<SimpleApnsPushNotification>>>() {
+            client.sendNotification(pushNotification).addListener(new GenericFutureListener<Future<PushNotificationResponse<SimpleApnsPushNotification>>>() {
 
                 @Override
-                public void operationComplete(final Future<PushNotificationResponse<SimpleApnsPushNotification>> future) throws Exception {
-                    if (future.isSuccess()) {
-                        final PushNotificationResponse<SimpleApnsPushNotification> pushNotificationResponse = future.get();
-
-                        if (pushNotificationResponse.isAccepted()) {
-                            countDownLatch.countDown();
-                        }
-                    }
+                public void operationComplete(final Future<PushNotificationResponse<SimpleApnsPushNotification>> future) {
+                    listenerThreadNames.add(Thread.currentThread().getName());
+                    countDownLatch.countDown();
                 }
             });
-        }
 
-        countDownLatch.await();
-    }
+            client.sendNotification(pushNotification, new PushNotificationResponseListener<SimpleApnsPushNotification>() {
+
+                @Override
+                public void handleResponse(final PushNotificationResponse<SimpleApnsPushNotification> response) {
+                    listenerThreadNames.add(Thread.currentThread().getName());
+                    countDownLatch.countDown();
+                }
+
+                @Override
+                public void handleFailure(final SimpleApnsPushNotification pushNotification, final Throwable cause) {
+                }
+            });
+
+            countDownLatch.await();
+
+            assertEquals(Arrays.asList(callbackThreadName, callbackThreadName), listenerThreadNames);
+            assertTrue(client.sendNotification(pushNotification).get().isAccepted());
+        } finally {
+            client.disconnect().await();
+            callbackExecutor.shutdown();
+        }
+    }
+
+    @Test
+    public void testDrain() throws Exception {
+        assertEquals(0, this.tokenAuthenticationClient.getPendingNotificationCount());
+        assertTrue(this.tokenAuthenticationClient.drain().isSuccess());
+
+        final int notificationCount = 1000;
+        final AtomicInteger resolvedNotificationCount = new AtomicInteger(0);
+
+        final PushNotificationResponseListener<SimpleApnsPushNotification> listener =
+                new PushNotificationResponseListener<SimpleApnsPushNotification>() {
+
+                    @Override
+                    public void handleResponse(final PushNotificationResponse<SimpleApnsPushNotification> response) {
+                        resolvedNotificationCount.incrementAndGet();
+                    }
+
+                    @Override
+                    public void handleFailure(final SimpleApnsPushNotification pushNotification, final Throwable cause) {
+                        resolvedNotificationCount.incrementAndGet();
+                    }
+                };
+
+        for (int i = 0; i < notificationCount; i++) {
+            this.tokenAuthenticationClient.sendNotification(
+                    new SimpleApnsPushNotification(DEFAULT_DEVICE_TOKEN, DEFAULT_TOPIC, "test-payload"), listener);
+        }
+
+        assertTrue(this.tokenAuthenticationClient.drain().await().isSuccess());
+
+        assertEquals(notificationCount, resolvedNotificationCount.get());
+        assertEquals(0, this.tokenAuthenticationClient.getPendingNotificationCount());
+    }
+
+    @Test
+    public void testSendNotificationFromEventLoop() throws Exception {
+        final SimpleApnsPushNotification pushNotification =
+                new SimpleApnsPushNotification(DEFAULT_DEVICE_TOKEN, DEFAULT_TOPIC, "test-payload");
+
+        final TestResponseListener<SimpleApnsPushNotification> followUpListener = new TestResponseListener<>(1);
+
+        this.tokenAuthenticationClient.sendNotification(pushNotification).addListener(new GenericFutureListener<Future<PushNotificationResponse<SimpleApnsPushNotification>>>() {
+
+            @Override
+            public void operationComplete(final Future<PushNotificationResponse<SimpleApnsPushNotification>> future) {
+                // This listener runs on the connection's event loop, so the follow-up notification should take the
+                // direct write path.
+                ApnsClientTest.this.tokenAuthenticationClient.sendNotification(pushNotification, followUpListener);
+            }
+        });
+
+        followUpListener.await();
+
+        assertEquals(1, followUpListener.responses.size());
+        assertTrue(followUpListener.responses.get(0).isAccepted());
+    }
+
+    @Test
+    public void testImmediateNotificationsSentAheadOfConservePowerNotifications() throws Exception {
+        // The mock server only allows a handful of concurrent streams, so most of these will have to wait in line.
+        final int conservePowerNotificationCount = 200;
+
+        final TestResponseListener<SimpleApnsPushNotification> listener =
+                new TestResponseListener<>(conservePowerNotificationCount + 1);
+
+        for (int i = 0; i < conservePowerNotificationCount; i++) {
+            this.tokenAuthenticationClient.sendNotification(new SimpleApnsPushNotification(DEFAULT_DEVICE_TOKEN,
+                    DEFAULT_TOPIC, "test-payload", null, DeliveryPriority.CONSERVE_POWER), listener);
+        }
+
+        final SimpleApnsPushNotification immediateNotification =
+                new SimpleApnsPushNotification(DEFAULT_DEVICE_TOKEN, DEFAULT_TOPIC, "test-payload", null, DeliveryPriority.IMMEDIATE);
+
+        this.tokenAuthenticationClient.sendNotification(immediateNotification, listener);
+
+        listener.await();
+
+        assertTrue(listener.failures.isEmpty());
+
+        int immediateResponseIndex = -1;
+
+        for (int i = 0; i < listener.responses.size(); i++) {
+            if (listener.responses.get(i).getPushNotification() == immediateNotification) {
+                immediateResponseIndex = i;
+            }
+        }
+
+        assertTrue(immediateResponseIndex >= 0);
+        assertTrue(immediateResponseIndex < conservePowerNotificationCount / 2);
+    }
+
+    @Test
+    public void testSendNotificationsWithOverloadPolicy() throws Exception {
+        // The client gets an event loop of its own, and we send notifications from that event loop so the client can't
+        // read any responses (and free up any streams) until every notification is waiting in line.
+        final NioEventLoopGroup clientEventLoopGroup = new NioEventLoopGroup(1);
+
+        final ApnsClient client = new ApnsClientBuilder()
+                .setTrustedServerCertificateChain(CA_CERTIFICATE)
+                .setSigningKey(this.signingKey)
+                .setEventLoopGroup(clientEventLoopGroup)
+                .setOverloadPolicy(new OverloadPolicy(1, 1, TimeUnit.MINUTES))
+                .build();
+
+        try {
+            client.connect(HOST, PORT).await();
+
+            // The server's settings (including its limit on concurrent streams) always arrive before its first response.
+            client.sendNotification(new SimpleApnsPushNotification(DEFAULT_DEVICE_TOKEN, DEFAULT_TOPIC, "test-payload")).await();
+
+            // The mock server only allows a handful of concurrent streams, so the lanes will overflow and the
+            // conserve-power notifications should be shed to make room for the immediate notification.
+            final int conservePowerNotificationCount = 100;
+
+            final TestResponseListener<SimpleApnsPushNotification> listener =
+                    new TestResponseListener<>(conservePowerNotificationCount + 1);
+
+            final SimpleApnsPushNotification immediateNotification =
+                    new SimpleApnsPushNotification(DEFAULT_DEVICE_TOKEN, DEFAULT_TOPIC, "test-payload", null, DeliveryPriority.IMMEDIATE);
+
+            clientEventLoopGroup.submit(new Runnable() {
+
+                @Override
+                public void run() {
+                    for (int i = 0; i < conservePowerNotificationCount; i++) {
+                        client.sendNotification(new SimpleApnsPushNotification(DEFAULT_DEVICE_TOKEN, DEFAULT_TOPIC,
+                                "test-payload", null, DeliveryPriority.CONSERVE_POWER), listener);
+                    }
+
+                    client.sendNotification(immediateNotification, listener);
+                }
+            }).await();
+
+            listener.await();
+
+            assertFalse(listener.failures.isEmpty());
+
+            for (final Throwable cause : listener.failures) {
+                assertTrue(cause instanceof NotificationShedException);
+            }
+
+            boolean immediateNotificationAccepted = false;
+
+            for (final PushNotificationResponse<SimpleApnsPushNotification> response : listener.responses) {
+                if (response.getPushNotification() == immediateNotification) {
+                    immediateNotificationAccepted = response.isAccepted();
+                }
+            }
+
+            assertTrue(immediateNotificationAccepted);
+        } finally {
+            client.disconnect().await();
+            clientEventLoopGroup.shutdownGracefully().await();
+        }
+    }
+
+    @Test
+    public void testShedSoonestExpiringNotification() throws Exception {
+        // As above, we send notifications from the client's own event loop so none of them can be sent until they've all
+        // had a chance to wait in line.
+        final NioEventLoopGroup clientEventLoopGroup = new NioEventLoopGroup(1);
+
+        final ApnsClient client = new ApnsClientBuilder()
+                .setTrustedServerCertificateChain(CA_CERTIFICATE)
+                .setSigningKey(this.signingKey)
+                .setEventLoopGroup(clientEventLoopGroup)
+                .setOverloadPolicy(new OverloadPolicy(2, 1, TimeUnit.MINUTES))
+                .build();
+
+        try {
+            client.connect(HOST, PORT).await();
+
+            // The server's settings (including its limit on concurrent streams) always arrive before its first response.
+            client.sendNotification(new SimpleApnsPushNotification(DEFAULT_DEVICE_TOKEN, DEFAULT_TOPIC, "test-payload")).await();
+
+            final List<SimpleApnsPushNotification> pushNotifications = new ArrayList<>();
+
+            // The mock server allows eight concurrent streams, so these notifications will take all of the streams
+            // and the rest will have to wait.
+            for (int i = 0; i < 8; i++) {
+                pushNotifications.add(new SimpleApnsPushNotification(DEFAULT_DEVICE_TOKEN, DEFAULT_TOPIC, "test-payload"));
+            }
+
+            final long now = System.currentTimeMillis();
+
+            // The soonest-expiring notification is neither the oldest nor the newest in line.
+            final SimpleApnsPushNotification soonestExpiringNotification = new SimpleApnsPushNotification(DEFAULT_DEVICE_TOKEN,
+                    DEFAULT_TOPIC, "test-payload", new Date(now + TimeUnit.HOURS.toMillis(1)));
+
+            pushNotifications.add(new SimpleApnsPushNotification(DEFAULT_DEVICE_TOKEN, DEFAULT_TOPIC, "test-payload",
+                    new Date(now + TimeUnit.HOURS.toMillis(2))));
+
+            pushNotifications.add(soonestExpiringNotification);
+
+            pushNotifications.add(new SimpleApnsPushNotification(DEFAULT_DEVICE_TOKEN, DEFAULT_TOPIC, "test-payload",
+                    new Date(now + TimeUnit.HOURS.toMillis(3))));
+
+            final List<SimpleApnsPushNotification> shedNotifications =
+                    Collections.synchronizedList(new ArrayList<SimpleApnsPushNotification>());
+
+            final CountDownLatch countDownLatch = new CountDownLatch(pushNotifications.size());
+
+            final PushNotificationResponseListener<SimpleApnsPushNotification> listener =
+                    new PushNotificationResponseListener<SimpleApnsPushNotification>() {
+
+                        @Override
+                        public void handleResponse(final PushNotificationResponse<SimpleApnsPushNotification> response) {
+                            countDownLatch.countDown();
+                        }
+
+                        @Override
+                        public void handleFailure(final SimpleApnsPushNotification pushNotification, final Throwable cause) {
+                            if (cause instanceof NotificationShedException) {
+                                shedNotifications.add(pushNotification);
+                            }
+
+                            countDownLatch.countDown();
+                        }
+                    };
+
+            clientEventLoopGroup.submit(new Runnable() {
+
+                @Override
+                public void run() {
+                    for (final SimpleApnsPushNotification pushNotification : pushNotifications) {
+                        client.sendNotification(pushNotification, listener);
+                    }
+                }
+            }).await();
+
+            countDownLatch.await();
+
+            assertEquals(Collections.singletonList(soonestExpiringNotification), shedNotifications);
+        } finally {
+            client.disconnect().await();
+            clientEventLoopGroup.shutdownGracefully().await();
+        }
+    }
+
+    @Test
+    public void testSendNotificationsWithCoalescing() throws Exception {
+        final ApnsClient client = new ApnsClientBuilder()
+                .setTrustedServerCertificateChain(CA_CERTIFICATE)
+                .setSigningKey(this.signingKey)
+                .setEventLoopGroup(EVENT_LOOP_GROUP)
+                .setCoalesceNotifications(true)
+                .build();
+
+        try {
+            client.connect(HOST, PORT).await();
+
+            // The server's settings (including its concurrent stream limit) may arrive after the connection is ready;
+            // waiting for a first notification to go through makes sure they're in effect before we start queueing.
+            assertTrue(client.sendNotification(new SimpleApnsPushNotification(DEFAULT_DEVICE_TOKEN, DEFAULT_TOPIC,
+                    "test-payload")).get().isAccepted());
+
+            // The mock server only allows a handful of concurrent streams, so most of these will have to wait in line
+            // and should be replaced by later notifications with the same collapse ID.
+            final int notificationCount = 1000;
+            final TestResponseListener<SimpleApnsPushNotification> listener = new TestResponseListener<>(notificationCount);
+
+            SimpleApnsPushNotification pushNotification = null;
+
+            for (int i = 0; i < notificationCount; i++) {
+                pushNotification = new SimpleApnsPushNotification(DEFAULT_DEVICE_TOKEN, DEFAULT_TOPIC,
+                        "{\"score\": " + i + "}", null, DeliveryPriority.IMMEDIATE, "score");
+
+                client.sendNotification(pushNotification, listener);
+            }
+
+            listener.await();
+
+            assertFalse(listener.failures.isEmpty());
+
+            for (final Throwable cause : listener.failures) {
+                assertTrue(cause instanceof NotificationCoalescedException);
+            }
+
+            boolean lastNotificationAccepted = false;
+
+            for (final PushNotificationResponse<SimpleApnsPushNotification> response : listener.responses) {
+                assertTrue(response.isAccepted());
+
+                if (response.getPushNotification() == pushNotification) {
+                    lastNotificationAccepted = true;
+                }
+            }
+
+            assertTrue(lastNotificationAccepted);
+        } finally {
+            client.disconnect().await();
+        }
+    }
+
+    @Test
+    @Parameters({"true", "false"})
+    public void testSendNotificationAndWait(final boolean useTokenAuthentication) throws Exception {
+        final String testToken = ApnsClientTest.generateRandomDeviceToken();
+
+        this.server.registerDeviceTokenForTopic(DEFAULT_TOPIC, testToken, null);
+
+        final ApnsClient client = useTokenAuthentication ? this.tokenAuthenticationClient : this.tlsAuthenticationClient;
+
+        final PushNotificationResponse<SimpleApnsPushNotification> acceptedResponse = client.sendNotificationAndWait(
+                new SimpleApnsPushNotification(testToken, DEFAULT_TOPIC, "test-payload"));
+
+        assertTrue(acceptedResponse.isAccepted());
+
+        final PushNotificationResponse<SimpleApnsPushNotification> rejectedResponse = client.sendNotificationAndWait(
+                new SimpleApnsPushNotification(ApnsClientTest.generateRandomDeviceToken(), DEFAULT_TOPIC, "test-payload"),
+                10, TimeUnit.SECONDS);
+
+        assertFalse(rejectedResponse.isAccepted());
+        assertEquals("DeviceTokenNotForTopic", rejectedResponse.getRejectionReason());
+    }
+
+    @Test
+    public void testSendNotificationAndWaitBeforeConnected() throws Exception {
+        final ApnsClient unconnectedClient = new ApnsClientBuilder()
+                .setSigningKey(this.signingKey)
+                .setTrustedServerCertificateChain(CA_CERTIFICATE)
+                .setEventLoopGroup(EVENT_LOOP_GROUP)
+                .build();
+
+        try {
+            unconnectedClient.sendNotificationAndWait(
+                    new SimpleApnsPushNotification(DEFAULT_DEVICE_TOKEN, DEFAULT_TOPIC, "test-payload"));
+
+            fail("Sending a notification from an unconnected client should fail.");
+        } catch (final ExecutionException e) {
+            assertTrue(e.getCause() instanceof ClientNotConnectedException);
+        }
+    }
+
+    @Test
+    public void testSendNotificationWithExpiredAuthenticationToken() throws Exception {
+        this.tokenAuthenticationClient.disconnect().await();
+        this.tlsAuthenticationClient.disconnect().await();
+
+        this.server.shutdown().await();
+
+        final MockApnsServer expiredTokenServer = new MockApnsServerBuilder()
+                .setServerCredentials(ApnsClientTest.class.getResourceAsStream(SERVER_CERTIFICATES_FILENAME), ApnsClientTest.class.getResourceAsStream(SERVER_KEY_FILENAME), null)
+                .setEventLoopGroup(EVENT_LOOP_GROUP)
+                .setEmulateExpiredFirstToken(true)
+                .build();
+
+        final TestMetricsListener metricsListener = new TestMetricsListener();
+        this.tokenAuthenticationClient.setMetricsListener(metricsListener);
+
+        try {
+            expiredTokenServer.registerVerificationKey(this.verificationKey, DEFAULT_TOPIC);
+
+            assertTrue(expiredTokenServer.start(PORT).await().isSuccess());
+            assertTrue(this.tokenAuthenticationClient.connect(HOST, PORT).await().isSuccess());
+
+            final String testToken = ApnsClientTest.generateRandomDeviceToken();
+            expiredTokenServer.registerDeviceTokenForTopic(DEFAULT_TOPIC, testToken, null);
+
+            final SimpleApnsPushNotification pushNotification = new SimpleApnsPushNotification(testToken, DEFAULT_TOPIC, "test-payload");
+            final PushNotificationResponse<SimpleApnsPushNotification> response =
+                    this.tokenAuthenticationClient.sendNotification(pushNotification).get();
+
+            assertTrue(response.isAccepted());
+
+            // Hack: stall until we're confident everything (including listener updates) has made it through the event
+            // loop.
+            this.tokenAuthenticationClient.disconnect().await();
+
+            // See https://github.com/relayrides/pushy/issues/448
+            assertEquals(1, metricsListener.getSentNotifications().size());
+            assertEquals(1, metricsListener.getAcceptedNotifications().size());
+            assertTrue(metricsListener.getRejectedNotifications().isEmpty());
+        } finally {
+            expiredTokenServer.shutdown().await();
+        }
+    }
+
+    @Test
+    @Parameters({"true", "false"})
+    public void testSendManyNotifications(final boolean useTokenAuthentication) throws Exception {
+        final int notificationCount = 1000;
+
+        final List<SimpleApnsPushNotification> pushNotifications = new ArrayList<>();
+
+        for (int i = 0; i < notificationCount; i++) {
+            final String token = ApnsClientTest.generateRandomDeviceToken();
+            final String payload = ApnsClientTest.generateRandomPayload();
+
+            this.server.registerDeviceTokenForTopic(DEFAULT_TOPIC, token, null);
+            pushNotifications.add(new SimpleApnsPushNotification(token, DEFAULT_TOPIC, payload));
+        }
+
+        final List<Future<PushNotificationResponse<SimpleApnsPushNotification>>> futures = new ArrayList<>();
+
+        final ApnsClient client = useTokenAuthentication ? this.tokenAuthenticationClient : this.tlsAuthenticationClient;
+
+        for (final SimpleApnsPushNotification pushNotification : pushNotifications) {
+            futures.add(client.sendNotification(pushNotification));
+        }
+
+        for (final Future<PushNotificationResponse<SimpleApnsPushNotification>> future : futures) {
+            future.await();
+
+            assertTrue(future.isSuccess());
+            assertTrue(future.get().isAccepted());
+        }
+    }
+
+    @Test
+    @Parameters({"true", "false"})
+    public void testSendManyNotificationsWithListeners(final boolean useTokenAuthentication) throws Exception {
+        final int notificationCount = 1000;
+
+        final List<SimpleApnsPushNotification> pushNotifications = new ArrayList<>();
+
+        for (int i = 0; i < notificationCount; i++) {
+            final String token = ApnsClientTest.generateRandomDeviceToken();
+            final String payload = ApnsClientTest.generateRandomPayload();
+
+            this.server.registerDeviceTokenForTopic(DEFAULT_TOPIC, token, null);
+            pushNotifications.add(new SimpleApnsPushNotification(token, DEFAULT_TOPIC, payload));
+        }
+
+        final ApnsClient client = useTokenAuthentication ? this.tokenAuthenticationClient : this.tlsAuthenticationClient;
+        final CountDownLatch countDownLatch = new CountDownLatch(notificationCount);
+
+        for (final SimpleApnsPushNotification pushNotification : pushNotifications) {
+            final Future<PushNotificationResponse<SimpleApnsPushNotification>> future =
+                    client.sendNotification(pushNotification);
+
+            future.addListener(new GenericFutureListener<Future<PushNotificationResponse<SimpleApnsPushNotification>>>() {
+
+                @Override
+                public void operationComplete(final Future<PushNotificationResponse<SimpleApnsPushNotification>> future) throws Exception {
+                    if (future.isSuccess()) {
+                        final PushNotificationResponse<SimpleApnsPushNotification> pushNotificationResponse = future.get();
+
+                        if (pushNotificationResponse.isAccepted()) {
+                            countDownLatch.countDown();
+                        }
+                    }
+                }
+            });
+        }
+
+        countDownLatch.await();
+    }
+
+    @Test
+    public void testSendNotificationsThroughShardedDispatcherInOrder() throws Exception {
+        final List<ApnsClient> clients = new ArrayList<>();
+        final Map<ApnsClient, List<Long>> sentNotificationIds = new HashMap<>();
+
+        for (int i = 0; i < 4; i++) {
+            final ApnsClient client = new ApnsClientBuilder()
+                    .setSigningKey(this.signingKey)
+                    .setTrustedServerCertificateChain(CA_CERTIFICATE)
+                    .setEventLoopGroup(EVENT_LOOP_GROUP)
+                    .build();
+
+            final List<Long> notificationIds = Collections.synchronizedList(new ArrayList<Long>());
+
+            client.setMetricsListener(new ApnsClientMetricsListenerAdapter() {
+                @Override
+                public void handleNotificationSent(final ApnsClient apnsClient, final long notificationId) {
+                    notificationIds.add(notificationId);
+                }
+            });
+
+            clients.add(client);
+            sentNotificationIds.put(client, notificationIds);
+        }
+
+        final ShardedApnsDispatcher dispatcher = new ShardedApnsDispatcher(clients);
+
+        try {
+            for (final ApnsClient client : clients) {
+                client.connect(HOST, PORT).await();
+            }
+
+            final int notificationCount = 1000;
+            final List<Future<PushNotificationResponse<SimpleApnsPushNotification>>> futures = new ArrayList<>(notificationCount);
+
+            for (int i = 0; i < notificationCount; i++) {
+                futures.add(dispatcher.sendNotification(
+                        new SimpleApnsPushNotification(DEFAULT_DEVICE_TOKEN, DEFAULT_TOPIC, "{\"sequence\": " + i + "}")));
+            }
+
+            for (final Future<PushNotificationResponse<SimpleApnsPushNotification>> future : futures) {
+                assertTrue(future.get().isAccepted());
+            }
+
+            final ApnsClient laneClient = dispatcher.getClient(DEFAULT_DEVICE_TOKEN);
+
+            for (final ApnsClient client : clients) {
+                if (client != laneClient) {
+                    assertTrue(sentNotificationIds.get(client).isEmpty());
+                }
+            }
+
+            // Clients number notifications in the order in which they're sent, so notifications for the device should
+            // have been written in ascending order.
+            final List<Long> laneNotificationIds = sentNotificationIds.get(laneClient);
+            assertEquals(notificationCount, laneNotificationIds.size());
+
+            for (int i = 1; i < laneNotificationIds.size(); i++) {
+                assertTrue(laneNotificationIds.get(i) > laneNotificationIds.get(i - 1));
+            }
+        } finally {
+            for (final ApnsClient client : clients) {
+                client.disconnect().await();
+            }
+        }
+    }
+
+    @Test
+    @Parameters({"true", "false"})
+    public void testSendNotificationsInBulk(final boolean useTokenAuthentication) throws Exception {
+        final int acceptedNotificationCount = 1500;
+        final int rejectedNotificationCount = 500;
+
+        final List<SimpleApnsPushNotification> pushNotifications = new ArrayList<>();
+
+        for (int i = 0; i < acceptedNotificationCount + rejectedNotificationCount; i++) {
+            final String token = ApnsClientTest.generateRandomDeviceToken();
+
+            if (i < acceptedNotificationCount) {
+                this.server.registerDeviceTokenForTopic(DEFAULT_TOPIC, token, null);
+            }
+
+            pushNotifications.add(new SimpleApnsPushNotification(token, DEFAULT_TOPIC, ApnsClientTest.generateRandomPayload()));
+        }
+
+        final ApnsClient client = useTokenAuthentication ? this.tokenAuthenticationClient : this.tlsAuthenticationClient;
+        final AtomicInteger rejectionCount = new AtomicInteger(0);
+
+        final BulkSendResult result = client.sendNotifications(pushNotifications, new PushNotificationRejectionListener<SimpleApnsPushNotification>() {
+
+            @Override
+            public void handleRejectedNotification(final PushNotificationResponse<SimpleApnsPushNotification> response) {
+                rejectionCount.incrementAndGet();
+            }
+        }).get();
+
+        assertEquals(acceptedNotificationCount, result.getAcceptedCount());
+        assertEquals(rejectedNotificationCount, result.getRejectedCount());
+        assertEquals(Collections.singletonMap("DeviceTokenNotForTopic", (long) rejectedNotificationCount), result.getRejectionCountsByReason());
+        assertEquals(0, result.getFailedCount());
+        assertEquals(rejectedNotificationCount, rejectionCount.get());
+    }
+
+    @Test
+    public void testSendNotificationsInBulkWithinStreamLimit() throws Exception {
+        // The mock server allows eight concurrent streams per connection
+        final int maxConcurrentStreams = 8;
+
+        final List<SimpleApnsPushNotification> pushNotifications = new ArrayList<>();
+
+        for (int i = 0; i < 200; i++) {
+            final String token = ApnsClientTest.generateRandomDeviceToken();
+            this.server.registerDeviceTokenForTopic(DEFAULT_TOPIC, token, null);
+
+            pushNotifications.add(new SimpleApnsPushNotification(token, DEFAULT_TOPIC, ApnsClientTest.generateRandomPayload()));
+        }
+
+        final ApnsClient client = this.tokenAuthenticationClient;
+        final Iterator<SimpleApnsPushNotification> wrappedIterator = pushNotifications.iterator();
+        final AtomicLong maxPendingNotifications = new AtomicLong(0);
+
+        final Iterator<SimpleApnsPushNotification> iterator = new Iterator<SimpleApnsPushNotification>() {
+
+            @Override
+            public boolean hasNext() {
+                return wrappedIterator.hasNext();
+            }
+
+            @Override
+            public SimpleApnsPushNotification next() {
+                // A notification whose listener is pulling this one is still counted as pending until its listener
+                // returns, so this is at most the number of streams the bulk operation is allowed to use.
+                final long pendingNotifications = client.getPendingNotificationCount();
+
+                synchronized (maxPendingNotifications) {
+                    maxPendingNotifications.set(Math.max(maxPendingNotifications.get(), pendingNotifications));
+                }
+
+                return wrappedIterator.next();
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+
+        final BulkSendResult result = client.sendNotifications(iterator).get();
+
+        assertEquals(pushNotifications.size(), result.getAcceptedCount());
+        assertTrue(maxPendingNotifications.get() <= maxConcurrentStreams);
+    }
+
+    @Test
+    public void testSendNotificationsInBulkBeforeConnected() throws Exception {
+        final ApnsClient unconnectedClient = new ApnsClientBuilder()
+                .setSigningKey(this.signingKey)
+                .setTrustedServerCertificateChain(CA_CERTIFICATE)
+                .setEventLoopGroup(EVENT_LOOP_GROUP)
+                .build();
+
+        final List<SimpleApnsPushNotification> pushNotifications = new ArrayList<>();
+
+        for (int i = 0; i < 10; i++) {
+            pushNotifications.add(new SimpleApnsPushNotification(DEFAULT_DEVICE_TOKEN, DEFAULT_TOPIC, "test-payload"));
+        }
+
+        final BulkSendResult result = unconnectedClient.sendNotifications(pushNotifications).get();
+
+        assertEquals(0, result.getAcceptedCount());
+        assertEquals(0, result.getRejectedCount());
+        assertEquals(pushNotifications.size(), result.getFailedCount());
+    }
 
     // See https://github.com/relayrides/pushy/issues/256
     @Test
@@ -569,6 +1498,170 @@ public class ApnsClientTest {
         assertEquals(now, response.getTokenInvalidationTimestamp());
     }
 
+    @Test
+    public void testSendExpiredNotification() throws Exception {
+        final Date expiration = new Date(System.currentTimeMillis() - 60_000);
+
+        final SimpleApnsPushNotification pushNotification =
+                new SimpleApnsPushNotification(DEFAULT_DEVICE_TOKEN, DEFAULT_TOPIC, "test-payload", expiration);
+
+        final Future<PushNotificationResponse<SimpleApnsPushNotification>> sendFuture =
+                this.tokenAuthenticationClient.sendNotification(pushNotification).await();
+
+        assertFalse(sendFuture.isSuccess());
+        assertTrue(sendFuture.cause() instanceof NotificationExpiredException);
+        assertEquals(expiration, ((NotificationExpiredException) sendFuture.cause()).getExpiration());
+    }
+
+    @Test
+    public void testRetryNotificationWithInternalServerError() throws Exception {
+        // Shut down the "normal" server to free the port
+        this.tearDown();
+
+        final MockApnsServer terribleTerribleServer = new MockApnsServerBuilder()
+                .setServerCredentials(ApnsClientTest.class.getResourceAsStream(SERVER_CERTIFICATES_FILENAME), ApnsClientTest.class.getResourceAsStream(SERVER_KEY_FILENAME), null)
+                .setEventLoopGroup(EVENT_LOOP_GROUP)
+                .setEmulateInternalErrors(true)
+                .build();
+
+        try {
+            terribleTerribleServer.registerVerificationKey(this.verificationKey, DEFAULT_TOPIC);
+
+            final int maxRetries = 3;
+
+            final ApnsClient persistentClient = new ApnsClientBuilder()
+                    .setSigningKey(this.signingKey)
+                    .setTrustedServerCertificateChain(CA_CERTIFICATE)
+                    .setEventLoopGroup(EVENT_LOOP_GROUP)
+                    .setRetryPolicy(new RetryPolicy(maxRetries, 1, 10, TimeUnit.MILLISECONDS))
+                    .build();
+
+            final TestMetricsListener metricsListener = new TestMetricsListener();
+            persistentClient.setMetricsListener(metricsListener);
+
+            try {
+                terribleTerribleServer.start(PORT).await();
+                persistentClient.connect(HOST, PORT).await();
+
+                final SimpleApnsPushNotification pushNotification =
+                        new SimpleApnsPushNotification(ApnsClientTest.generateRandomDeviceToken(), DEFAULT_TOPIC, "test-payload");
+
+                final Future<PushNotificationResponse<SimpleApnsPushNotification>> future =
+                        persistentClient.sendNotification(pushNotification).await();
+
+                // The server will never succeed, so the notification should fail once the retries run out.
+                assertFalse(future.isSuccess());
+                assertTrue(future.cause() instanceof ApnsServerException);
+                assertEquals(maxRetries, metricsListener.getRetriedNotifications().size());
+            } finally {
+                persistentClient.disconnect().await();
+                Thread.sleep(10);
+            }
+        } finally {
+            terribleTerribleServer.shutdown().await();
+        }
+    }
+
+    @Test
+    public void testRetryNotificationWithOpenCircuitBreaker() throws Exception {
+        // Shut down the "normal" server to free the port
+        this.tearDown();
+
+        final MockApnsServer terribleTerribleServer = new MockApnsServerBuilder()
+                .setServerCredentials(ApnsClientTest.class.getResourceAsStream(SERVER_CERTIFICATES_FILENAME), ApnsClientTest.class.getResourceAsStream(SERVER_KEY_FILENAME), null)
+                .setEventLoopGroup(EVENT_LOOP_GROUP)
+                .setEmulateInternalErrors(true)
+                .build();
+
+        try {
+            terribleTerribleServer.registerVerificationKey(this.verificationKey, DEFAULT_TOPIC);
+
+            final ApnsClient persistentClient = new ApnsClientBuilder()
+                    .setSigningKey(this.signingKey)
+                    .setTrustedServerCertificateChain(CA_CERTIFICATE)
+                    .setEventLoopGroup(EVENT_LOOP_GROUP)
+                    .setRetryPolicy(new RetryPolicy(10, 1, 10, TimeUnit.MILLISECONDS))
+                    .setCircuitBreakerPolicy(new CircuitBreakerPolicy(0.5, 2, 1, 1, TimeUnit.MINUTES))
+                    .build();
+
+            final TestMetricsListener metricsListener = new TestMetricsListener();
+            persistentClient.setMetricsListener(metricsListener);
+
+            try {
+                terribleTerribleServer.start(PORT).await();
+                persistentClient.connect(HOST, PORT).await();
+
+                final SimpleApnsPushNotification pushNotification =
+                        new SimpleApnsPushNotification(ApnsClientTest.generateRandomDeviceToken(), DEFAULT_TOPIC, "test-payload");
+
+                final Future<PushNotificationResponse<SimpleApnsPushNotification>> future =
+                        persistentClient.sendNotification(pushNotification).await();
+
+                // The first attempt and the first retry both fail, which opens the circuit before the second retry.
+                assertTrue(future.cause() instanceof CircuitBreakerOpenException);
+                assertEquals(2, metricsListener.getRetriedNotifications().size());
+            } finally {
+                persistentClient.disconnect().await();
+                Thread.sleep(10);
+            }
+        } finally {
+            terribleTerribleServer.shutdown().await();
+        }
+    }
+
+    @Test
+    public void testCircuitBreakerOpensAfterInternalServerErrors() throws Exception {
+        // Shut down the "normal" server to free the port
+        this.tearDown();
+
+        final MockApnsServer terribleTerribleServer = new MockApnsServerBuilder()
+                .setServerCredentials(ApnsClientTest.class.getResourceAsStream(SERVER_CERTIFICATES_FILENAME), ApnsClientTest.class.getResourceAsStream(SERVER_KEY_FILENAME), null)
+                .setEventLoopGroup(EVENT_LOOP_GROUP)
+                .setEmulateInternalErrors(true)
+                .build();
+
+        try {
+            terribleTerribleServer.registerVerificationKey(this.verificationKey, DEFAULT_TOPIC);
+
+            final ApnsClient protectedClient = new ApnsClientBuilder()
+                    .setSigningKey(this.signingKey)
+                    .setTrustedServerCertificateChain(CA_CERTIFICATE)
+                    .setEventLoopGroup(EVENT_LOOP_GROUP)
+                    .setCircuitBreakerPolicy(new CircuitBreakerPolicy(0.5, 2, 1, 1, TimeUnit.MINUTES))
+                    .build();
+
+            final TestMetricsListener metricsListener = new TestMetricsListener();
+            protectedClient.setMetricsListener(metricsListener);
+
+            try {
+                terribleTerribleServer.start(PORT).await();
+                protectedClient.connect(HOST, PORT).await();
+
+                final SimpleApnsPushNotification pushNotification =
+                        new SimpleApnsPushNotification(ApnsClientTest.generateRandomDeviceToken(), DEFAULT_TOPIC, "test-payload");
+
+                for (int i = 0; i < 2; i++) {
+                    final Future<PushNotificationResponse<SimpleApnsPushNotification>> future =
+                            protectedClient.sendNotification(pushNotification).await();
+
+                    assertTrue(future.cause() instanceof ApnsServerException);
+                }
+
+                assertEquals(Collections.singletonList(CircuitBreakerState.OPEN), metricsListener.getCircuitBreakerStates());
+
+                final Future<PushNotificationResponse<SimpleApnsPushNotification>> future =
+                        protectedClient.sendNotification(pushNotification).await();
+
+                assertTrue(future.cause() instanceof CircuitBreakerOpenException);
+            } finally {
+                protectedClient.disconnect().await();
+                Thread.sleep(10);
+            }
+        } finally {
+            terribleTerribleServer.shutdown().await();
+        }
+    }
+
     @Test
     public void testSendNotificationWithInternalServerError() throws Exception {
         // Shut down the "normal" server to free the port
@@ -611,6 +1704,148 @@ public class ApnsClientTest {
         }
     }
 
+    @Test
+    @Parameters(method = "getInvalidNotifications")
+    public void testSendInvalidNotificationWithValidation(final SimpleApnsPushNotification pushNotification, final String expectedRejectionReason) throws Exception {
+        final ApnsClient validatingClient = new ApnsClientBuilder()
+                .setSigningKey(this.signingKey)
+                .setTrustedServerCertificateChain(CA_CERTIFICATE)
+                .setEventLoopGroup(EVENT_LOOP_GROUP)
+                .setValidateNotifications(true)
+                .build();
+
+        final TestMetricsListener metricsListener = new TestMetricsListener();
+        validatingClient.setMetricsListener(metricsListener);
+
+        try {
+            validatingClient.connect(HOST, PORT).await();
+
+            final PushNotificationResponse<SimpleApnsPushNotification> response =
+                    validatingClient.sendNotification(pushNotification).get();
+
+            metricsListener.waitForNonZeroRejectedNotifications();
+
+            assertFalse(response.isAccepted());
+            assertEquals(expectedRejectionReason, response.getRejectionReason());
+            assertTrue(metricsListener.getSentNotifications().isEmpty());
+        } finally {
+            validatingClient.disconnect().await();
+        }
+    }
+
+    @SuppressWarnings("unused")
+    private Object[] getInvalidNotifications() {
+        final char[] oversizedPayload = new char[ApnsPayloadBuilder.DEFAULT_MAXIMUM_PAYLOAD_SIZE + 1];
+        Arrays.fill(oversizedPayload, 'x');
+
+        return new Object[] {
+                new Object[] { new SimpleApnsPushNotification("not-a-token", DEFAULT_TOPIC, "test-payload"), "BadDeviceToken" },
+                new Object[] { new SimpleApnsPushNotification(DEFAULT_DEVICE_TOKEN, DEFAULT_TOPIC, ""), "PayloadEmpty" },
+                new Object[] { new SimpleApnsPushNotification(DEFAULT_DEVICE_TOKEN, DEFAULT_TOPIC, new String(oversizedPayload)), "PayloadTooLarge" },
+        };
+    }
+
+    @Test
+    public void testSendNotificationWithDeviceTokenRateLimit() throws Exception {
+        final ApnsClient rateLimitedClient = new ApnsClientBuilder()
+                .setSigningKey(this.signingKey)
+                .setTrustedServerCertificateChain(CA_CERTIFICATE)
+                .setEventLoopGroup(EVENT_LOOP_GROUP)
+                .setDeviceTokenRateLimit(1, 1, TimeUnit.MINUTES)
+                .build();
+
+        final TestMetricsListener metricsListener = new TestMetricsListener();
+        rateLimitedClient.setMetricsListener(metricsListener);
+
+        try {
+            rateLimitedClient.connect(HOST, PORT).await();
+
+            final SimpleApnsPushNotification pushNotification =
+                    new SimpleApnsPushNotification(DEFAULT_DEVICE_TOKEN, DEFAULT_TOPIC, "test-payload");
+
+            assertTrue(rateLimitedClient.sendNotification(pushNotification).get().isAccepted());
+
+            final PushNotificationResponse<SimpleApnsPushNotification> response =
+                    rateLimitedClient.sendNotification(pushNotification).get();
+
+            metricsListener.waitForNonZeroRejectedNotifications();
+
+            assertFalse(response.isAccepted());
+            assertEquals("TooManyRequests", response.getRejectionReason());
+            assertEquals(1, metricsListener.getSentNotifications().size());
+        } finally {
+            rateLimitedClient.disconnect().await();
+        }
+    }
+
+    @Test
+    public void testSendNotificationWithReplayBuffer() throws Exception {
+        final ApnsClient replayingClient = new ApnsClientBuilder()
+                .setSigningKey(this.signingKey)
+                .setTrustedServerCertificateChain(CA_CERTIFICATE)
+                .setEventLoopGroup(EVENT_LOOP_GROUP)
+                .setReplayBufferSize(16)
+                .build();
+
+        try {
+            replayingClient.connect(HOST, PORT).await();
+
+            final SimpleApnsPushNotification pushNotification =
+                    new SimpleApnsPushNotification(DEFAULT_DEVICE_TOKEN, DEFAULT_TOPIC, "test-payload");
+
+            // The mock server rejects notifications with malformed APNs IDs, so this also checks the client-generated ID
+            final PushNotificationResponse<SimpleApnsPushNotification> response =
+                    replayingClient.sendNotification(pushNotification).get();
+
+            assertTrue(response.isAccepted());
+        } finally {
+            replayingClient.disconnect().await();
+        }
+    }
+
+    @Test
+    public void testSendNotificationWithMemoryBudget() throws Exception {
+        final SimpleApnsPushNotification pushNotification =
+                new SimpleApnsPushNotification(DEFAULT_DEVICE_TOKEN, DEFAULT_TOPIC, "test-payload");
+
+        final long footprintBytes = ApnsClient.estimateFootprintBytes(pushNotification);
+
+        final ApnsClient budgetedClient = new ApnsClientBuilder()
+                .setSigningKey(this.signingKey)
+                .setTrustedServerCertificateChain(CA_CERTIFICATE)
+                .setEventLoopGroup(EVENT_LOOP_GROUP)
+                .setMaxPendingNotificationBytes(footprintBytes * 10)
+                .build();
+
+        final ApnsClient stingyClient = new ApnsClientBuilder()
+                .setSigningKey(this.signingKey)
+                .setTrustedServerCertificateChain(CA_CERTIFICATE)
+                .setEventLoopGroup(EVENT_LOOP_GROUP)
+                .setMaxPendingNotificationBytes(footprintBytes - 1)
+                .build();
+
+        try {
+            budgetedClient.connect(HOST, PORT).await();
+            stingyClient.connect(HOST, PORT).await();
+
+            assertTrue(budgetedClient.sendNotification(pushNotification).get().isAccepted());
+
+            budgetedClient.drain().await();
+            assertEquals(0, budgetedClient.getPendingNotificationBytes());
+
+            final Future<PushNotificationResponse<SimpleApnsPushNotification>> future =
+                    stingyClient.sendNotification(pushNotification).await();
+
+            assertTrue(future.cause() instanceof NotificationBudgetExceededException);
+
+            stingyClient.drain().await();
+            assertEquals(0, stingyClient.getPendingNotificationBytes());
+        } finally {
+            budgetedClient.disconnect().await();
+            stingyClient.disconnect().await();
+        }
+    }
+
     @Test
     public void testWriteFailureMetrics() throws Exception {
         final ApnsClient unconnectedClient = new ApnsClientBuilder()
@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2013-2017 Turo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.turo.pushy.apns;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class CallbackEventExecutorTest {
+
+    private static class ManualExecutor implements Executor {
+
+        private final List<Runnable> tasks = new ArrayList<>();
+
+        @Override
+        public void execute(final Runnable task) {
+            this.tasks.add(task);
+        }
+
+        public void runAll() {
+            while (!this.tasks.isEmpty()) {
+                this.tasks.remove(0).run();
+            }
+        }
+    }
+
+    @Test
+    public void testExecuteInBatches() {
+        final ManualExecutor underlyingExecutor = new ManualExecutor();
+        final CallbackEventExecutor callbackExecutor = new CallbackEventExecutor(underlyingExecutor);
+
+        final List<Integer> results = new ArrayList<>();
+
+        for (int i = 0; i < 100; i++) {
+            final int value = i;
+
+            callbackExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    results.add(value);
+                }
+            });
+        }
+
+        assertEquals(1, underlyingExecutor.tasks.size());
+
+        underlyingExecutor.runAll();
+
+        assertEquals(100, results.size());
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, (int) results.get(i));
+        }
+    }
+
+    @Test
+    public void testExecuteAfterException() {
+        final ManualExecutor underlyingExecutor = new ManualExecutor();
+        final CallbackEventExecutor callbackExecutor = new CallbackEventExecutor(underlyingExecutor);
+
+        final AtomicInteger counter = new AtomicInteger(0);
+
+        callbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                throw new RuntimeException("Expected exception");
+            }
+        });
+
+        callbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                counter.incrementAndGet();
+            }
+        });
+
+        underlyingExecutor.runAll();
+
+        assertEquals(1, counter.get());
+    }
+
+    @Test
+    public void testExecuteAfterRejection() {
+        final CallbackEventExecutor callbackExecutor = new CallbackEventExecutor(new Executor() {
+            @Override
+            public void execute(final Runnable command) {
+                throw new RejectedExecutionException();
+            }
+        });
+
+        final AtomicBoolean inEventLoop = new AtomicBoolean(false);
+        final AtomicInteger counter = new AtomicInteger(0);
+
+        for (int i = 0; i < 2; i++) {
+            callbackExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    inEventLoop.set(callbackExecutor.inEventLoop());
+                    counter.incrementAndGet();
+                }
+            });
+        }
+
+        assertEquals(2, counter.get());
+        assertTrue(inEventLoop.get());
+        assertFalse(callbackExecutor.inEventLoop());
+    }
+
+    @Test
+    public void testInEventLoop() throws Exception {
+        final CallbackEventExecutor callbackExecutor = new CallbackEventExecutor(new Executor() {
+            @Override
+            public void execute(final Runnable command) {
+                new Thread(command).start();
+            }
+        });
+
+        assertFalse(callbackExecutor.inEventLoop());
+
+        final AtomicBoolean inEventLoop = new AtomicBoolean(false);
+        final CountDownLatch latch = new CountDownLatch(1);
+
+        callbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                inEventLoop.set(callbackExecutor.inEventLoop());
+                latch.countDown();
+            }
+        });
+
+        latch.await();
+
+        assertTrue(inEventLoop.get());
+    }
+}
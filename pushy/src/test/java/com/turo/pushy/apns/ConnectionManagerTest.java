@@ -0,0 +1,255 @@
+/*
+ * Copyright (c) 2013-2017 Turo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.turo.pushy.apns;
+
+import com.turo.pushy.apns.ConnectionManager.ConnectionState;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.concurrent.GenericFutureListener;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class ConnectionManagerTest {
+
+    private ConnectionManager connectionManager;
+
+    @Before
+    public void setUp() {
+        this.connectionManager = new ConnectionManager();
+    }
+
+    @Test
+    public void testSetActiveConnection() {
+        final ChannelPromise activeConnectionPromise = newReadyConnectionPromise();
+
+        assertNull(this.connectionManager.getActiveConnection());
+
+        this.connectionManager.setActiveConnection(activeConnectionPromise);
+
+        assertSame(activeConnectionPromise, this.connectionManager.getActiveConnection());
+        assertEquals(ConnectionState.ACTIVE, this.connectionManager.getState(activeConnectionPromise));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testSetActiveConnectionWhileActive() {
+        this.connectionManager.setActiveConnection(newReadyConnectionPromise());
+        this.connectionManager.setActiveConnection(newReadyConnectionPromise());
+    }
+
+    @Test
+    public void testSetStandbyConnection() {
+        final ChannelPromise standbyConnectionPromise = new EmbeddedChannel().newPromise();
+
+        this.connectionManager.setStandbyConnection(standbyConnectionPromise);
+
+        assertSame(standbyConnectionPromise, this.connectionManager.getStandbyConnection());
+        assertEquals(ConnectionState.STANDBY, this.connectionManager.getState(standbyConnectionPromise));
+        assertFalse(this.connectionManager.isStandbyConnectionReady());
+
+        standbyConnectionPromise.setSuccess();
+
+        assertTrue(this.connectionManager.isStandbyConnectionReady());
+    }
+
+    @Test
+    public void testPromoteStandbyConnection() {
+        final ChannelPromise activeConnectionPromise = newReadyConnectionPromise();
+        final ChannelPromise standbyConnectionPromise = newReadyConnectionPromise();
+
+        this.connectionManager.setActiveConnection(activeConnectionPromise);
+        this.connectionManager.setStandbyConnection(standbyConnectionPromise);
+
+        // Whoever sees the former active connection close must already see its replacement.
+        final AtomicReference<ChannelPromise> activeConnectionAtClosure = new AtomicReference<>();
+
+        activeConnectionPromise.channel().closeFuture().addListener(new GenericFutureListener<ChannelFuture>() {
+
+            @Override
+            public void operationComplete(final ChannelFuture future) {
+                activeConnectionAtClosure.set(ConnectionManagerTest.this.connectionManager.getActiveConnection());
+            }
+        });
+
+        assertSame(standbyConnectionPromise, this.connectionManager.promoteStandbyConnection());
+
+        assertSame(standbyConnectionPromise, this.connectionManager.getActiveConnection());
+        assertNull(this.connectionManager.getStandbyConnection());
+        assertEquals(ConnectionState.ACTIVE, this.connectionManager.getState(standbyConnectionPromise));
+        assertEquals(ConnectionState.RETIRING, this.connectionManager.getState(activeConnectionPromise));
+
+        // The retired connection closes only once its event loop gets around to it.
+        assertTrue(activeConnectionPromise.channel().isOpen());
+
+        ((EmbeddedChannel) activeConnectionPromise.channel()).runPendingTasks();
+
+        assertFalse(activeConnectionPromise.channel().isOpen());
+        assertSame(standbyConnectionPromise, activeConnectionAtClosure.get());
+
+        assertEquals(ConnectionState.RETIRING, this.connectionManager.handleConnectionClosed(activeConnectionPromise));
+        assertEquals(ConnectionState.NONE, this.connectionManager.getState(activeConnectionPromise));
+        assertSame(standbyConnectionPromise, this.connectionManager.getActiveConnection());
+    }
+
+    @Test
+    public void testPromoteStandbyConnectionNotReady() {
+        final ChannelPromise activeConnectionPromise = newReadyConnectionPromise();
+        final ChannelPromise standbyConnectionPromise = new EmbeddedChannel().newPromise();
+
+        this.connectionManager.setActiveConnection(activeConnectionPromise);
+        this.connectionManager.setStandbyConnection(standbyConnectionPromise);
+
+        assertNull(this.connectionManager.promoteStandbyConnection());
+
+        assertSame(activeConnectionPromise, this.connectionManager.getActiveConnection());
+        assertEquals(ConnectionState.STANDBY, this.connectionManager.getState(standbyConnectionPromise));
+        assertTrue(activeConnectionPromise.channel().isOpen());
+    }
+
+    @Test
+    public void testPromoteStandbyConnectionWithoutActiveConnection() {
+        final ChannelPromise standbyConnectionPromise = newReadyConnectionPromise();
+
+        this.connectionManager.setStandbyConnection(standbyConnectionPromise);
+
+        assertSame(standbyConnectionPromise, this.connectionManager.promoteStandbyConnection());
+        assertSame(standbyConnectionPromise, this.connectionManager.getActiveConnection());
+    }
+
+    @Test
+    public void testStartRecycling() {
+        final ChannelPromise activeConnectionPromise = newReadyConnectionPromise();
+        final ChannelPromise standbyConnectionPromise = new EmbeddedChannel().newPromise();
+
+        this.connectionManager.setActiveConnection(activeConnectionPromise);
+
+        assertFalse(this.connectionManager.startRecycling(newReadyConnectionPromise()));
+        assertFalse(this.connectionManager.isRecyclingActiveConnection());
+
+        assertTrue(this.connectionManager.startRecycling(activeConnectionPromise));
+        assertTrue(this.connectionManager.isRecyclingActiveConnection());
+
+        // Asking to replace a connection that's already being replaced shouldn't start another replacement.
+        assertFalse(this.connectionManager.startRecycling(activeConnectionPromise));
+
+        // The connection being recycled stays active until its replacement is ready.
+        this.connectionManager.setStandbyConnection(standbyConnectionPromise);
+
+        assertNull(this.connectionManager.promoteStandbyConnection());
+        assertSame(activeConnectionPromise, this.connectionManager.getActiveConnection());
+        assertTrue(this.connectionManager.isRecyclingActiveConnection());
+
+        standbyConnectionPromise.setSuccess();
+
+        assertSame(standbyConnectionPromise, this.connectionManager.promoteStandbyConnection());
+        assertFalse(this.connectionManager.isRecyclingActiveConnection());
+        assertEquals(ConnectionState.RETIRING, this.connectionManager.getState(activeConnectionPromise));
+    }
+
+    @Test
+    public void testRetireActiveConnection() {
+        // This is what happens when the active connection receives a GOAWAY frame and no standby connection is ready.
+        final ChannelPromise activeConnectionPromise = newReadyConnectionPromise();
+
+        this.connectionManager.setActiveConnection(activeConnectionPromise);
+        this.connectionManager.startRecycling(activeConnectionPromise);
+
+        assertSame(activeConnectionPromise, this.connectionManager.retireActiveConnection());
+
+        assertNull(this.connectionManager.getActiveConnection());
+        assertFalse(this.connectionManager.isRecyclingActiveConnection());
+        assertEquals(ConnectionState.RETIRING, this.connectionManager.getState(activeConnectionPromise));
+
+        ((EmbeddedChannel) activeConnectionPromise.channel()).runPendingTasks();
+
+        assertFalse(activeConnectionPromise.channel().isOpen());
+        assertEquals(ConnectionState.RETIRING, this.connectionManager.handleConnectionClosed(activeConnectionPromise));
+
+        // A new connection can take over right away.
+        final ChannelPromise replacementConnectionPromise = newReadyConnectionPromise();
+        this.connectionManager.setActiveConnection(replacementConnectionPromise);
+
+        assertSame(replacementConnectionPromise, this.connectionManager.getActiveConnection());
+    }
+
+    @Test
+    public void testRetireActiveConnectionWithoutActiveConnection() {
+        assertNull(this.connectionManager.retireActiveConnection());
+    }
+
+    @Test
+    public void testHandleConnectionClosed() {
+        final ChannelPromise activeConnectionPromise = newReadyConnectionPromise();
+        final ChannelPromise standbyConnectionPromise = newReadyConnectionPromise();
+
+        this.connectionManager.setActiveConnection(activeConnectionPromise);
+        this.connectionManager.setStandbyConnection(standbyConnectionPromise);
+        this.connectionManager.startRecycling(activeConnectionPromise);
+
+        assertEquals(ConnectionState.STANDBY, this.connectionManager.handleConnectionClosed(standbyConnectionPromise));
+        assertNull(this.connectionManager.getStandbyConnection());
+
+        assertEquals(ConnectionState.ACTIVE, this.connectionManager.handleConnectionClosed(activeConnectionPromise));
+        assertNull(this.connectionManager.getActiveConnection());
+        assertFalse(this.connectionManager.isRecyclingActiveConnection());
+
+        assertEquals(ConnectionState.NONE, this.connectionManager.handleConnectionClosed(activeConnectionPromise));
+    }
+
+    @Test
+    public void testCloseAll() {
+        final ChannelPromise retiredConnectionPromise = newReadyConnectionPromise();
+        final ChannelPromise activeConnectionPromise = newReadyConnectionPromise();
+        final ChannelPromise standbyConnectionPromise = newReadyConnectionPromise();
+
+        this.connectionManager.setActiveConnection(retiredConnectionPromise);
+        this.connectionManager.setStandbyConnection(activeConnectionPromise);
+        this.connectionManager.promoteStandbyConnection();
+        this.connectionManager.setStandbyConnection(standbyConnectionPromise);
+
+        final ChannelFuture closeFuture = this.connectionManager.closeAll();
+
+        assertTrue(closeFuture.isDone());
+        assertFalse(retiredConnectionPromise.channel().isOpen());
+        assertFalse(activeConnectionPromise.channel().isOpen());
+        assertFalse(standbyConnectionPromise.channel().isOpen());
+
+        // The standby connection's closure shouldn't look like an unexpected one, but the active connection's should
+        // still get handled normally.
+        assertNull(this.connectionManager.getStandbyConnection());
+        assertEquals(ConnectionState.ACTIVE, this.connectionManager.getState(activeConnectionPromise));
+    }
+
+    @Test
+    public void testCloseAllWithoutConnections() {
+        assertNull(this.connectionManager.closeAll());
+    }
+
+    private static ChannelPromise newReadyConnectionPromise() {
+        return new EmbeddedChannel().newPromise().setSuccess();
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2013-2017 Turo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.turo.pushy.apns;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class DeviceTokenRateLimiterTest {
+
+    private static final String TOKEN = "00112233445566778899aabbccddeeff00112233445566778899aabbccddeeff";
+    private static final String OTHER_TOKEN = "ffeeddccbbaa99887766554433221100ffeeddccbbaa99887766554433221100";
+
+    private static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDeviceTokenRateLimiterZeroNotifications() {
+        new DeviceTokenRateLimiter(0, 1, TimeUnit.SECONDS);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDeviceTokenRateLimiterTooManyNotifications() {
+        new DeviceTokenRateLimiter(DeviceTokenRateLimiter.MAX_NOTIFICATIONS_PER_WINDOW + 1, 1, TimeUnit.SECONDS);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDeviceTokenRateLimiterZeroWindow() {
+        new DeviceTokenRateLimiter(1, 0, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testTryAcquire() {
+        final DeviceTokenRateLimiter rateLimiter = new DeviceTokenRateLimiter(2, WINDOW_NANOS, TimeUnit.NANOSECONDS);
+        final long start = 10 * WINDOW_NANOS;
+
+        assertTrue(rateLimiter.tryAcquire(TOKEN, start));
+        assertTrue(rateLimiter.tryAcquire(TOKEN, start + 1));
+        assertFalse(rateLimiter.tryAcquire(TOKEN, start + 2));
+
+        // Other device tokens have their own limits
+        assertTrue(rateLimiter.tryAcquire(OTHER_TOKEN, start + 2));
+    }
+
+    @Test
+    public void testTryAcquireIgnoresCase() {
+        final DeviceTokenRateLimiter rateLimiter = new DeviceTokenRateLimiter(1, WINDOW_NANOS, TimeUnit.NANOSECONDS);
+        final long start = 10 * WINDOW_NANOS;
+
+        assertTrue(rateLimiter.tryAcquire(TOKEN, start));
+        assertFalse(rateLimiter.tryAcquire(TOKEN.toUpperCase(), start + 1));
+    }
+
+    @Test
+    public void testTryAcquireRejectionsNotCounted() {
+        final DeviceTokenRateLimiter rateLimiter = new DeviceTokenRateLimiter(2, WINDOW_NANOS, TimeUnit.NANOSECONDS);
+        final long start = 10 * WINDOW_NANOS;
+
+        assertTrue(rateLimiter.tryAcquire(TOKEN, start));
+        assertTrue(rateLimiter.tryAcquire(TOKEN, start + 1));
+
+        for (int i = 0; i < 10; i++) {
+            assertFalse(rateLimiter.tryAcquire(TOKEN, start + 2));
+        }
+
+        // Halfway through the next window, only one of the two notifications from the previous window still counts
+        assertTrue(rateLimiter.tryAcquire(TOKEN, start + WINDOW_NANOS + (WINDOW_NANOS / 2)));
+    }
+
+    @Test
+    public void testTryAcquireConcurrently() throws Exception {
+        final int maxNotifications = 100;
+        final DeviceTokenRateLimiter rateLimiter = new DeviceTokenRateLimiter(maxNotifications, 1, TimeUnit.DAYS);
+
+        final AtomicInteger acquired = new AtomicInteger(0);
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        final Thread[] threads = new Thread[8];
+
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        startLatch.await();
+                    } catch (final InterruptedException e) {
+                        return;
+                    }
+
+                    for (int j = 0; j < maxNotifications; j++) {
+                        if (rateLimiter.tryAcquire(TOKEN)) {
+                            acquired.incrementAndGet();
+                        }
+                    }
+                }
+            });
+
+            threads[i].start();
+        }
+
+        startLatch.countDown();
+
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+
+        assertTrue(acquired.get() <= maxNotifications);
+    }
+
+    @Test
+    public void testTryAcquireSlidingWindow() {
+        final DeviceTokenRateLimiter rateLimiter = new DeviceTokenRateLimiter(2, WINDOW_NANOS, TimeUnit.NANOSECONDS);
+        final long start = 10 * WINDOW_NANOS;
+
+        assertTrue(rateLimiter.tryAcquire(TOKEN, start));
+        assertTrue(rateLimiter.tryAcquire(TOKEN, start + 1));
+
+        // A quarter of the way into the next window, three quarters of the previous window's notifications still count
+        assertFalse(rateLimiter.tryAcquire(TOKEN, start + WINDOW_NANOS + (WINDOW_NANOS / 4)));
+
+        // ...but by the end of the next window, almost none of them do
+        assertTrue(rateLimiter.tryAcquire(TOKEN, start + (2 * WINDOW_NANOS) - 1));
+
+        // After a full idle window, nothing from the old windows counts at all
+        assertTrue(rateLimiter.tryAcquire(TOKEN, start + (4 * WINDOW_NANOS)));
+        assertTrue(rateLimiter.tryAcquire(TOKEN, start + (4 * WINDOW_NANOS)));
+        assertFalse(rateLimiter.tryAcquire(TOKEN, start + (4 * WINDOW_NANOS)));
+    }
+
+    @Test
+    public void testTryAcquireNegativeNanoTime() {
+        final DeviceTokenRateLimiter rateLimiter = new DeviceTokenRateLimiter(1, WINDOW_NANOS, TimeUnit.NANOSECONDS);
+        final long start = -10 * WINDOW_NANOS;
+
+        assertTrue(rateLimiter.tryAcquire(TOKEN, start));
+        assertFalse(rateLimiter.tryAcquire(TOKEN, start + (WINDOW_NANOS / 2)));
+        assertTrue(rateLimiter.tryAcquire(TOKEN, start + (2 * WINDOW_NANOS)));
+    }
+}
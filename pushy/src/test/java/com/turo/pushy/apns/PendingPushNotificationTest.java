@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2013-2017 Turo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.turo.pushy.apns;
+
+import com.turo.pushy.apns.util.SimpleApnsPushNotification;
+import io.netty.channel.nio.NioEventLoopGroup;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class PendingPushNotificationTest {
+
+    private static final String CLIENT_KEYSTORE_FILENAME = "/single-topic-client.p12";
+    private static final String KEYSTORE_PASSWORD = "pushy-test";
+
+    private static NioEventLoopGroup EVENT_LOOP_GROUP;
+
+    private ApnsClient client;
+    private AtomicInteger failureCount;
+    private PushNotificationResponseListener<ApnsPushNotification> responseListener;
+
+    @BeforeClass
+    public static void setUpBeforeClass() throws Exception {
+        EVENT_LOOP_GROUP = new NioEventLoopGroup(1);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        try (final InputStream p12InputStream = this.getClass().getResourceAsStream(CLIENT_KEYSTORE_FILENAME)) {
+            this.client = new ApnsClientBuilder()
+                    .setEventLoopGroup(EVENT_LOOP_GROUP)
+                    .setClientCredentials(p12InputStream, KEYSTORE_PASSWORD)
+                    .build();
+        }
+
+        this.failureCount = new AtomicInteger(0);
+
+        this.responseListener = new PushNotificationResponseListener<ApnsPushNotification>() {
+
+            @Override
+            public void handleResponse(final PushNotificationResponse<ApnsPushNotification> response) {
+            }
+
+            @Override
+            public void handleFailure(final ApnsPushNotification pushNotification, final Throwable cause) {
+                PendingPushNotificationTest.this.failureCount.incrementAndGet();
+            }
+        };
+    }
+
+    @AfterClass
+    public static void tearDownAfterClass() throws Exception {
+        EVENT_LOOP_GROUP.shutdownGracefully().await();
+    }
+
+    @Test
+    public void testReference() {
+        final PendingPushNotification pendingPushNotification = this.newPendingPushNotification();
+        final PendingPushNotification.Reference reference = pendingPushNotification.newReference();
+
+        assertSame(pendingPushNotification, reference.get());
+
+        // Completing the notification returns it to the pool
+        assertTrue(pendingPushNotification.tryFailure(new IOException()));
+        assertEquals(1, this.failureCount.get());
+
+        assertNull(reference.get());
+
+        // References to the next notification to use the same instance should work normally
+        final PendingPushNotification recycledPushNotification = this.newPendingPushNotification();
+        final PendingPushNotification.Reference recycledReference = recycledPushNotification.newReference();
+
+        assertSame(recycledPushNotification, recycledReference.get());
+        assertNull(reference.get());
+    }
+
+    private PendingPushNotification newPendingPushNotification() {
+        return PendingPushNotification.newInstance(this.client, new NoopMetricsListener(),
+                new SimpleApnsPushNotification("token", "topic", "payload"), 0, this.responseListener, null);
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2013-2017 Turo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.turo.pushy.apns;
+
+import com.turo.pushy.apns.util.SimpleApnsPushNotification;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
+import static org.junit.Assert.*;
+
+public class PushNotificationValidatorTest {
+
+    private static final String TOKEN = "00112233445566778899aabbccddeeff00112233445566778899AABBCCDDEEFF";
+    private static final String TOPIC = "com.relayrides.pushy";
+    private static final String PAYLOAD = "{\"aps\":{\"alert\":\"Hello\"}}";
+
+    private static final int MAXIMUM_PAYLOAD_SIZE = 4096;
+
+    @Test
+    public void testGetRejectionReasonForValidNotification() {
+        assertNull(PushNotificationValidator.getRejectionReason(
+                new SimpleApnsPushNotification(TOKEN, TOPIC, PAYLOAD), MAXIMUM_PAYLOAD_SIZE, true));
+    }
+
+    @Test
+    public void testGetRejectionReasonForBadToken() {
+        assertEquals(PushNotificationValidator.BAD_DEVICE_TOKEN_REASON, PushNotificationValidator.getRejectionReason(
+                new SimpleApnsPushNotification("<" + TOKEN + ">", TOPIC, PAYLOAD), MAXIMUM_PAYLOAD_SIZE, true));
+
+        assertEquals(PushNotificationValidator.MISSING_DEVICE_TOKEN_REASON, PushNotificationValidator.getRejectionReason(
+                new SimpleApnsPushNotification("", TOPIC, PAYLOAD), MAXIMUM_PAYLOAD_SIZE, true));
+    }
+
+    @Test
+    public void testGetRejectionReasonForMissingTopic() {
+        final ApnsPushNotification pushNotification = new ApnsPushNotification() {
+            @Override
+            public String getToken() {
+                return TOKEN;
+            }
+
+            @Override
+            public String getPayload() {
+                return PAYLOAD;
+            }
+
+            @Override
+            public Date getExpiration() {
+                return null;
+            }
+
+            @Override
+            public DeliveryPriority getPriority() {
+                return null;
+            }
+
+            @Override
+            public String getTopic() {
+                return null;
+            }
+
+            @Override
+            public String getCollapseId() {
+                return null;
+            }
+        };
+
+        assertEquals(PushNotificationValidator.MISSING_TOPIC_REASON,
+                PushNotificationValidator.getRejectionReason(pushNotification, MAXIMUM_PAYLOAD_SIZE, true));
+
+        // Clients whose certificate covers a single topic may leave the topic out.
+        assertNull(PushNotificationValidator.getRejectionReason(pushNotification, MAXIMUM_PAYLOAD_SIZE, false));
+    }
+
+    @Test
+    public void testGetRejectionReasonForOversizedPayload() {
+        // Each of these characters takes three bytes in UTF-8
+        final String payload = new String(new char[(MAXIMUM_PAYLOAD_SIZE / 3) + 1]).replace('\0', '☃');
+
+        assertEquals(PushNotificationValidator.PAYLOAD_TOO_LARGE_REASON, PushNotificationValidator.getRejectionReason(
+                new SimpleApnsPushNotification(TOKEN, TOPIC, payload), MAXIMUM_PAYLOAD_SIZE, true));
+    }
+
+    @Test
+    public void testGetRejectionReasonForOversizedCollapseId() {
+        final String collapseId = new String(new char[65]).replace('\0', 'x');
+
+        assertEquals(PushNotificationValidator.BAD_COLLAPSE_ID_REASON, PushNotificationValidator.getRejectionReason(
+                new SimpleApnsPushNotification(TOKEN, TOPIC, PAYLOAD, null, null, collapseId), MAXIMUM_PAYLOAD_SIZE, true));
+    }
+
+    @Test
+    public void testGetUtf8Length() {
+        final String[] strings = new String[] {
+                "",
+                "Hello",
+                "Café",
+                "☃ snowman",
+                "😀 emoji",
+                "unpaired \ud83d surrogate",
+        };
+
+        for (final String string : strings) {
+            assertEquals(string.getBytes(StandardCharsets.UTF_8).length,
+                    PushNotificationValidator.getUtf8Length(string, Integer.MAX_VALUE));
+        }
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2013-2017 Turo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.turo.pushy.apns;
+
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ServerAddressSelectorTest {
+
+    private static final String HOST = "api.push.apple.com";
+    private static final int PORT = 443;
+
+    private static final long CACHE_TTL_NANOS = TimeUnit.MINUTES.toNanos(1);
+    private static final long BLACKLIST_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    private static class TestServerAddressSelector extends ServerAddressSelector {
+
+        private InetAddress[] addresses;
+        private int resolutionCount = 0;
+
+        private TestServerAddressSelector(final InetAddress... addresses) {
+            super(CACHE_TTL_NANOS, BLACKLIST_NANOS);
+            this.addresses = addresses;
+        }
+
+        @Override
+        InetAddress[] resolveAll(final String host) throws UnknownHostException {
+            this.resolutionCount++;
+
+            if (this.addresses == null) {
+                throw new UnknownHostException(host);
+            }
+
+            return this.addresses;
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testServerAddressSelectorNegativeTtl() {
+        new ServerAddressSelector(-1, BLACKLIST_NANOS);
+    }
+
+    @Test
+    public void testNextAddress() throws Exception {
+        final InetAddress[] addresses = getTestAddresses(3);
+        final TestServerAddressSelector selector = new TestServerAddressSelector(addresses);
+        final long start = System.nanoTime();
+
+        selector.resolve(HOST, start);
+
+        final Set<InetAddress> selectedAddresses = new HashSet<>();
+        final InetSocketAddress firstAddress = selector.nextAddress(HOST, PORT, start);
+
+        selectedAddresses.add(firstAddress.getAddress());
+        selectedAddresses.add(selector.nextAddress(HOST, PORT, start).getAddress());
+        selectedAddresses.add(selector.nextAddress(HOST, PORT, start).getAddress());
+
+        // Every address should get a turn before any address gets a second one.
+        assertEquals(3, selectedAddresses.size());
+        assertEquals(firstAddress.getAddress(), selector.nextAddress(HOST, PORT, start).getAddress());
+
+        // Selected addresses keep the original hostname and port.
+        assertEquals(HOST, firstAddress.getHostString());
+        assertEquals(PORT, firstAddress.getPort());
+    }
+
+    @Test
+    public void testNextAddressNeverResolves() throws Exception {
+        final TestServerAddressSelector selector = new TestServerAddressSelector(getTestAddresses(3));
+        final long start = System.nanoTime();
+
+        assertNull(selector.nextAddress(HOST, PORT, start));
+
+        selector.resolve(HOST, start);
+
+        // Expired addresses are still better than no addresses at all while waiting for a new resolution.
+        assertNotNull(selector.nextAddress(HOST, PORT, start + CACHE_TTL_NANOS));
+        assertEquals(1, selector.resolutionCount);
+    }
+
+    @Test
+    public void testNeedsResolution() throws Exception {
+        final TestServerAddressSelector selector = new TestServerAddressSelector(getTestAddresses(3));
+        final long start = System.nanoTime();
+
+        assertTrue(selector.needsResolution(HOST, start));
+
+        selector.resolve(HOST, start);
+
+        assertFalse(selector.needsResolution(HOST, start + CACHE_TTL_NANOS - 1));
+        assertTrue(selector.needsResolution(HOST, start + CACHE_TTL_NANOS));
+    }
+
+    @Test(expected = UnknownHostException.class)
+    public void testResolveUnresolvable() throws Exception {
+        final TestServerAddressSelector selector = new TestServerAddressSelector();
+        selector.addresses = null;
+
+        selector.resolve(HOST, System.nanoTime());
+    }
+
+    @Test
+    public void testResolveAfterResolutionFailure() throws Exception {
+        final InetAddress[] addresses = getTestAddresses(1);
+        final TestServerAddressSelector selector = new TestServerAddressSelector(addresses);
+        final long start = System.nanoTime();
+
+        selector.resolve(HOST, start);
+        selector.addresses = null;
+
+        // Previously-resolved addresses should still be used if the host can no longer be resolved.
+        selector.resolve(HOST, start + CACHE_TTL_NANOS);
+
+        assertFalse(selector.needsResolution(HOST, start + CACHE_TTL_NANOS));
+        assertEquals(addresses[0], selector.nextAddress(HOST, PORT, start + CACHE_TTL_NANOS).getAddress());
+    }
+
+    @Test
+    public void testHandleConnectionFailure() throws Exception {
+        final InetAddress[] addresses = getTestAddresses(2);
+        final TestServerAddressSelector selector = new TestServerAddressSelector(addresses);
+        final long start = System.nanoTime();
+
+        selector.resolve(HOST, start);
+
+        final InetAddress failedAddress = selector.nextAddress(HOST, PORT, start).getAddress();
+        selector.handleConnectionFailure(failedAddress, start);
+
+        for (int i = 0; i < 4; i++) {
+            assertNotEquals(failedAddress, selector.nextAddress(HOST, PORT, start).getAddress());
+        }
+
+        final Set<InetAddress> selectedAddresses = new HashSet<>();
+        selectedAddresses.add(selector.nextAddress(HOST, PORT, start + BLACKLIST_NANOS).getAddress());
+        selectedAddresses.add(selector.nextAddress(HOST, PORT, start + BLACKLIST_NANOS).getAddress());
+
+        assertTrue(selectedAddresses.contains(failedAddress));
+    }
+
+    @Test
+    public void testHandleConnectionFailureAllAddresses() throws Exception {
+        final InetAddress[] addresses = getTestAddresses(1);
+        final TestServerAddressSelector selector = new TestServerAddressSelector(addresses);
+        final long start = System.nanoTime();
+
+        selector.resolve(HOST, start);
+        selector.handleConnectionFailure(addresses[0], start);
+
+        // Trying an address that failed recently is better than not trying at all.
+        assertEquals(addresses[0], selector.nextAddress(HOST, PORT, start).getAddress());
+    }
+
+    private static InetAddress[] getTestAddresses(final int count) throws UnknownHostException {
+        final InetAddress[] addresses = new InetAddress[count];
+
+        for (int i = 0; i < count; i++) {
+            addresses[i] = InetAddress.getByAddress(HOST, new byte[] { 17, 0, 0, (byte) (i + 1) });
+        }
+
+        return addresses;
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2013-2017 Turo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.turo.pushy.apns;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ShardedApnsDispatcherTest {
+
+    private static final String TOKEN = "00112233445566778899aabbccddeeff00112233445566778899aabbccddeeff";
+    private static final int TOKEN_LENGTH = 32; // bytes
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testShardedApnsDispatcherNoClients() {
+        new ShardedApnsDispatcher(Collections.<ApnsClient>emptyList());
+    }
+
+    @Test
+    public void testGetLane() {
+        final int laneCount = 8;
+        final int lane = ShardedApnsDispatcher.getLane(TOKEN, laneCount);
+
+        assertTrue(lane >= 0 && lane < laneCount);
+        assertEquals(lane, ShardedApnsDispatcher.getLane(TOKEN, laneCount));
+        assertEquals(lane, ShardedApnsDispatcher.getLane(TOKEN.toUpperCase(), laneCount));
+
+        assertEquals(0, ShardedApnsDispatcher.getLane(null, laneCount));
+        assertEquals(0, ShardedApnsDispatcher.getLane(TOKEN, 1));
+    }
+
+    @Test
+    public void testGetLaneDistribution() {
+        final int laneCount = 8;
+        final int tokenCount = 8000;
+
+        final int[] tokensPerLane = new int[laneCount];
+
+        for (int i = 0; i < tokenCount; i++) {
+            tokensPerLane[ShardedApnsDispatcher.getLane(generateRandomDeviceToken(), laneCount)]++;
+        }
+
+        for (final int tokens : tokensPerLane) {
+            // Expect roughly 1,000 tokens per lane; this is a very generous margin
+            assertTrue(tokens > 500 && tokens < 1500);
+        }
+    }
+
+    private static String generateRandomDeviceToken() {
+        final byte[] tokenBytes = new byte[TOKEN_LENGTH];
+        new Random().nextBytes(tokenBytes);
+
+        final StringBuilder builder = new StringBuilder(TOKEN_LENGTH * 2);
+
+        for (final byte b : tokenBytes) {
+            builder.append(String.format("%02x", b));
+        }
+
+        return builder.toString();
+    }
+}
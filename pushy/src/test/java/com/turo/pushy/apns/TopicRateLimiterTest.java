@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2013-2017 Turo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.turo.pushy.apns;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class TopicRateLimiterTest {
+
+    private static final String TOPIC = "com.relayrides.pushy";
+    private static final String OTHER_TOPIC = "com.relayrides.pushy.voip";
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTopicRateLimiterZeroRate() {
+        new TopicRateLimiter(0, 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTopicRateLimiterZeroBurst() {
+        new TopicRateLimiter(1, 0);
+    }
+
+    @Test
+    public void testTryAcquire() {
+        final TopicRateLimiter rateLimiter = new TopicRateLimiter(1, 2);
+        final long start = System.nanoTime();
+
+        assertTrue(rateLimiter.tryAcquire(TOPIC, start));
+        assertTrue(rateLimiter.tryAcquire(TOPIC, start));
+        assertFalse(rateLimiter.tryAcquire(TOPIC, start));
+
+        // Other topics have their own buckets
+        assertTrue(rateLimiter.tryAcquire(OTHER_TOPIC, start));
+
+        assertFalse(rateLimiter.tryAcquire(TOPIC, start + TimeUnit.MILLISECONDS.toNanos(500)));
+        assertTrue(rateLimiter.tryAcquire(TOPIC, start + TimeUnit.SECONDS.toNanos(1)));
+        assertFalse(rateLimiter.tryAcquire(TOPIC, start + TimeUnit.SECONDS.toNanos(1)));
+
+        // Buckets never hold more than the maximum burst, no matter how long they've been idle
+        final long later = start + TimeUnit.MINUTES.toNanos(1);
+
+        assertTrue(rateLimiter.tryAcquire(TOPIC, later));
+        assertTrue(rateLimiter.tryAcquire(TOPIC, later));
+        assertFalse(rateLimiter.tryAcquire(TOPIC, later));
+    }
+}
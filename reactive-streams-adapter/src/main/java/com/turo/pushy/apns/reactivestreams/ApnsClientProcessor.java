@@ -0,0 +1,416 @@
+/*
+ * Copyright (c) 2013-2017 Turo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.turo.pushy.apns.reactivestreams;
+
+import com.turo.pushy.apns.ApnsClient;
+import com.turo.pushy.apns.ApnsPushNotification;
+import com.turo.pushy.apns.PushNotificationResponse;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.GenericFutureListener;
+import org.reactivestreams.Processor;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.ArrayDeque;
+import java.util.Objects;
+
+/**
+ * <p>A <a href="http://www.reactive-streams.org/">Reactive Streams</a> {@link Processor} that sends push notifications
+ * with an {@link ApnsClient} and publishes the responses from the APNs gateway. An {@code ApnsClientProcessor}
+ * subscribes to an upstream publisher of notifications, and requests new notifications from upstream only as earlier
+ * notifications are resolved by the gateway <em>and</em> as its own downstream subscriber signals demand for
+ * responses. This lets throughput regulate itself to whatever rate the client's connection can sustain without
+ * unbounded buffering in the client.</p>
+ *
+ * <p>Processors never have more notifications in flight than the client's connection has streams for (see
+ * {@link ApnsClient#getMaxConcurrentStreams()}), nor more than a fixed upper limit, and stop requesting notifications
+ * from upstream while the client isn't writable (see {@link ApnsClient#isWritable()}). Responses are published in the
+ * order in which the gateway resolves notifications, which may not match the order in which notifications were
+ * received from upstream.</p>
+ *
+ * <p>Each processor supports exactly one downstream subscriber; notifications are not requested from upstream until a
+ * downstream subscriber has subscribed and requested responses. Callers that are not interested in responses may
+ * subscribe a subscriber that requests {@code Long.MAX_VALUE} responses and ignores them.</p>
+ *
+ * <p>If any single notification could not be sent (i.e. the {@code Future} returned by
+ * {@link ApnsClient#sendNotification(ApnsPushNotification)} failed), the processor cancels its upstream subscription
+ * and signals the cause of the failure to its downstream subscriber as a terminal error. This includes failures that
+ * may well be temporary, like those caused by an open circuit breaker, an exhausted memory budget, a rate limit, or a
+ * lost connection; a processor that has failed cannot be restarted, and callers that want to keep sending after such
+ * a failure must subscribe a new processor (after waiting for the underlying problem to clear, for example). Rejections
+ * by the APNs gateway are not errors, and are published as ordinary responses. Responses may be published from the
+ * client's I/O threads, and downstream subscribers should not block in {@link Subscriber#onNext(Object)}.</p>
+ *
+ * <p>Callers using {@code java.util.concurrent.Flow} may adapt processors with the {@code FlowAdapters} class provided
+ * by later versions of the Reactive Streams library.</p>
+ *
+ * @param <T> the type of notification to be sent
+ *
+ * @author <a href="https://github.com/jchambers">Jon Chambers</a>
+ *
+ * @since 0.11
+ */
+public class ApnsClientProcessor<T extends ApnsPushNotification> implements Processor<T, PushNotificationResponse<T>> {
+
+    private final ApnsClient apnsClient;
+    private final int maxNotificationsInFlight;
+
+    private Subscription upstreamSubscription;
+    private Subscriber<? super PushNotificationResponse<T>> downstreamSubscriber;
+
+    private long downstreamDemand = 0;
+    private long requestedFromUpstream = 0;
+    private int notificationsInFlight = 0;
+
+    private final ArrayDeque<PushNotificationResponse<T>> pendingResponses = new ArrayDeque<>();
+
+    private boolean upstreamComplete = false;
+    private Throwable upstreamError;
+    private Throwable sendFailure;
+
+    private boolean upstreamCancelled = false;
+    private boolean waitingForWritability = false;
+
+    private boolean emitting = false;
+    private boolean downstreamTerminated = false;
+
+    private final GenericFutureListener<Future<PushNotificationResponse<T>>> responseListener =
+            new GenericFutureListener<Future<PushNotificationResponse<T>>>() {
+
+                @Override
+                public void operationComplete(final Future<PushNotificationResponse<T>> future) {
+                    ApnsClientProcessor.this.handleSendFutureComplete(future);
+                }
+            };
+
+    private final GenericFutureListener<Future<Void>> writabilityListener = new GenericFutureListener<Future<Void>>() {
+
+        @Override
+        public void operationComplete(final Future<Void> future) {
+            synchronized (ApnsClientProcessor.this) {
+                ApnsClientProcessor.this.waitingForWritability = false;
+            }
+
+            // If the client disconnected instead, the next notification we send will fail and end the stream.
+            ApnsClientProcessor.this.drain();
+        }
+    };
+
+    private final Subscription downstreamSubscription = new Subscription() {
+
+        @Override
+        public void request(final long n) {
+            ApnsClientProcessor.this.handleDownstreamRequest(n);
+        }
+
+        @Override
+        public void cancel() {
+            ApnsClientProcessor.this.handleDownstreamCancellation();
+        }
+    };
+
+    /**
+     * The default maximum number of notifications a processor will keep in flight at any time.
+     */
+    public static final int DEFAULT_MAX_NOTIFICATIONS_IN_FLIGHT = 1000;
+
+    /**
+     * Constructs a new processor that sends notifications with the given client and keeps no more than
+     * {@value ApnsClientProcessor#DEFAULT_MAX_NOTIFICATIONS_IN_FLIGHT} notifications in flight at a time.
+     *
+     * @param apnsClient the client with which to send notifications
+     */
+    public ApnsClientProcessor(final ApnsClient apnsClient) {
+        this(apnsClient, DEFAULT_MAX_NOTIFICATIONS_IN_FLIGHT);
+    }
+
+    /**
+     * Constructs a new processor that sends notifications with the given client and keeps no more than the given number
+     * of notifications in flight at a time (or fewer, if the client's connection has fewer streams available).
+     *
+     * @param apnsClient the client with which to send notifications
+     * @param maxNotificationsInFlight the maximum number of notifications to keep in flight at any time; must be
+     * positive
+     */
+    public ApnsClientProcessor(final ApnsClient apnsClient, final int maxNotificationsInFlight) {
+        Objects.requireNonNull(apnsClient, "APNs client must not be null.");
+
+        if (maxNotificationsInFlight <= 0) {
+            throw new IllegalArgumentException("Maximum notifications in flight must be positive.");
+        }
+
+        this.apnsClient = apnsClient;
+        this.maxNotificationsInFlight = maxNotificationsInFlight;
+    }
+
+    @Override
+    public void subscribe(final Subscriber<? super PushNotificationResponse<T>> subscriber) {
+        Objects.requireNonNull(subscriber, "Subscriber must not be null.");
+
+        final boolean accepted;
+
+        synchronized (this) {
+            accepted = this.downstreamSubscriber == null;
+
+            if (accepted) {
+                this.downstreamSubscriber = subscriber;
+            }
+        }
+
+        if (accepted) {
+            subscriber.onSubscribe(this.downstreamSubscription);
+            this.drain();
+        } else {
+            subscriber.onSubscribe(new Subscription() {
+                @Override
+                public void request(final long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+
+            subscriber.onError(new IllegalStateException("ApnsClientProcessor supports only one subscriber."));
+        }
+    }
+
+    @Override
+    public void onSubscribe(final Subscription subscription) {
+        Objects.requireNonNull(subscription, "Subscription must not be null.");
+
+        final boolean accepted;
+
+        synchronized (this) {
+            accepted = this.upstreamSubscription == null && !this.downstreamTerminated;
+
+            if (accepted) {
+                this.upstreamSubscription = subscription;
+            }
+        }
+
+        if (accepted) {
+            this.drain();
+        } else {
+            subscription.cancel();
+        }
+    }
+
+    @Override
+    public void onNext(final T notification) {
+        Objects.requireNonNull(notification, "Notification must not be null.");
+
+        synchronized (this) {
+            this.notificationsInFlight++;
+        }
+
+        this.apnsClient.sendNotification(notification).addListener(this.responseListener);
+    }
+
+    @Override
+    public void onError(final Throwable throwable) {
+        Objects.requireNonNull(throwable, "Throwable must not be null.");
+
+        synchronized (this) {
+            this.upstreamComplete = true;
+            this.upstreamError = throwable;
+        }
+
+        this.drain();
+    }
+
+    @Override
+    public void onComplete() {
+        synchronized (this) {
+            this.upstreamComplete = true;
+        }
+
+        this.drain();
+    }
+
+    private void handleSendFutureComplete(final Future<PushNotificationResponse<T>> future) {
+        synchronized (this) {
+            if (future.isSuccess()) {
+                this.pendingResponses.add(future.getNow());
+            } else {
+                this.notificationsInFlight--;
+
+                if (this.sendFailure == null) {
+                    this.sendFailure = future.cause();
+                }
+            }
+        }
+
+        this.drain();
+    }
+
+    private void handleDownstreamRequest(final long n) {
+        synchronized (this) {
+            if (n <= 0) {
+                if (this.sendFailure == null) {
+                    this.sendFailure = new IllegalArgumentException("Subscribers must request a positive number of elements (see rule 3.9).");
+                }
+            } else {
+                this.downstreamDemand += n;
+
+                if (this.downstreamDemand < 0) {
+                    // Overflow; per rule 3.17, treat this as an effectively unbounded demand
+                    this.downstreamDemand = Long.MAX_VALUE;
+                }
+            }
+        }
+
+        this.drain();
+    }
+
+    private void handleDownstreamCancellation() {
+        synchronized (this) {
+            this.downstreamTerminated = true;
+            this.pendingResponses.clear();
+        }
+
+        this.drain();
+    }
+
+    /**
+     * Returns the number of additional notifications to request from upstream right now. Every notification we request
+     * from upstream should have a stream on the client's connection and demand waiting downstream for its response. If
+     * the client isn't connected, notifications will fail right away, and so there's no reason to request them any
+     * faster than one at a time. Callers must hold this processor's lock.
+     */
+    private long getUpstreamRequestSize() {
+        if (this.upstreamSubscription == null || this.upstreamCancelled || this.upstreamComplete ||
+                this.downstreamTerminated || this.sendFailure != null || this.waitingForWritability) {
+
+            return 0;
+        }
+
+        final int maxConcurrentStreams = this.apnsClient.getMaxConcurrentStreams();
+        final long window = maxConcurrentStreams > 0 ? Math.min(maxConcurrentStreams, this.maxNotificationsInFlight) : 1;
+
+        return Math.min(window, this.downstreamDemand) - this.requestedFromUpstream;
+    }
+
+    /**
+     * Signals whatever needs signalling, both upstream and downstream. Only one thread drains at a time, and that thread
+     * is the only one that ever calls the upstream subscription's methods, so calls to the upstream subscription are
+     * always serial (see rule 2.7) even though they may be triggered by downstream requests and by the client's I/O
+     * threads at the same time.
+     */
+    private void drain() {
+        synchronized (this) {
+            if (this.emitting) {
+                // Whoever is already emitting will pick up any new state before giving up the emitter role.
+                return;
+            }
+
+            this.emitting = true;
+        }
+
+        while (true) {
+            final Subscriber<? super PushNotificationResponse<T>> subscriber;
+            Subscription subscriptionToCancel = null;
+            Subscription subscriptionToRequest = null;
+            long upstreamRequestSize = 0;
+            boolean waitForWritability = false;
+            PushNotificationResponse<T> response = null;
+            Throwable error = null;
+            boolean complete = false;
+
+            synchronized (this) {
+                subscriber = this.downstreamSubscriber;
+
+                if (this.upstreamSubscription != null && !this.upstreamCancelled && !this.upstreamComplete &&
+                        (this.sendFailure != null || this.downstreamTerminated)) {
+
+                    this.upstreamCancelled = true;
+                    subscriptionToCancel = this.upstreamSubscription;
+                } else if (this.getUpstreamRequestSize() > 0) {
+                    if (this.apnsClient.isConnected() && !this.apnsClient.isWritable()) {
+                        // We'll request more once the client is writable again.
+                        this.waitingForWritability = true;
+                        waitForWritability = true;
+                    } else {
+                        upstreamRequestSize = this.getUpstreamRequestSize();
+                        this.requestedFromUpstream += upstreamRequestSize;
+
+                        subscriptionToRequest = this.upstreamSubscription;
+                    }
+                }
+            }
+
+            if (subscriptionToCancel != null) {
+                subscriptionToCancel.cancel();
+                continue;
+            } else if (subscriptionToRequest != null) {
+                subscriptionToRequest.request(upstreamRequestSize);
+                continue;
+            } else if (waitForWritability) {
+                this.apnsClient.getWritabilityFuture().addListener(this.writabilityListener);
+                continue;
+            }
+
+            synchronized (this) {
+                if (subscriber == null || this.downstreamTerminated) {
+                    this.emitting = false;
+                    return;
+                }
+
+                if (this.sendFailure != null) {
+                    this.downstreamTerminated = true;
+                    this.pendingResponses.clear();
+
+                    error = this.sendFailure;
+                } else if (!this.pendingResponses.isEmpty() && this.downstreamDemand > 0) {
+                    response = this.pendingResponses.poll();
+
+                    this.notificationsInFlight--;
+                    this.requestedFromUpstream--;
+
+                    if (this.downstreamDemand != Long.MAX_VALUE) {
+                        this.downstreamDemand--;
+                    }
+                } else if (this.upstreamComplete && this.notificationsInFlight == 0) {
+                    this.downstreamTerminated = true;
+
+                    if (this.upstreamError != null) {
+                        error = this.upstreamError;
+                    } else {
+                        complete = true;
+                    }
+                } else {
+                    this.emitting = false;
+                    return;
+                }
+            }
+
+            if (response != null) {
+                subscriber.onNext(response);
+            } else if (error != null) {
+                subscriber.onError(error);
+            } else if (complete) {
+                subscriber.onComplete();
+            }
+        }
+    }
+}
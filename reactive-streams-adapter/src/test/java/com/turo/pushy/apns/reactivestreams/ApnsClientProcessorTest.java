@@ -0,0 +1,344 @@
+/*
+ * Copyright (c) 2013-2017 Turo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.turo.pushy.apns.reactivestreams;
+
+import com.turo.pushy.apns.*;
+import com.turo.pushy.apns.auth.ApnsSigningKey;
+import com.turo.pushy.apns.auth.ApnsVerificationKey;
+import com.turo.pushy.apns.util.SimpleApnsPushNotification;
+import io.netty.channel.nio.NioEventLoopGroup;
+import org.junit.*;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.io.File;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.SecureRandom;
+import java.security.interfaces.ECPrivateKey;
+import java.security.interfaces.ECPublicKey;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ApnsClientProcessorTest {
+
+    private static NioEventLoopGroup EVENT_LOOP_GROUP;
+
+    private static final String CA_CERTIFICATE_FILENAME = "/ca.pem";
+    private static final String SERVER_CERTIFICATES_FILENAME = "/server-certs.pem";
+    private static final String SERVER_KEY_FILENAME = "/server-key.pem";
+
+    private static File CA_CERTIFICATE;
+
+    private static final String HOST = "localhost";
+    private static final int PORT = 8443;
+
+    private static final String TEAM_ID = "team-id";
+    private static final String KEY_ID = "key-id";
+    private static final String TOPIC = "com.relayrides.pushy";
+    private static final String DEVICE_TOKEN = generateRandomDeviceToken();
+    private static final String PAYLOAD = "{\"aps\":{\"alert\":\"Hello\"}}";
+
+    private static final int TOKEN_LENGTH = 32; // bytes
+
+    private MockApnsServer server;
+    private ApnsClient client;
+
+    private static class IterablePublisher<E> implements Publisher<E> {
+
+        private final Iterator<E> iterator;
+
+        private IterablePublisher(final Iterable<E> iterable) {
+            this.iterator = iterable.iterator();
+        }
+
+        @Override
+        public void subscribe(final Subscriber<? super E> subscriber) {
+            subscriber.onSubscribe(new Subscription() {
+
+                private long demand = 0;
+                private boolean emitting = false;
+                private boolean done = false;
+
+                @Override
+                public void request(final long n) {
+                    synchronized (this) {
+                        this.demand += n;
+
+                        if (this.emitting) {
+                            return;
+                        }
+
+                        this.emitting = true;
+                    }
+
+                    while (true) {
+                        final E element;
+
+                        synchronized (this) {
+                            if (this.done || this.demand == 0) {
+                                this.emitting = false;
+                                return;
+                            }
+
+                            if (!IterablePublisher.this.iterator.hasNext()) {
+                                this.done = true;
+                                element = null;
+                            } else {
+                                this.demand--;
+                                element = IterablePublisher.this.iterator.next();
+                            }
+                        }
+
+                        if (element != null) {
+                            subscriber.onNext(element);
+                        } else {
+                            subscriber.onComplete();
+                        }
+                    }
+                }
+
+                @Override
+                public synchronized void cancel() {
+                    this.done = true;
+                }
+            });
+        }
+    }
+
+    private static class CollectingSubscriber<E> implements Subscriber<E> {
+
+        private final long initialRequest;
+
+        private final List<E> elements = new ArrayList<>();
+        private Throwable error;
+        private boolean complete = false;
+
+        private final CountDownLatch terminalSignalLatch = new CountDownLatch(1);
+
+        private CollectingSubscriber(final long initialRequest) {
+            this.initialRequest = initialRequest;
+        }
+
+        @Override
+        public void onSubscribe(final Subscription subscription) {
+            subscription.request(this.initialRequest);
+        }
+
+        @Override
+        public synchronized void onNext(final E element) {
+            this.elements.add(element);
+            this.notifyAll();
+        }
+
+        @Override
+        public synchronized void onError(final Throwable throwable) {
+            this.error = throwable;
+            this.terminalSignalLatch.countDown();
+        }
+
+        @Override
+        public synchronized void onComplete() {
+            this.complete = true;
+            this.terminalSignalLatch.countDown();
+        }
+
+        public synchronized void waitForElements(final int count) throws InterruptedException {
+            while (this.elements.size() < count) {
+                this.wait();
+            }
+        }
+
+        public boolean awaitTerminalSignal(final long timeout, final TimeUnit timeUnit) throws InterruptedException {
+            return this.terminalSignalLatch.await(timeout, timeUnit);
+        }
+    }
+
+    @BeforeClass
+    public static void setUpBeforeClass() throws Exception {
+        EVENT_LOOP_GROUP = new NioEventLoopGroup(4);
+        CA_CERTIFICATE = new File(ApnsClientProcessorTest.class.getResource(CA_CERTIFICATE_FILENAME).toURI());
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        final KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("EC");
+        keyPairGenerator.initialize(256, SecureRandom.getInstance("SHA1PRNG"));
+
+        final KeyPair keyPair = keyPairGenerator.generateKeyPair();
+
+        this.server = new MockApnsServerBuilder()
+                .setServerCredentials(ApnsClientProcessorTest.class.getResourceAsStream(SERVER_CERTIFICATES_FILENAME), ApnsClientProcessorTest.class.getResourceAsStream(SERVER_KEY_FILENAME), null)
+                .setTrustedClientCertificateChain(CA_CERTIFICATE)
+                .setEventLoopGroup(EVENT_LOOP_GROUP)
+                .build();
+
+        this.server.registerVerificationKey(new ApnsVerificationKey(KEY_ID, TEAM_ID, (ECPublicKey) keyPair.getPublic()), TOPIC);
+        this.server.registerDeviceTokenForTopic(TOPIC, DEVICE_TOKEN, null);
+        this.server.start(PORT).await();
+
+        this.client = new ApnsClientBuilder()
+                .setTrustedServerCertificateChain(CA_CERTIFICATE)
+                .setSigningKey(new ApnsSigningKey(KEY_ID, TEAM_ID, (ECPrivateKey) keyPair.getPrivate()))
+                .setEventLoopGroup(EVENT_LOOP_GROUP)
+                .build();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        this.client.disconnect().await();
+
+        // See ApnsClientTest#tearDown for an explanation of this sleep.
+        Thread.sleep(10);
+
+        this.server.shutdown().await();
+    }
+
+    @AfterClass
+    public static void tearDownAfterClass() throws Exception {
+        EVENT_LOOP_GROUP.shutdownGracefully().await();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testProcessorWithNonPositiveMaxInFlight() {
+        new ApnsClientProcessor<>(this.client, 0);
+    }
+
+    @Test
+    public void testSendNotifications() throws Exception {
+        this.client.connect(HOST, PORT).await();
+
+        final int acceptedNotificationCount = 1500;
+        final int rejectedNotificationCount = 500;
+
+        final List<SimpleApnsPushNotification> notifications = new ArrayList<>();
+
+        for (int i = 0; i < acceptedNotificationCount; i++) {
+            notifications.add(new SimpleApnsPushNotification(DEVICE_TOKEN, TOPIC, PAYLOAD));
+        }
+
+        for (int i = 0; i < rejectedNotificationCount; i++) {
+            notifications.add(new SimpleApnsPushNotification(generateRandomDeviceToken(), TOPIC, PAYLOAD));
+        }
+
+        final ApnsClientProcessor<SimpleApnsPushNotification> processor = new ApnsClientProcessor<>(this.client, 100);
+        final CollectingSubscriber<PushNotificationResponse<SimpleApnsPushNotification>> subscriber =
+                new CollectingSubscriber<>(Long.MAX_VALUE);
+
+        processor.subscribe(subscriber);
+        new IterablePublisher<>(notifications).subscribe(processor);
+
+        assertTrue(subscriber.awaitTerminalSignal(30, TimeUnit.SECONDS));
+        assertTrue(subscriber.complete);
+        assertNull(subscriber.error);
+
+        int accepted = 0;
+
+        for (final PushNotificationResponse<SimpleApnsPushNotification> response : subscriber.elements) {
+            if (response.isAccepted()) {
+                accepted++;
+            }
+        }
+
+        assertEquals(acceptedNotificationCount + rejectedNotificationCount, subscriber.elements.size());
+        assertEquals(acceptedNotificationCount, accepted);
+    }
+
+    @Test
+    public void testSendNotificationsWithLimitedDemand() throws Exception {
+        this.client.connect(HOST, PORT).await();
+
+        final List<SimpleApnsPushNotification> notifications = new ArrayList<>();
+
+        for (int i = 0; i < 20; i++) {
+            notifications.add(new SimpleApnsPushNotification(DEVICE_TOKEN, TOPIC, PAYLOAD));
+        }
+
+        final ApnsClientProcessor<SimpleApnsPushNotification> processor = new ApnsClientProcessor<>(this.client);
+        final CollectingSubscriber<PushNotificationResponse<SimpleApnsPushNotification>> subscriber =
+                new CollectingSubscriber<>(5);
+
+        processor.subscribe(subscriber);
+        new IterablePublisher<>(notifications).subscribe(processor);
+
+        subscriber.waitForElements(5);
+
+        // Give the processor a chance to (incorrectly) send more than the subscriber asked for
+        assertFalse(subscriber.awaitTerminalSignal(100, TimeUnit.MILLISECONDS));
+        assertEquals(5, subscriber.elements.size());
+    }
+
+    @Test
+    public void testSendNotificationsBeforeConnected() throws Exception {
+        final List<SimpleApnsPushNotification> notifications = new ArrayList<>();
+
+        for (int i = 0; i < 10; i++) {
+            notifications.add(new SimpleApnsPushNotification(DEVICE_TOKEN, TOPIC, PAYLOAD));
+        }
+
+        final ApnsClientProcessor<SimpleApnsPushNotification> processor = new ApnsClientProcessor<>(this.client);
+        final CollectingSubscriber<PushNotificationResponse<SimpleApnsPushNotification>> subscriber =
+                new CollectingSubscriber<>(Long.MAX_VALUE);
+
+        processor.subscribe(subscriber);
+        new IterablePublisher<>(notifications).subscribe(processor);
+
+        assertTrue(subscriber.awaitTerminalSignal(10, TimeUnit.SECONDS));
+        assertFalse(subscriber.complete);
+        assertTrue(subscriber.error instanceof ClientNotConnectedException);
+    }
+
+    @Test
+    public void testSecondSubscriber() throws Exception {
+        final ApnsClientProcessor<SimpleApnsPushNotification> processor = new ApnsClientProcessor<>(this.client);
+        processor.subscribe(new CollectingSubscriber<PushNotificationResponse<SimpleApnsPushNotification>>(1));
+
+        final CollectingSubscriber<PushNotificationResponse<SimpleApnsPushNotification>> secondSubscriber =
+                new CollectingSubscriber<>(1);
+
+        processor.subscribe(secondSubscriber);
+
+        assertTrue(secondSubscriber.awaitTerminalSignal(1, TimeUnit.SECONDS));
+        assertTrue(secondSubscriber.error instanceof IllegalStateException);
+    }
+
+    private static String generateRandomDeviceToken() {
+        final byte[] tokenBytes = new byte[TOKEN_LENGTH];
+        new Random().nextBytes(tokenBytes);
+
+        final StringBuilder builder = new StringBuilder(TOKEN_LENGTH * 2);
+
+        for (final byte b : tokenBytes) {
+            builder.append(String.format("%02x", b));
+        }
+
+        return builder.toString();
+    }
+}